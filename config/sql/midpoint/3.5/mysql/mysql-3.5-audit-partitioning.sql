@@ -0,0 +1,17 @@
+# Partitions audit tables by record ID, so that audit cleanup can drop whole partitions
+# (set auditPartitioning to true in repository configuration).
+# Partitions are then created and dropped by midPoint.
+#
+# Partitioned tables cannot have foreign keys in MySQL.
+
+ALTER TABLE m_audit_delta DROP FOREIGN KEY fk_audit_delta;
+
+ALTER TABLE m_audit_event
+PARTITION BY RANGE (id) (
+  PARTITION pmax VALUES LESS THAN MAXVALUE
+);
+
+ALTER TABLE m_audit_delta
+PARTITION BY RANGE (record_id) (
+  PARTITION pmax VALUES LESS THAN MAXVALUE
+);
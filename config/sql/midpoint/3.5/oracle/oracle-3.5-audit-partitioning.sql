@@ -0,0 +1,17 @@
+-- Partitions audit tables by record ID, so that audit cleanup can drop whole partitions
+-- (set auditPartitioning to true in repository configuration).
+-- Partitions are then created and dropped by midPoint.
+--
+-- Requires Oracle 12.2 or later. The foreign key has to be removed, as it would prevent dropping partitions.
+
+ALTER TABLE m_audit_delta DROP CONSTRAINT fk_audit_delta;
+
+ALTER TABLE m_audit_event MODIFY
+PARTITION BY RANGE (id) (
+  PARTITION pmax VALUES LESS THAN (MAXVALUE)
+) ONLINE;
+
+ALTER TABLE m_audit_delta MODIFY
+PARTITION BY RANGE (record_id) (
+  PARTITION pmax VALUES LESS THAN (MAXVALUE)
+) ONLINE;
@@ -0,0 +1,28 @@
+-- Partitions audit tables by record ID, so that audit cleanup can drop whole partitions
+-- (set auditPartitioning to true in repository configuration).
+-- Partitions are then created and dropped by midPoint.
+--
+-- Requires PostgreSQL 11 or later. The foreign key has to be removed, as it would prevent dropping partitions.
+-- Existing audit records are moved to the default partition; they are deleted by the cleanup in the usual way.
+
+ALTER TABLE m_audit_delta DROP CONSTRAINT fk_audit_delta;
+
+ALTER TABLE m_audit_event RENAME TO m_audit_event_old;
+ALTER TABLE m_audit_delta RENAME TO m_audit_delta_old;
+
+CREATE TABLE m_audit_event (LIKE m_audit_event_old INCLUDING DEFAULTS) PARTITION BY RANGE (id);
+CREATE TABLE m_audit_event_pmax PARTITION OF m_audit_event DEFAULT;
+
+CREATE TABLE m_audit_delta (LIKE m_audit_delta_old INCLUDING DEFAULTS) PARTITION BY RANGE (record_id);
+CREATE TABLE m_audit_delta_pmax PARTITION OF m_audit_delta DEFAULT;
+
+INSERT INTO m_audit_event SELECT * FROM m_audit_event_old;
+INSERT INTO m_audit_delta SELECT * FROM m_audit_delta_old;
+
+DROP TABLE m_audit_delta_old;
+DROP TABLE m_audit_event_old;
+
+ALTER TABLE m_audit_event ADD PRIMARY KEY (id);
+ALTER TABLE m_audit_delta ADD PRIMARY KEY (checksum, record_id);
+
+CREATE INDEX iTimestampValue ON m_audit_event (timestampValue);
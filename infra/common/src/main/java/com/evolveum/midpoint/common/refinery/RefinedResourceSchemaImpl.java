@@ -291,8 +291,20 @@ public class RefinedResourceSchemaImpl implements RefinedResourceSchema {
 						"in "+resource+", but got "+userDataEntry.getClass());
 			}
 		} else {
-			RefinedResourceSchema refinedSchema = parse(resource, prismContext);
-			resource.setUserData(USER_DATA_KEY_REFINED_SCHEMA, refinedSchema);
+			RefinedResourceSchema refinedSchema = ResourceSchemaCache.getRefinedSchema(resource, prismContext);
+			if (refinedSchema == null) {
+				refinedSchema = parse(resource, prismContext);
+				if (refinedSchema != null) {
+					ResourceSchemaCache.putRefinedSchema(resource, refinedSchema, prismContext);
+				}
+			}
+			if (!resource.isImmutable()) {
+				resource.setUserData(USER_DATA_KEY_REFINED_SCHEMA, refinedSchema);
+				if (refinedSchema != null) {
+					// the refined object class definitions are part of the resource schema (see parse method)
+					resource.setUserData(USER_DATA_KEY_PARSED_RESOURCE_SCHEMA, refinedSchema.getOriginalResourceSchema());
+				}
+			}
 			return refinedSchema;
 		}
 	}
@@ -329,13 +341,23 @@ public class RefinedResourceSchemaImpl implements RefinedResourceSchema {
 						USER_DATA_KEY_PARSED_RESOURCE_SCHEMA+ "in "+resource+", but got "+userDataEntry.getClass());
 			}
 		} else {
+			ResourceSchema cachedSchema = ResourceSchemaCache.getParsedSchema(resource, prismContext);
+			if (cachedSchema != null) {
+				if (!resource.isImmutable()) {
+					resource.setUserData(USER_DATA_KEY_PARSED_RESOURCE_SCHEMA, cachedSchema);
+				}
+				return cachedSchema;
+			}
 			InternalMonitor.recordResourceSchemaParse();
 			ResourceSchemaImpl parsedSchema = ResourceSchemaImpl.parse(resourceXsdSchema, "resource schema of "+resource, prismContext);
 			if (parsedSchema == null) {
 				throw new IllegalStateException("Parsed schema is null: most likely an internall error");
 			}
-			resource.setUserData(USER_DATA_KEY_PARSED_RESOURCE_SCHEMA, parsedSchema);
+			if (!resource.isImmutable()) {
+				resource.setUserData(USER_DATA_KEY_PARSED_RESOURCE_SCHEMA, parsedSchema);
+			}
 			parsedSchema.setNamespace(ResourceTypeUtil.getResourceNamespace(resource));
+			ResourceSchemaCache.putParsedSchema(resource, parsedSchema, prismContext);
 			return parsedSchema;
 		}
 	}
@@ -345,6 +367,9 @@ public class RefinedResourceSchemaImpl implements RefinedResourceSchema {
 			return;
 		}
 		PrismObject<ResourceType> resource = resourceType.asPrismObject();
+		if (resource.isImmutable()) {
+			return;
+		}
 		resource.setUserData(USER_DATA_KEY_PARSED_RESOURCE_SCHEMA, parsedSchema);
 	}
 
@@ -366,7 +391,8 @@ public class RefinedResourceSchemaImpl implements RefinedResourceSchema {
 
 		String contextDescription = "definition of "+resourceType;
 
-		RefinedResourceSchemaImpl rSchema = new RefinedResourceSchemaImpl(originalResourceSchema);
+		// refined definitions are added to the resource schema, so the parsed one (possibly shared) is not touched
+		RefinedResourceSchemaImpl rSchema = new RefinedResourceSchemaImpl(copyOf(originalResourceSchema));
 
 		SchemaHandlingType schemaHandling = resourceType.getSchemaHandling();
 		if (schemaHandling != null) {
@@ -469,6 +495,21 @@ public class RefinedResourceSchemaImpl implements RefinedResourceSchema {
 		((ResourceSchemaImpl) originalResourceSchema).add(rOcDef);			// TODO FIXME
 	}
 
+	private static ResourceSchemaImpl copyOf(ResourceSchema resourceSchema) {
+		ResourceSchemaImpl copy = new ResourceSchemaImpl(resourceSchema.getNamespace(), resourceSchema.getPrismContext());
+		for (Definition definition : resourceSchema.getDefinitions()) {
+			copy.add(definition);
+		}
+		return copy;
+	}
+
+	/**
+	 * Makes the schema read-only (no more object class definitions can be added). Used for shared schemas.
+	 */
+	void freeze() {
+		((ResourceSchemaImpl) originalResourceSchema).freeze();
+	}
+
 	//region Delegations
 	@Override
 	public ObjectClassComplexTypeDefinition findObjectClassDefinition(QName objectClassQName) {
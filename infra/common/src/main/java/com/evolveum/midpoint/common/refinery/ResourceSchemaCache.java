@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.common.refinery;
+
+import com.evolveum.midpoint.prism.Item;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.schema.PrismSchemaImpl;
+import com.evolveum.midpoint.schema.processor.ResourceSchema;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+
+import javax.xml.namespace.QName;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide cache of parsed and refined resource schemas, keyed by resource OID and by a digest
+ * of the resource content the schemas are created from.
+ *
+ * Parsed schemas are otherwise kept only in the user data of the particular resource object, so each
+ * resource object freshly read from the repository (or deserialized e.g. in GUI) would need to parse and refine
+ * the schema again. The version of the resource is not used, as it is not changed when the resource object
+ * is modified in memory (e.g. in the resource wizard). Only one parsed and one refined schema is kept
+ * for each resource. Resource objects without OID are never cached.
+ *
+ * Cached schemas are shared by all threads and all components, so they are frozen before they are stored.
+ *
+ * Entries are invalidated explicitly when a resource is modified or deleted in the repository.
+ *
+ * @author agent
+ */
+public class ResourceSchemaCache {
+
+	private static final Trace LOGGER = TraceManager.getTrace(ResourceSchemaCache.class);
+
+	// items the parsed schema is created from
+	private static final QName[] PARSED_SCHEMA_ITEMS = { ResourceType.F_NAMESPACE, ResourceType.F_SCHEMA };
+
+	// items the refined schema is created from (capabilities are evaluated by refined object class definitions)
+	private static final QName[] REFINED_SCHEMA_ITEMS = { ResourceType.F_NAMESPACE, ResourceType.F_SCHEMA,
+			ResourceType.F_SCHEMA_HANDLING, ResourceType.F_CAPABILITIES };
+
+	private static final ConcurrentMap<String, Entry> ENTRIES = new ConcurrentHashMap<>();
+
+	private static class Entry {
+		private volatile Cached<ResourceSchema> parsedSchema;
+		private volatile Cached<RefinedResourceSchema> refinedSchema;
+	}
+
+	private static class Cached<S> {
+		private final String digest;
+		private final S schema;
+
+		private Cached(String digest, S schema) {
+			this.digest = digest;
+			this.schema = schema;
+		}
+	}
+
+	static ResourceSchema getParsedSchema(PrismObject<ResourceType> resource, PrismContext prismContext) {
+		Entry entry = getEntry(resource);
+		return entry != null ? get(entry.parsedSchema, resource, PARSED_SCHEMA_ITEMS, prismContext) : null;
+	}
+
+	static void putParsedSchema(PrismObject<ResourceType> resource, ResourceSchema parsedSchema, PrismContext prismContext) {
+		String digest = computeDigest(resource, PARSED_SCHEMA_ITEMS, prismContext);
+		if (resource.getOid() == null || digest == null) {
+			return;
+		}
+		if (parsedSchema instanceof PrismSchemaImpl) {
+			((PrismSchemaImpl) parsedSchema).freeze();
+		}
+		getOrCreateEntry(resource.getOid()).parsedSchema = new Cached<>(digest, parsedSchema);
+	}
+
+	static RefinedResourceSchema getRefinedSchema(PrismObject<ResourceType> resource, PrismContext prismContext) {
+		Entry entry = getEntry(resource);
+		return entry != null ? get(entry.refinedSchema, resource, REFINED_SCHEMA_ITEMS, prismContext) : null;
+	}
+
+	static void putRefinedSchema(PrismObject<ResourceType> resource, RefinedResourceSchema refinedSchema, PrismContext prismContext) {
+		String digest = computeDigest(resource, REFINED_SCHEMA_ITEMS, prismContext);
+		if (resource.getOid() == null || digest == null) {
+			return;
+		}
+		if (refinedSchema instanceof RefinedResourceSchemaImpl) {
+			((RefinedResourceSchemaImpl) refinedSchema).freeze();
+		}
+		getOrCreateEntry(resource.getOid()).refinedSchema = new Cached<>(digest, refinedSchema);
+	}
+
+	public static void invalidate(String resourceOid) {
+		if (resourceOid != null) {
+			ENTRIES.remove(resourceOid);
+		}
+	}
+
+	public static void clear() {
+		ENTRIES.clear();
+	}
+
+	public static int size() {
+		return ENTRIES.size();
+	}
+
+	private static Entry getEntry(PrismObject<ResourceType> resource) {
+		return resource.getOid() != null ? ENTRIES.get(resource.getOid()) : null;
+	}
+
+	private static Entry getOrCreateEntry(String oid) {
+		return ENTRIES.computeIfAbsent(oid, k -> new Entry());
+	}
+
+	private static <S> S get(Cached<S> cached, PrismObject<ResourceType> resource, QName[] items, PrismContext prismContext) {
+		if (cached == null) {
+			return null;
+		}
+		String digest = computeDigest(resource, items, prismContext);
+		return cached.digest.equals(digest) ? cached.schema : null;
+	}
+
+	/**
+	 * Digest of the serialized items; null if they cannot be serialized (such resources are not cached).
+	 */
+	private static String computeDigest(PrismObject<ResourceType> resource, QName[] items, PrismContext prismContext) {
+		MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available: " + e.getMessage(), e);
+		}
+		try {
+			for (QName itemName : items) {
+				Item<?, ?> item = resource.findItem(itemName);
+				String serialized = item != null && !item.isEmpty() ? prismContext.xmlSerializer().serialize(item) : "";
+				messageDigest.update(serialized.getBytes(StandardCharsets.UTF_8));
+				messageDigest.update((byte) 0);
+			}
+		} catch (SchemaException | RuntimeException e) {
+			LoggingUtils.logUnexpectedException(LOGGER, "Couldn't compute schema digest for {}; the schema will not be cached", e, resource);
+			return null;
+		}
+		return Base64.getEncoder().encodeToString(messageDigest.digest());
+	}
+}
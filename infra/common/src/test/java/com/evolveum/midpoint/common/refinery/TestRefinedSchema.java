@@ -18,6 +18,8 @@ package com.evolveum.midpoint.common.refinery;
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
 import static org.testng.AssertJUnit.assertTrue;
 import static com.evolveum.midpoint.prism.util.PrismTestUtil.*;
 
@@ -52,6 +54,7 @@ import com.evolveum.midpoint.prism.util.PrismAsserts;
 import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
 import com.evolveum.midpoint.schema.constants.MidPointConstants;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.internals.InternalMonitor;
 import com.evolveum.midpoint.schema.util.ResourceTypeUtil;
 import com.evolveum.midpoint.schema.util.SchemaTestConstants;
 import com.evolveum.midpoint.schema.util.ShadowUtil;
@@ -659,4 +662,97 @@ public class TestRefinedSchema {
         
     }
 	
+	@Test
+    public void testSchemaCache() throws Exception {
+    	final String TEST_NAME = "testSchemaCache";
+    	TestUtil.displayTestTile(TEST_NAME);
+
+        // GIVEN
+    	PrismContext prismContext = createInitializedPrismContext();
+    	ResourceSchemaCache.clear();
+
+        PrismObject<ResourceType> resource1 = prismContext.parseObject(RESOURCE_COMPLEX_FILE);
+        resource1.setVersion("1");
+        PrismObject<ResourceType> resource2 = prismContext.parseObject(RESOURCE_COMPLEX_FILE);
+        resource2.setVersion("2");          // e.g. a modification of the resource description
+
+        // WHEN
+        TestUtil.displayWhen(TEST_NAME);
+        RefinedResourceSchema rSchema1 = RefinedResourceSchemaImpl.getRefinedSchema(resource1, prismContext);
+        RefinedResourceSchema rSchema2 = RefinedResourceSchemaImpl.getRefinedSchema(resource2, prismContext);
+
+        // THEN
+        TestUtil.displayThen(TEST_NAME);
+        assertNotNull("Refined schema is null", rSchema1);
+        assertSame("Refined schema for the same content was not reused", rSchema1, rSchema2);
+        assertEquals("Unexpected number of cache entries", 1, ResourceSchemaCache.size());
+
+        // WHEN
+        ResourceSchemaCache.invalidate(resource2.getOid());
+        PrismObject<ResourceType> resource3 = prismContext.parseObject(RESOURCE_COMPLEX_FILE);
+        resource3.setVersion("2");
+        RefinedResourceSchema rSchema3 = RefinedResourceSchemaImpl.getRefinedSchema(resource3, prismContext);
+
+        // THEN
+        assertNotNull("Refined schema is null", rSchema3);
+        assertNotSame("Refined schema was reused after invalidation", rSchema2, rSchema3);
+    }
+
+	@Test
+    public void testSchemaCacheInMemoryModification() throws Exception {
+    	final String TEST_NAME = "testSchemaCacheInMemoryModification";
+    	TestUtil.displayTestTile(TEST_NAME);
+
+        // GIVEN
+    	PrismContext prismContext = createInitializedPrismContext();
+    	ResourceSchemaCache.clear();
+
+        PrismObject<ResourceType> resource1 = prismContext.parseObject(RESOURCE_COMPLEX_FILE);
+        resource1.setVersion("1");
+        RefinedResourceSchema rSchema1 = RefinedResourceSchemaImpl.getRefinedSchema(resource1, prismContext);
+        int refinedDefinitions = rSchema1.getRefinedDefinitions().size();
+
+        // the same version, edited in memory (e.g. in the resource wizard)
+        PrismObject<ResourceType> resource2 = prismContext.parseObject(RESOURCE_COMPLEX_FILE);
+        resource2.setVersion("1");
+        resource2.asObjectable().getSchemaHandling().getObjectType().get(0).setDisplayName("Modified Account");
+        long parseCountBefore = InternalMonitor.getResourceSchemaParseCount();
+
+        // WHEN
+        TestUtil.displayWhen(TEST_NAME);
+        RefinedResourceSchema rSchema2 = RefinedResourceSchemaImpl.getRefinedSchema(resource2, prismContext);
+
+        // THEN
+        TestUtil.displayThen(TEST_NAME);
+        assertNotSame("Refined schema for modified schema handling was reused", rSchema1, rSchema2);
+        assertEquals("Modification is not visible in the refined schema", "Modified Account",
+        		rSchema2.getRefinedDefinition(ShadowKindType.ACCOUNT, "default").getDisplayName());
+        assertEquals("Original refined schema was changed", "Default Account",
+        		rSchema1.getRefinedDefinition(ShadowKindType.ACCOUNT, "default").getDisplayName());
+        assertEquals("Original refined schema got new definitions", refinedDefinitions, rSchema1.getRefinedDefinitions().size());
+        assertEquals("Wrong # of refined definitions", refinedDefinitions, rSchema2.getRefinedDefinitions().size());
+
+        // the XSD schema itself was not changed, so it was not parsed again
+        assertEquals("Resource schema was parsed again", parseCountBefore, InternalMonitor.getResourceSchemaParseCount());
+        ResourceSchema parsedSchema = ResourceSchemaCache.getParsedSchema(resource2, prismContext);
+        assertNotNull("Parsed schema was not cached", parsedSchema);
+        assertTrue("No object classes in parsed schema", !parsedSchema.getObjectClassDefinitions().isEmpty());
+        assertTrue("Refined definitions leaked into the parsed schema",
+        		parsedSchema.getDefinitions(RefinedObjectClassDefinition.class).isEmpty());
+
+        // cached schemas are frozen
+        try {
+        	((ResourceSchemaImpl) parsedSchema).createObjectClassDefinition("Foo");
+        	AssertJUnit.fail("Cached parsed schema was modified");
+        } catch (IllegalStateException e) {
+        	// expected
+        }
+        try {
+        	rSchema2.getDefinitions().clear();
+        	AssertJUnit.fail("Cached refined schema was modified");
+        } catch (UnsupportedOperationException e) {
+        	// expected
+        }
+    }
+
 }
@@ -697,8 +697,11 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
         return matching;
     }
 
+	/**
+	 * For immutable values the new item is not added to the value. It is returned (as an empty immutable item)
+	 * only to allow read-only access via JAXB getters that create missing items on the fly.
+	 */
 	private <IV extends PrismValue,ID extends ItemDefinition,I extends Item<IV,ID>> I createSubItem(QName name, Class<I> type, ID itemDefinition) throws SchemaException {
-		checkMutability();
     	// the item with specified name does not exist, create it now
 		I newItem = null;
 		
@@ -728,7 +731,12 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
 		}
 		
 		if (type.isAssignableFrom(newItem.getClass())) {
-			add(newItem);
+			if (isImmutable()) {
+				newItem.setParent(this);
+				newItem.setImmutable(true);
+			} else {
+				add(newItem);
+			}
 			return newItem;
     	} else {
 			throw new IllegalStateException("The " + type.getSimpleName() + " cannot be created because the item should be of type "
@@ -232,6 +232,22 @@ public class PrismObject<O extends Objectable> extends PrismContainer<O> {
 		return clone;
 	}
 
+	/**
+	 * Returns a frozen copy of this object, suitable for sharing among threads.
+	 */
+	public PrismObject<O> createImmutableClone() {
+		PrismObject<O> clone = clone();
+		clone.setImmutable(true);
+		return clone;
+	}
+
+	/**
+	 * Returns this object if it can be modified, or its (mutable) clone if it is immutable.
+	 */
+	public PrismObject<O> cloneIfImmutable() {
+		return isImmutable() ? clone() : this;
+	}
+
 	protected void copyValues(PrismObject<O> clone) {
 		super.copyValues(clone);
 	}
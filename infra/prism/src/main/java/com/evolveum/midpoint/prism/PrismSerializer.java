@@ -24,6 +24,7 @@ import org.jetbrains.annotations.Nullable;
 
 import javax.xml.bind.JAXBElement;
 import javax.xml.namespace.QName;
+import java.util.Collection;
 
 /**
  * Takes care of serializing prism objects and other beans, i.e. converts java form to
@@ -74,6 +75,16 @@ public interface PrismSerializer<T> {
 	@NotNull
 	PrismSerializer<T> options(@Nullable SerializationOptions options);
 
+	/**
+	 * Sets the items that should be left out when serializing top-level container value (e.g. an object).
+	 * This is cheaper than cloning the object and removing the items before serialization.
+	 *
+	 * @param itemsToSkip Names of the items to skip. Only items directly in the top-level value are affected.
+	 * @return Serializer with the items to skip set.
+	 */
+	@NotNull
+	PrismSerializer<T> itemsToSkip(@Nullable Collection<QName> itemsToSkip);
+
 	/**
 	 * Serializes given prism item.
 	 *
@@ -16,6 +16,9 @@
 
 package com.evolveum.midpoint.prism;
 
+import javax.xml.namespace.QName;
+import java.util.Collection;
+
 /**
  * Everything we want to maintain during the serialization process.
  * (First of all, processing options.)
@@ -26,6 +29,12 @@ public class SerializationContext implements Cloneable {
 
     private SerializationOptions options;
 
+    /**
+     * Items of the top-level container value (e.g. object) that should not be serialized.
+     * Nested values are not affected.
+     */
+    private Collection<QName> itemsToSkip;
+
     public SerializationContext(SerializationOptions options) {
         this.options = options;
     }
@@ -38,6 +47,30 @@ public class SerializationContext implements Cloneable {
         this.options = options;
     }
 
+    public Collection<QName> getItemsToSkip() {
+        return itemsToSkip;
+    }
+
+    public void setItemsToSkip(Collection<QName> itemsToSkip) {
+        this.itemsToSkip = itemsToSkip;
+    }
+
+    public static boolean hasItemsToSkip(SerializationContext ctx) {
+        return ctx != null && ctx.itemsToSkip != null && !ctx.itemsToSkip.isEmpty();
+    }
+
+    /**
+     * Returns the context to be used for values nested in the top-level one, i.e. without items to skip.
+     */
+    public static SerializationContext withoutItemsToSkip(SerializationContext ctx) {
+        if (!hasItemsToSkip(ctx)) {
+            return ctx;
+        }
+        SerializationContext clone = ctx.clone();
+        clone.itemsToSkip = null;
+        return clone;
+    }
+
     public static boolean isSerializeReferenceNames(SerializationContext ctx) {
         return ctx != null && SerializationOptions.isSerializeReferenceNames(ctx.getOptions());
     }
@@ -22,6 +22,7 @@ import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.prism.xnode.*;
 import com.evolveum.midpoint.util.DOMUtil;
 import com.evolveum.midpoint.util.JAXBUtil;
+import com.evolveum.midpoint.util.QNameUtil;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.prism.xml.ns._public.query_3.SearchFilterType;
 import com.evolveum.prism.xml.ns._public.types_3.EvaluationTimeType;
@@ -259,6 +260,9 @@ public class PrismMarshaller {
             xmap.setExplicitTypeDeclaration(true);
         }
 
+		Collection<QName> itemsToSkip = SerializationContext.hasItemsToSkip(ctx) ? ctx.getItemsToSkip() : null;
+		ctx = SerializationContext.withoutItemsToSkip(ctx);		// nested values are serialized completely
+
 		Collection<QName> marshaledItems = new ArrayList<>();
 		if (containerDefinition != null) {
 			// We have to serialize in the definition order. Some data formats (XML) are
@@ -267,7 +271,7 @@ public class PrismMarshaller {
 			for (ItemDefinition itemDef: containerDefinition.getDefinitions()) {
 				QName elementName = itemDef.getName();
 				Item<?,?> item = containerVal.findItem(elementName);
-				if (item != null) {
+				if (item != null && !isSkipped(elementName, itemsToSkip)) {
 					XNode xsubnode = marshalItemContent(item, getItemDefinition(containerVal, item), ctx);
 					xmap.put(elementName, xsubnode);
 					marshaledItems.add(elementName);
@@ -279,7 +283,7 @@ public class PrismMarshaller {
 		if (containerVal.getItems() != null){
 			for (Item<?,?> item : containerVal.getItems()) {
 				QName elementName = item.getElementName();
-				if (marshaledItems.contains(elementName)) {
+				if (marshaledItems.contains(elementName) || isSkipped(elementName, itemsToSkip)) {
 					continue;
 				}
 				XNode xsubnode = marshalItemContent(item, getItemDefinition(containerVal, item), ctx);
@@ -288,6 +292,10 @@ public class PrismMarshaller {
 		}
 	}
 
+	private boolean isSkipped(QName elementName, Collection<QName> itemsToSkip) {
+		return itemsToSkip != null && QNameUtil.contains(itemsToSkip, elementName);
+	}
+
 	private <C extends Containerable> ItemDefinition getItemDefinition(PrismContainerValue<C> cval, Item<?, ?> item) {
 		if (item.getDefinition() != null) {
 			return item.getDefinition();
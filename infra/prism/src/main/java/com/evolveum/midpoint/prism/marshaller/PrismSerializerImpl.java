@@ -24,6 +24,7 @@ import org.jetbrains.annotations.NotNull;
 
 import javax.xml.bind.JAXBElement;
 import javax.xml.namespace.QName;
+import java.util.Collection;
 
 /**
  * @author mederly
@@ -76,6 +77,19 @@ public class PrismSerializerImpl<T> implements PrismSerializer<T> {
 		}
 		return new PrismSerializerImpl<>(target, itemName, itemDefinition, context, prismContext);
 	}
+
+	@NotNull
+	@Override
+	public PrismSerializerImpl<T> itemsToSkip(Collection<QName> itemsToSkip) {
+		SerializationContext context;
+		if (this.context != null) {
+			context = this.context.clone();
+		} else {
+			context = new SerializationContext(null);
+		}
+		context.setItemsToSkip(itemsToSkip);
+		return new PrismSerializerImpl<>(target, itemName, itemDefinition, context, prismContext);
+	}
 	//endregion
 
 	//region Serialization =============================================================================================
@@ -48,6 +48,7 @@ public class PrismSchemaImpl implements PrismSchema {
 	@NotNull protected final Collection<Definition> definitions = new ArrayList<>();
 	protected String namespace;
 	protected PrismContext prismContext;
+	private boolean immutable;
 
 	protected PrismSchemaImpl(PrismContext prismContext) {
 		this.prismContext = prismContext;
@@ -68,13 +69,14 @@ public class PrismSchemaImpl implements PrismSchema {
 	}
 
 	public void setNamespace(String namespace) {
+		checkMutable();
 		this.namespace = namespace;
 	}
 
 	@NotNull
 	@Override
 	public Collection<Definition> getDefinitions() {
-		return definitions;
+		return immutable ? Collections.unmodifiableCollection(definitions) : definitions;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -93,8 +95,28 @@ public class PrismSchemaImpl implements PrismSchema {
 	}
 
 	public void add(@NotNull Definition def) {
+		checkMutable();
 		definitions.add(def);
 	}
+
+	/**
+	 * Makes the schema read-only: no definitions can be added and the namespace cannot be changed.
+	 * Used for schemas that are shared (e.g. cached). The definitions themselves are not frozen,
+	 * so clients must still not modify them.
+	 */
+	public void freeze() {
+		immutable = true;
+	}
+
+	public boolean isImmutable() {
+		return immutable;
+	}
+
+	private void checkMutable() {
+		if (immutable) {
+			throw new IllegalStateException("Schema " + namespace + " is immutable");
+		}
+	}
 	
 	@Override
 	public PrismContext getPrismContext() {
@@ -154,8 +176,8 @@ public class PrismSchemaImpl implements PrismSchema {
 		QName name = new QName(getNamespace(), toElementName(localTypeName));
 		ComplexTypeDefinition cTypeDef = new ComplexTypeDefinitionImpl(typeName, prismContext);
 		PrismContainerDefinitionImpl def = new PrismContainerDefinitionImpl(name, cTypeDef, prismContext);
-		definitions.add(cTypeDef);
-		definitions.add(def);
+		add(cTypeDef);
+		add(def);
 		return def;
 	}
 	
@@ -165,16 +187,16 @@ public class PrismSchemaImpl implements PrismSchema {
 		ComplexTypeDefinition cTypeDef = findComplexTypeDefinitionByType(typeName);
 		if (cTypeDef == null) {
 			cTypeDef = new ComplexTypeDefinitionImpl(typeName, prismContext);
-			definitions.add(cTypeDef);
+			add(cTypeDef);
 		}
 		PrismContainerDefinitionImpl def = new PrismContainerDefinitionImpl(name, cTypeDef, prismContext);
-		definitions.add(def);
+		add(def);
 		return def;
 	}
 	
 	public ComplexTypeDefinition createComplexTypeDefinition(QName typeName) {
 		ComplexTypeDefinition cTypeDef = new ComplexTypeDefinitionImpl(typeName, prismContext);
-		definitions.add(cTypeDef);
+		add(cTypeDef);
 		return cTypeDef;
 	}
 
@@ -224,7 +246,7 @@ public class PrismSchemaImpl implements PrismSchema {
 	 */
 	public PrismPropertyDefinition createPropertyDefinition(QName name, QName typeName) {
 		PrismPropertyDefinition def = new PrismPropertyDefinitionImpl(name, typeName, prismContext);
-		definitions.add(def);
+		add(def);
 		return def;
 	}
 
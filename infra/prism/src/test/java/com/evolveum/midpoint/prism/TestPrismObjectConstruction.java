@@ -17,7 +17,11 @@ package com.evolveum.midpoint.prism;
 
 import static com.evolveum.midpoint.prism.PrismInternalTestUtil.*;
 
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
 import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
 import static org.testng.AssertJUnit.assertEquals;
 import java.io.IOException;
 import java.util.List;
@@ -180,6 +184,100 @@ public class TestPrismObjectConstruction {
 		assertTrue("Clone not equivalent", clone.equivalent(user));
 	}
 
+	@Test
+	public void testImmutableClone() throws Exception {
+		final String TEST_NAME = "testImmutableClone";
+		PrismInternalTestUtil.displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		PrismContext ctx = constructInitializedPrismContext();
+		PrismObjectDefinition<UserType> userDefinition = getFooSchema(ctx).findObjectDefinitionByElementName(new QName(NS_FOO,"user"));
+		PrismObject<UserType> user = userDefinition.instantiate();
+		fillInUserDrake(user, true);
+
+		// WHEN
+		PrismObject<UserType> frozen = user.createImmutableClone();
+
+		// THEN
+		assertTrue("Clone not immutable", frozen.isImmutable());
+		assertFalse("Original became immutable", user.isImmutable());
+		assertTrue("Clone not equal", frozen.equals(user));
+		assertFalse("Clone of immutable object is immutable", frozen.clone().isImmutable());
+		assertTrue("Mutable object was cloned", user.cloneIfImmutable() == user);
+		assertTrue("Immutable object was not cloned", frozen.cloneIfImmutable() != frozen);
+
+		try {
+			frozen.findProperty(USER_FULLNAME_QNAME).addValue(new PrismPropertyValue<>("Captain Drake"));
+			fail("Unexpected success in modifying immutable object");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		// missing items can be looked up on the fly (as JAXB getters do), but they are not attached to the object
+		PrismProperty<String> givenName = frozen.findOrCreateProperty(USER_GIVENNAME_QNAME);
+		assertNotNull("No givenName property", givenName);
+		assertTrue("givenName not empty", givenName.isEmpty());
+		assertTrue("givenName not immutable", givenName.isImmutable());
+		assertNull("givenName was added to immutable object", frozen.findProperty(USER_GIVENNAME_QNAME));
+		assertTrue("Immutable object was changed", frozen.equals(user));
+	}
+
+	@Test
+	public void testImmutableFindOrCreate() throws Exception {
+		final String TEST_NAME = "testImmutableFindOrCreate";
+		PrismInternalTestUtil.displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		PrismContext ctx = constructInitializedPrismContext();
+		PrismObjectDefinition<UserType> userDefinition = getFooSchema(ctx).findObjectDefinitionByElementName(new QName(NS_FOO,"user"));
+		PrismObject<UserType> user = userDefinition.instantiate();
+		user.setOid(USER_OID);
+		user.findOrCreateProperty(USER_FULLNAME_QNAME).setValue(new PrismPropertyValue<>("Sir Fancis Drake"));
+		PrismObject<UserType> frozen = user.createImmutableClone();
+		PrismContainerValue<UserType> frozenValue = frozen.getValue();
+		int itemsBefore = frozenValue.getItems().size();
+
+		// WHEN
+		Item<?,?> existing = frozenValue.findOrCreateItem(USER_FULLNAME_QNAME);
+		Item<?,?> locality = frozenValue.findOrCreateItem(USER_LOCALITY_QNAME);
+		PrismProperty<String> description = frozenValue.findOrCreateItem(USER_DESCRIPTION_QNAME, PrismProperty.class);
+		PrismContainer<ActivationType> activation = frozenValue.findOrCreateContainer(USER_ACTIVATION_QNAME);
+
+		// THEN
+		assertTrue("Existing item was not returned", existing == frozenValue.findItem(USER_FULLNAME_QNAME));
+		assertTrue("Existing item not immutable", existing.isImmutable());
+
+		assertNotNull("No locality item", locality);
+		assertTrue("locality not empty", locality.isEmpty());
+		assertTrue("locality not immutable", locality.isImmutable());
+		assertTrue("Wrong parent of locality", locality.getParent() == frozenValue);
+
+		assertNotNull("No description property", description);
+		assertTrue("description not immutable", description.isImmutable());
+
+		assertNotNull("No activation container", activation);
+		assertEquals(USER_ACTIVATION_QNAME, activation.getElementName());
+		assertTrue("activation not empty", activation.isEmpty());
+		assertTrue("activation not immutable", activation.isImmutable());
+		assertTrue("Wrong parent of activation", activation.getParent() == frozenValue);
+		try {
+			activation.add(new PrismContainerValue<>(ctx));
+			fail("Unexpected success in modifying item of immutable object");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		assertEquals("Items were added to immutable value", itemsBefore, frozenValue.getItems().size());
+		assertNull("locality was added to immutable object", frozen.findItem(USER_LOCALITY_QNAME));
+		assertNull("description was added to immutable object", frozen.findItem(USER_DESCRIPTION_QNAME));
+		assertNull("activation was added to immutable object", frozen.findContainer(USER_ACTIVATION_QNAME));
+		assertTrue("Immutable object was changed", frozen.equals(user));
+
+		// the same lookups on the mutable original do create the items
+		user.getValue().findOrCreateContainer(USER_ACTIVATION_QNAME);
+		assertNotNull("activation was not added to mutable object", user.findContainer(USER_ACTIVATION_QNAME));
+	}
+
 	
 	private void fillInUserDrake(PrismObject<UserType> user, boolean assertDefinitions) throws SchemaException {
 		user.setOid(USER_OID);
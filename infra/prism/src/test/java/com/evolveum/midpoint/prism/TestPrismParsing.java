@@ -24,6 +24,7 @@ import static org.testng.AssertJUnit.assertTrue;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Collection;
 
 import javax.xml.datatype.Duration;
@@ -168,6 +169,41 @@ public abstract class TestPrismParsing {
 	}
 
 
+	@Test
+	public void test225SerializeWithItemsToSkip() throws Exception {
+		final String TEST_NAME = "test225SerializeWithItemsToSkip";
+		PrismInternalTestUtil.displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		PrismContext prismContext = constructInitializedPrismContext();
+		PrismObject<UserType> user = prismContext.parseObject(getFile(USER_JACK_OBJECT_BASENAME));
+
+		// WHEN
+		String serialized = prismContext.serializerFor(getOutputFormat())
+				.itemsToSkip(Arrays.asList(USER_DESCRIPTION_QNAME, USER_ACCOUNTREF_QNAME))
+				.serialize(user);
+
+		// THEN
+		System.out.println("Serialized user:");
+		System.out.println(serialized);
+		assertNotNull(serialized);
+
+		PrismObject<UserType> reparsedUser = prismContext.parseObject(serialized);
+		System.out.println("Re-parsed user:");
+		System.out.println(reparsedUser.debugDump());
+
+		assertNull("Description was not skipped", reparsedUser.findProperty(USER_DESCRIPTION_QNAME));
+		assertNull("AccountRef was not skipped", reparsedUser.findReference(USER_ACCOUNTREF_QNAME));
+		PrismAsserts.assertPropertyValue(reparsedUser, USER_FULLNAME_QNAME, "cpt. Jack Sparrow");
+		PrismContainer<?> assignment = reparsedUser.findContainer(USER_ASSIGNMENT_QNAME);
+		assertNotNull("No assignment", assignment);
+		assertNotNull("Nested description was skipped", assignment.getValue(1111L).findProperty(USER_DESCRIPTION_QNAME));
+
+		// the original object must not be touched
+		assertNotNull("Description disappeared from the original", user.findProperty(USER_DESCRIPTION_QNAME));
+		assertNotNull("AccountRef disappeared from the original", user.findReference(USER_ACCOUNTREF_QNAME));
+	}
+
 	private void roundTrip(File file) throws SchemaException, SAXException, IOException {
 		
 		// GIVEN
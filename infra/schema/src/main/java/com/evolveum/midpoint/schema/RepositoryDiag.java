@@ -67,6 +67,11 @@ public class RepositoryDiag implements Serializable {
 	 */
 	private List<LabeledString> additionalDetails;
 
+	/**
+	 * Statistics of repository operations (if collected by the implementation).
+	 */
+	private List<RepositoryOperationStatistics> operationStatistics;
+
 	public String getImplementationShortName() {
 		return implementationShortName;
 	}
@@ -123,6 +128,14 @@ public class RepositoryDiag implements Serializable {
 		this.additionalDetails = additionalDetails;
 	}
 
+	public List<RepositoryOperationStatistics> getOperationStatistics() {
+		return operationStatistics;
+	}
+
+	public void setOperationStatistics(List<RepositoryOperationStatistics> operationStatistics) {
+		this.operationStatistics = operationStatistics;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.schema;
+
+import java.io.Serializable;
+
+/**
+ * Aggregated statistics of one kind of repository operation (e.g. "modifyObject") on one object type,
+ * as collected since the repository start (or the last reset). Part of {@link RepositoryDiag}.
+ *
+ * All times are in milliseconds. Percentiles are approximate (computed from a histogram).
+ *
+ * @author agent
+ */
+public class RepositoryOperationStatistics implements Serializable {
+
+	private String operation;
+	private String objectType;				// may be null if the operation is not related to a specific type
+	private long count;
+	private long attempts;					// including retries after serialization-related problems
+	private double totalTime;
+	private double wastedTime;				// spent in attempts that were retried
+	private double meanTime;
+	private double medianTime;
+	private double percentile90Time;
+	private double percentile99Time;
+	private double maxTime;
+
+	public String getOperation() {
+		return operation;
+	}
+
+	public void setOperation(String operation) {
+		this.operation = operation;
+	}
+
+	public String getObjectType() {
+		return objectType;
+	}
+
+	public void setObjectType(String objectType) {
+		this.objectType = objectType;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public void setCount(long count) {
+		this.count = count;
+	}
+
+	public long getAttempts() {
+		return attempts;
+	}
+
+	public void setAttempts(long attempts) {
+		this.attempts = attempts;
+	}
+
+	public long getRetries() {
+		return attempts - count;
+	}
+
+	public double getTotalTime() {
+		return totalTime;
+	}
+
+	public void setTotalTime(double totalTime) {
+		this.totalTime = totalTime;
+	}
+
+	public double getWastedTime() {
+		return wastedTime;
+	}
+
+	public void setWastedTime(double wastedTime) {
+		this.wastedTime = wastedTime;
+	}
+
+	public double getMeanTime() {
+		return meanTime;
+	}
+
+	public void setMeanTime(double meanTime) {
+		this.meanTime = meanTime;
+	}
+
+	public double getMedianTime() {
+		return medianTime;
+	}
+
+	public void setMedianTime(double medianTime) {
+		this.medianTime = medianTime;
+	}
+
+	public double getPercentile90Time() {
+		return percentile90Time;
+	}
+
+	public void setPercentile90Time(double percentile90Time) {
+		this.percentile90Time = percentile90Time;
+	}
+
+	public double getPercentile99Time() {
+		return percentile99Time;
+	}
+
+	public void setPercentile99Time(double percentile99Time) {
+		this.percentile99Time = percentile99Time;
+	}
+
+	public double getMaxTime() {
+		return maxTime;
+	}
+
+	public void setMaxTime(double maxTime) {
+		this.maxTime = maxTime;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s%s: count=%d, retries=%d, time (ms): total=%.1f, wasted=%.1f, mean=%.2f, "
+						+ "median=%.2f, 90%%=%.2f, 99%%=%.2f, max=%.2f",
+				operation, objectType != null ? " (" + objectType + ")" : "", count, getRetries(), totalTime,
+				wastedTime, meanTime, medianTime, percentile90Time, percentile99Time, maxTime);
+	}
+}
@@ -36,6 +36,13 @@ public class ConnectorOperationalStatus implements DebugDumpable, Serializable {
 	public static final String F_POOL_CONFIG_MIN_EVICTABLE_IDLE_TIME = "poolConfigMinEvictableIdleTime";
 	public static final String F_POOL_STATUS_NUM_IDLE = "poolStatusNumIdle";
 	public static final String F_POOL_STATUS_NUM_ACTIVE = "poolStatusNumActive";
+	public static final String F_INSTANCE_POOL_SIZE = "instancePoolSize";
+	public static final String F_INSTANCE_POOL_MAX_SIZE = "instancePoolMaxSize";
+	public static final String F_INSTANCE_POOL_MAX_CONCURRENT_OPERATIONS = "instancePoolMaxConcurrentOperations";
+	public static final String F_INSTANCE_POOL_ACTIVE_OPERATIONS = "instancePoolActiveOperations";
+	public static final String F_INSTANCE_POOL_OPERATIONS = "instancePoolOperations";
+	public static final String F_INSTANCE_POOL_WAITS = "instancePoolWaits";
+	public static final String F_INSTANCE_POOL_TIMEOUTS = "instancePoolTimeouts";
 	
 	
 	private String connectorClassName;
@@ -51,6 +58,15 @@ public class ConnectorOperationalStatus implements DebugDumpable, Serializable {
 	// pool status
 	private Integer poolStatusNumIdle;
 	private Integer poolStatusNumActive;
+
+	// midPoint connector instance pool (as opposed to the ICF pool above)
+	private Integer instancePoolSize;
+	private Integer instancePoolMaxSize;
+	private Integer instancePoolMaxConcurrentOperations;
+	private Integer instancePoolActiveOperations;
+	private Long instancePoolOperations;
+	private Long instancePoolWaits;
+	private Long instancePoolTimeouts;
 	
 	public String getConnectorClassName() {
 		return connectorClassName;
@@ -124,6 +140,62 @@ public class ConnectorOperationalStatus implements DebugDumpable, Serializable {
 		this.poolStatusNumActive = poolStatusNumActive;
 	}
 
+	public Integer getInstancePoolSize() {
+		return instancePoolSize;
+	}
+
+	public void setInstancePoolSize(Integer instancePoolSize) {
+		this.instancePoolSize = instancePoolSize;
+	}
+
+	public Integer getInstancePoolMaxSize() {
+		return instancePoolMaxSize;
+	}
+
+	public void setInstancePoolMaxSize(Integer instancePoolMaxSize) {
+		this.instancePoolMaxSize = instancePoolMaxSize;
+	}
+
+	public Integer getInstancePoolMaxConcurrentOperations() {
+		return instancePoolMaxConcurrentOperations;
+	}
+
+	public void setInstancePoolMaxConcurrentOperations(Integer instancePoolMaxConcurrentOperations) {
+		this.instancePoolMaxConcurrentOperations = instancePoolMaxConcurrentOperations;
+	}
+
+	public Integer getInstancePoolActiveOperations() {
+		return instancePoolActiveOperations;
+	}
+
+	public void setInstancePoolActiveOperations(Integer instancePoolActiveOperations) {
+		this.instancePoolActiveOperations = instancePoolActiveOperations;
+	}
+
+	public Long getInstancePoolOperations() {
+		return instancePoolOperations;
+	}
+
+	public void setInstancePoolOperations(Long instancePoolOperations) {
+		this.instancePoolOperations = instancePoolOperations;
+	}
+
+	public Long getInstancePoolWaits() {
+		return instancePoolWaits;
+	}
+
+	public void setInstancePoolWaits(Long instancePoolWaits) {
+		this.instancePoolWaits = instancePoolWaits;
+	}
+
+	public Long getInstancePoolTimeouts() {
+		return instancePoolTimeouts;
+	}
+
+	public void setInstancePoolTimeouts(Long instancePoolTimeouts) {
+		this.instancePoolTimeouts = instancePoolTimeouts;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -138,6 +210,13 @@ public class ConnectorOperationalStatus implements DebugDumpable, Serializable {
 		result = prime * result + ((poolConfigWaitTimeout == null) ? 0 : poolConfigWaitTimeout.hashCode());
 		result = prime * result + ((poolStatusNumActive == null) ? 0 : poolStatusNumActive.hashCode());
 		result = prime * result + ((poolStatusNumIdle == null) ? 0 : poolStatusNumIdle.hashCode());
+		result = prime * result + ((instancePoolSize == null) ? 0 : instancePoolSize.hashCode());
+		result = prime * result + ((instancePoolMaxSize == null) ? 0 : instancePoolMaxSize.hashCode());
+		result = prime * result + ((instancePoolMaxConcurrentOperations == null) ? 0 : instancePoolMaxConcurrentOperations.hashCode());
+		result = prime * result + ((instancePoolActiveOperations == null) ? 0 : instancePoolActiveOperations.hashCode());
+		result = prime * result + ((instancePoolOperations == null) ? 0 : instancePoolOperations.hashCode());
+		result = prime * result + ((instancePoolWaits == null) ? 0 : instancePoolWaits.hashCode());
+		result = prime * result + ((instancePoolTimeouts == null) ? 0 : instancePoolTimeouts.hashCode());
 		return result;
 	}
 
@@ -216,6 +295,55 @@ public class ConnectorOperationalStatus implements DebugDumpable, Serializable {
 		} else if (!poolStatusNumIdle.equals(other.poolStatusNumIdle)) {
 			return false;
 		}
+		if (instancePoolSize == null) {
+			if (other.instancePoolSize != null) {
+				return false;
+			}
+		} else if (!instancePoolSize.equals(other.instancePoolSize)) {
+			return false;
+		}
+		if (instancePoolMaxSize == null) {
+			if (other.instancePoolMaxSize != null) {
+				return false;
+			}
+		} else if (!instancePoolMaxSize.equals(other.instancePoolMaxSize)) {
+			return false;
+		}
+		if (instancePoolMaxConcurrentOperations == null) {
+			if (other.instancePoolMaxConcurrentOperations != null) {
+				return false;
+			}
+		} else if (!instancePoolMaxConcurrentOperations.equals(other.instancePoolMaxConcurrentOperations)) {
+			return false;
+		}
+		if (instancePoolActiveOperations == null) {
+			if (other.instancePoolActiveOperations != null) {
+				return false;
+			}
+		} else if (!instancePoolActiveOperations.equals(other.instancePoolActiveOperations)) {
+			return false;
+		}
+		if (instancePoolOperations == null) {
+			if (other.instancePoolOperations != null) {
+				return false;
+			}
+		} else if (!instancePoolOperations.equals(other.instancePoolOperations)) {
+			return false;
+		}
+		if (instancePoolWaits == null) {
+			if (other.instancePoolWaits != null) {
+				return false;
+			}
+		} else if (!instancePoolWaits.equals(other.instancePoolWaits)) {
+			return false;
+		}
+		if (instancePoolTimeouts == null) {
+			if (other.instancePoolTimeouts != null) {
+				return false;
+			}
+		} else if (!instancePoolTimeouts.equals(other.instancePoolTimeouts)) {
+			return false;
+		}
 		return true;
 	}
 
@@ -242,7 +370,14 @@ public class ConnectorOperationalStatus implements DebugDumpable, Serializable {
 		DebugUtil.debugDumpWithLabelLn(sb, "poolConfigWaitTimeout", poolConfigWaitTimeout, indent + 1);
 		DebugUtil.debugDumpWithLabelLn(sb, "poolConfigMinEvictableIdleTime", poolConfigMinEvictableIdleTime, indent + 1);
 		DebugUtil.debugDumpWithLabelLn(sb, "poolStatusNumIdle", poolStatusNumIdle, indent + 1);
-		DebugUtil.debugDumpWithLabel(sb, "poolStatusNumActive", poolStatusNumActive, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "poolStatusNumActive", poolStatusNumActive, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "instancePoolSize", instancePoolSize, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "instancePoolMaxSize", instancePoolMaxSize, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "instancePoolMaxConcurrentOperations", instancePoolMaxConcurrentOperations, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "instancePoolActiveOperations", instancePoolActiveOperations, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "instancePoolOperations", instancePoolOperations, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "instancePoolWaits", instancePoolWaits, indent + 1);
+		DebugUtil.debugDumpWithLabel(sb, "instancePoolTimeouts", instancePoolTimeouts, indent + 1);
 		return sb.toString();
 		
 	}
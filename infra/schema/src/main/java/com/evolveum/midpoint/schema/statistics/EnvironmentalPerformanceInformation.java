@@ -48,6 +48,8 @@ public class EnvironmentalPerformanceInformation {
     private final EnvironmentalPerformanceInformationType startValue;        // this object is concurrently read (that is thread-safe), not written
 
     private Map<ProvisioningStatisticsKey,ProvisioningStatisticsData> provisioningData = new HashMap<>();
+    // waiting for resource rate limit; kept apart from provisioningData, as it is recorded before the operation is executed
+    private Map<ProvisioningStatisticsKey,GenericStatisticsData> provisioningThrottlingData = new HashMap<>();
     private Map<NotificationsStatisticsKey,GenericStatisticsData> notificationsData = new HashMap<>();
     private Map<MappingsStatisticsKey,GenericStatisticsData> mappingsData = new HashMap<>();
 
@@ -159,9 +161,31 @@ public class EnvironmentalPerformanceInformation {
             setValue(entryType, key.getOperation(), key.getStatusType(), entry.getValue().getCount(),
                     entry.getValue().getMinDuration(), entry.getValue().getMaxDuration(), entry.getValue().getTotalDuration());
         }
+        for (Map.Entry<ProvisioningStatisticsKey, GenericStatisticsData> entry : provisioningThrottlingData.entrySet()) {
+            ProvisioningStatisticsKey key = entry.getKey();
+            String resource = key.getResourceName();
+            QName oc = key.getObjectClass();
+            ProvisioningStatisticsEntryType entryType = findProvisioningEntryType(rv.getEntry(), resource, oc);
+            if (entryType == null) {
+                entryType = new ProvisioningStatisticsEntryType();
+                entryType.setResource(resource);
+                entryType.setObjectClass(oc);
+                rv.getEntry().add(entryType);
+            }
+            addThrottling(entryType, entry.getValue().getCount(), entry.getValue().getMaxDuration(), entry.getValue().getTotalDuration());
+        }
         return rv;
     }
 
+    private static void addThrottling(ProvisioningStatisticsEntryType e, Integer count, Long max, Long totalDuration) {
+        if (count == null || count == 0) {
+            return;
+        }
+        e.setThrottledCount(e.getThrottledCount() != null ? e.getThrottledCount() + count : count);
+        e.setMaxThrottleTime(max(e.getMaxThrottleTime(), max));
+        e.setTotalThrottleTime(e.getTotalThrottleTime() != null ? e.getTotalThrottleTime() + totalDuration : totalDuration);
+    }
+
     private static ProvisioningStatisticsEntryType findProvisioningEntryType(List<ProvisioningStatisticsEntryType> list, String resource, QName objectClass) {
         for (ProvisioningStatisticsEntryType entryType : list) {
             if (StringUtils.equals(entryType.getResource(), resource) && QNameUtil.match(entryType.getObjectClass(), objectClass)) {
@@ -422,6 +446,7 @@ public class EnvironmentalPerformanceInformation {
             e.setMinTime(min(e.getMinTime(), de.getMinTime()));
             e.setMaxTime(max(e.getMaxTime(), de.getMaxTime()));
             e.setTotalTime(e.getTotalTime() + de.getTotalTime());
+            addThrottling(e, de.getThrottledCount(), de.getMaxThrottleTime(), de.getTotalThrottleTime());
             if (totalCount > 0) {
                 e.setAverageTime(e.getTotalTime() / totalCount);
             } else {
@@ -460,6 +485,25 @@ public class EnvironmentalPerformanceInformation {
         data.recordOperation(duration, count);
     }
 
+    // Throttling is recorded before the operation is executed, so the result is not known; we use the "success" key.
+    public synchronized void recordProvisioningThrottling(String resourceOid, String resourceName, QName objectClassName, ProvisioningOperation operation, long waitTime) {
+        ProvisioningStatisticsKey key = new ProvisioningStatisticsKey(resourceOid, resourceName, objectClassName, operation, true);
+        GenericStatisticsData data = provisioningThrottlingData.get(key);
+        if (data == null) {
+            data = new GenericStatisticsData();
+            provisioningThrottlingData.put(key, data);
+        }
+        data.recordOperation(waitTime, 1);
+    }
+
+    /**
+     * Returns information on waiting for resource rate limit (count of throttled operations, total and max waiting time),
+     * or null if given operation was not throttled.
+     */
+    public synchronized GenericStatisticsData getProvisioningThrottlingData(String resourceOid, String resourceName, QName objectClassName, ProvisioningOperation operation) {
+        return provisioningThrottlingData.get(new ProvisioningStatisticsKey(resourceOid, resourceName, objectClassName, operation, true));
+    }
+
     public synchronized void recordNotificationOperation(String transportName, boolean success, long duration) {
         NotificationsStatisticsKey key = new NotificationsStatisticsKey(transportName, success);
         GenericStatisticsData data = notificationsData.get(key);
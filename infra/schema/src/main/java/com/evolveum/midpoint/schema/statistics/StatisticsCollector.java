@@ -54,6 +54,8 @@ public interface StatisticsCollector {
 
     void recordProvisioningOperation(String resourceOid, String resourceName, QName objectClassName, ProvisioningOperation operation, boolean success, int count, long duration);
 
+    void recordProvisioningThrottling(String resourceOid, String resourceName, QName objectClassName, ProvisioningOperation operation, long waitTime);
+
     void recordNotificationOperation(String transportName, boolean success, long duration);
 
     void recordMappingOperation(String objectOid, String objectName, String objectTypeName, String mappingName, long duration);
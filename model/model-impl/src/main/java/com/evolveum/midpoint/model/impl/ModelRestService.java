@@ -47,6 +47,8 @@ import com.evolveum.midpoint.prism.PrismValue;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
 import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.RepositoryDiag;
+import com.evolveum.midpoint.schema.RepositoryOperationStatistics;
 import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.task.api.TaskManager;
@@ -110,6 +112,7 @@ public class ModelRestService {
 	public static final String OPERATION_COMPARE = CLASS_DOT + "compare";
 	public static final String OPERATION_GET_LOG_FILE_CONTENT = CLASS_DOT + "getLogFileContent";
 	public static final String OPERATION_GET_LOG_FILE_SIZE = CLASS_DOT + "getLogFileSize";
+	public static final String OPERATION_GET_REPOSITORY_STATISTICS = CLASS_DOT + "getRepositoryStatistics";
 	private static final String CURRENT = "current";
 	private static final String VALIDATE = "validate";
 
@@ -817,6 +820,36 @@ public class ModelRestService {
 		return response;
 	}
 
+	@GET
+	@Path("/repository/statistics")
+	@Produces({"text/plain"})
+	public Response getRepositoryStatistics(@Context MessageContext mc) {
+
+		Task task = RestServiceUtil.initRequest(mc);
+		OperationResult result = task.getResult().createSubresult(OPERATION_GET_REPOSITORY_STATISTICS);
+
+		Response response;
+		try {
+			RepositoryDiag diag = modelDiagnosticService.getRepositoryDiag(task, result);
+			StringBuilder sb = new StringBuilder();
+			if (diag.getOperationStatistics() != null) {
+				for (RepositoryOperationStatistics statistics : diag.getOperationStatistics()) {
+					sb.append(statistics).append("\n");
+				}
+			}
+
+			ResponseBuilder builder = Response.ok();
+			builder.entity(sb.toString());
+			response = builder.build();
+		} catch (Exception ex) {
+			response = RestServiceUtil.handleException(ex);
+		}
+
+		result.computeStatus();
+		finishRequest(task);
+		return response;
+	}
+
 
 	//    @GET
 //    @Path("tasks/{oid}")
@@ -27,6 +27,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.audit.api.AuditResultHandler;
 import com.evolveum.midpoint.audit.api.AuditEventStage;
 import com.evolveum.midpoint.audit.api.AuditService;
 import com.evolveum.midpoint.model.api.ModelAuditService;
@@ -79,6 +80,12 @@ public class AuditController implements ModelAuditService {
 		return auditService.listRecords(query, params);
 	}
 
+	@Override
+	public void listRecordsIterative(String query, Map<String, Object> params, AuditResultHandler handler) {
+		// TODO: authorizations
+		auditService.listRecordsIterative(query, params, handler);
+	}
+
 	/* (non-Javadoc)
 	 * @see com.evolveum.midpoint.audit.api.AuditService#countObjects(java.lang.String, java.util.Map)
 	 */
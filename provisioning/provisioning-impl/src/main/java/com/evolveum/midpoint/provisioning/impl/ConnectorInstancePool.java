@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.evolveum.midpoint.prism.PrismContainer;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.provisioning.ucf.api.ChangeHandler;
+import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
+import com.evolveum.midpoint.schema.statistics.ConnectorOperationalStatus;
+import com.evolveum.midpoint.util.exception.CommunicationException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+
+/**
+ * Configured connector instances for one resource.
+ *
+ * Instances are handed out in the form of proxies that keep track of operations in progress. A new instance is created
+ * (up to maxSize) only if all existing ones are busy. Operations that communicate with the resource (i.e. those declaring
+ * CommunicationException) can be limited by maxConcurrentOperations; nested operations in the same thread (e.g. fetching
+ * an object from within a search handler) do not count again.
+ *
+ * Streaming fetch of changes (the variant with ChangeHandler) does not take a permit. Its handler may pass
+ * the changes to worker threads (see ParallelChangeProcessor) and wait for them; the workers need permits for their
+ * own operations, so with a small limit a fetch holding a permit would block them until maxWait elapses. Operations
+ * invoked by the handler itself count as usual.
+ *
+ * When the pool is replaced (e.g. because the resource configuration has changed), it is retired: idle instances
+ * are disposed immediately, the busy ones when their last operation finishes.
+ *
+ * Reuse check is done by resource version; if the version changes, configuration fingerprint (hash) is compared,
+ * and only if it matches, the configurations are compared in full.
+ *
+ * @author agent
+ */
+class ConnectorInstancePool {
+
+	private static final Trace LOGGER = TraceManager.getTrace(ConnectorInstancePool.class);
+
+	static class Configuration {
+		final int minSize;
+		final int maxSize;
+		final int maxConcurrentOperations;			// 0 means no limit
+		final long maxWait;							// milliseconds
+
+		Configuration(int minSize, int maxSize, int maxConcurrentOperations, long maxWait) {
+			this.maxSize = Math.max(maxSize, 1);
+			this.minSize = Math.min(Math.max(minSize, 1), this.maxSize);
+			this.maxConcurrentOperations = Math.max(maxConcurrentOperations, 0);
+			this.maxWait = maxWait;
+		}
+	}
+
+	private final String resourceDescription;
+	private final String connectorOid;
+	private volatile String resourceVersion;
+	private final PrismContainer<?> configuration;
+	private final int configurationFingerprint;
+	private final Configuration poolConfiguration;
+
+	private final List<PooledInstance> instances = new CopyOnWriteArrayList<>();
+	private volatile boolean retired;
+	private final Semaphore permits;
+	private final ThreadLocal<int[]> nestingLevel = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+	private final AtomicInteger activeOperations = new AtomicInteger();
+	private final AtomicLong operations = new AtomicLong();
+	private final AtomicLong waits = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+
+	ConnectorInstancePool(PrismObject<ResourceType> resource, String connectorOid, Configuration poolConfiguration) {
+		this.resourceDescription = resource.toString();
+		this.connectorOid = connectorOid;
+		this.resourceVersion = resource.getVersion();
+		this.configuration = resource.findContainer(ResourceType.F_CONNECTOR_CONFIGURATION);
+		this.configurationFingerprint = fingerprint(configuration);
+		this.poolConfiguration = poolConfiguration;
+		this.permits = poolConfiguration.maxConcurrentOperations > 0 ?
+				new Semaphore(poolConfiguration.maxConcurrentOperations, true) : null;
+	}
+
+	private static int fingerprint(PrismContainer<?> configuration) {
+		return configuration != null ? configuration.hashCode() : 0;
+	}
+
+	boolean matches(PrismObject<ResourceType> resource, String connectorOid) {
+		if (this.connectorOid == null ? connectorOid != null : !this.connectorOid.equals(connectorOid)) {
+			return false;
+		}
+		String version = resource.getVersion();
+		if (version != null && version.equals(resourceVersion)) {
+			return true;
+		}
+		PrismContainer<?> newConfiguration = resource.findContainer(ResourceType.F_CONNECTOR_CONFIGURATION);
+		if (fingerprint(newConfiguration) != configurationFingerprint) {
+			return false;
+		}
+		if (configuration == null ? newConfiguration != null : !configuration.equivalent(newConfiguration)) {
+			return false;
+		}
+		resourceVersion = version;
+		return true;
+	}
+
+	/**
+	 * Returns an instance that is currently not used. If there is none, returns the least busy one -
+	 * or null if the pool can grow.
+	 */
+	ConnectorInstance selectInstance() {
+		PooledInstance best = null;
+		for (PooledInstance instance : instances) {
+			int inUse = instance.inUse.get();
+			if (inUse == 0) {
+				return instance.proxy;
+			}
+			if (best == null || inUse < best.inUse.get()) {
+				best = instance;
+			}
+		}
+		if (best == null || instances.size() < poolConfiguration.maxSize) {
+			return null;
+		}
+		return best.proxy;
+	}
+
+	boolean needsMoreInstances() {
+		return instances.size() < poolConfiguration.minSize;
+	}
+
+	ConnectorInstance addInstance(ConnectorInstance connectorInstance) {
+		PooledInstance pooledInstance = new PooledInstance(connectorInstance);
+		instances.add(pooledInstance);
+		LOGGER.debug("Connector instance pool for {} has now {} instance(s)", resourceDescription, instances.size());
+		return pooledInstance.proxy;
+	}
+
+	void dispose() {
+		for (PooledInstance instance : instances) {
+			instance.dispose();
+		}
+	}
+
+	/**
+	 * Called when the pool is no longer used for new operations. Operations in progress are let finish.
+	 */
+	void retire() {
+		retired = true;
+		LOGGER.debug("Retiring connector instance pool for {} ({} instance(s))", resourceDescription, instances.size());
+		for (PooledInstance instance : instances) {
+			instance.disposeIfIdle();
+		}
+	}
+
+	void fillInOperationalStatus(ConnectorOperationalStatus status) {
+		status.setInstancePoolSize(instances.size());
+		status.setInstancePoolMaxSize(poolConfiguration.maxSize);
+		status.setInstancePoolMaxConcurrentOperations(poolConfiguration.maxConcurrentOperations);
+		status.setInstancePoolActiveOperations(activeOperations.get());
+		status.setInstancePoolOperations(operations.get());
+		status.setInstancePoolWaits(waits.get());
+		status.setInstancePoolTimeouts(timeouts.get());
+	}
+
+	private class PooledInstance implements InvocationHandler {
+		private final ConnectorInstance target;
+		private final ConnectorInstance proxy;
+		private final AtomicInteger inUse = new AtomicInteger();
+		private final AtomicBoolean disposed = new AtomicBoolean();
+
+		PooledInstance(ConnectorInstance target) {
+			this.target = target;
+			this.proxy = (ConnectorInstance) Proxy.newProxyInstance(ConnectorInstance.class.getClassLoader(),
+					new Class<?>[] { ConnectorInstance.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getDeclaringClass() == Object.class) {
+				switch (method.getName()) {
+					case "equals": return proxy == args[0];
+					case "hashCode": return System.identityHashCode(proxy);
+					default: return invokeTarget(method, args);
+				}
+			}
+			if (!isResourceOperation(method)) {
+				return invokeTarget(method, args);
+			}
+			boolean streaming = isStreamingOperation(method);
+			int[] level = nestingLevel.get();
+			boolean acquired = false;
+			if (level[0] == 0 && permits != null && !streaming) {
+				acquirePermit(method);
+				acquired = true;
+			}
+			if (!streaming) {
+				level[0]++;
+			}
+			inUse.incrementAndGet();
+			activeOperations.incrementAndGet();
+			operations.incrementAndGet();
+			try {
+				return invokeTarget(method, args);
+			} finally {
+				activeOperations.decrementAndGet();
+				inUse.decrementAndGet();
+				if (!streaming) {
+					level[0]--;
+				}
+				if (acquired) {
+					permits.release();
+				}
+				if (retired) {
+					disposeIfIdle();
+				}
+			}
+		}
+
+		private void disposeIfIdle() {
+			if (inUse.get() == 0) {
+				dispose();
+			}
+		}
+
+		private void dispose() {
+			if (disposed.compareAndSet(false, true)) {
+				target.dispose();
+			}
+		}
+
+		private void acquirePermit(Method method) throws CommunicationException {
+			if (permits.tryAcquire()) {
+				return;
+			}
+			waits.incrementAndGet();
+			boolean acquired;
+			try {
+				acquired = permits.tryAcquire(poolConfiguration.maxWait, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CommunicationException("Interrupted while waiting for " + method.getName() + " operation on "
+						+ resourceDescription, e);
+			}
+			if (!acquired) {
+				timeouts.incrementAndGet();
+				throw new CommunicationException("Timed out waiting for " + method.getName() + " operation on "
+						+ resourceDescription + ": more than " + poolConfiguration.maxConcurrentOperations
+						+ " concurrent operation(s) for " + poolConfiguration.maxWait + " ms");
+			}
+		}
+
+		private Object invokeTarget(Method method, Object[] args) throws Throwable {
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	/**
+	 * Operations that pass the data to a handler as they are received, and whose handler may wait for other threads.
+	 */
+	private static boolean isStreamingOperation(Method method) {
+		for (Class<?> parameterType : method.getParameterTypes()) {
+			if (parameterType == ChangeHandler.class) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isResourceOperation(Method method) {
+		for (Class<?> exceptionType : method.getExceptionTypes()) {
+			if (exceptionType == CommunicationException.class) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -19,12 +19,14 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import javax.annotation.PostConstruct;
+
 import com.evolveum.midpoint.common.refinery.RefinedResourceSchemaImpl;
 import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
+import org.apache.commons.configuration.Configuration;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -32,8 +34,8 @@ import org.springframework.stereotype.Component;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
 import com.evolveum.midpoint.common.refinery.RefinedResourceSchema;
-import com.evolveum.midpoint.prism.PrismContainer;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.query.AndFilter;
@@ -90,35 +92,72 @@ public class ConnectorManager {
 	private ConnectorFactory connectorFactory;
 	@Autowired(required = true)
 	private PrismContext prismContext;
+	@Autowired(required = false)
+	private MidpointConfiguration midpointConfiguration;
 
 	private static final Trace LOGGER = TraceManager.getTrace(ConnectorManager.class);
 
-	private Map<String, ConfiguredConnectorInstanceEntry> connectorInstanceCache = new ConcurrentHashMap<String, ConnectorManager.ConfiguredConnectorInstanceEntry>();
+	private static final String CONFIGURATION_SECTION = "midpoint.provisioning.connectorInstancePool";
+	private static final int DEFAULT_MIN_SIZE = 1;
+	private static final int DEFAULT_MAX_SIZE = 1;
+	private static final int DEFAULT_MAX_CONCURRENT_OPERATIONS = 0;			// no limit
+	private static final long DEFAULT_MAX_WAIT = 60000L;
+
+	private Map<String, ConnectorInstancePool> connectorInstancePools = new ConcurrentHashMap<String, ConnectorInstancePool>();
 	private Map<String, ConnectorType> connectorTypeCache = new ConcurrentHashMap<String, ConnectorType>();
+	private ConnectorInstancePool.Configuration poolConfiguration =
+			new ConnectorInstancePool.Configuration(DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_MAX_CONCURRENT_OPERATIONS, DEFAULT_MAX_WAIT);
+
+	@PostConstruct
+	public void initialize() {
+		if (midpointConfiguration == null) {
+			return;
+		}
+		Configuration config = midpointConfiguration.getConfiguration(CONFIGURATION_SECTION);
+		poolConfiguration = new ConnectorInstancePool.Configuration(
+				config.getInt("minSize", DEFAULT_MIN_SIZE),
+				config.getInt("maxSize", DEFAULT_MAX_SIZE),
+				config.getInt("maxConcurrentOperations", DEFAULT_MAX_CONCURRENT_OPERATIONS),
+				config.getLong("maxWait", DEFAULT_MAX_WAIT));
+		LOGGER.debug("Connector instance pool configuration: minSize={}, maxSize={}, maxConcurrentOperations={}, maxWait={}",
+				poolConfiguration.minSize, poolConfiguration.maxSize, poolConfiguration.maxConcurrentOperations,
+				poolConfiguration.maxWait);
+	}
 
 	public ConnectorInstance getConfiguredConnectorInstance(PrismObject<ResourceType> resource, boolean forceFresh, OperationResult result)
 			throws ObjectNotFoundException, SchemaException, CommunicationException, ConfigurationException {
 		String resourceOid = resource.getOid();
 		String connectorOid = ResourceTypeUtil.getConnectorOid(resource);
-		if (connectorInstanceCache.containsKey(resourceOid)) {
-			// Check if the instance can be reused
-			ConfiguredConnectorInstanceEntry configuredConnectorInstanceEntry = connectorInstanceCache.get(resourceOid);
-
-			if (!forceFresh && configuredConnectorInstanceEntry.connectorOid.equals(connectorOid)
-					&& configuredConnectorInstanceEntry.configuration.equivalent(resource
-							.findContainer(ResourceType.F_CONNECTOR_CONFIGURATION))) {
-
-				// We found entry that matches
-				LOGGER.trace(
-						"HIT in connector cache: returning configured connector {} from cache (referenced from {})",
-						connectorOid, resource);
-				return configuredConnectorInstanceEntry.connectorInstance;
+		ConnectorInstancePool pool = connectorInstancePools.get(resourceOid);
+		if (pool != null) {
+			// Check if the instances can be reused
+			if (!forceFresh && pool.matches(resource, connectorOid)) {
+				ConnectorInstance connectorInstance = pool.selectInstance();
+				if (connectorInstance != null) {
+					// We found entry that matches
+					LOGGER.trace(
+							"HIT in connector cache: returning configured connector {} from cache (referenced from {})",
+							connectorOid, resource);
+					return connectorInstance;
+				}
+				// All instances are busy and the pool can grow
+				synchronized (pool) {
+					connectorInstance = pool.selectInstance();
+					if (connectorInstance == null) {
+						LOGGER.debug("GROW in connector cache: creating configured connector {} as referenced from {}",
+								connectorOid, resource);
+						connectorInstance = pool.addInstance(createConfiguredConnectorInstance(resource, result));
+					}
+				}
+				return connectorInstance;
 
 			} else {
 				// There is an entry but it does not match. We assume that the
 				// resource configuration has changed
 				// and the old entry is useless now. So remove it.
-				connectorInstanceCache.remove(resourceOid);
+				if (connectorInstancePools.remove(resourceOid, pool)) {
+					pool.retire();
+				}
 			}
 
 		}
@@ -131,14 +170,17 @@ public class ConnectorManager {
 		}
 
 		// No usable connector in cache. Let's create it.
-		ConnectorInstance configuredConnectorInstance = createConfiguredConnectorInstance(resource, result);
+		pool = new ConnectorInstancePool(resource, connectorOid, poolConfiguration);
+		ConnectorInstance configuredConnectorInstance = pool.addInstance(createConfiguredConnectorInstance(resource, result));
+		while (pool.needsMoreInstances()) {
+			pool.addInstance(createConfiguredConnectorInstance(resource, result));
+		}
 
 		// .. and cache it
-		ConfiguredConnectorInstanceEntry cacheEntry = new ConfiguredConnectorInstanceEntry();
-		cacheEntry.connectorOid = connectorOid;
-		cacheEntry.configuration = resource.findContainer(ResourceType.F_CONNECTOR_CONFIGURATION);
-		cacheEntry.connectorInstance = configuredConnectorInstance;
-		connectorInstanceCache.put(resourceOid, cacheEntry);
+		ConnectorInstancePool replaced = connectorInstancePools.put(resourceOid, pool);
+		if (replaced != null) {
+			replaced.retire();		// forced fresh instance or concurrent creation
+		}
 
 		return configuredConnectorInstance;
 	}
@@ -222,7 +264,9 @@ public class ConnectorManager {
 					connectorTypeCache.put(connOid, connectorType);
 				}
 			}
-			resourceType.setConnector(connectorType);
+			if (!resourceType.asPrismObject().isImmutable()) {		// cached resource snapshots already have the connector
+				resourceType.setConnector(connectorType);
+			}
 		}
 		if (connectorType.getConnectorHost() == null && connectorType.getConnectorHostRef() != null) {
 			// We need to resolve the connector host
@@ -500,24 +544,23 @@ public class ConnectorManager {
         return connectorFactory.getFrameworkVersion();
     }
 
-    private class ConfiguredConnectorInstanceEntry {
-		public String connectorOid;
-		public PrismContainer configuration;
-		public ConnectorInstance connectorInstance;
-	}
-
 	public void connectorFrameworkSelfTest(OperationResult parentTestResult, Task task) {
 		connectorFactory.selfTest(parentTestResult);
 	}
 	
 	public ConnectorOperationalStatus getConnectorOperationalStatus(PrismObject<ResourceType> resource, OperationResult result) throws ObjectNotFoundException, SchemaException, CommunicationException, ConfigurationException {
 		ConnectorInstance connectorInstance = getConfiguredConnectorInstance(resource, false, result);
-		return connectorInstance.getOperationalStatus();
+		ConnectorOperationalStatus status = connectorInstance.getOperationalStatus();
+		ConnectorInstancePool pool = connectorInstancePools.get(resource.getOid());
+		if (status != null && pool != null) {
+			pool.fillInOperationalStatus(status);
+		}
+		return status;
 	}
 
 	public void shutdown() {
-		for (Entry<String,ConfiguredConnectorInstanceEntry> connectorInstanceCacheEntry: connectorInstanceCache.entrySet()) {
-			connectorInstanceCacheEntry.getValue().connectorInstance.dispose();
+		for (ConnectorInstancePool pool : connectorInstancePools.values()) {
+			pool.dispose();
 		}
 		connectorFactory.shutdown();
 	}
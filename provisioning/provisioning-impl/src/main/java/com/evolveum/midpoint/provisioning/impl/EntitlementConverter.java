@@ -54,6 +54,7 @@ import com.evolveum.midpoint.schema.processor.ResourceAttributeContainer;
 import com.evolveum.midpoint.schema.processor.ResourceObjectIdentification;
 import com.evolveum.midpoint.schema.processor.SearchHierarchyConstraints;
 import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.SearchResultMetadata;
 import com.evolveum.midpoint.schema.util.ResourceTypeUtil;
 import com.evolveum.midpoint.schema.util.ShadowUtil;
 import com.evolveum.midpoint.util.exception.CommunicationException;
@@ -99,6 +100,15 @@ class EntitlementConverter {
 	
 	public void postProcessEntitlementsRead(ProvisioningContext subjectCtx,
 			PrismObject<ShadowType> resourceObject, OperationResult parentResult) throws SchemaException, CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException {
+		postProcessEntitlementsRead(subjectCtx, resourceObject, null, parentResult);
+	}
+
+	/**
+	 * @param entitlementIndex If not null, object-to-subject associations are resolved using this index
+	 *                         (filled in on first use) instead of searching the entitlements for each subject.
+	 */
+	public void postProcessEntitlementsRead(ProvisioningContext subjectCtx,
+			PrismObject<ShadowType> resourceObject, EntitlementIndex entitlementIndex, OperationResult parentResult) throws SchemaException, CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException {
 		ResourceType resourceType = subjectCtx.getResource();
 		LOGGER.trace("Starting postProcessEntitlementRead");
 		RefinedObjectClassDefinition objectClassDefinition = subjectCtx.getObjectClassDefinition();
@@ -128,7 +138,7 @@ class EntitlementConverter {
 									assocDefType.getResourceObjectAssociationType().getShortcutAssociationAttribute(),
 									assocDefType.getResourceObjectAssociationType().getShortcutValueAttribute(), parentResult);
 						} else {
-							postProcessEntitlementEntitlementToSubject(subjectCtx, resourceObject, assocDefType, entitlementCtx, attributesContainer, associationContainer, parentResult);
+							postProcessEntitlementEntitlementToSubject(subjectCtx, resourceObject, assocDefType, intent, entitlementCtx, attributesContainer, associationContainer, entitlementIndex, parentResult);
 						}
 					} else {
 						throw new IllegalArgumentException("Unknown entitlement direction "+direction+" in association "+assocDefType+" in "+resourceType);
@@ -201,9 +211,9 @@ class EntitlementConverter {
     }
 	
 	private <S extends ShadowType,T> void postProcessEntitlementEntitlementToSubject(ProvisioningContext subjectCtx, final PrismObject<S> resourceObject, 
-			RefinedAssociationDefinition assocDefType, final ProvisioningContext entitlementCtx,
+			RefinedAssociationDefinition assocDefType, String intent, final ProvisioningContext entitlementCtx,
 			ResourceAttributeContainer attributesContainer, final PrismContainer<ShadowAssociationType> associationContainer,
-			OperationResult parentResult) throws SchemaException, CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException {
+			EntitlementIndex entitlementIndex, OperationResult parentResult) throws SchemaException, CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException {
 		ResourceType resourceType = subjectCtx.getResource();
 		final QName associationName = assocDefType.getName();
 		final RefinedObjectClassDefinition entitlementDef = entitlementCtx.getObjectClassDefinition();
@@ -245,22 +255,6 @@ class EntitlementConverter {
 			throw new SchemaException("Value attribute "+valueAttrName+" has no more than one value; attribute defined in entitlement association '"+associationName+"' in "+resourceType);
 		}
 		
-		ObjectQuery query = createQuery(assocDefType, assocAttrDef, valueAttr);
-		
-		AttributesToReturn attributesToReturn = ProvisioningUtil.createAttributesToReturn(entitlementCtx);
-		
-		SearchHierarchyConstraints searchHierarchyConstraints = null;
-		ResourceObjectReferenceType baseContextRef = entitlementDef.getBaseContext();
-		if (baseContextRef != null) {
-			// TODO: this should be done once per search. Not in every run of postProcessEntitlementEntitlementToSubject
-			// this has to go outside of this method
-			PrismObject<ShadowType> baseContextShadow = resourceObjectReferenceResolver.resolve(subjectCtx, baseContextRef, 
-					null, "base context specification in "+entitlementDef, parentResult);
-			RefinedObjectClassDefinition baseContextObjectClassDefinition = subjectCtx.getRefinedSchema().determineCompositeObjectClassDefinition(baseContextShadow);
-			ResourceObjectIdentification baseContextIdentification =  ShadowUtil.getResourceObjectIdentification(baseContextShadow, baseContextObjectClassDefinition);
-			searchHierarchyConstraints = new SearchHierarchyConstraints(baseContextIdentification, null);
-		}
-		
 		ResultHandler<ShadowType> handler = new ResultHandler<ShadowType>() {
 			@Override
 			public boolean handle(PrismObject<ShadowType> entitlementShadow) {
@@ -286,6 +280,30 @@ class EntitlementConverter {
 			}
 		};
 		
+		// Without an explicit matching rule we do not know how the resource compares the values (e.g. LDAP DNs),
+		// so only the resource itself can be asked.
+		EntitlementIndex.Partition partition = entitlementIndex != null && assocDefType.getMatchingRule() != null ?
+				entitlementIndex.getPartition(associationName, intent) : null;
+		if (partition != null && partition.registerSubject()) {
+			fillInEntitlementIndexPartitionIfNeeded(partition, subjectCtx, assocDefType, entitlementCtx, assocAttrDef, parentResult);
+			if (!partition.isSpilled()) {
+				Object normalizedValue = getNormalizedAssociationValue(assocDefType, assocAttrDef, valueAttr);
+				try {
+					for (PrismObject<ShadowType> entitlementShadow : partition.get(normalizedValue)) {
+						// the indexed shadow is shared by all the subjects
+						handler.handle(entitlementShadow.clone());
+					}
+				} catch (TunnelException e) {
+					throw (SchemaException)e.getCause();
+				}
+				return;
+			}
+		}
+
+		ObjectQuery query = createQuery(assocDefType, assocAttrDef, valueAttr);
+		AttributesToReturn attributesToReturn = ProvisioningUtil.createAttributesToReturn(entitlementCtx);
+		SearchHierarchyConstraints searchHierarchyConstraints = createSearchHierarchyConstraints(subjectCtx, entitlementDef, parentResult);
+
 		ConnectorInstance connector = subjectCtx.getConnector(parentResult);
 		try {
 			if (LOGGER.isTraceEnabled()) {
@@ -304,12 +322,126 @@ class EntitlementConverter {
 		
 	}
 
-    // precondition: valueAttr has exactly one value
-	private <TV,TA> ObjectQuery createQuery(RefinedAssociationDefinition assocDefType, RefinedAttributeDefinition<TA> assocAttrDef, ResourceAttribute<TV> valueAttr) throws SchemaException{
+	private SearchHierarchyConstraints createSearchHierarchyConstraints(ProvisioningContext subjectCtx,
+			RefinedObjectClassDefinition entitlementDef, OperationResult parentResult) throws SchemaException, CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException {
+		ResourceObjectReferenceType baseContextRef = entitlementDef.getBaseContext();
+		if (baseContextRef == null) {
+			return null;
+		}
+		// TODO: this should be done once per search. Not in every run of postProcessEntitlementEntitlementToSubject
+		// this has to go outside of this method
+		PrismObject<ShadowType> baseContextShadow = resourceObjectReferenceResolver.resolve(subjectCtx, baseContextRef, 
+				null, "base context specification in "+entitlementDef, parentResult);
+		RefinedObjectClassDefinition baseContextObjectClassDefinition = subjectCtx.getRefinedSchema().determineCompositeObjectClassDefinition(baseContextShadow);
+		ResourceObjectIdentification baseContextIdentification =  ShadowUtil.getResourceObjectIdentification(baseContextShadow, baseContextObjectClassDefinition);
+		return new SearchHierarchyConstraints(baseContextIdentification, null);
+	}
+
+	private <TA> void fillInEntitlementIndexPartitionIfNeeded(EntitlementIndex.Partition partition,
+			ProvisioningContext subjectCtx, RefinedAssociationDefinition assocDefType,
+			ProvisioningContext entitlementCtx, RefinedAttributeDefinition<TA> assocAttrDef, OperationResult parentResult)
+			throws SchemaException, CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException {
+		// The partition is filled in only once; other threads (if any) have to wait for it.
+		synchronized (partition) {
+			if (!partition.isFilled()) {
+				try {
+					fillInEntitlementIndexPartition(partition, subjectCtx, assocDefType, entitlementCtx, assocAttrDef, parentResult);
+				} finally {
+					partition.setFilled();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fetches all the entitlements (of given intent) and indexes them by the association attribute values.
+	 * The association attribute itself is not kept in the indexed shadows, as it may be quite large (e.g. members
+	 * of a big group) and the shadows are cloned for each subject.
+	 */
+	private <TA> void fillInEntitlementIndexPartition(final EntitlementIndex.Partition partition, ProvisioningContext subjectCtx,
+			RefinedAssociationDefinition assocDefType, ProvisioningContext entitlementCtx,
+			final RefinedAttributeDefinition<TA> assocAttrDef, OperationResult parentResult)
+			throws SchemaException, CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException {
+		OperationResult result = parentResult.createMinorSubresult(EntitlementConverter.class.getName() + ".fillInEntitlementIndex");
+		result.addParam("association", String.valueOf(assocDefType.getName()));
+		final RefinedObjectClassDefinition entitlementDef = entitlementCtx.getObjectClassDefinition();
+		final MatchingRule<TA> matchingRule = matchingRuleRegistry.getMatchingRule(assocDefType.getResourceObjectAssociationType().getMatchingRule(),
+				assocAttrDef.getTypeName());
+		final int[] entitlements = new int[1];
+
+		ResultHandler<ShadowType> handler = new ResultHandler<ShadowType>() {
+			@Override
+			public boolean handle(PrismObject<ShadowType> entitlementShadow) {
+				ResourceAttributeContainer attributesContainer = ShadowUtil.getAttributesContainer(entitlementShadow);
+				ResourceAttribute<TA> assocAttr = attributesContainer.findAttribute(assocAttrDef.getName());
+				if (assocAttr == null || assocAttr.isEmpty()) {
+					return true;
+				}
+				attributesContainer.remove(assocAttr);
+				entitlements[0]++;
+				try {
+					for (PrismPropertyValue<TA> assocAttrPVal : assocAttr.getValues()) {
+						if (!partition.add(matchingRule.normalize(assocAttrPVal.getValue()), entitlementShadow)) {
+							return false;
+						}
+					}
+				} catch (SchemaException e) {
+					throw new TunnelException(e);
+				}
+				return true;
+			}
+		};
+
+		try {
+			ConnectorInstance connector = subjectCtx.getConnector(result);
+			SearchHierarchyConstraints searchHierarchyConstraints = createSearchHierarchyConstraints(subjectCtx, entitlementDef, result);
+			SearchResultMetadata metadata = connector.search(entitlementDef, null, handler,
+					ProvisioningUtil.createAttributesToReturn(entitlementCtx), entitlementDef.getPagedSearches(),
+					searchHierarchyConstraints, subjectCtx, result);
+			if (metadata != null && metadata.isPartialResults()) {
+				// incomplete index would give wrong (missing) associations
+				partition.spill();
+			}
+		} catch (TunnelException e) {
+			recordIndexFailure(partition, assocDefType, e.getCause(), result);
+			return;
+		} catch (GenericFrameworkException | SchemaException | CommunicationException | ObjectNotFoundException
+				| ConfigurationException | SecurityViolationException | RuntimeException e) {
+			// The subjects can still be processed one by one; if the problem persists, it will be reported there.
+			recordIndexFailure(partition, assocDefType, e, result);
+			return;
+		}
+
+		if (partition.isSpilled()) {
+			LOGGER.debug("Entitlements for association {} did not fit into the index; they will be searched for each subject separately",
+					assocDefType.getName());
+			result.recordSuccess();			// stopping the search is not a problem here
+		} else {
+			LOGGER.debug("Indexed {} entitlements for association {}", entitlements[0], assocDefType.getName());
+			result.computeStatus();
+		}
+	}
+
+	private void recordIndexFailure(EntitlementIndex.Partition partition, RefinedAssociationDefinition assocDefType,
+			Throwable t, OperationResult result) {
+		partition.spill();
+		LOGGER.warn("Couldn't fetch entitlements for association {}, they will be searched for each subject separately: {}",
+				assocDefType.getName(), t.getMessage(), t);
+		result.recordHandledError("Couldn't fetch entitlements for association " + assocDefType.getName()
+				+ ", they will be searched for each subject separately: " + t.getMessage(), t);
+	}
+
+	// precondition: valueAttr has exactly one value
+	private <TV,TA> TA getNormalizedAssociationValue(RefinedAssociationDefinition assocDefType, RefinedAttributeDefinition<TA> assocAttrDef, ResourceAttribute<TV> valueAttr) throws SchemaException {
 		MatchingRule<TA> matchingRule = matchingRuleRegistry.getMatchingRule(assocDefType.getResourceObjectAssociationType().getMatchingRule(),
 				assocAttrDef.getTypeName());
 		PrismPropertyValue<TA> converted = PrismUtil.convertPropertyValue(valueAttr.getValue(0), valueAttr.getDefinition(), assocAttrDef);
-		TA normalizedRealValue = matchingRule.normalize(converted.getValue());
+		return matchingRule.normalize(converted.getValue());
+	}
+
+    // precondition: valueAttr has exactly one value
+	private <TV,TA> ObjectQuery createQuery(RefinedAssociationDefinition assocDefType, RefinedAttributeDefinition<TA> assocAttrDef, ResourceAttribute<TV> valueAttr) throws SchemaException{
+		TA normalizedRealValue = getNormalizedAssociationValue(assocDefType, assocAttrDef, valueAttr);
 		PrismPropertyValue<TA> normalized = new PrismPropertyValue<TA>(normalizedRealValue);
 		LOGGER.trace("Converted entitlement filter: {} ({}) def={}", normalized, normalized.getValue().getClass(), assocAttrDef);
 		ObjectQuery query = QueryBuilder.queryFor(ShadowType.class, prismContext)
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * In-memory index of entitlements for object-to-subject associations, used when associations are fetched
+ * for many subjects at once (bulk search). Instead of searching the entitlements for each subject separately,
+ * all entitlements of given intent are fetched once and indexed by (normalized) values of the association
+ * attribute, e.g. group member.
+ *
+ * The index is filled in by EntitlementConverter when the association is needed for more than minSubjects
+ * subjects, so small searches do not pay for fetching all the entitlements. Its size (the number of
+ * subject-entitlement pairs) is limited. If an association does not fit, its partition is discarded and marked
+ * as spilled; the subjects are then processed in the usual way, one search per subject. The same applies
+ * if the resource does not return all the entitlements or if fetching them fails.
+ *
+ * The values are compared here, not on the resource, so the index is used only for associations with an explicit
+ * matching rule. Otherwise the resource could match values that differ in their string form (e.g. LDAP DNs).
+ *
+ * The index lives only for the duration of one search, so it does not reflect changes done in the meantime.
+ *
+ * @author agent
+ */
+class EntitlementIndex {
+
+	private final int minSubjects;
+	private final int maxSize;
+	private int size;
+
+	private final Map<PartitionKey, Partition> partitions = new HashMap<>();
+
+	EntitlementIndex(int minSubjects, int maxSize) {
+		this.minSubjects = minSubjects;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Returns the partition for given association and entitlement intent. It is created (empty) if needed.
+	 */
+	synchronized Partition getPartition(QName associationName, String intent) {
+		PartitionKey key = new PartitionKey(associationName, intent);
+		Partition partition = partitions.get(key);
+		if (partition == null) {
+			partition = new Partition();
+			partitions.put(key, partition);
+		}
+		return partition;
+	}
+
+	class Partition {
+		private Map<Object, List<PrismObject<ShadowType>>> entitlements = new HashMap<>();
+		private int subjects;
+		private boolean filled;
+		private boolean spilled;
+
+		/**
+		 * Registers a subject whose associations are to be resolved and tells whether the index should be used for it.
+		 */
+		boolean registerSubject() {
+			synchronized (EntitlementIndex.this) {
+				return !spilled && ++subjects > minSubjects;
+			}
+		}
+
+		boolean isFilled() {
+			synchronized (EntitlementIndex.this) {
+				return filled;
+			}
+		}
+
+		void setFilled() {
+			synchronized (EntitlementIndex.this) {
+				filled = true;
+			}
+		}
+
+		/**
+		 * Adds an entitlement under given normalized association attribute value.
+		 *
+		 * @return false if the index is full; the partition is then spilled and should not be filled in any more
+		 */
+		boolean add(Object normalizedValue, PrismObject<ShadowType> entitlement) {
+			synchronized (EntitlementIndex.this) {
+				if (spilled) {
+					return false;
+				}
+				if (size >= maxSize) {
+					spill();
+					return false;
+				}
+				List<PrismObject<ShadowType>> list = entitlements.get(normalizedValue);
+				if (list == null) {
+					list = new ArrayList<>(1);
+					entitlements.put(normalizedValue, list);
+				}
+				list.add(entitlement);
+				size++;
+				return true;
+			}
+		}
+
+		void spill() {
+			synchronized (EntitlementIndex.this) {
+				if (!spilled) {
+					spilled = true;
+					size -= countEntries();
+					entitlements = null;
+				}
+			}
+		}
+
+		boolean isSpilled() {
+			synchronized (EntitlementIndex.this) {
+				return spilled;
+			}
+		}
+
+		Collection<PrismObject<ShadowType>> get(Object normalizedValue) {
+			synchronized (EntitlementIndex.this) {
+				List<PrismObject<ShadowType>> list = entitlements != null ? entitlements.get(normalizedValue) : null;
+				return list != null ? list : Collections.<PrismObject<ShadowType>>emptyList();
+			}
+		}
+
+		private int countEntries() {
+			int count = 0;
+			for (List<PrismObject<ShadowType>> list : entitlements.values()) {
+				count += list.size();
+			}
+			return count;
+		}
+	}
+
+	private static class PartitionKey {
+		private final QName associationName;
+		private final String intent;
+
+		PartitionKey(QName associationName, String intent) {
+			this.associationName = associationName;
+			this.intent = intent;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			PartitionKey that = (PartitionKey) o;
+			if (associationName != null ? !associationName.equals(that.associationName) : that.associationName != null) return false;
+			return intent != null ? intent.equals(that.intent) : that.intent == null;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = associationName != null ? associationName.hashCode() : 0;
+			result = 31 * result + (intent != null ? intent.hashCode() : 0);
+			return result;
+		}
+	}
+}
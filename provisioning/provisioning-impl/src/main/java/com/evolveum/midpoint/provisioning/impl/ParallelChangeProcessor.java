@@ -0,0 +1,436 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl;
+
+import com.evolveum.midpoint.common.refinery.RefinedAttributeDefinition;
+import com.evolveum.midpoint.common.refinery.RefinedObjectClassDefinition;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.prism.match.MatchingRule;
+import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
+import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.provisioning.ucf.api.ChangeHandler;
+import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
+import com.evolveum.midpoint.schema.processor.ObjectClassComplexTypeDefinition;
+import com.evolveum.midpoint.schema.processor.ResourceAttribute;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.task.api.LightweightTaskHandler;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.util.exception.CommunicationException;
+import com.evolveum.midpoint.util.exception.ConfigurationException;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SecurityViolationException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Processes changes fetched by live synchronization in worker threads, as the connector provides them.
+ *
+ * Changes are distributed among workers according to the primary identifier of the resource object, so that
+ * changes of any single object are processed in the order in which they were fetched. The token is moved only
+ * to the last change of the longest contiguous sequence of finished changes. So if the processing is interrupted
+ * or fails, no change is skipped on the next run (although some may be processed again).
+ *
+ * Fetching of changes is throttled if too many of them are waiting or being processed.
+ *
+ * Task related operations (setting the token and progress) are done in the coordinator thread only, i.e.
+ * in the thread that fetches the changes.
+ *
+ * @author agent
+ */
+class ParallelChangeProcessor implements ChangeHandler {
+
+	private static final Trace LOGGER = TraceManager.getTrace(ParallelChangeProcessor.class);
+
+	private static final String OPERATION_PROCESS_CHANGE = ParallelChangeProcessor.class.getName() + ".processChange";
+	private static final String OPERATION_EXECUTE_WORKER = ParallelChangeProcessor.class.getName() + ".executeWorker";
+
+	private static final int QUEUE_SIZE_PER_WORKER = 100;
+	private static final int MAX_CHANGES_IN_PROGRESS_PER_WORKER = 1000;		// including finished ones waiting for a slower predecessor
+	private static final long WAIT_TIMEOUT = 1000L;
+	private static final long TOKEN_SAVE_INTERVAL = 10000L;
+
+	private final ShadowCache shadowCache;
+	private final ResourceObjectConverter resourceObjectConverter;
+	private final TaskManager taskManager;
+	private final MatchingRuleRegistry matchingRuleRegistry;
+	private final ProvisioningContext ctx;
+	private final Task coordinatorTask;
+	private final int workerThreads;
+	private final int maxChangesInProgress;
+
+	private final List<BlockingQueue<SequencedChange>> queues;
+	private final List<OperationResult> workerResults = new ArrayList<>();
+	private volatile boolean allChangesSubmitted;
+	private final AtomicBoolean stopRequested = new AtomicBoolean();
+	private final AtomicReference<Throwable> firstError = new AtomicReference<>();
+	private final AtomicInteger changesProcessed = new AtomicInteger();
+
+	private final ChangeSequence sequence = new ChangeSequence();
+
+	// accessed from the coordinator thread only
+	private PrismProperty<?> tokenInTask;
+	private int progressInTask;
+	private long tokenLastSaved = System.currentTimeMillis();
+
+	ParallelChangeProcessor(ShadowCache shadowCache, ResourceObjectConverter resourceObjectConverter,
+			TaskManager taskManager, MatchingRuleRegistry matchingRuleRegistry, ProvisioningContext ctx, int workerThreads) {
+		this.shadowCache = shadowCache;
+		this.resourceObjectConverter = resourceObjectConverter;
+		this.taskManager = taskManager;
+		this.matchingRuleRegistry = matchingRuleRegistry;
+		this.ctx = ctx;
+		this.coordinatorTask = ctx.getTask();
+		this.workerThreads = workerThreads;
+		this.maxChangesInProgress = workerThreads * MAX_CHANGES_IN_PROGRESS_PER_WORKER;
+		this.queues = new ArrayList<>(workerThreads);
+		for (int i = 0; i < workerThreads; i++) {
+			queues.add(new ArrayBlockingQueue<SequencedChange>(QUEUE_SIZE_PER_WORKER));
+		}
+	}
+
+	void start(OperationResult parentResult) {
+		for (int i = 0; i < workerThreads; i++) {
+			// worker results are put under the parent result only after the workers finish (because of concurrency issues)
+			OperationResult workerResult = new OperationResult(OPERATION_EXECUTE_WORKER);
+			workerResult.addContext("subtask", i);
+			workerResults.add(workerResult);
+
+			Task subtask = coordinatorTask.createSubtask(new Worker(queues.get(i), workerResult));
+			subtask.setCategory(coordinatorTask.getCategory());
+			subtask.setResult(new OperationResult(OPERATION_EXECUTE_WORKER, OperationResultStatus.IN_PROGRESS, null));
+			subtask.setName("Live sync worker " + (i+1) + " of " + workerThreads);
+			subtask.startLightweightHandler();
+			LOGGER.trace("Worker subtask {} created", subtask);
+		}
+	}
+
+	@Override
+	public boolean handleChange(Change change) {
+		long sequenceNumber;
+		try {
+			synchronized (sequence) {
+				while (sequence.getInProgress() >= maxChangesInProgress) {
+					if (shouldStop()) {
+						return false;
+					}
+					sequence.wait(WAIT_TIMEOUT);
+				}
+				sequenceNumber = sequence.next();
+			}
+			if (change.isTokenOnly()) {
+				LOGGER.trace("Found token-only change: {}", change);
+				sequence.finished(sequenceNumber, change.getToken());
+			} else {
+				BlockingQueue<SequencedChange> queue = queues.get(getWorkerIndex(change));
+				SequencedChange sequencedChange = new SequencedChange(sequenceNumber, change);
+				while (!queue.offer(sequencedChange, WAIT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+					if (shouldStop()) {
+						return false;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			LOGGER.trace("Interrupted when submitting a change", e);
+			stopRequested.set(true);
+			return false;
+		}
+		updateTask(false);
+		return !shouldStop();
+	}
+
+	/**
+	 * Processes the final token (returned by the connector after all changes were fetched). It is stored after all
+	 * the changes are processed. Not applicable if the processing was stopped, as the connector may return its
+	 * latest token in that case.
+	 */
+	void submitFinalToken(PrismProperty<?> finalToken) {
+		if (finalToken != null && !shouldStop()) {
+			handleChange(new Change((ObjectDelta<ShadowType>) null, finalToken));
+		}
+	}
+
+	/**
+	 * Waits for the workers to finish and stores the token of processed changes (and the progress) into the task.
+	 * Pending modifications of the task are not saved here.
+	 */
+	void finish(OperationResult parentResult) {
+		allChangesSubmitted = true;
+		taskManager.waitForTransientChildren(coordinatorTask, parentResult);
+		for (OperationResult workerResult : workerResults) {
+			workerResult.computeStatus();
+			workerResult.summarize();
+			parentResult.addSubresult(workerResult);
+		}
+		updateTask(true);
+	}
+
+	/**
+	 * Re-throws the first exception that occurred in any of the workers.
+	 */
+	void checkForErrors() throws SchemaException, ObjectNotFoundException, CommunicationException,
+			ConfigurationException, SecurityViolationException, ObjectAlreadyExistsException, GenericFrameworkException {
+		Throwable t = firstError.get();
+		if (t == null) {
+			return;
+		} else if (t instanceof SchemaException) {
+			throw (SchemaException) t;
+		} else if (t instanceof ObjectNotFoundException) {
+			throw (ObjectNotFoundException) t;
+		} else if (t instanceof CommunicationException) {
+			throw (CommunicationException) t;
+		} else if (t instanceof ConfigurationException) {
+			throw (ConfigurationException) t;
+		} else if (t instanceof SecurityViolationException) {
+			throw (SecurityViolationException) t;
+		} else if (t instanceof ObjectAlreadyExistsException) {
+			throw (ObjectAlreadyExistsException) t;
+		} else if (t instanceof GenericFrameworkException) {
+			throw (GenericFrameworkException) t;
+		} else if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		} else {
+			throw new SystemException("Unexpected exception when processing a change: " + t.getMessage(), t);
+		}
+	}
+
+	long getChangesSubmitted() {
+		return sequence.getSubmitted();
+	}
+
+	int getChangesProcessed() {
+		return changesProcessed.get();
+	}
+
+	private boolean shouldStop() {
+		return stopRequested.get() || !coordinatorTask.canRun();
+	}
+
+	private void updateTask(boolean force) {
+		PrismProperty<?> token = sequence.getCommittableToken();
+		try {
+			if (token != null && token != tokenInTask) {
+				coordinatorTask.setExtensionProperty(token);
+				tokenInTask = token;
+			}
+			int processed = changesProcessed.get();
+			coordinatorTask.setProgress(coordinatorTask.getProgress() + processed - progressInTask);
+			progressInTask = processed;
+			if (!force && System.currentTimeMillis() - tokenLastSaved >= TOKEN_SAVE_INTERVAL) {
+				coordinatorTask.savePendingModifications(new OperationResult(OPERATION_PROCESS_CHANGE));
+				tokenLastSaved = System.currentTimeMillis();
+			}
+		} catch (SchemaException | ObjectNotFoundException | ObjectAlreadyExistsException | RuntimeException e) {
+			LOGGER.error("Couldn't store live synchronization token into {}: {}", coordinatorTask, e.getMessage(), e);
+			recordError(e);
+		}
+	}
+
+	private void recordError(Throwable t) {
+		firstError.compareAndSet(null, t);
+		stopRequested.set(true);
+	}
+
+	/**
+	 * Changes of the same object have to go to the same worker. Only primary identifiers are taken into account,
+	 * because e.g. delete changes do not contain the secondary ones. Their values are normalized using the matching
+	 * rule of the attribute, as the resource may report the same identifier differently (e.g. in different case).
+	 */
+	private int getWorkerIndex(Change change) {
+		Collection<ResourceAttribute<?>> identifiers = change.getIdentifiers();
+		if (identifiers == null || identifiers.isEmpty()) {
+			return 0;
+		}
+		ObjectClassComplexTypeDefinition objectClassDefinition = change.getObjectClassDefinition();
+		RefinedObjectClassDefinition refinedDefinition = getRefinedDefinition(objectClassDefinition);
+		List<String> keys = new ArrayList<>(identifiers.size());
+		for (ResourceAttribute<?> identifier : identifiers) {
+			if (objectClassDefinition != null && objectClassDefinition.isSecondaryIdentifier(identifier.getElementName())) {
+				continue;
+			}
+			keys.add(identifier.getElementName() + "=" + getNormalizedValues(identifier, refinedDefinition));
+		}
+		Collections.sort(keys);
+		return (keys.hashCode() & Integer.MAX_VALUE) % workerThreads;
+	}
+
+	private RefinedObjectClassDefinition getRefinedDefinition(ObjectClassComplexTypeDefinition objectClassDefinition) {
+		if (objectClassDefinition == null) {
+			return null;
+		}
+		try {
+			return ctx.getRefinedSchema().getRefinedDefinition(objectClassDefinition.getTypeName());
+		} catch (SchemaException | ConfigurationException | ObjectNotFoundException | CommunicationException | RuntimeException e) {
+			// the same problem occurs for all changes of the object class, so their distribution is still consistent
+			LOGGER.warn("Couldn't get refined definition of {}, identifiers will not be normalized: {}",
+					objectClassDefinition.getTypeName(), e.getMessage(), e);
+			return null;
+		}
+	}
+
+	private <T> Collection<?> getNormalizedValues(ResourceAttribute<T> identifier, RefinedObjectClassDefinition refinedDefinition) {
+		RefinedAttributeDefinition<T> attributeDefinition = refinedDefinition != null ?
+				refinedDefinition.<T>findAttributeDefinition(identifier.getElementName()) : null;
+		if (attributeDefinition == null) {
+			return identifier.getRealValues();
+		}
+		try {
+			MatchingRule<T> matchingRule = matchingRuleRegistry.getMatchingRule(attributeDefinition.getMatchingRuleQName(),
+					attributeDefinition.getTypeName());
+			List<T> values = new ArrayList<>();
+			for (T value : identifier.getRealValues()) {
+				values.add(matchingRule.normalize(value));
+			}
+			return values;
+		} catch (SchemaException e) {
+			LOGGER.warn("Couldn't normalize values of {}, using them as they are: {}", identifier.getElementName(),
+					e.getMessage(), e);
+			return identifier.getRealValues();
+		}
+	}
+
+	private class Worker implements LightweightTaskHandler {
+
+		private final BlockingQueue<SequencedChange> queue;
+		private final OperationResult workerResult;
+
+		private Worker(BlockingQueue<SequencedChange> queue, OperationResult workerResult) {
+			this.queue = queue;
+			this.workerResult = workerResult;
+		}
+
+		@Override
+		public void run(Task workerTask) {
+			ProvisioningContext workerCtx = ctx.spawn(workerTask);
+			while (workerTask.canRun() && !stopRequested.get()) {
+				SequencedChange sequencedChange;
+				try {
+					sequencedChange = queue.poll(WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					LOGGER.trace("Interrupted when waiting for next change", e);
+					return;
+				}
+				if (sequencedChange != null) {
+					processChange(workerCtx, sequencedChange);
+				} else if (allChangesSubmitted) {
+					LOGGER.trace("Queue is empty and nothing more is expected - exiting");
+					return;
+				}
+			}
+		}
+
+		private void processChange(ProvisioningContext workerCtx, SequencedChange sequencedChange) {
+			Change change = sequencedChange.change;
+			OperationResult result = workerResult.createSubresult(OPERATION_PROCESS_CHANGE);
+			result.addArbitraryObjectAsParam("change", change);
+			RepositoryCache.enter();
+			try {
+				if (resourceObjectConverter.preProcessChange(workerCtx, change, result)) {
+					Boolean success = shadowCache.processSynchronizationChange(workerCtx, change, result);
+					if (Boolean.TRUE.equals(success)) {
+						changesProcessed.incrementAndGet();
+					}
+				}
+				result.computeStatusIfUnknown();
+				sequence.finished(sequencedChange.sequenceNumber, change.getToken());
+			} catch (Throwable t) {
+				LOGGER.error("Couldn't process change {}: {}", change, t.getMessage(), t);
+				result.recordFatalError(t);
+				recordError(t);
+			} finally {
+				RepositoryCache.exit();
+				workerResult.summarize();
+			}
+		}
+	}
+
+	/**
+	 * Sequence numbers and tokens of the changes. The token that can be committed is the one of the last change
+	 * of the longest contiguous sequence of finished changes (a change without token does not move it).
+	 *
+	 * Threads waiting for the number of changes in progress to drop should wait on this object.
+	 */
+	static class ChangeSequence {
+
+		private long nextSequenceNumber;
+		private long firstUnfinished;
+		private final Map<Long, PrismProperty<?>> finishedAfterFirstUnfinished = new HashMap<>();
+		private PrismProperty<?> committableToken;
+
+		synchronized long next() {
+			return nextSequenceNumber++;
+		}
+
+		synchronized void finished(long sequenceNumber, PrismProperty<?> token) {
+			finishedAfterFirstUnfinished.put(sequenceNumber, token);
+			while (finishedAfterFirstUnfinished.containsKey(firstUnfinished)) {
+				PrismProperty<?> finishedToken = finishedAfterFirstUnfinished.remove(firstUnfinished);
+				if (finishedToken != null) {
+					committableToken = finishedToken;
+				}
+				firstUnfinished++;
+			}
+			notifyAll();
+		}
+
+		/**
+		 * Number of changes that were submitted and either are not finished or wait for a predecessor to finish.
+		 */
+		synchronized long getInProgress() {
+			return nextSequenceNumber - firstUnfinished;
+		}
+
+		synchronized long getSubmitted() {
+			return nextSequenceNumber;
+		}
+
+		synchronized PrismProperty<?> getCommittableToken() {
+			return committableToken;
+		}
+	}
+
+	private static class SequencedChange {
+		private final long sequenceNumber;
+		private final Change change;
+
+		private SequencedChange(long sequenceNumber, Change change) {
+			this.sequenceNumber = sequenceNumber;
+			this.change = change;
+		}
+	}
+}
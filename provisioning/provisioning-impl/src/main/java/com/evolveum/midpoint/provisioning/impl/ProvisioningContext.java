@@ -23,6 +23,7 @@ import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.ResourceShadowDiscriminator;
 import com.evolveum.midpoint.schema.processor.ObjectClassComplexTypeDefinition;
 import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.exception.*;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
@@ -218,6 +219,20 @@ public class ProvisioningContext extends StateReporter {
 		return ctx;
 	}
 		
+	/**
+	 * Creates a context for the same resource and object class, bound to a different task (e.g. a worker thread).
+	 */
+	public ProvisioningContext spawn(Task task) {
+		ProvisioningContext ctx = spawnSameResource();
+		ctx.setTask(task);
+		ctx.shadowCoordinates = this.shadowCoordinates;
+		ctx.originalShadow = this.originalShadow;
+		ctx.additionalAuxiliaryObjectClassQNames = this.additionalAuxiliaryObjectClassQNames;
+		ctx.useRefinedDefinition = this.useRefinedDefinition;
+		ctx.objectClassDefinition = this.objectClassDefinition;
+		return ctx;
+	}
+
 //	/**
 //	 * Creates a context for a different object class on the same resource.
 //	 */
@@ -316,7 +316,8 @@ public class ProvisioningServiceImpl implements ProvisioningService {
 		}
 		
 		result.computeStatus();
-		if (!GetOperationOptions.isRaw(rootOptions)) {
+		if (!GetOperationOptions.isRaw(rootOptions) && !resultingObject.isImmutable()) {
+			// cached resource snapshots are immutable; they are cached only if they were fetched successfully
 			resultingObject.asObjectable().setFetchResult(result.createOperationResultType());
 		}
 		result.cleanupResult();
@@ -576,6 +577,7 @@ public class ProvisioningServiceImpl implements ProvisioningService {
 				validateObject(completeResource);
                 objResult.computeStatusIfUnknown();
                 if (!objResult.isSuccess()) {
+                    completeResource = completeResource.cloneIfImmutable();
                     completeResource.asObjectable().setFetchResult(objResult.createOperationResultType());      // necessary e.g. to skip validation for resources that had issues when checked
                     result.addSubresult(objResult);
                 }
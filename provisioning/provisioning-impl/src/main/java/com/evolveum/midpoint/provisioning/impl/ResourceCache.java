@@ -15,36 +15,70 @@
  */
 package com.evolveum.midpoint.provisioning.impl;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.evolveum.midpoint.common.refinery.RefinedResourceSchemaImpl;
+import com.evolveum.midpoint.common.refinery.ResourceSchemaCache;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheListener;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 
 /**
  * Class for caching ResourceType instances with a parsed schemas.
+ *
+ * Cached resources are immutable snapshots shared by all threads. They are handed out as they are to read-only
+ * callers; other callers get a (mutable) clone. Reads and writes do not block each other.
+ *
+ * Lookups are counted here (hits, misses and clones made for callers that did not ask for read-only access);
+ * requests coming through ResourceManager are also counted in InternalMonitor.getResourceCacheStats().
  * 
  * @author Radovan Semancik
  *
  */
 @Component
-public class ResourceCache {
+public class ResourceCache implements CacheListener {
 
-	private Map<String,PrismObject<ResourceType>> cache;
+	private final ConcurrentMap<String,PrismObject<ResourceType>> cache = new ConcurrentHashMap<>();
     @Autowired(required = true)
 	private PrismContext prismContext;
+    @Autowired(required = false)
+    private CacheDispatcher cacheDispatcher;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong clones = new AtomicLong();
+
+    @PostConstruct
+    public void register() {
+        ResourceSchemaCache.clear();        // schemas cached by previous (e.g. test) contexts are no longer relevant
+        if (cacheDispatcher != null) {
+            cacheDispatcher.registerCacheListener(this, Collections.<Class<? extends ObjectType>>singletonList(ResourceType.class));
+        }
+    }
 
-    ResourceCache() {
-        cache = new HashMap<String, PrismObject<ResourceType>>();
+    @PreDestroy
+    public void unregister() {
+        if (cacheDispatcher != null) {
+            cacheDispatcher.unregisterCacheListener(this);
+        }
+        ResourceSchemaCache.clear();
     }
 	
-	public synchronized void put(PrismObject<ResourceType> resource) throws SchemaException {
+	public void put(PrismObject<ResourceType> resource) throws SchemaException {
 		String oid = resource.getOid();
 		if (oid == null) {
 			throw new SchemaException("Attempt to cache "+resource+" without an OID");
@@ -56,16 +90,17 @@ public class ResourceCache {
 		}
 		
 		PrismObject<ResourceType> cachedResource = cache.get(oid);
-		if (cachedResource == null) {
-			cache.put(oid, resource.clone());
-		} else {
-			if (compareVersion(resource.getVersion(), cachedResource.getVersion())) {
-				// We already have equivalent resource, nothing to do
-				return;
-			} else {
-				cache.put(oid, resource.clone());
-			}
+		if (cachedResource != null && compareVersion(version, cachedResource.getVersion())) {
+			// We already have equivalent resource, nothing to do
+			return;
 		}
+
+		PrismObject<ResourceType> snapshot = resource.clone();
+		// Schemas (and JAXB representation) have to be created before the snapshot is frozen and shared
+		RefinedResourceSchemaImpl.getRefinedSchema(snapshot, prismContext);
+		snapshot.asObjectable();
+		snapshot.setImmutable(true);
+		cache.put(oid, snapshot);
 	}
 	
 	private boolean compareVersion(String version1, String version2) {
@@ -78,28 +113,26 @@ public class ResourceCache {
 		return version1.equals(version2);
 	}
 
-	public synchronized PrismObject<ResourceType> get(PrismObject<ResourceType> resource, GetOperationOptions options) throws SchemaException {
+	public PrismObject<ResourceType> get(PrismObject<ResourceType> resource, GetOperationOptions options) throws SchemaException {
 		return get(resource.getOid(), resource.getVersion(), options);
 	}
 	
-	public synchronized PrismObject<ResourceType> get(String oid, String version, GetOperationOptions options) throws SchemaException {
+	public PrismObject<ResourceType> get(String oid, String version, GetOperationOptions options) throws SchemaException {
 		if (oid == null) {
 			return null;
 		}
 		
 		PrismObject<ResourceType> cachedResource = cache.get(oid);
-		if (cachedResource == null) {
+		if (cachedResource == null || !compareVersion(version, cachedResource.getVersion())) {
+			misses.incrementAndGet();
 			return null;
 		}
 
-		if (!compareVersion(version, cachedResource.getVersion())) {
-			return null;
-		}
-		
+		hits.incrementAndGet();
 		if (GetOperationOptions.isReadOnly(options)) {
-			// TODO: make sure it is immutable
 			return cachedResource;
 		} else {
+			clones.incrementAndGet();
 			return cachedResource.clone();
 		}
 	}
@@ -120,6 +153,28 @@ public class ResourceCache {
 
 	public void remove(String oid) {
 		cache.remove(oid);
+		ResourceSchemaCache.invalidate(oid);
+	}
+
+	@Override
+	public <O extends ObjectType> void invalidateCacheEntry(Class<O> type, String oid, boolean remote) {
+		if (type.isAssignableFrom(ResourceType.class)) {
+			remove(oid);
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
 	}
 
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Number of cached resources that had to be cloned because the caller did not ask for read-only access.
+	 */
+	public long getClones() {
+		return clones.get();
+	}
 }
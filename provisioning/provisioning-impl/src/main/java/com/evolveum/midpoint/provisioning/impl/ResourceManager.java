@@ -745,7 +745,9 @@ public class ResourceManager {
 						throw new SystemException(ex);
 					}
 				}
-				if (resourceType.getOperationalState() == null){
+				if (resource.isImmutable()) {
+					// cached resource snapshot; the repository modification above invalidates it anyway
+				} else if (resourceType.getOperationalState() == null){
 					OperationalStateType operationalState = new OperationalStateType();
 					operationalState.setLastAvailabilityStatus(status);
 					resourceType.setOperationalState(operationalState);
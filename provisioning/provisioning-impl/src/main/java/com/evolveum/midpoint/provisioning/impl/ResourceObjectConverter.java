@@ -1059,9 +1059,13 @@ public class ResourceObjectConverter {
 		}
 	}
 
+	/**
+	 * @param entitlementIndex If not null, it is used to resolve object-to-subject associations for all found objects
+	 *                         at once (see EntitlementIndex).
+	 */
 	public SearchResultMetadata searchResourceObjects(final ProvisioningContext ctx,
 			final ResultHandler<ShadowType> resultHandler, ObjectQuery query, final boolean fetchAssociations,
-            final OperationResult parentResult) throws SchemaException,
+			final EntitlementIndex entitlementIndex, final OperationResult parentResult) throws SchemaException,
 			CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException {
 		
 		LOGGER.trace("Searching resource objects, query: {}", query);
@@ -1091,7 +1095,7 @@ public class ResourceObjectConverter {
 				RepositoryCache.enter();
 				try {
 					try {
-						shadow = postProcessResourceObjectRead(ctx, shadow, fetchAssociations, parentResult);
+						shadow = postProcessResourceObjectRead(ctx, shadow, fetchAssociations, entitlementIndex, parentResult);
 					} catch (SchemaException | CommunicationException | ConfigurationException | SecurityViolationException | ObjectNotFoundException e) {
 						throw new TunnelException(e);
 					}
@@ -1578,69 +1582,10 @@ public class ResourceObjectConverter {
 		Iterator<Change> iterator = changes.iterator();
 		while (iterator.hasNext()) {
 			Change change = iterator.next();
-			LOGGER.trace("Original change:\n{}", change.debugDump());
-			if (change.isTokenOnly()) {
-				continue;
-			}
-			ProvisioningContext shadowCtx = ctx;
-			AttributesToReturn shadowAttrsToReturn = attrsToReturn;
-			PrismObject<ShadowType> currentShadow = change.getCurrentShadow();
-			ObjectClassComplexTypeDefinition changeObjectClassDefinition = change.getObjectClassDefinition();
-			if (changeObjectClassDefinition == null) {
-				if (!ctx.isWildcard() || change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
-					throw new SchemaException("No object class definition in change "+change);
-				}
+			if (!preProcessChange(ctx, attrsToReturn, change, parentResult)) {
+				// TODO: Maybe change to DELETE instead of this?
+				iterator.remove();
 			}
-			if (ctx.isWildcard() && changeObjectClassDefinition != null) {
-				shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
-				if (shadowCtx.isWildcard()) {
-					String message = "Unkown object class "+changeObjectClassDefinition.getTypeName()+" found in synchronization delta";
-					parentResult.recordFatalError(message);
-					throw new SchemaException(message);
-				}
-				change.setObjectClassDefinition(shadowCtx.getObjectClassDefinition());
-				
-				shadowAttrsToReturn = ProvisioningUtil.createAttributesToReturn(shadowCtx);
-			}
-			
-			if (change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
-				if (currentShadow == null) {
-					// There is no current shadow in a change. Add it by fetching it explicitly.
-					try {
-						
-						LOGGER.trace("Re-fetching object {} because it is not in the change", change.getIdentifiers());
-						currentShadow = fetchResourceObject(shadowCtx, 
-								change.getIdentifiers(), shadowAttrsToReturn, true, parentResult);	// todo consider whether it is always necessary to fetch the entitlements
-						change.setCurrentShadow(currentShadow);
-						
-					} catch (ObjectNotFoundException ex) {
-						parentResult.recordHandledError(
-								"Object detected in change log no longer exist on the resource. Skipping processing this object.", ex);
-						LOGGER.warn("Object detected in change log no longer exist on the resource. Skipping processing this object "
-								+ ex.getMessage());
-						// TODO: Maybe change to DELETE instead of this?
-						iterator.remove();
-						continue;
-					}
-				} else {
-					if (ctx.isWildcard()) {
-						if (!MiscUtil.equals(shadowAttrsToReturn, attrsToReturn)) {
-							// re-fetch the shadow if necessary (if attributesToGet does not match)
-							ResourceObjectIdentification identification = ResourceObjectIdentification.create(shadowCtx.getObjectClassDefinition(), 
-									change.getIdentifiers());
-							identification.validatePrimaryIdenfiers();
-							LOGGER.trace("Re-fetching object {} because of attrsToReturn", identification);
-							currentShadow = connector.fetchObject(ShadowType.class, identification, shadowAttrsToReturn, ctx, parentResult);
-						}
-						
-					}
-							
-					PrismObject<ShadowType> processedCurrentShadow = postProcessResourceObjectRead(shadowCtx,
-							currentShadow, true, parentResult);
-					change.setCurrentShadow(processedCurrentShadow);
-				}
-			}
-			LOGGER.trace("Processed change\n:{}", change.debugDump());
 		}
 
 		computeResultStatus(parentResult);
@@ -1648,12 +1593,128 @@ public class ResourceObjectConverter {
 		LOGGER.trace("END fetch changes ({} changes)", changes == null ? "null" : changes.size());
 		return changes;
 	}
+
+	/**
+	 * Streaming variant of fetchChanges: changes are passed to the handler as the connector provides them.
+	 * They are NOT pre-processed here (so that the potentially expensive re-fetching of objects can be done
+	 * by the handler, e.g. in worker threads); preProcessChange has to be called on each of them.
+	 *
+	 * Returns the final token provided by the connector (may be null).
+	 */
+	public PrismProperty<?> fetchChanges(ProvisioningContext ctx, PrismProperty<?> lastToken, ChangeHandler handler,
+			OperationResult parentResult) throws SchemaException,
+			CommunicationException, ConfigurationException, GenericFrameworkException, ObjectNotFoundException {
+		Validate.notNull(parentResult, "Operation result must not be null.");
+
+		LOGGER.trace("START fetch changes (streaming), objectClass: {}", ctx.getObjectClassDefinition());
+		AttributesToReturn attrsToReturn = null;
+		if (!ctx.isWildcard()) {
+			attrsToReturn = ProvisioningUtil.createAttributesToReturn(ctx);
+		}
+
+		ConnectorInstance connector = ctx.getConnector(parentResult);
+		PrismProperty<?> finalToken = connector.fetchChanges(ctx.getObjectClassDefinition(), lastToken, attrsToReturn, ctx,
+				handler, parentResult);
+
+		LOGGER.trace("END fetch changes (streaming), final token: {}", finalToken);
+		return finalToken;
+	}
+
+	/**
+	 * Completes a change fetched from the resource: determines the object class (for wildcard contexts) and
+	 * gets the current state of the resource object (fetching it if it is not in the change).
+	 *
+	 * Returns false if the change should be skipped, because the object no longer exists on the resource.
+	 */
+	public boolean preProcessChange(ProvisioningContext ctx, Change change, OperationResult parentResult)
+			throws SchemaException, CommunicationException, ConfigurationException, SecurityViolationException,
+			GenericFrameworkException, ObjectNotFoundException {
+		AttributesToReturn attrsToReturn = null;
+		if (!ctx.isWildcard()) {
+			attrsToReturn = ProvisioningUtil.createAttributesToReturn(ctx);
+		}
+		return preProcessChange(ctx, attrsToReturn, change, parentResult);
+	}
+
+	private boolean preProcessChange(ProvisioningContext ctx, AttributesToReturn attrsToReturn, Change change,
+			OperationResult parentResult) throws SchemaException, CommunicationException, ConfigurationException,
+			SecurityViolationException, GenericFrameworkException, ObjectNotFoundException {
+		LOGGER.trace("Original change:\n{}", change.debugDump());
+		if (change.isTokenOnly()) {
+			return true;
+		}
+		ConnectorInstance connector = ctx.getConnector(parentResult);
+		ProvisioningContext shadowCtx = ctx;
+		AttributesToReturn shadowAttrsToReturn = attrsToReturn;
+		PrismObject<ShadowType> currentShadow = change.getCurrentShadow();
+		ObjectClassComplexTypeDefinition changeObjectClassDefinition = change.getObjectClassDefinition();
+		if (changeObjectClassDefinition == null) {
+			if (!ctx.isWildcard() || change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
+				throw new SchemaException("No object class definition in change "+change);
+			}
+		}
+		if (ctx.isWildcard() && changeObjectClassDefinition != null) {
+			shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
+			if (shadowCtx.isWildcard()) {
+				String message = "Unkown object class "+changeObjectClassDefinition.getTypeName()+" found in synchronization delta";
+				parentResult.recordFatalError(message);
+				throw new SchemaException(message);
+			}
+			change.setObjectClassDefinition(shadowCtx.getObjectClassDefinition());
+			
+			shadowAttrsToReturn = ProvisioningUtil.createAttributesToReturn(shadowCtx);
+		}
+		
+		if (change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
+			if (currentShadow == null) {
+				// There is no current shadow in a change. Add it by fetching it explicitly.
+				try {
+					
+					LOGGER.trace("Re-fetching object {} because it is not in the change", change.getIdentifiers());
+					currentShadow = fetchResourceObject(shadowCtx, 
+							change.getIdentifiers(), shadowAttrsToReturn, true, parentResult);	// todo consider whether it is always necessary to fetch the entitlements
+					change.setCurrentShadow(currentShadow);
+					
+				} catch (ObjectNotFoundException ex) {
+					parentResult.recordHandledError(
+							"Object detected in change log no longer exist on the resource. Skipping processing this object.", ex);
+					LOGGER.warn("Object detected in change log no longer exist on the resource. Skipping processing this object "
+							+ ex.getMessage());
+					return false;
+				}
+			} else {
+				if (ctx.isWildcard()) {
+					if (!MiscUtil.equals(shadowAttrsToReturn, attrsToReturn)) {
+						// re-fetch the shadow if necessary (if attributesToGet does not match)
+						ResourceObjectIdentification identification = ResourceObjectIdentification.create(shadowCtx.getObjectClassDefinition(), 
+								change.getIdentifiers());
+						identification.validatePrimaryIdenfiers();
+						LOGGER.trace("Re-fetching object {} because of attrsToReturn", identification);
+						currentShadow = connector.fetchObject(ShadowType.class, identification, shadowAttrsToReturn, ctx, parentResult);
+					}
+					
+				}
+						
+				PrismObject<ShadowType> processedCurrentShadow = postProcessResourceObjectRead(shadowCtx,
+						currentShadow, true, parentResult);
+				change.setCurrentShadow(processedCurrentShadow);
+			}
+		}
+		LOGGER.trace("Processed change\n:{}", change.debugDump());
+		return true;
+	}
 	
 	/**
 	 * Process simulated activation, credentials and other properties that are added to the object by midPoint. 
 	 */
 	private PrismObject<ShadowType> postProcessResourceObjectRead(ProvisioningContext ctx,
 			PrismObject<ShadowType> resourceObject, boolean fetchAssociations,
+            OperationResult parentResult) throws SchemaException, CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException {
+		return postProcessResourceObjectRead(ctx, resourceObject, fetchAssociations, null, parentResult);
+	}
+
+	private PrismObject<ShadowType> postProcessResourceObjectRead(ProvisioningContext ctx,
+			PrismObject<ShadowType> resourceObject, boolean fetchAssociations, EntitlementIndex entitlementIndex,
             OperationResult parentResult) throws SchemaException, CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException {
 		ResourceType resourceType = ctx.getResource();
 		ConnectorInstance connector = ctx.getConnector(parentResult);
@@ -1679,7 +1740,7 @@ public class ResourceObjectConverter {
 		
 		// Entitlements
         if (fetchAssociations) {
-            entitlementConverter.postProcessEntitlementsRead(ctx, resourceObject, parentResult);
+            entitlementConverter.postProcessEntitlementsRead(ctx, resourceObject, entitlementIndex, parentResult);
         }
 		
 		return resourceObject;
@@ -38,6 +38,7 @@ import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
 import com.evolveum.midpoint.provisioning.ucf.api.ResultHandler;
 import com.evolveum.midpoint.provisioning.util.ProvisioningUtil;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
 import com.evolveum.midpoint.schema.*;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.internals.InternalMonitor;
@@ -70,8 +71,13 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Shadow cache is a facade that covers all the operations with shadows. It
@@ -131,6 +137,20 @@ public abstract class ShadowCache {
 
 	private static final Trace LOGGER = TraceManager.getTrace(ShadowCache.class);
 
+	/**
+	 * Number of resource objects (found by a search on the resource) whose repository shadows are
+	 * looked up by a single repository query.
+	 */
+	private static final int SEARCH_BATCH_SIZE = 100;
+
+	/**
+	 * When fetching associations for many resource objects found by a search, entitlements are fetched all at once
+	 * (instead of for each object separately) after the first ENTITLEMENT_INDEX_MIN_SUBJECTS objects were processed.
+	 * At most ENTITLEMENT_INDEX_MAX_SIZE object-entitlement pairs are kept in memory.
+	 */
+	private static final int ENTITLEMENT_INDEX_MIN_SUBJECTS = 20;
+	private static final int ENTITLEMENT_INDEX_MAX_SIZE = 500000;
+
 	public ShadowCache() {
 		repositoryService = null;
 	}
@@ -814,62 +834,192 @@ public abstract class ShadowCache {
 
 		ObjectQuery attributeQuery = createAttributeQuery(query);
 
-		ResultHandler<ShadowType> resultHandler = new ResultHandler<ShadowType>() {
+		ResultHandler<ShadowType> resultHandler;
+		final ShadowLookupBatch batch;
+		if (readFromRepository) {
+			batch = new ShadowLookupBatch(ctx, handler, parentResult);
+			resultHandler = batch;
+		} else {
+			batch = null;
+			resultHandler = new ResultHandler<ShadowType>() {
+				@Override
+				public boolean handle(PrismObject<ShadowType> resourceShadow) {
+					LOGGER.trace("Found resource object {}", SchemaDebugUtil.prettyPrint(resourceShadow));
+					try {
+						// The shadow does not have any kind or intent at this
+						// point.
+						// But at least locate the definition using object classes.
+						reapplyDefinitions(ctx, resourceShadow);
+					} catch (SchemaException | ConfigurationException | ObjectNotFoundException
+							| CommunicationException e) {
+						parentResult.recordFatalError(e.getMessage(), e);
+						LOGGER.error("{}", e.getMessage(), e);
+						return false;
+					}
+					return handler.handle(resourceShadow.asObjectable());
+				}
+			};
+		}
 
-			@Override
-			public boolean handle(PrismObject<ShadowType> resourceShadow) {
-				LOGGER.trace("Found resource object {}", SchemaDebugUtil.prettyPrint(resourceShadow));
-				PrismObject<ShadowType> resultShadow;
-				try {
-					// The shadow does not have any kind or intent at this
-					// point.
-					// But at least locate the definition using object classes.
-					ProvisioningContext estimatedShadowCtx = reapplyDefinitions(ctx, resourceShadow);
-					// Try to find shadow that corresponds to the resource
-					// object.
-					if (readFromRepository) {
-						PrismObject<ShadowType> repoShadow = lookupOrCreateShadowInRepository(
-								estimatedShadowCtx, resourceShadow, true, parentResult);
+		boolean fetchAssociations = SelectorOptions.hasToLoadPath(ShadowType.F_ASSOCIATION, options);
 
-						// This determines the definitions exactly. How the repo
-						// shadow should have proper kind/intent
-						ProvisioningContext shadowCtx = applyAttributesDefinition(ctx, repoShadow);
+		// When (presumably) all objects of the class are to be processed, e.g. in reconciliation or import,
+		// it is cheaper to fetch all the entitlements once than to search for them for each object separately.
+		EntitlementIndex entitlementIndex = null;
+		if (fetchAssociations && (attributeQuery == null
+				|| attributeQuery.getFilter() == null && attributeQuery.getPaging() == null)) {
+			entitlementIndex = new EntitlementIndex(ENTITLEMENT_INDEX_MIN_SUBJECTS, ENTITLEMENT_INDEX_MAX_SIZE);
+		}
 
-						repoShadow = shadowManager.updateShadow(shadowCtx, resourceShadow, repoShadow,
-								parentResult);
+		SearchResultMetadata metadata = resouceObjectConverter.searchResourceObjects(ctx, resultHandler, attributeQuery,
+				fetchAssociations, entitlementIndex, parentResult);
 
-						resultShadow = completeShadow(shadowCtx, resourceShadow, repoShadow, parentResult);
+		if (batch != null) {
+			batch.flush();
+		}
+		return metadata;
+	}
 
-					} else {
-						resultShadow = resourceShadow;
-					}
+	/**
+	 * Collects resource objects found by the search and processes them in batches: repository shadows for the whole
+	 * batch are looked up by a single repository search, then the objects are passed to the handler (in the original
+	 * order). Each shadow is created or updated just before its object is passed to the handler, so nothing is written
+	 * to the repository for objects that come after the handler stopped the search. Objects with the same primary
+	 * identifier share the shadow (it is created only once).
+	 */
+	private class ShadowLookupBatch implements ResultHandler<ShadowType> {
+
+		private final ProvisioningContext ctx;
+		private final ShadowHandler<ShadowType> handler;
+		private final OperationResult parentResult;
+		private final List<PrismObject<ShadowType>> resourceShadows = new ArrayList<>(SEARCH_BATCH_SIZE);
+		private boolean stopped;
+
+		private ShadowLookupBatch(ProvisioningContext ctx, ShadowHandler<ShadowType> handler, OperationResult parentResult) {
+			this.ctx = ctx;
+			this.handler = handler;
+			this.parentResult = parentResult;
+		}
+
+		@Override
+		public boolean handle(PrismObject<ShadowType> resourceShadow) {
+			LOGGER.trace("Found resource object {}", SchemaDebugUtil.prettyPrint(resourceShadow));
+			resourceShadows.add(resourceShadow);
+			if (resourceShadows.size() >= SEARCH_BATCH_SIZE) {
+				return flush();
+			}
+			return true;
+		}
 
-					// TODO: better error handling
-				} catch (SchemaException e) {
-					parentResult.recordFatalError("Schema error: " + e.getMessage(), e);
-					LOGGER.error("Schema error: {}", e.getMessage(), e);
-					return false;
-				} catch (ConfigurationException e) {
-					parentResult.recordFatalError("Configuration error: " + e.getMessage(), e);
-					LOGGER.error("Configuration error: {}", e.getMessage(), e);
-					return false;
-				} catch (ObjectNotFoundException | ObjectAlreadyExistsException | CommunicationException
-						| SecurityViolationException | GenericConnectorException e) {
-					parentResult.recordFatalError(e.getMessage(), e);
-					LOGGER.error("{}", e.getMessage(), e);
-					return false;
+		/**
+		 * Processes collected resource objects. Returns false if the search should stop.
+		 */
+		private boolean flush() {
+			if (stopped || resourceShadows.isEmpty()) {
+				return !stopped;
+			}
+			RepositoryCache.enter();
+			try {
+				processBatch();
+				// TODO: better error handling
+			} catch (SchemaException e) {
+				parentResult.recordFatalError("Schema error: " + e.getMessage(), e);
+				LOGGER.error("Schema error: {}", e.getMessage(), e);
+				stopped = true;
+			} catch (ConfigurationException e) {
+				parentResult.recordFatalError("Configuration error: " + e.getMessage(), e);
+				LOGGER.error("Configuration error: {}", e.getMessage(), e);
+				stopped = true;
+			} catch (ObjectNotFoundException | ObjectAlreadyExistsException | CommunicationException
+					| SecurityViolationException | GenericConnectorException e) {
+				parentResult.recordFatalError(e.getMessage(), e);
+				LOGGER.error("{}", e.getMessage(), e);
+				stopped = true;
+			} finally {
+				resourceShadows.clear();
+				RepositoryCache.exit();
+			}
+			return !stopped;
+		}
+
+		private void processBatch() throws SchemaException, ConfigurationException,
+				ObjectNotFoundException, ObjectAlreadyExistsException, CommunicationException,
+				SecurityViolationException, GenericConnectorException {
+
+			// The shadows do not have any kind or intent at this point.
+			// But at least locate the definitions using object classes.
+			// Objects of the same object class are looked up in the repository together.
+			int size = resourceShadows.size();
+			List<ProvisioningContext> estimatedShadowCtxs = new ArrayList<>(size);
+			Map<QName, List<Integer>> indicesByObjectClass = new LinkedHashMap<>();
+			for (int i = 0; i < size; i++) {
+				ProvisioningContext estimatedShadowCtx = reapplyDefinitions(ctx, resourceShadows.get(i));
+				estimatedShadowCtxs.add(estimatedShadowCtx);
+				QName objectClassName = estimatedShadowCtx.getObjectClassDefinition().getTypeName();
+				List<Integer> indices = indicesByObjectClass.get(objectClassName);
+				if (indices == null) {
+					indices = new ArrayList<>();
+					indicesByObjectClass.put(objectClassName, indices);
 				}
+				indices.add(i);
+			}
 
-				return handler.handle(resultShadow.asObjectable());
+			List<PrismObject<ShadowType>> repoShadows = new ArrayList<>(Collections.<PrismObject<ShadowType>>nCopies(size, null));
+			for (List<Integer> indices : indicesByObjectClass.values()) {
+				List<PrismObject<ShadowType>> groupResourceShadows = new ArrayList<>(indices.size());
+				for (Integer index : indices) {
+					groupResourceShadows.add(resourceShadows.get(index));
+				}
+				List<PrismObject<ShadowType>> groupRepoShadows = shadowManager.lookupShadowsInRepository(
+						estimatedShadowCtxs.get(indices.get(0)), groupResourceShadows, parentResult);
+				for (int j = 0; j < indices.size(); j++) {
+					repoShadows.set(indices.get(j), groupRepoShadows.get(j));
+				}
 			}
 
-		};
+			// (object class, primary identifier) -> shadow already used in this batch
+			Map<List<Object>, PrismObject<ShadowType>> usedShadows = new HashMap<>();
+			for (int i = 0; i < size; i++) {
+				PrismObject<ShadowType> resourceShadow = resourceShadows.get(i);
+				ProvisioningContext estimatedShadowCtx = estimatedShadowCtxs.get(i);
+				Object identifierKey = shadowManager.getPrimaryIdentifierKey(estimatedShadowCtx, resourceShadow);
+				List<Object> key = identifierKey != null ?
+						Arrays.asList(estimatedShadowCtx.getObjectClassDefinition().getTypeName(), identifierKey) : null;
+
+				PrismObject<ShadowType> repoShadow = key != null ? usedShadows.get(key) : null;
+				if (repoShadow == null) {
+					repoShadow = repoShadows.get(i);
+					if (repoShadow == null) {
+						if (LOGGER.isTraceEnabled()) {
+							LOGGER.trace(
+									"Shadow object (in repo) corresponding to the resource object (on the resource) was not found. The repo shadow will be created. The resource object:\n{}",
+									SchemaDebugUtil.prettyPrint(resourceShadow));
+						}
+						repoShadow = createShadowInRepository(estimatedShadowCtx, resourceShadow, true, parentResult);
+					} else {
+						if (LOGGER.isTraceEnabled()) {
+							LOGGER.trace("Found shadow object in the repository {}", SchemaDebugUtil.prettyPrint(repoShadow));
+						}
+						shadowManager.processFoundShadow(repoShadow, parentResult);
+					}
+				}
 
-		boolean fetchAssociations = SelectorOptions.hasToLoadPath(ShadowType.F_ASSOCIATION, options);
+				// This determines the definitions exactly. How the repo
+				// shadow should have proper kind/intent
+				ProvisioningContext shadowCtx = applyAttributesDefinition(ctx, repoShadow);
 
-		return resouceObjectConverter.searchResourceObjects(ctx, resultHandler, attributeQuery,
-				fetchAssociations, parentResult);
+				repoShadow = shadowManager.updateShadow(shadowCtx, resourceShadow, repoShadow, parentResult);
+				if (key != null) {
+					usedShadows.put(key, repoShadow);
+				}
 
+				PrismObject<ShadowType> resultShadow = completeShadow(shadowCtx, resourceShadow, repoShadow, parentResult);
+				if (!handler.handle(resultShadow.asObjectable())) {
+					stopped = true;
+					return;
+				}
+			}
+		}
 	}
 
 	ObjectQuery createAttributeQuery(ObjectQuery query) throws SchemaException {
@@ -1233,6 +1383,11 @@ public abstract class ShadowCache {
 
 		final ProvisioningContext ctx = ctxFactory.create(shadowCoordinates, task, parentResult);
 
+		Integer workerThreads = getWorkerThreadsCount(task);
+		if (workerThreads != null && workerThreads > 0) {
+			return synchronizeInParallel(ctx, lastToken, workerThreads, parentResult);
+		}
+
 		List<Change> changes = null;
 		try {
 
@@ -1250,57 +1405,9 @@ public abstract class ShadowCache {
 					continue;
 				}
 
-				ObjectClassComplexTypeDefinition changeObjectClassDefinition = change
-						.getObjectClassDefinition();
-
-				ProvisioningContext shadowCtx;
-				PrismObject<ShadowType> oldShadow = null;
-				if (changeObjectClassDefinition == null) {
-					if (change.getObjectDelta() != null && change.getObjectDelta().isDelete()) {
-						oldShadow = change.getOldShadow();
-						if (oldShadow == null) {
-							oldShadow = shadowManager.findOrAddShadowFromChangeGlobalContext(ctx, change,
-									parentResult);
-						}
-						if (oldShadow == null) {
-							LOGGER.debug(
-									"No old shadow for delete synchronization event {}, we probably did not know about that object anyway, so well be ignoring this event",
-									change);
-							continue;
-						}
-						shadowCtx = ctx.spawn(oldShadow);
-					} else {
-						throw new SchemaException("No object class definition in change " + change);
-					}
-				} else {
-					shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
-				}
-
-				processChange(shadowCtx, change, oldShadow, parentResult);
-
-				// this is the case,when we want to skip processing of change,
-				// because the shadow was not created or found to the resource
-				// object
-				// it may be caused with the fact, that the object which was
-				// created in the resource was deleted before the sync run
-				// such a change should be skipped to process consistent changes
-				if (change.getOldShadow() == null) {
-					PrismProperty<?> newToken = change.getToken();
-					task.setExtensionProperty(newToken);
-					processedChanges++;
-					task.setProgress(task.getProgress() + 1); // because
-																// processedChanges
-																// are reflected
-																// into task
-																// only at task
-																// run finish
-					LOGGER.debug(
-							"Skipping processing change. Can't find appropriate shadow (e.g. the object was deleted on the resource meantime).");
-					continue;
-				}
-				boolean isSuccess = processSynchronization(shadowCtx, change, parentResult);
+				Boolean isSuccess = processSynchronizationChange(ctx, change, parentResult);
 
-				if (isSuccess) {
+				if (Boolean.TRUE.equals(isSuccess)) {
 					// // get updated token from change,
 					// // create property modification from new token
 					// // and replace old token with the new one
@@ -1345,6 +1452,116 @@ public abstract class ShadowCache {
 		}
 	}
 
+	/**
+	 * Processes a single change (other than token-only one) fetched from the resource.
+	 *
+	 * @return true if the change was processed (so the token can be moved past it),
+	 *         false if the processing failed, null if the change was ignored.
+	 */
+	Boolean processSynchronizationChange(ProvisioningContext ctx, Change change, OperationResult parentResult)
+			throws SchemaException, ObjectNotFoundException, CommunicationException, ConfigurationException,
+			SecurityViolationException, ObjectAlreadyExistsException {
+
+		ObjectClassComplexTypeDefinition changeObjectClassDefinition = change
+				.getObjectClassDefinition();
+
+		ProvisioningContext shadowCtx;
+		PrismObject<ShadowType> oldShadow = null;
+		if (changeObjectClassDefinition == null) {
+			if (change.getObjectDelta() != null && change.getObjectDelta().isDelete()) {
+				oldShadow = change.getOldShadow();
+				if (oldShadow == null) {
+					oldShadow = shadowManager.findOrAddShadowFromChangeGlobalContext(ctx, change,
+							parentResult);
+				}
+				if (oldShadow == null) {
+					LOGGER.debug(
+							"No old shadow for delete synchronization event {}, we probably did not know about that object anyway, so well be ignoring this event",
+							change);
+					return null;
+				}
+				shadowCtx = ctx.spawn(oldShadow);
+			} else {
+				throw new SchemaException("No object class definition in change " + change);
+			}
+		} else {
+			shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
+		}
+
+		processChange(shadowCtx, change, oldShadow, parentResult);
+
+		// this is the case,when we want to skip processing of change,
+		// because the shadow was not created or found to the resource
+		// object
+		// it may be caused with the fact, that the object which was
+		// created in the resource was deleted before the sync run
+		// such a change should be skipped to process consistent changes
+		if (change.getOldShadow() == null) {
+			LOGGER.debug(
+					"Skipping processing change. Can't find appropriate shadow (e.g. the object was deleted on the resource meantime).");
+			return true;
+		}
+		return processSynchronization(shadowCtx, change, parentResult);
+	}
+
+	/**
+	 * Live synchronization in streaming mode: changes are processed by worker threads as they come from the connector.
+	 * See {@link ParallelChangeProcessor}.
+	 */
+	private int synchronizeInParallel(ProvisioningContext ctx, PrismProperty<?> lastToken, int workerThreads,
+			OperationResult parentResult) throws ObjectNotFoundException, CommunicationException,
+			GenericFrameworkException, SchemaException, ConfigurationException, SecurityViolationException,
+			ObjectAlreadyExistsException {
+		Task task = ctx.getTask();
+		ParallelChangeProcessor processor = new ParallelChangeProcessor(this, resouceObjectConverter, taskManager,
+				matchingRuleRegistry, ctx, workerThreads);
+		try {
+			processor.start(parentResult);
+			try {
+				PrismProperty<?> finalToken = resouceObjectConverter.fetchChanges(ctx, lastToken, processor, parentResult);
+				processor.submitFinalToken(finalToken);
+			} finally {
+				// the token of changes processed so far is stored even if the processing fails
+				processor.finish(parentResult);
+				task.savePendingModifications(parentResult);
+			}
+			processor.checkForErrors();
+			if (processor.getChangesSubmitted() == 0 && lastToken != null) {
+				LOGGER.trace("No changes to synchronize on " + ctx.getResource());
+				task.setExtensionProperty(lastToken);
+				task.savePendingModifications(parentResult);
+			}
+			return processor.getChangesProcessed();
+		} catch (SchemaException ex) {
+			parentResult.recordFatalError("Schema error: " + ex.getMessage(), ex);
+			throw ex;
+		} catch (CommunicationException ex) {
+			parentResult.recordFatalError("Communication error: " + ex.getMessage(), ex);
+			throw ex;
+		} catch (GenericFrameworkException ex) {
+			parentResult.recordFatalError("Generic error: " + ex.getMessage(), ex);
+			throw ex;
+		} catch (ConfigurationException ex) {
+			parentResult.recordFatalError("Configuration error: " + ex.getMessage(), ex);
+			throw ex;
+		} catch (ObjectNotFoundException ex) {
+			parentResult.recordFatalError("Object not found error: " + ex.getMessage(), ex);
+			throw ex;
+		} catch (ObjectAlreadyExistsException ex) {
+			parentResult.recordFatalError("Already exists error: " + ex.getMessage(), ex);
+			throw ex;
+		}
+	}
+
+	private Integer getWorkerThreadsCount(Task task) {
+		PrismProperty<Integer> workerThreadsPrismProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_WORKER_THREADS);
+		if (workerThreadsPrismProperty != null && workerThreadsPrismProperty.getRealValue() != null) {
+			return workerThreadsPrismProperty.getRealValue();
+		} else {
+			return null;
+		}
+	}
+
 	@SuppressWarnings("rawtypes")
 	boolean processSynchronization(ProvisioningContext ctx, Change change, OperationResult result)
 			throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException,
@@ -19,7 +19,13 @@ package com.evolveum.midpoint.provisioning.impl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.xml.namespace.QName;
 
@@ -164,6 +170,16 @@ public class ShadowManager {
 	public PrismObject<ShadowType> lookupShadowInRepository(ProvisioningContext ctx, PrismObject<ShadowType> resourceShadow,
 			OperationResult parentResult) 
 					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException {
+		PrismObject<ShadowType> shadow = findShadowInRepository(ctx, resourceShadow, parentResult);
+		if (shadow != null) {
+			processFoundShadow(shadow, parentResult);
+		}
+		return shadow;
+	}
+
+	private PrismObject<ShadowType> findShadowInRepository(ProvisioningContext ctx, PrismObject<ShadowType> resourceShadow,
+			OperationResult parentResult)
+					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException {
 
 		ObjectQuery query = createSearchShadowQuery(ctx, resourceShadow, prismContext,
 				parentResult);
@@ -190,7 +206,125 @@ public class ShadowManager {
 			// TODO: Better error handling later
 			throw new IllegalStateException("More than one shadow found for " + resourceShadow);
 		}
-		PrismObject<ShadowType> shadow = results.get(0);
+		return results.get(0);
+	}
+
+	/**
+	 * Bulk variant of lookupShadowInRepository(ctx, resourceShadow, parentResult): locates shadows for a list
+	 * of resource objects of the same object class using a single repository search on primary identifier values.
+	 *
+	 * Returns a list of shadows corresponding to provided resource objects (in the same order). Null items
+	 * denote resource objects that have no shadow in the repository.
+	 *
+	 * Resource objects that cannot be looked up in bulk (e.g. because of more identifier values or more
+	 * conflicting shadows) are looked up one by one, with the same outcome as the single-object variant.
+	 * Resource objects with the same primary identifier get the same shadow.
+	 *
+	 * Unlike the single-object variant, this method does not write to the repository: the caller is expected
+	 * to call processFoundShadow (which clears the DEAD flag) only for the shadows it actually uses.
+	 */
+	public List<PrismObject<ShadowType>> lookupShadowsInRepository(ProvisioningContext ctx,
+			List<PrismObject<ShadowType>> resourceShadows, OperationResult parentResult)
+					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException {
+
+		List<PrismObject<ShadowType>> shadows = new ArrayList<>(Collections.<PrismObject<ShadowType>>nCopies(resourceShadows.size(), null));
+		List<Integer> individualLookups = new ArrayList<>();
+
+		// indices of resource objects, keyed by normalized primary identifier value
+		Map<Object, List<Integer>> indicesByIdentifier = new LinkedHashMap<>();
+		List<PrismPropertyValue<Object>> identifierValues = new ArrayList<>();
+		PrismPropertyDefinition identifierDef = null;
+		QName objectClass = null;
+		for (int i = 0; i < resourceShadows.size(); i++) {
+			PrismObject<ShadowType> resourceShadow = resourceShadows.get(i);
+			PrismProperty identifier = ShadowUtil.getAttributesContainer(resourceShadow).getPrimaryIdentifier();
+			QName shadowObjectClass = resourceShadow.getPropertyRealValue(ShadowType.F_OBJECT_CLASS, QName.class);
+			if (identifier == null || identifier.size() != 1
+					|| (identifierDef != null && !identifierDef.getName().equals(identifier.getElementName()))
+					|| (objectClass != null && !objectClass.equals(shadowObjectClass))) {
+				individualLookups.add(i);
+				continue;
+			}
+			identifierDef = identifier.getDefinition();
+			objectClass = shadowObjectClass;
+			PrismPropertyValue<Object> normalizedValue = getNormalizedPrimaryIdentifierValue(ctx, identifier);
+			List<Integer> indices = indicesByIdentifier.get(normalizedValue.getValue());
+			if (indices == null) {
+				indices = new ArrayList<>();
+				indicesByIdentifier.put(normalizedValue.getValue(), indices);
+				identifierValues.add(normalizedValue);
+			}
+			indices.add(i);
+		}
+
+		if (!identifierValues.isEmpty()) {
+			ObjectQuery query = QueryBuilder.queryFor(ShadowType.class, prismContext)
+					.itemWithDef(identifierDef, ShadowType.F_ATTRIBUTES, identifierDef.getName()).eq(identifierValues)
+					.and().item(ShadowType.F_OBJECT_CLASS).eq(objectClass)
+					.and().item(ShadowType.F_RESOURCE_REF).ref(ctx.getResourceOid())
+					.build();
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("Searching for shadows using filter:\n{}", query.debugDump());
+			}
+			List<PrismObject<ShadowType>> results = repositoryService.searchObjects(ShadowType.class, query, null, parentResult);
+			MiscSchemaUtil.reduceSearchResult(results);
+			LOGGER.trace("lookupShadows found {} objects for {} identifiers", results.size(), identifierValues.size());
+
+			Map<Object, PrismObject<ShadowType>> shadowsByIdentifier = new HashMap<>();
+			Set<Object> ambiguousIdentifiers = new HashSet<>();
+			boolean allMatched = true;
+			for (PrismObject<ShadowType> result : results) {
+				PrismProperty<?> repoIdentifier = result.findProperty(new ItemPath(ShadowType.F_ATTRIBUTES, identifierDef.getName()));
+				Object identifierValue = repoIdentifier != null ? repoIdentifier.getRealValue() : null;
+				if (identifierValue == null || !indicesByIdentifier.containsKey(identifierValue)) {
+					// the stored value is not comparable with the one from the resource object (should not occur)
+					allMatched = false;
+				} else if (shadowsByIdentifier.put(identifierValue, result) != null) {
+					ambiguousIdentifiers.add(identifierValue);
+				}
+			}
+			for (Map.Entry<Object, List<Integer>> entry : indicesByIdentifier.entrySet()) {
+				PrismObject<ShadowType> shadow = shadowsByIdentifier.get(entry.getKey());
+				if (ambiguousIdentifiers.contains(entry.getKey()) || (shadow == null && !allMatched)) {
+					individualLookups.addAll(entry.getValue());
+				} else if (shadow != null) {
+					for (Integer index : entry.getValue()) {
+						shadows.set(index, shadow);
+					}
+				}
+			}
+		}
+
+		for (Integer index : individualLookups) {
+			shadows.set(index, findShadowInRepository(ctx, resourceShadows.get(index), parentResult));
+		}
+		return shadows;
+	}
+
+	/**
+	 * Returns normalized value of the primary identifier of given resource object, or null if the object has
+	 * no single-valued primary identifier. Objects of the same class with equal values are the same resource object.
+	 */
+	public Object getPrimaryIdentifierKey(ProvisioningContext ctx, PrismObject<ShadowType> resourceShadow)
+			throws SchemaException {
+		PrismProperty identifier = ShadowUtil.getAttributesContainer(resourceShadow).getPrimaryIdentifier();
+		if (identifier == null || identifier.size() != 1) {
+			return null;
+		}
+		return getNormalizedPrimaryIdentifierValue(ctx, identifier).getValue();
+	}
+
+	private PrismPropertyValue<Object> getNormalizedPrimaryIdentifierValue(ProvisioningContext ctx, PrismProperty identifier)
+			throws SchemaException {
+		return (PrismPropertyValue<Object>) getNormalizedValue(identifier, ctx.getObjectClassDefinition()).get(0);
+	}
+
+	/**
+	 * Checks the consistency of a shadow found in the repository and clears its DEAD flag (in memory as well as
+	 * in the repository).
+	 */
+	public void processFoundShadow(PrismObject<ShadowType> shadow, OperationResult parentResult)
+			throws SchemaException, ObjectNotFoundException {
 		checkConsistency(shadow);
 
 		if (Boolean.TRUE.equals(shadow.asObjectable().isDead())) {
@@ -203,7 +337,6 @@ public class ShadowManager {
 				throw new SystemException("Unexpected exception when resetting 'dead' flag: " + e.getMessage(), e);
 			}
 		}
-		return shadow;
 	}
 
 	public PrismObject<ShadowType> lookupShadowInRepository(ProvisioningContext ctx, ResourceAttributeContainer identifierContainer,
@@ -72,6 +72,7 @@ public class StateReporter {
     private ProvisioningOperation lastOperation = null;
     private ObjectClassComplexTypeDefinition lastObjectClass = null;
     private Date lastStarted = null;
+    private long lastDuration = -1L;
 
     public void recordIcfOperationStart(ProvisioningOperation operation, ObjectClassComplexTypeDefinition objectClassDef, Uid uid) {
         if (lastOperation != null) {
@@ -87,6 +88,16 @@ public class StateReporter {
         recordState("Starting " + operation + " of " + getObjectClassName(objectClassDef) + object + " on " + getResourceName());
     }
 
+    // called before the operation is started, if it had to wait for resource rate limit
+    public void recordIcfOperationThrottled(ProvisioningOperation operation, ObjectClassComplexTypeDefinition objectClassDef, long waitTime) {
+        if (task != null) {
+            task.recordProvisioningThrottling(resourceOid, getResourceName(), getObjectClassQName(objectClassDef), operation, waitTime);
+        } else {
+            reportNoTask(resourceOid, operation);
+        }
+        recordState("Throttled " + operation + " of " + getObjectClassName(objectClassDef) + " on " + getResourceName() + " for " + waitTime + " ms");
+    }
+
     // we just add duration, not count (we'll do this on end)
     public void recordIcfOperationSuspend(ProvisioningOperation operation, ObjectClassComplexTypeDefinition objectClassDef) {
         if (lastOperation != operation) {
@@ -136,6 +147,7 @@ public class StateReporter {
         } else {
             duration = System.currentTimeMillis() - lastStarted.getTime();
         }
+        lastDuration = duration;
 
         String finished;
         if (ex == null) {
@@ -182,6 +194,11 @@ public class StateReporter {
         this.task = task;
     }
 
+	// duration of the last finished operation (in milliseconds), or -1 if it couldn't be determined
+	public long getLastOperationDuration() {
+		return lastDuration;
+	}
+
 	public Task getTask() {
 		return task;
 	}
@@ -301,6 +301,17 @@ public interface ConnectorInstance {
 	 */
 	List<Change> fetchChanges(ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken, AttributesToReturn attrsToReturn, StateReporter reporter,
 															   OperationResult parentResult) throws CommunicationException, GenericFrameworkException, SchemaException, ConfigurationException;
+
+	/**
+	 * Streaming variant of fetchChanges: changes are passed to the handler as they are received from the connector,
+	 * so they need not be kept in memory all at once. Fetching stops if the handler returns false.
+	 *
+	 * Token may be null. That means "from the beginning of history".
+	 *
+	 * @return the token returned by the connector after all changes were fetched (may be null)
+	 */
+	PrismProperty<?> fetchChanges(ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken, AttributesToReturn attrsToReturn, StateReporter reporter,
+			ChangeHandler handler, OperationResult parentResult) throws CommunicationException, GenericFrameworkException, SchemaException, ConfigurationException;
 	
 	//public ValidationResult validateConfiguration(ResourceConfiguration newConfiguration);
 	
@@ -32,6 +32,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -176,6 +178,11 @@ public class ConnectorFactoryIcfImpl implements ConnectorFactory {
 	public static final int ATTR_DISPLAY_ORDER_INCREMENT = 10;
 
 	private static final Trace LOGGER = TraceManager.getTrace(ConnectorFactoryIcfImpl.class);
+
+	private static final String RATE_LIMIT_CONFIGURATION_SECTION = "midpoint.provisioning.rateLimit";
+	private static final String RATE_LIMIT_RESOURCE_PREFIX = "resource-";
+	private static final long DEFAULT_LATENCY_THRESHOLD = 0L;				// latency is not considered
+	private static final long DEFAULT_ADJUSTMENT_INTERVAL = 1000L;
 	
 	// This is not really used in the code. It is here just to make sure that the JUL logger is loaded
 	// by the parent classloader so we can correctly adjust the log levels from the main code
@@ -186,6 +193,9 @@ public class ConnectorFactoryIcfImpl implements ConnectorFactory {
 	private ConnectorInfoManager localConnectorInfoManager;
 	private Set<URL> bundleURLs;
 	private Set<ConnectorType> localConnectorTypes = null;
+	private Configuration rateLimitConfig;
+	private ResourceRateLimiter.Configuration defaultRateLimitConfiguration;
+	private final ConcurrentMap<String, ResourceRateLimiter> rateLimiters = new ConcurrentHashMap<>();
 	
 	@Autowired(required = true)
 	private MidpointConfiguration midpointConfiguration;
@@ -231,6 +241,52 @@ public class ConnectorFactoryIcfImpl implements ConnectorFactory {
 
 		connectorInfoManagerFactory = ConnectorInfoManagerFactory.getInstance();
 
+		rateLimitConfig = midpointConfiguration.getConfiguration(RATE_LIMIT_CONFIGURATION_SECTION);
+		defaultRateLimitConfiguration = createRateLimitConfiguration(rateLimitConfig, null);
+	}
+
+	/**
+	 * Rate limits are configured in midpoint.provisioning.rateLimit section by (optional) items readRate, writeRate,
+	 * searchRate, burstSize, adaptive, latencyThreshold and adjustmentInterval. Any of them can be overridden
+	 * for a specific resource in a subsection named resource-OID (e.g. resource-10000000-0000-0000-0000-000000000003).
+	 */
+	private ResourceRateLimiter.Configuration createRateLimitConfiguration(Configuration config,
+			ResourceRateLimiter.Configuration defaults) {
+		if (defaults == null) {
+			defaults = new ResourceRateLimiter.Configuration(0, 0, 0, 1, false, DEFAULT_LATENCY_THRESHOLD,
+					DEFAULT_ADJUSTMENT_INTERVAL);
+		}
+		return new ResourceRateLimiter.Configuration(
+				config.getDouble("readRate", defaults.readRate),
+				config.getDouble("writeRate", defaults.writeRate),
+				config.getDouble("searchRate", defaults.searchRate),
+				config.getInt("burstSize", defaults.burstSize),
+				config.getBoolean("adaptive", defaults.adaptive),
+				config.getLong("latencyThreshold", defaults.latencyThreshold),
+				config.getLong("adjustmentInterval", defaults.adjustmentInterval));
+	}
+
+	/**
+	 * Returns the rate limiter for given resource, or null if operations on the resource are not limited.
+	 */
+	ResourceRateLimiter getRateLimiter(String resourceOid) {
+		if (resourceOid == null || rateLimitConfig == null) {
+			return null;
+		}
+		ResourceRateLimiter limiter = rateLimiters.get(resourceOid);
+		if (limiter == null) {
+			ResourceRateLimiter.Configuration configuration = createRateLimitConfiguration(
+					rateLimitConfig.subset(RATE_LIMIT_RESOURCE_PREFIX + resourceOid), defaultRateLimitConfiguration);
+			LOGGER.debug("Rate limits for resource {}: read={}, write={}, search={}, burstSize={}, adaptive={}",
+					resourceOid, configuration.readRate, configuration.writeRate, configuration.searchRate,
+					configuration.burstSize, configuration.adaptive);
+			limiter = new ResourceRateLimiter(resourceOid, configuration);
+			ResourceRateLimiter existing = rateLimiters.putIfAbsent(resourceOid, limiter);
+			if (existing != null) {
+				limiter = existing;
+			}
+		}
+		return limiter.isLimited() ? limiter : null;
 	}
 
 	/**
@@ -265,7 +321,7 @@ public class ConnectorFactoryIcfImpl implements ConnectorFactory {
 		// Create new midPoint ConnectorInstance and pass it the ICF connector
 		// facade
 		ConnectorInstanceIcfImpl connectorImpl = new ConnectorInstanceIcfImpl(cinfo, connectorType, namespace,
-				connectorSchema, protector, prismContext);
+				connectorSchema, protector, prismContext, this);
 		connectorImpl.setDescription(desc);
 		
 		return connectorImpl;
@@ -20,6 +20,7 @@ import static com.evolveum.midpoint.provisioning.ucf.impl.IcfUtil.processIcfExce
 import java.io.File;
 import java.lang.reflect.Array;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
@@ -111,6 +112,7 @@ import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.prism.xml.XsdTypeMapper;
 import com.evolveum.midpoint.provisioning.ucf.api.AttributesToReturn;
 import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.provisioning.ucf.api.ChangeHandler;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.ExecuteProvisioningScriptOperation;
 import com.evolveum.midpoint.provisioning.ucf.api.ExecuteScriptArgument;
@@ -208,11 +210,13 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 	private boolean caseIgnoreAttributeNames = false;
 	private Boolean legacySchema = null;
 	private boolean supportsReturnDefaultAttributes = false;
+	private final ConnectorFactoryIcfImpl connectorFactory;
 
 	ConnectorInstanceIcfImpl(ConnectorInfo connectorInfo, ConnectorType connectorType,
 			String schemaNamespace, PrismSchema connectorSchema, Protector protector,
-			PrismContext prismContext) {
+			PrismContext prismContext, ConnectorFactoryIcfImpl connectorFactory) {
 		this.cinfo = connectorInfo;
+		this.connectorFactory = connectorFactory;
 		this.connectorType = connectorType;
 		this.resourceSchemaNamespace = schemaNamespace;
 		this.connectorSchema = connectorSchema;
@@ -2123,7 +2127,30 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 																OperationResult parentResult) throws CommunicationException, GenericFrameworkException,
 			SchemaException, ConfigurationException {
 
-		OperationResult result = parentResult.createSubresult(ConnectorInstance.class.getName()
+		final List<Change> changeList = new ArrayList<>();
+		ChangeHandler changeHandler = new ChangeHandler() {
+			@Override
+			public boolean handleChange(Change change) {
+				return changeList.add(change);
+			}
+		};
+		PrismProperty<?> lastReceivedToken = fetchChanges(objectClass, lastToken, attrsToReturn, reporter, changeHandler, parentResult);
+
+		if (lastReceivedToken != null) {
+			Change lastChange = new Change((ObjectDelta)null, lastReceivedToken);
+			LOGGER.trace("Adding last change: {}", lastChange);
+			changeList.add(lastChange);
+		}
+		return changeList;
+	}
+
+	@Override
+	public PrismProperty<?> fetchChanges(final ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken,
+			AttributesToReturn attrsToReturn, StateReporter reporter, final ChangeHandler handler,
+			OperationResult parentResult) throws CommunicationException, GenericFrameworkException,
+			SchemaException, ConfigurationException {
+
+		final OperationResult result = parentResult.createSubresult(ConnectorInstance.class.getName()
 				+ ".fetchChanges");
 		result.addContext("objectClass", objectClass);
 		result.addParam("lastToken", lastToken);
@@ -2138,9 +2165,8 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 			throw new SchemaException(ex.getMessage(), ex);
 		}
 
-		final List<SyncDelta> syncDeltas = new ArrayList<SyncDelta>();
 		// get icf object class
-		ObjectClass icfObjectClass;
+		final ObjectClass icfObjectClass;
 		if (objectClass == null) {
 			icfObjectClass = ObjectClass.ALL;
 		} else {
@@ -2152,12 +2178,29 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 			convertToIcfAttrsToGet(objectClass, attrsToReturn, optionsBuilder);
 		}
 		OperationOptions options = optionsBuilder.build();
-		
+
+		final AtomicInteger changesCount = new AtomicInteger();
+		// conversion problems are not thrown through the connector, they are kept here and re-thrown after sync returns
+		final Holder<Exception> conversionException = new Holder<>();
 		SyncResultsHandler syncHandler = new SyncResultsHandler() {
 			@Override
 			public boolean handle(SyncDelta delta) {
 				LOGGER.trace("Detected sync delta: {}", delta);
-				return syncDeltas.add(delta);
+				// convert change from icf to midpoint Change
+				List<Change> changes;
+				try {
+					changes = getChangesFromSyncDeltas(icfObjectClass, Collections.singletonList(delta), resourceSchema, result);
+				} catch (SchemaException | GenericFrameworkException ex) {
+					conversionException.setValue(ex);
+					return false;
+				}
+				for (Change change : changes) {
+					changesCount.incrementAndGet();
+					if (!handler.handleChange(change)) {
+						return false;
+					}
+				}
+				return true;
 			}
 		};
 
@@ -2175,7 +2218,7 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 					options);
 			recordIcfOperationEnd(reporter, ProvisioningOperation.ICF_SYNC, objectClass);
 			connIdResult.recordSuccess();
-			connIdResult.addReturn(OperationResult.RETURN_COUNT, syncDeltas.size());
+			connIdResult.addReturn(OperationResult.RETURN_COUNT, changesCount.get());
 		} catch (Throwable ex) {
 			recordIcfOperationEnd(reporter, ProvisioningOperation.ICF_SYNC, objectClass, ex);
 			Throwable midpointEx = processIcfException(ex, this, connIdResult);
@@ -2196,24 +2239,20 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 				throw new SystemException("Got unexpected exception: " + ex.getClass().getName() + ": " + ex.getMessage(), ex);
 			}
 		}
-		// convert changes from icf to midpoint Change
-		List<Change> changeList;
-		try {
-			changeList = getChangesFromSyncDeltas(icfObjectClass, syncDeltas, resourceSchema, result);
-		} catch (SchemaException ex) {
+
+		Exception ex = conversionException.getValue();
+		if (ex != null) {
 			result.recordFatalError(ex.getMessage(), ex);
-			throw new SchemaException(ex.getMessage(), ex);
-		}
-		
-		if (lastReceivedToken != null) {
-			Change lastChange = new Change((ObjectDelta)null, getToken(lastReceivedToken));
-			LOGGER.trace("Adding last change: {}", lastChange);
-			changeList.add(lastChange);
+			if (ex instanceof GenericFrameworkException) {
+				throw (GenericFrameworkException) ex;
+			} else {
+				throw new SchemaException(ex.getMessage(), ex);
+			}
 		}
 
 		result.recordSuccess();
-		result.addReturn(OperationResult.RETURN_COUNT, changeList == null ? 0 : changeList.size());
-		return changeList;
+		result.addReturn(OperationResult.RETURN_COUNT, changesCount.get());
+		return lastReceivedToken != null ? getToken(lastReceivedToken) : null;
 	}
 
 	@Override
@@ -3069,6 +3108,7 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 	}
 
 	private void recordIcfOperationStart(StateReporter reporter, ProvisioningOperation operation, ObjectClassComplexTypeDefinition objectClassDefinition, Uid uid) {
+		throttle(reporter, operation, objectClassDefinition);
 		if (reporter != null) {
 			reporter.recordIcfOperationStart(operation, objectClassDefinition, uid);
 		} else {
@@ -3077,11 +3117,7 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 	}
 
 	private void recordIcfOperationStart(StateReporter reporter, ProvisioningOperation operation, ObjectClassComplexTypeDefinition objectClassDefinition) {
-		if (reporter != null) {
-			reporter.recordIcfOperationStart(operation, objectClassDefinition, null);
-		} else {
-			LOGGER.warn("Couldn't record ICF operation start as reporter is null.");
-		}
+		recordIcfOperationStart(reporter, operation, objectClassDefinition, null);
 	}
 
 	private void recordIcfOperationResume(StateReporter reporter, ProvisioningOperation operation, ObjectClassComplexTypeDefinition objectClassDefinition) {
@@ -3101,35 +3137,45 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 	}
 
 	private void recordIcfOperationEnd(StateReporter reporter, ProvisioningOperation operation, ObjectClassComplexTypeDefinition objectClassDefinition, Uid uid) {
-		if (reporter != null) {
-			reporter.recordIcfOperationEnd(operation, objectClassDefinition, null, uid);
-		} else {
-			LOGGER.warn("Couldn't record ICF operation end as reporter is null.");
-		}
+		recordIcfOperationEnd(reporter, operation, objectClassDefinition, null, uid);
 	}
 
 	private void recordIcfOperationEnd(StateReporter reporter, ProvisioningOperation operation, ObjectClassComplexTypeDefinition objectClassDefinition, Throwable ex) {
-		if (reporter != null) {
-			reporter.recordIcfOperationEnd(operation, objectClassDefinition, ex, null);
-		} else {
-			LOGGER.warn("Couldn't record ICF operation end as reporter is null.");
-		}
+		recordIcfOperationEnd(reporter, operation, objectClassDefinition, ex, null);
 	}
 
 	private void recordIcfOperationEnd(StateReporter reporter, ProvisioningOperation operation, ObjectClassComplexTypeDefinition objectClassDefinition, Throwable ex, Uid uid) {
 		if (reporter != null) {
 			reporter.recordIcfOperationEnd(operation, objectClassDefinition, ex, uid);
+			ResourceRateLimiter rateLimiter = getRateLimiter(reporter);
+			if (rateLimiter != null) {
+				rateLimiter.operationFinished(operation, ex, reporter.getLastOperationDuration());
+			}
 		} else {
 			LOGGER.warn("Couldn't record ICF operation end as reporter is null.");
 		}
 	}
 
-
 	private void recordIcfOperationEnd(StateReporter reporter, ProvisioningOperation operation, ObjectClassComplexTypeDefinition objectClassDefinition) {
-		if (reporter != null) {
-			reporter.recordIcfOperationEnd(operation, objectClassDefinition, null, null);
-		} else {
-			LOGGER.warn("Couldn't record ICF operation end as reporter is null.");
+		recordIcfOperationEnd(reporter, operation, objectClassDefinition, null, null);
+	}
+
+	// Resource OID is known only from the reporter; without it we are not able to apply resource rate limits.
+	private ResourceRateLimiter getRateLimiter(StateReporter reporter) {
+		if (connectorFactory == null || reporter == null) {
+			return null;
+		}
+		return connectorFactory.getRateLimiter(reporter.getResourceOid());
+	}
+
+	private void throttle(StateReporter reporter, ProvisioningOperation operation, ObjectClassComplexTypeDefinition objectClassDefinition) {
+		ResourceRateLimiter rateLimiter = getRateLimiter(reporter);
+		if (rateLimiter == null) {
+			return;
+		}
+		long waitTime = rateLimiter.acquire(operation);
+		if (waitTime > 0) {
+			reporter.recordIcfOperationThrottled(operation, objectClassDefinition, waitTime);
 		}
 	}
 
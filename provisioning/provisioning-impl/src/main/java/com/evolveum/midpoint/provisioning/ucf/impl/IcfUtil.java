@@ -393,6 +393,30 @@ class IcfUtil {
 		}
 	}
 
+	/**
+	 * Tells whether the exception (as thrown by the connector) indicates a communication problem,
+	 * i.e. one that processIcfException would turn into CommunicationException. This method does not
+	 * touch any operation result, so it can be called before the exception is processed.
+	 */
+	static boolean isCommunicationProblem(Throwable ex) {
+		for (Throwable t = ex; t != null; t = t.getCause()) {
+			if (t instanceof CommunicationException
+					|| t instanceof ConnectionBrokenException
+					|| t instanceof ConnectionFailedException
+					|| t instanceof ConnectorIOException
+					|| t instanceof OperationTimeoutException
+					|| t instanceof RetryableException
+					|| t instanceof UnknownHostException
+					|| t instanceof ConnectException
+					|| t instanceof javax.naming.CommunicationException
+					|| t instanceof ServiceUnavailableException
+					|| CONNECTIONS_EXCEPTION_CLASS_NAME.equals(t.getClass().getSimpleName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	public static String dump(Set<Attribute> attributes) {
 		StringBuilder sb = new StringBuilder();
 		for (Attribute attr : attributes) {
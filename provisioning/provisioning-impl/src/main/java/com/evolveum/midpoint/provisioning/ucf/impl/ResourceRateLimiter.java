@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.ucf.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.evolveum.midpoint.schema.statistics.ProvisioningOperation;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+/**
+ * Limits the rate of connector operations invoked on one resource. It is shared by all connector instances
+ * (and all threads) working with the resource.
+ *
+ * There are three independent token buckets: for read (get), write (create, update, delete, script) and search
+ * (search, sync, fetching of the sync token) operations. Rates are in operations per second; zero means no limit.
+ * Operations that find the bucket empty are delayed, not rejected.
+ *
+ * If adaptive throttling is switched on, the effective rate of a bucket is halved whenever an operation fails
+ * because of a communication problem or (for reads and writes) takes longer than latencyThreshold. When there
+ * is no such problem for adjustmentInterval, the rate is raised by a tenth of the configured rate, up to
+ * the configured rate. At most one adjustment per adjustmentInterval is done, so a burst of failures coming
+ * from many threads at once counts only once.
+ *
+ * @author agent
+ */
+class ResourceRateLimiter {
+
+	private static final Trace LOGGER = TraceManager.getTrace(ResourceRateLimiter.class);
+
+	private static final double BACKOFF_FACTOR = 0.5;
+	private static final double RECOVERY_STEP = 0.1;
+	private static final double MIN_RATE_FACTOR = 0.05;
+
+	static class Configuration {
+		final double readRate;					// operations per second, 0 means no limit
+		final double writeRate;
+		final double searchRate;
+		final int burstSize;					// number of operations that can be started at once after an idle period
+		final boolean adaptive;
+		final long latencyThreshold;			// milliseconds, 0 means latency is not considered
+		final long adjustmentInterval;			// milliseconds
+
+		Configuration(double readRate, double writeRate, double searchRate, int burstSize, boolean adaptive,
+				long latencyThreshold, long adjustmentInterval) {
+			this.readRate = Math.max(readRate, 0);
+			this.writeRate = Math.max(writeRate, 0);
+			this.searchRate = Math.max(searchRate, 0);
+			this.burstSize = Math.max(burstSize, 1);
+			this.adaptive = adaptive;
+			this.latencyThreshold = Math.max(latencyThreshold, 0);
+			this.adjustmentInterval = Math.max(adjustmentInterval, 0);
+		}
+
+		boolean isLimited() {
+			return readRate > 0 || writeRate > 0 || searchRate > 0;
+		}
+	}
+
+	private final String resourceOid;
+	private final Configuration configuration;
+	private final TokenBucket readBucket;
+	private final TokenBucket writeBucket;
+	private final TokenBucket searchBucket;
+
+	ResourceRateLimiter(String resourceOid, Configuration configuration) {
+		this.resourceOid = resourceOid;
+		this.configuration = configuration;
+		this.readBucket = createBucket("read", configuration.readRate);
+		this.writeBucket = createBucket("write", configuration.writeRate);
+		this.searchBucket = createBucket("search", configuration.searchRate);
+	}
+
+	boolean isLimited() {
+		return configuration.isLimited();
+	}
+
+	private TokenBucket createBucket(String name, double rate) {
+		return rate > 0 ? new TokenBucket(name, rate) : null;
+	}
+
+	private TokenBucket getBucket(ProvisioningOperation operation) {
+		if (operation == null) {
+			return null;
+		}
+		switch (operation) {
+			case ICF_GET:
+				return readBucket;
+			case ICF_CREATE:
+			case ICF_UPDATE:
+			case ICF_DELETE:
+			case ICF_SCRIPT:
+				return writeBucket;
+			case ICF_SEARCH:
+			case ICF_SYNC:
+			case ICF_GET_LATEST_SYNC_TOKEN:
+				return searchBucket;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Waits until the operation can be started.
+	 *
+	 * @return Time spent waiting (in milliseconds, rounded up), or 0 if the operation was not throttled.
+	 */
+	long acquire(ProvisioningOperation operation) {
+		TokenBucket bucket = getBucket(operation);
+		if (bucket == null) {
+			return 0;
+		}
+		long waitNanos = bucket.reserve();
+		if (waitNanos <= 0) {
+			return 0;
+		}
+		bucket.throttled.incrementAndGet();
+		LOGGER.trace("Throttling {} on resource {} for {} ns", operation, resourceOid, waitNanos);
+		try {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		} catch (InterruptedException e) {
+			// We let the operation go on; the caller will find out about the interruption in its usual way.
+			Thread.currentThread().interrupt();
+		}
+		return TimeUnit.NANOSECONDS.toMillis(waitNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+	}
+
+	/**
+	 * Provides a feedback for adaptive throttling.
+	 *
+	 * @param duration Duration of the operation in milliseconds, or negative value if not known.
+	 */
+	void operationFinished(ProvisioningOperation operation, Throwable exception, long duration) {
+		if (!configuration.adaptive) {
+			return;
+		}
+		TokenBucket bucket = getBucket(operation);
+		if (bucket == null) {
+			return;
+		}
+		boolean latencyConsidered = bucket != searchBucket && configuration.latencyThreshold > 0 && duration >= 0;
+		if (exception != null && IcfUtil.isCommunicationProblem(exception)) {
+			bucket.backOff("communication problem: " + exception.getMessage());
+		} else if (latencyConsidered && duration > configuration.latencyThreshold) {
+			bucket.backOff("latency " + duration + " ms exceeded the threshold of " + configuration.latencyThreshold + " ms");
+		} else {
+			bucket.recover();
+		}
+	}
+
+	/**
+	 * Returns the current (possibly decreased) rate for given operation, or 0 if it is not limited.
+	 */
+	double getEffectiveRate(ProvisioningOperation operation) {
+		TokenBucket bucket = getBucket(operation);
+		return bucket != null ? bucket.getRate() : 0;
+	}
+
+	/**
+	 * Returns the number of operations of the same kind as the given one that had to wait.
+	 */
+	long getThrottledCount(ProvisioningOperation operation) {
+		TokenBucket bucket = getBucket(operation);
+		return bucket != null ? bucket.throttled.get() : 0;
+	}
+
+	private class TokenBucket {
+		private final String name;
+		private final double configuredRate;
+		private final double minRate;
+		private double rate;
+		private double tokens;
+		private long lastRefill;				// System.nanoTime()
+		private long lastAdjustment;			// System.currentTimeMillis()
+		private long lastProblem;				// System.currentTimeMillis()
+
+		private final AtomicLong throttled = new AtomicLong();
+
+		TokenBucket(String name, double rate) {
+			this.name = name;
+			this.configuredRate = rate;
+			this.minRate = rate * MIN_RATE_FACTOR;
+			this.rate = rate;
+			this.tokens = configuration.burstSize;
+			this.lastRefill = System.nanoTime();
+		}
+
+		/**
+		 * Takes a token (possibly going into debt) and returns how long the caller has to wait for it.
+		 */
+		synchronized long reserve() {
+			refill();
+			tokens -= 1;
+			if (tokens >= 0) {
+				return 0;
+			}
+			return (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+		}
+
+		private void refill() {
+			long now = System.nanoTime();
+			tokens = Math.min(configuration.burstSize, tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+			lastRefill = now;
+		}
+
+		synchronized double getRate() {
+			return rate;
+		}
+
+		synchronized void backOff(String reason) {
+			long now = System.currentTimeMillis();
+			lastProblem = now;
+			if (rate <= minRate || now - lastAdjustment < configuration.adjustmentInterval) {
+				return;
+			}
+			refill();
+			rate = Math.max(minRate, rate * BACKOFF_FACTOR);
+			lastAdjustment = now;
+			LOGGER.debug("Decreased {} rate limit on resource {} to {} operations per second because of {}",
+					name, resourceOid, rate, reason);
+		}
+
+		synchronized void recover() {
+			if (rate >= configuredRate) {
+				return;
+			}
+			long now = System.currentTimeMillis();
+			if (now - lastProblem < configuration.adjustmentInterval || now - lastAdjustment < configuration.adjustmentInterval) {
+				return;
+			}
+			refill();
+			rate = Math.min(configuredRate, rate + configuredRate * RECOVERY_STEP);
+			lastAdjustment = now;
+			LOGGER.debug("Increased {} rate limit on resource {} to {} operations per second (throttled {} operations so far)",
+					name, resourceOid, rate, throttled.get());
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+
+/**
+ * Tests how the live sync token is moved when changes processed in parallel finish out of order.
+ *
+ * @author agent
+ */
+public class TestChangeSequence {
+
+	@Test
+	public void test100InOrder() throws Exception {
+		ParallelChangeProcessor.ChangeSequence sequence = new ParallelChangeProcessor.ChangeSequence();
+		PrismProperty<Integer> token0 = createToken(0);
+		PrismProperty<Integer> token1 = createToken(1);
+
+		assertEquals(0L, sequence.next());
+		assertEquals(1L, sequence.next());
+		assertEquals("Wrong # of changes in progress", 2L, sequence.getInProgress());
+		assertNull("Token before any change finished", sequence.getCommittableToken());
+
+		sequence.finished(0, token0);
+		assertSame("Wrong token", token0, sequence.getCommittableToken());
+		sequence.finished(1, token1);
+		assertSame("Wrong token", token1, sequence.getCommittableToken());
+
+		assertEquals("Wrong # of changes in progress", 0L, sequence.getInProgress());
+		assertEquals("Wrong # of changes submitted", 2L, sequence.getSubmitted());
+	}
+
+	@Test
+	public void test110OutOfOrder() throws Exception {
+		ParallelChangeProcessor.ChangeSequence sequence = new ParallelChangeProcessor.ChangeSequence();
+		PrismProperty<Integer> token0 = createToken(0);
+		PrismProperty<Integer> token1 = createToken(1);
+		PrismProperty<Integer> token2 = createToken(2);
+		PrismProperty<Integer> token3 = createToken(3);
+		for (int i = 0; i < 4; i++) {
+			sequence.next();
+		}
+
+		// change 0 is still being processed, so no token can be committed
+		sequence.finished(2, token2);
+		sequence.finished(1, token1);
+		assertNull("Token committed before the first change finished", sequence.getCommittableToken());
+		assertEquals("Finished changes waiting for predecessor are not counted", 4L, sequence.getInProgress());
+
+		// 0, 1 and 2 are contiguous now
+		sequence.finished(0, token0);
+		assertSame("Wrong token after the gap was filled", token2, sequence.getCommittableToken());
+		assertEquals("Wrong # of changes in progress", 1L, sequence.getInProgress());
+
+		sequence.finished(3, token3);
+		assertSame("Wrong final token", token3, sequence.getCommittableToken());
+		assertEquals("Wrong # of changes in progress", 0L, sequence.getInProgress());
+	}
+
+	@Test
+	public void test120ChangesWithoutToken() throws Exception {
+		ParallelChangeProcessor.ChangeSequence sequence = new ParallelChangeProcessor.ChangeSequence();
+		PrismProperty<Integer> token0 = createToken(0);
+		for (int i = 0; i < 3; i++) {
+			sequence.next();
+		}
+
+		sequence.finished(0, token0);
+		sequence.finished(2, null);
+		sequence.finished(1, null);
+
+		// changes without a token do not move it (nor reset it)
+		assertSame("Wrong token", token0, sequence.getCommittableToken());
+		assertEquals("Wrong # of changes in progress", 0L, sequence.getInProgress());
+	}
+
+	@Test
+	public void test130FinalToken() throws Exception {
+		ParallelChangeProcessor.ChangeSequence sequence = new ParallelChangeProcessor.ChangeSequence();
+		PrismProperty<Integer> token0 = createToken(0);
+		PrismProperty<Integer> finalToken = createToken(10);
+		sequence.next();
+		long finalTokenSequenceNumber = sequence.next();
+
+		// token-only change (the final token) is finished immediately, but it has to wait for the real change
+		sequence.finished(finalTokenSequenceNumber, finalToken);
+		assertNull("Final token committed before the changes were processed", sequence.getCommittableToken());
+
+		sequence.finished(0, token0);
+		assertSame("Wrong token", finalToken, sequence.getCommittableToken());
+	}
+
+	private PrismProperty<Integer> createToken(int value) {
+		PrismProperty<Integer> token = new PrismProperty<>(SchemaConstants.SYNC_TOKEN);
+		token.setRealValue(value);
+		return token;
+	}
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.Containerable;
+import com.evolveum.midpoint.prism.PrismContainer;
+import com.evolveum.midpoint.prism.PrismContainerValue;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.statistics.ConnectorOperationalStatus;
+import com.evolveum.midpoint.util.exception.CommunicationException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+
+/**
+ * Tests growth, concurrency limit and reuse checks of the connector instance pool. Connector instances are
+ * proxies that only record what was called on them.
+ *
+ * @author agent
+ */
+public class TestConnectorInstancePool {
+
+	private static final String CONNECTOR_OID = "10000000-0000-0000-0000-000000000005";
+	private static final String NS_CONFIGURATION = "http://midpoint.evolveum.com/xml/ns/test/pool";
+	private static final long TIMEOUT = 10000L;
+
+	@Test
+	public void test100Growth() throws Exception {
+		ConnectorInstancePool pool = createPool(2, 3, 0, 0);
+		FakeConnector connector1 = new FakeConnector();
+		FakeConnector connector2 = new FakeConnector();
+
+		assertNull("Empty pool returned an instance", pool.selectInstance());
+		assertTrue("Pool below its minimal size", pool.needsMoreInstances());
+		ConnectorInstance instance1 = pool.addInstance(connector1.getInstance());
+		assertSame("Idle instance was not returned", instance1, pool.selectInstance());
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			connector1.blockOperations();
+			Future<?> operation = executor.submit(fetchCurrentToken(instance1));
+			connector1.awaitEntered();
+
+			assertNull("Busy instance was returned although the pool can grow", pool.selectInstance());
+			ConnectorInstance instance2 = pool.addInstance(connector2.getInstance());
+			assertFalse("Pool at its minimal size needs more instances", pool.needsMoreInstances());
+			assertSame("Idle instance was not returned", instance2, pool.selectInstance());
+
+			connector1.releaseOperations();
+			operation.get(TIMEOUT, TimeUnit.MILLISECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals("Wrong # of operations", 1, connector1.getOperations());
+	}
+
+	@Test
+	public void test110FullPoolReturnsLeastBusy() throws Exception {
+		ConnectorInstancePool pool = createPool(1, 1, 0, 0);
+		FakeConnector connector = new FakeConnector();
+		ConnectorInstance instance = pool.addInstance(connector.getInstance());
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			connector.blockOperations();
+			Future<?> operation = executor.submit(fetchCurrentToken(instance));
+			connector.awaitEntered();
+
+			assertSame("Busy instance was not shared in full pool", instance, pool.selectInstance());
+
+			connector.releaseOperations();
+			operation.get(TIMEOUT, TimeUnit.MILLISECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void test200ConcurrencyLimit() throws Exception {
+		ConnectorInstancePool pool = createPool(1, 2, 1, TIMEOUT);
+		FakeConnector connector1 = new FakeConnector();
+		FakeConnector connector2 = new FakeConnector();
+		ConnectorInstance instance1 = pool.addInstance(connector1.getInstance());
+		ConnectorInstance instance2 = pool.addInstance(connector2.getInstance());
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			connector1.blockOperations();
+			Future<?> operation1 = executor.submit(fetchCurrentToken(instance1));
+			connector1.awaitEntered();
+			Future<?> operation2 = executor.submit(fetchCurrentToken(instance2));
+
+			Thread.sleep(200);
+			assertFalse("Second operation was not limited", operation2.isDone());
+			assertEquals("Operation started over the limit", 0, connector2.getOperations());
+
+			connector1.releaseOperations();
+			operation1.get(TIMEOUT, TimeUnit.MILLISECONDS);
+			operation2.get(TIMEOUT, TimeUnit.MILLISECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		ConnectorOperationalStatus status = getStatus(pool);
+		assertEquals("Wrong # of operations", Long.valueOf(2), status.getInstancePoolOperations());
+		assertEquals("Wrong # of waits", Long.valueOf(1), status.getInstancePoolWaits());
+		assertEquals("Wrong # of timeouts", Long.valueOf(0), status.getInstancePoolTimeouts());
+		assertEquals("Wrong # of active operations", Integer.valueOf(0), status.getInstancePoolActiveOperations());
+	}
+
+	@Test
+	public void test210Timeout() throws Exception {
+		ConnectorInstancePool pool = createPool(1, 1, 1, 100);
+		FakeConnector connector = new FakeConnector();
+		ConnectorInstance instance = pool.addInstance(connector.getInstance());
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			connector.blockOperations();
+			Future<?> operation = executor.submit(fetchCurrentToken(instance));
+			connector.awaitEntered();
+
+			try {
+				instance.fetchCurrentToken(null, null, null);
+				fail("Operation over the limit did not time out");
+			} catch (CommunicationException e) {
+				// expected
+			}
+
+			connector.releaseOperations();
+			operation.get(TIMEOUT, TimeUnit.MILLISECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		ConnectorOperationalStatus status = getStatus(pool);
+		assertEquals("Wrong # of timeouts", Long.valueOf(1), status.getInstancePoolTimeouts());
+		assertEquals("Timed out operation was counted", Long.valueOf(1), status.getInstancePoolOperations());
+	}
+
+	@Test
+	public void test220NestedOperation() throws Exception {
+		ConnectorInstancePool pool = createPool(1, 1, 1, 100);
+		FakeConnector connector = new FakeConnector();
+		final ConnectorInstance instance = pool.addInstance(connector.getInstance());
+
+		// e.g. fetching an object from within a search handler
+		connector.setNestedOperation(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				connector.setNestedOperation(null);
+				return instance.fetchCurrentToken(null, null, null);
+			}
+		});
+		instance.fetchCurrentToken(null, null, null);
+
+		assertEquals("Wrong # of operations", 2, connector.getOperations());
+		assertEquals("Nested operation waited", Long.valueOf(0), getStatus(pool).getInstancePoolWaits());
+	}
+
+	@Test
+	public void test230StreamingFetchDoesNotHoldPermit() throws Exception {
+		ConnectorInstancePool pool = createPool(1, 2, 1, 500);
+		FakeConnector connector1 = new FakeConnector();
+		FakeConnector connector2 = new FakeConnector();
+		ConnectorInstance instance1 = pool.addInstance(connector1.getInstance());
+		final ConnectorInstance instance2 = pool.addInstance(connector2.getInstance());
+
+		// the handler waits for a worker thread that needs a permit (as with parallel live sync)
+		final ExecutorService worker = Executors.newSingleThreadExecutor();
+		try {
+			connector1.setNestedOperation(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					return worker.submit(fetchCurrentToken(instance2)).get(TIMEOUT, TimeUnit.MILLISECONDS);
+				}
+			});
+			instance1.fetchChanges(null, null, null, null, null, null);
+		} finally {
+			worker.shutdownNow();
+		}
+
+		assertEquals("Worker operation was not invoked", 1, connector2.getOperations());
+		assertEquals("Worker operation timed out", Long.valueOf(0), getStatus(pool).getInstancePoolTimeouts());
+	}
+
+	@Test
+	public void test300Matches() throws Exception {
+		PrismObject<ResourceType> resource = createResource("1", "host1");
+		ConnectorInstancePool pool = new ConnectorInstancePool(resource, CONNECTOR_OID,
+				new ConnectorInstancePool.Configuration(1, 1, 0, 0));
+
+		assertTrue("Same version does not match", pool.matches(createResource("1", "host1"), CONNECTOR_OID));
+		assertFalse("Different connector matches", pool.matches(createResource("1", "host1"), "other"));
+		assertTrue("Same configuration with new version does not match",
+				pool.matches(createResource("2", "host1"), CONNECTOR_OID));
+		assertFalse("Different configuration matches", pool.matches(createResource("3", "host2"), CONNECTOR_OID));
+
+		// the new version was remembered, so the configuration is not compared any more
+		assertTrue("Remembered version does not match", pool.matches(createResource("2", "host2"), CONNECTOR_OID));
+	}
+
+	@Test
+	public void test400Retire() throws Exception {
+		ConnectorInstancePool pool = createPool(1, 2, 0, 0);
+		FakeConnector connector1 = new FakeConnector();
+		FakeConnector connector2 = new FakeConnector();
+		ConnectorInstance instance1 = pool.addInstance(connector1.getInstance());
+		pool.addInstance(connector2.getInstance());
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			connector1.blockOperations();
+			Future<?> operation = executor.submit(fetchCurrentToken(instance1));
+			connector1.awaitEntered();
+
+			pool.retire();
+			assertTrue("Idle instance was not disposed", connector2.isDisposed());
+			assertFalse("Busy instance was disposed", connector1.isDisposed());
+
+			connector1.releaseOperations();
+			operation.get(TIMEOUT, TimeUnit.MILLISECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+		assertTrue("Instance was not disposed after its operation finished", connector1.isDisposed());
+
+		pool.dispose();
+		assertEquals("Instance was disposed twice", 1, connector1.getDisposals());
+	}
+
+	private ConnectorInstancePool createPool(int minSize, int maxSize, int maxConcurrentOperations, long maxWait)
+			throws Exception {
+		return new ConnectorInstancePool(createResource("1", "host1"), CONNECTOR_OID,
+				new ConnectorInstancePool.Configuration(minSize, maxSize, maxConcurrentOperations, maxWait));
+	}
+
+	private PrismObject<ResourceType> createResource(String version, String host) throws Exception {
+		PrismObject<ResourceType> resource = new PrismObject<>(new QName(SchemaConstants.NS_C, "resource"), ResourceType.class);
+		resource.setOid("10000000-0000-0000-0000-000000000006");
+		resource.setVersion(version);
+		PrismContainer<Containerable> configuration = new PrismContainer<>(ResourceType.F_CONNECTOR_CONFIGURATION);
+		PrismContainerValue<Containerable> configurationValue = new PrismContainerValue<>();
+		configuration.add(configurationValue);
+		PrismProperty<String> hostProperty = new PrismProperty<>(new QName(NS_CONFIGURATION, "host"));
+		hostProperty.setRealValue(host);
+		configurationValue.add(hostProperty);
+		resource.getValue().add(configuration);
+		return resource;
+	}
+
+	private ConnectorOperationalStatus getStatus(ConnectorInstancePool pool) {
+		ConnectorOperationalStatus status = new ConnectorOperationalStatus();
+		pool.fillInOperationalStatus(status);
+		return status;
+	}
+
+	private Callable<Object> fetchCurrentToken(final ConnectorInstance instance) {
+		return new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return instance.fetchCurrentToken(null, null, null);
+			}
+		};
+	}
+
+	/**
+	 * Records operations and disposals. Operations (fetchCurrentToken, fetchChanges) can be blocked until released
+	 * and can invoke a nested operation.
+	 */
+	private static class FakeConnector implements InvocationHandler {
+		private final ConnectorInstance instance = (ConnectorInstance) Proxy.newProxyInstance(
+				ConnectorInstance.class.getClassLoader(), new Class<?>[] { ConnectorInstance.class }, this);
+		private final CountDownLatch entered = new CountDownLatch(1);
+		private volatile CountDownLatch released;
+		private volatile Callable<Object> nestedOperation;
+		private volatile int operations;
+		private volatile int disposals;
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "fetchCurrentToken":
+				case "fetchChanges":
+					synchronized (this) {
+						operations++;
+					}
+					entered.countDown();
+					Callable<Object> nested = nestedOperation;
+					if (nested != null) {
+						nested.call();
+					}
+					CountDownLatch latch = released;
+					if (latch != null && !latch.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+						throw new IllegalStateException("Operation was not released");
+					}
+					return null;
+				case "dispose":
+					synchronized (this) {
+						disposals++;
+					}
+					return null;
+				case "toString":
+					return "FakeConnector";
+				default:
+					throw new UnsupportedOperationException(method.getName());
+			}
+		}
+
+		ConnectorInstance getInstance() {
+			return instance;
+		}
+
+		void blockOperations() {
+			released = new CountDownLatch(1);
+		}
+
+		void releaseOperations() {
+			released.countDown();
+		}
+
+		void awaitEntered() throws InterruptedException {
+			assertTrue("Operation was not started", entered.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		}
+
+		void setNestedOperation(Callable<Object> nestedOperation) {
+			this.nestedOperation = nestedOperation;
+		}
+
+		int getOperations() {
+			return operations;
+		}
+
+		int getDisposals() {
+			return disposals;
+		}
+
+		boolean isDisposed() {
+			return disposals > 0;
+		}
+	}
+}
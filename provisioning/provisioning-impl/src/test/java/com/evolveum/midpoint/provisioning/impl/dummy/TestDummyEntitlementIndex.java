@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl.dummy;
+
+import static com.evolveum.midpoint.test.IntegrationTestTools.assertTestResourceSuccess;
+import static com.evolveum.midpoint.test.IntegrationTestTools.display;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.DummyAccount;
+import com.evolveum.icf.dummy.resource.DummyGroup;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.provisioning.impl.ProvisioningTestUtil;
+import com.evolveum.midpoint.schema.SearchResultList;
+import com.evolveum.midpoint.schema.constants.ConnectorTestOperation;
+import com.evolveum.midpoint.schema.internals.InternalMonitor;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowAssociationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Checks that associations resolved in a bulk search via the entitlement index (object-to-subject association
+ * with an explicit matching rule) are the same as the ones resolved for each subject separately.
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = "classpath:ctx-provisioning-test-main.xml")
+@DirtiesContext
+public class TestDummyEntitlementIndex extends AbstractDummyTest {
+
+	public static final File TEST_DIR = new File("src/test/resources/impl/dummy-entitlement-index/");
+	public static final File RESOURCE_DUMMY_FILE = new File(TEST_DIR, "resource-dummy.xml");
+
+	private static final QName ASSOCIATION_GROUP_NAME = new QName(RESOURCE_DUMMY_NS, "group");
+
+	private static final int ACCOUNTS = 50;			// well above the threshold for using the index
+	private static final int GROUPS = 7;
+
+	@Override
+	protected File getResourceDummyFilename() {
+		return RESOURCE_DUMMY_FILE;
+	}
+
+	@Override
+	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+		super.initSystem(initTask, initResult);
+
+		DummyGroup[] groups = new DummyGroup[GROUPS];
+		for (int i = 0; i < GROUPS; i++) {
+			groups[i] = new DummyGroup(String.format("crew-%02d", i));
+			dummyResource.addGroup(groups[i]);
+		}
+		for (int i = 0; i < ACCOUNTS; i++) {
+			String name = String.format("pirate-%03d", i);
+			DummyAccount account = new DummyAccount(name);
+			account.setEnabled(true);
+			dummyResource.addAccount(account);
+			// some pirates are in no crew, some in one, some in two
+			if (i % 5 != 0) {
+				groups[i % GROUPS].addMember(name);
+			}
+			if (i % 3 == 0) {
+				groups[(i + 1) % GROUPS].addMember(name);
+			}
+		}
+	}
+
+	@Test
+	public void test010TestResource() throws Exception {
+		final String TEST_NAME = "test010TestResource";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// WHEN
+		OperationResult testResult = provisioningService.testResource(RESOURCE_DUMMY_OID);
+
+		// THEN
+		display("Test result", testResult);
+		assertTestResourceSuccess(testResult, ConnectorTestOperation.CONNECTOR_INITIALIZATION);
+	}
+
+	@Test
+	public void test100SearchAccountsWithGroups() throws Exception {
+		final String TEST_NAME = "test100SearchAccountsWithGroups";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		Task task = taskManager.createTaskInstance(TestDummyEntitlementIndex.class.getName() + "." + TEST_NAME);
+		OperationResult result = task.getResult();
+		ObjectQuery query = ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_DUMMY_OID,
+				ProvisioningTestUtil.getDefaultAccountObjectClass(resourceType), prismContext);
+		long operationsBefore = InternalMonitor.getConnectorOperationCount();
+
+		// WHEN
+		SearchResultList<PrismObject<ShadowType>> accounts = provisioningService.searchObjects(ShadowType.class, query,
+				null, task, result);
+
+		// THEN
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		assertEquals("Wrong # of accounts", ACCOUNTS + 1, accounts.size());		// including daemon
+
+		// one search per subject would need one connector operation per account (plus the account search itself)
+		long operations = InternalMonitor.getConnectorOperationCount() - operationsBefore;
+		display("Connector operations", operations);
+		assertTrue("Entitlement index was not used, connector operations: " + operations, operations < accounts.size());
+
+		Map<String, Set<String>> groupsFromSearch = new HashMap<>();
+		for (PrismObject<ShadowType> account : accounts) {
+			groupsFromSearch.put(account.getOid(), getGroupShadowOids(account));
+		}
+
+		// the same accounts fetched one by one, so the associations are resolved by a search for each of them
+		int inGroups = 0;
+		for (PrismObject<ShadowType> account : accounts) {
+			PrismObject<ShadowType> accountFetched = provisioningService.getObject(ShadowType.class, account.getOid(),
+					null, task, result);
+			Set<String> expected = getGroupShadowOids(accountFetched);
+			assertEquals("Wrong groups of " + account, expected, groupsFromSearch.get(account.getOid()));
+			if (!expected.isEmpty()) {
+				inGroups++;
+			}
+		}
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		assertTrue("Too few accounts in groups: " + inGroups, inGroups > ACCOUNTS / 2);
+	}
+
+	private Set<String> getGroupShadowOids(PrismObject<ShadowType> account) {
+		Set<String> oids = new HashSet<>();
+		for (ShadowAssociationType association : account.asObjectable().getAssociation()) {
+			if (ASSOCIATION_GROUP_NAME.equals(association.getName())) {
+				oids.add(association.getShadowRef().getOid());
+			}
+		}
+		return oids;
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl.dummy;
+
+import static com.evolveum.midpoint.test.IntegrationTestTools.display;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.DummyAccount;
+import com.evolveum.icf.dummy.resource.DummySyncStyle;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.provisioning.api.ResourceObjectShadowChangeDescription;
+import com.evolveum.midpoint.provisioning.impl.ProvisioningTestUtil;
+import com.evolveum.midpoint.schema.ResourceShadowDiscriminator;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.DummyResourceContoller;
+import com.evolveum.midpoint.test.ObjectChecker;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Live synchronization with worker threads (streaming mode, see ParallelChangeProcessor). Changes of one account
+ * have to be processed by the same worker, otherwise duplicate shadows could be created.
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = "classpath:ctx-provisioning-test-main.xml")
+@DirtiesContext
+public class TestDummyParallelLiveSync extends AbstractDummyTest {
+
+	private static final int WORKER_THREADS = 4;
+	private static final int ACCOUNTS = 40;
+
+	private Task syncTask;
+	private final Set<String> changedAccounts = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	@AfterClass
+	public void resetChangeChecker() {
+		syncServiceMock.setChangeChecker(null);
+	}
+
+	@Test
+	public void test100LiveSyncInit() throws Exception {
+		final String TEST_NAME = "test100LiveSyncInit";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		syncTask = taskManager.createTaskInstance(TestDummyParallelLiveSync.class.getName() + ".syncTask");
+		syncTask.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_WORKER_THREADS, WORKER_THREADS);
+		OperationResult result = syncTask.getResult();
+		dummyResource.setSyncStyle(DummySyncStyle.DUMB);
+		syncServiceMock.reset();
+		// called from worker threads
+		syncServiceMock.setChangeChecker(new ObjectChecker<ResourceObjectShadowChangeDescription>() {
+			@Override
+			public void check(ResourceObjectShadowChangeDescription change) {
+				if (change.getCurrentShadow() != null) {
+					changedAccounts.add(change.getCurrentShadow().asObjectable().getName().getOrig());
+				}
+			}
+		});
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		provisioningService.synchronize(getCoordinates(), syncTask, result);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		syncServiceMock.assertNoNotifyChange();
+		assertToken();
+	}
+
+	@Test
+	public void test110LiveSyncAddAccounts() throws Exception {
+		final String TEST_NAME = "test110LiveSyncAddAccounts";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		OperationResult result = syncTask.getResult();
+		changedAccounts.clear();
+		for (int i = 0; i < ACCOUNTS; i++) {
+			DummyAccount account = new DummyAccount(getAccountName(i));
+			account.addAttributeValues(DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_FULLNAME_NAME, "Pirate " + i);
+			account.setEnabled(true);
+			dummyResource.addAccount(account);
+		}
+		int shadowsBefore = countShadows(result);
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		provisioningService.synchronize(getCoordinates(), syncTask, result);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		result.computeStatus();
+		display("Synchronization result", result);
+		TestUtil.assertSuccess(result);
+
+		assertEquals("Wrong accounts synchronized", getAllAccountNames(), changedAccounts);
+		assertEquals("Wrong # of shadows created", shadowsBefore + ACCOUNTS, countShadows(result));
+		for (int i = 0; i < ACCOUNTS; i++) {
+			assertNotNull("No shadow for " + getAccountName(i), findAccountShadowByUsername(getAccountName(i), resource, result));
+		}
+		assertToken();
+	}
+
+	@Test
+	public void test120LiveSyncModifyAccountsRepeatedly() throws Exception {
+		final String TEST_NAME = "test120LiveSyncModifyAccountsRepeatedly";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		OperationResult result = syncTask.getResult();
+		changedAccounts.clear();
+		// several changes of each account in one run
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < ACCOUNTS; i++) {
+				dummyResource.getAccountByUsername(getAccountName(i))
+						.replaceAttributeValue(DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_FULLNAME_NAME, "Captain " + i + "/" + round);
+			}
+		}
+		int shadowsBefore = countShadows(result);
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		provisioningService.synchronize(getCoordinates(), syncTask, result);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		result.computeStatus();
+		display("Synchronization result", result);
+		TestUtil.assertSuccess(result);
+
+		assertEquals("Wrong accounts synchronized", getAllAccountNames(), changedAccounts);
+		assertEquals("Shadows were created", shadowsBefore, countShadows(result));
+		assertToken();
+	}
+
+	@Test
+	public void test130LiveSyncNoChange() throws Exception {
+		final String TEST_NAME = "test130LiveSyncNoChange";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		OperationResult result = syncTask.getResult();
+		changedAccounts.clear();
+		syncServiceMock.reset();
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		provisioningService.synchronize(getCoordinates(), syncTask, result);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		syncServiceMock.assertNoNotifyChange();
+		assertEquals("Accounts were synchronized", Collections.<String>emptySet(), changedAccounts);
+		assertToken();
+	}
+
+	private ResourceShadowDiscriminator getCoordinates() {
+		return new ResourceShadowDiscriminator(RESOURCE_DUMMY_OID, ProvisioningTestUtil.getDefaultAccountObjectClass(resourceType));
+	}
+
+	private String getAccountName(int i) {
+		return String.format("parrot-%03d", i);
+	}
+
+	private Set<String> getAllAccountNames() {
+		Set<String> names = new HashSet<>();
+		for (int i = 0; i < ACCOUNTS; i++) {
+			names.add(getAccountName(i));
+		}
+		return names;
+	}
+
+	private int countShadows(OperationResult result) throws Exception {
+		ObjectQuery query = ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_DUMMY_OID,
+				ProvisioningTestUtil.getDefaultAccountObjectClass(resourceType), prismContext);
+		return repositoryService.countObjects(ShadowType.class, query, result);
+	}
+
+	/**
+	 * All changes were processed, so the token has to be the latest one.
+	 */
+	private void assertToken() {
+		PrismProperty<Object> token = syncTask.getExtensionProperty(SchemaConstants.SYNC_TOKEN);
+		assertNotNull("No token in the task", token);
+		assertEquals("Wrong token in the task", String.valueOf(dummyResource.getLatestSyncToken()),
+				String.valueOf(token.getRealValue()));
+	}
+}
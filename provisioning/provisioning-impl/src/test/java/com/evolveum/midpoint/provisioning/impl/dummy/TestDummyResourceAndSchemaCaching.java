@@ -31,6 +31,7 @@ import javax.xml.namespace.QName;
 import com.evolveum.midpoint.common.refinery.RefinedResourceSchemaImpl;
 import com.evolveum.midpoint.prism.*;
 import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.testng.AssertJUnit;
@@ -44,7 +45,10 @@ import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.delta.PropertyDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.provisioning.impl.ResourceCache;
 import com.evolveum.midpoint.provisioning.ucf.impl.ConnectorFactoryIcfImpl;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.internals.InternalMonitor;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.ResourceTypeUtil;
@@ -77,6 +81,9 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 public class TestDummyResourceAndSchemaCaching extends AbstractDummyTest {
 
 	private static final Trace LOGGER = TraceManager.getTrace(TestDummyResourceAndSchemaCaching.class);
+
+	@Autowired(required = true)
+	private ResourceCache resourceCache;
 	
 	
 	
@@ -490,6 +497,70 @@ public class TestDummyResourceAndSchemaCaching extends AbstractDummyTest {
 		assertConnectorConfigChanged();
 	}
 	
+	/**
+	 * Read-only callers share the frozen cached snapshot. Other callers get their own clones, so modifying them
+	 * does not affect the cache.
+	 */
+	@Test
+	public void test040GetResourceReadOnly() throws Exception {
+		final String TEST_NAME = "test040GetResourceReadOnly";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		Task task = taskManager.createTaskInstance(TestDummyResourceAndSchemaCaching.class.getName()
+				+ "." + TEST_NAME);
+		OperationResult result = task.getResult();
+		Collection<SelectorOptions<GetOperationOptions>> readOnly = SelectorOptions.createCollection(GetOperationOptions.createReadOnly());
+		// make sure the current version is cached
+		provisioningService.getObject(ResourceType.class, RESOURCE_DUMMY_OID, null, task, result);
+		rememberResourceCacheStats();
+		long hitsBefore = resourceCache.getHits();
+		long missesBefore = resourceCache.getMisses();
+		long clonesBefore = resourceCache.getClones();
+
+		// WHEN
+		PrismObject<ResourceType> resourceReadOnly1 = provisioningService.getObject(ResourceType.class, RESOURCE_DUMMY_OID, readOnly, task, result);
+		PrismObject<ResourceType> resourceReadOnly2 = provisioningService.getObject(ResourceType.class, RESOURCE_DUMMY_OID, readOnly, task, result);
+		PrismObject<ResourceType> resourceMutable = provisioningService.getObject(ResourceType.class, RESOURCE_DUMMY_OID, null, task, result);
+
+		// THEN
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		display("Resource cache", InternalMonitor.getResourceCacheStats());
+		assertResourceCacheHitsIncrement(3);
+		assertResourceCacheMissesIncrement(0);
+		AssertJUnit.assertEquals("Wrong # of cache hits", hitsBefore + 3, resourceCache.getHits());
+		AssertJUnit.assertEquals("Wrong # of cache misses", missesBefore, resourceCache.getMisses());
+		AssertJUnit.assertEquals("Wrong # of clones", clonesBefore + 1, resourceCache.getClones());
+
+		AssertJUnit.assertTrue("Read-only resource is not immutable", resourceReadOnly1.isImmutable());
+		AssertJUnit.assertSame("Read-only callers got different resource instances", resourceReadOnly1, resourceReadOnly2);
+		assertHasSchema(resourceReadOnly1, "read-only resource");
+		String description = resourceReadOnly1.asObjectable().getDescription();
+		try {
+			resourceReadOnly1.asObjectable().setDescription("Read-only resource was modified");
+			AssertJUnit.fail("Read-only resource was modified");
+		} catch (IllegalStateException e) {
+			// This is expected
+		}
+
+		AssertJUnit.assertFalse("Resource is immutable", resourceMutable.isImmutable());
+		AssertJUnit.assertNotSame("Cached snapshot was returned to a caller that can modify it", resourceReadOnly1, resourceMutable);
+		resourceMutable.asObjectable().setDescription("Modified clone");
+
+		PrismObject<ResourceType> resourceCached = resourceCache.get(RESOURCE_DUMMY_OID, resourceReadOnly1.getVersion(),
+				GetOperationOptions.createReadOnly());
+		AssertJUnit.assertSame("Cached snapshot was replaced", resourceReadOnly1, resourceCached);
+		AssertJUnit.assertEquals("Modification of the clone got into the cache", description, resourceCached.asObjectable().getDescription());
+
+		PrismObject<ResourceType> resourceMutable2 = resourceCache.get(RESOURCE_DUMMY_OID, resourceReadOnly1.getVersion(), null);
+		AssertJUnit.assertNotSame("Cached snapshot was not cloned", resourceCached, resourceMutable2);
+		resourceMutable2.asObjectable().setDescription("Another modified clone");
+		AssertJUnit.assertEquals("Modification of the clone got into the cache", description, resourceCached.asObjectable().getDescription());
+		AssertJUnit.assertEquals("Wrong # of cache hits", hitsBefore + 5, resourceCache.getHits());
+		AssertJUnit.assertEquals("Wrong # of cache misses", missesBefore, resourceCache.getMisses());
+		AssertJUnit.assertEquals("Wrong # of clones", clonesBefore + 2, resourceCache.getClones());
+	}
+
 	@Test
 	public void test900DeleteResource() throws Exception {
 		final String TEST_NAME = "test900DeleteResource";
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl.dummy;
+
+import static com.evolveum.midpoint.test.IntegrationTestTools.assertTestResourceSuccess;
+import static com.evolveum.midpoint.test.IntegrationTestTools.display;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.DummyAccount;
+import com.evolveum.icf.dummy.resource.DummyGroup;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.provisioning.impl.ProvisioningContext;
+import com.evolveum.midpoint.provisioning.impl.ProvisioningTestUtil;
+import com.evolveum.midpoint.provisioning.impl.ShadowManager;
+import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.constants.ConnectorTestOperation;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
+import com.evolveum.midpoint.schema.util.ShadowUtil;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+
+/**
+ * Tests the bulk lookup of repository shadows for resource objects (ShadowManager.lookupShadowsInRepository)
+ * and its use in resource searches.
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = "classpath:ctx-provisioning-test-main.xml")
+@DirtiesContext
+public class TestDummyShadowLookup extends AbstractDummyTest {
+
+	private static final int ACCOUNTS = 10;
+	private static final String GROUP_NAME = "lookup-crew";
+
+	@Autowired(required = true)
+	private ShadowManager shadowManager;
+
+	private Map<String, PrismObject<ShadowType>> accountShadows;
+	private PrismObject<ShadowType> groupShadow;
+
+	@Override
+	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+		super.initSystem(initTask, initResult);
+
+		DummyGroup group = new DummyGroup(GROUP_NAME);
+		dummyResource.addGroup(group);
+		for (int i = 0; i < ACCOUNTS; i++) {
+			DummyAccount account = new DummyAccount(getAccountName(i));
+			account.setEnabled(true);
+			dummyResource.addAccount(account);
+		}
+	}
+
+	@Test
+	public void test010TestResource() throws Exception {
+		final String TEST_NAME = "test010TestResource";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// WHEN
+		OperationResult testResult = provisioningService.testResource(RESOURCE_DUMMY_OID);
+
+		// THEN
+		display("Test result", testResult);
+		assertTestResourceSuccess(testResult, ConnectorTestOperation.CONNECTOR_INITIALIZATION);
+	}
+
+	@Test
+	public void test020CreateShadows() throws Exception {
+		final String TEST_NAME = "test020CreateShadows";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+
+		// WHEN
+		provisioningService.searchObjects(ShadowType.class, getAccountQuery(), null, task, result);
+		provisioningService.searchObjects(ShadowType.class, getGroupQuery(), null, task, result);
+
+		// THEN
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+
+		accountShadows = new HashMap<>();
+		for (PrismObject<ShadowType> shadow : repositoryService.searchObjects(ShadowType.class, getAccountQuery(), null, result)) {
+			accountShadows.put(shadow.asObjectable().getName().getOrig(), shadow);
+		}
+		for (PrismObject<ShadowType> shadow : repositoryService.searchObjects(ShadowType.class, getGroupQuery(), null, result)) {
+			if (GROUP_NAME.equals(shadow.asObjectable().getName().getOrig())) {
+				groupShadow = shadow;
+			}
+		}
+		for (int i = 0; i < ACCOUNTS; i++) {
+			assertNotNull("No shadow for " + getAccountName(i), accountShadows.get(getAccountName(i)));
+		}
+		assertNotNull("No group shadow", groupShadow);
+	}
+
+	/**
+	 * Results are in the order of resource objects; the same object twice gets the same shadow.
+	 */
+	@Test
+	public void test100LookupOrder() throws Exception {
+		final String TEST_NAME = "test100LookupOrder";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		List<PrismObject<ShadowType>> resourceShadows = new ArrayList<>();
+		List<String> expectedOids = new ArrayList<>();
+		for (int i = ACCOUNTS - 1; i >= 0; i--) {
+			resourceShadows.add(getResourceShadow(getAccountName(i), result));
+			expectedOids.add(accountShadows.get(getAccountName(i)).getOid());
+		}
+		resourceShadows.add(getResourceShadow(getAccountName(3), result));
+		expectedOids.add(accountShadows.get(getAccountName(3)).getOid());
+
+		PrismObject<ShadowType> nonexistent = getResourceShadow(getAccountName(0), result);
+		ShadowUtil.getAttributesContainer(nonexistent).getPrimaryIdentifier().setRealValue("nonexistent-uid");
+		resourceShadows.add(2, nonexistent);
+		expectedOids.add(2, null);
+
+		// WHEN
+		List<PrismObject<ShadowType>> shadows = lookupShadows(resourceShadows, task, result);
+
+		// THEN
+		assertShadowOids(expectedOids, shadows);
+	}
+
+	/**
+	 * Objects of other class cannot be looked up in bulk with the others; they are looked up one by one.
+	 */
+	@Test
+	public void test110LookupFallback() throws Exception {
+		final String TEST_NAME = "test110LookupFallback";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		PrismObject<ShadowType> group = groupShadow.clone();
+		provisioningService.applyDefinition(group, result);
+		List<PrismObject<ShadowType>> resourceShadows = Arrays.asList(
+				getResourceShadow(getAccountName(1), result), group, getResourceShadow(getAccountName(2), result));
+
+		// WHEN
+		List<PrismObject<ShadowType>> shadows = lookupShadows(resourceShadows, task, result);
+
+		// THEN
+		assertShadowOids(Arrays.asList(accountShadows.get(getAccountName(1)).getOid(), groupShadow.getOid(),
+				accountShadows.get(getAccountName(2)).getOid()), shadows);
+	}
+
+	/**
+	 * Bulk lookup does not write to the repository: DEAD flag is cleared only when the shadow is processed.
+	 */
+	@Test
+	public void test120LookupDeadShadow() throws Exception {
+		final String TEST_NAME = "test120LookupDeadShadow";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		String oid = accountShadows.get(getAccountName(4)).getOid();
+		repositoryService.modifyObject(ShadowType.class, oid,
+				DeltaBuilder.deltaFor(ShadowType.class, prismContext).item(ShadowType.F_DEAD).replace(true).asItemDeltas(),
+				result);
+
+		// WHEN
+		List<PrismObject<ShadowType>> shadows = lookupShadows(
+				Collections.singletonList(getResourceShadow(getAccountName(4), result)), task, result);
+
+		// THEN
+		assertEquals("Wrong shadow", oid, shadows.get(0).getOid());
+		assertTrue("DEAD flag was cleared by the lookup",
+				Boolean.TRUE.equals(repositoryService.getObject(ShadowType.class, oid, null, result).asObjectable().isDead()));
+
+		shadowManager.processFoundShadow(shadows.get(0), result);
+		assertFalse("DEAD flag was not cleared",
+				Boolean.TRUE.equals(repositoryService.getObject(ShadowType.class, oid, null, result).asObjectable().isDead()));
+	}
+
+	/**
+	 * More shadows for one object: the same error as for single-object lookup.
+	 */
+	@Test
+	public void test130LookupAmbiguous() throws Exception {
+		final String TEST_NAME = "test130LookupAmbiguous";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		PrismObject<ShadowType> duplicate = accountShadows.get(getAccountName(5)).clone();
+		duplicate.setOid(null);
+		duplicate.asObjectable().setName(new PolyStringType("lookup-duplicate"));
+		String duplicateOid = repositoryService.addObject(duplicate, null, result);
+		List<PrismObject<ShadowType>> resourceShadows = Arrays.asList(
+				getResourceShadow(getAccountName(6), result), getResourceShadow(getAccountName(5), result));
+
+		try {
+			// WHEN
+			lookupShadows(resourceShadows, task, result);
+			fail("Ambiguous shadows were not detected");
+		} catch (IllegalStateException e) {
+			// THEN
+			display("Expected exception", e);
+		} finally {
+			repositoryService.deleteObject(ShadowType.class, duplicateOid, result);
+		}
+	}
+
+	/**
+	 * Shadows are not created for objects that come after the handler stopped the search.
+	 */
+	@Test
+	public void test200SearchStoppedByHandler() throws Exception {
+		final String TEST_NAME = "test200SearchStoppedByHandler";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		for (int i = 0; i < 5; i++) {
+			DummyAccount account = new DummyAccount("stop-" + i);
+			account.setEnabled(true);
+			dummyResource.addAccount(account);
+		}
+		int shadowsBefore = repositoryService.countObjects(ShadowType.class, getAccountQuery(), result);
+		final List<PrismObject<ShadowType>> found = new ArrayList<>();
+		ResultHandler<ShadowType> handler = new ResultHandler<ShadowType>() {
+			@Override
+			public boolean handle(PrismObject<ShadowType> object, OperationResult parentResult) {
+				found.add(object);
+				return false;
+			}
+		};
+
+		// WHEN
+		provisioningService.searchObjectsIterative(ShadowType.class, getAccountQuery(), null, handler, task, result);
+
+		// THEN
+		int shadowsAfter = repositoryService.countObjects(ShadowType.class, getAccountQuery(), result);
+		display("Shadows before/after", shadowsBefore + "/" + shadowsAfter);
+		assertEquals("Wrong # of objects passed to the handler", 1, found.size());
+		assertTrue("Shadows were created after the handler stopped the search: " + (shadowsAfter - shadowsBefore),
+				shadowsAfter - shadowsBefore <= 1);
+	}
+
+	private List<PrismObject<ShadowType>> lookupShadows(List<PrismObject<ShadowType>> resourceShadows, Task task,
+			OperationResult result) throws Exception {
+		ProvisioningContext ctx = provisioningContextFactory.create(resourceShadows.get(0), task, result);
+		return shadowManager.lookupShadowsInRepository(ctx, resourceShadows, result);
+	}
+
+	private void assertShadowOids(List<String> expectedOids, List<PrismObject<ShadowType>> shadows) {
+		assertEquals("Wrong # of shadows", expectedOids.size(), shadows.size());
+		for (int i = 0; i < expectedOids.size(); i++) {
+			if (expectedOids.get(i) == null) {
+				assertNull("Unexpected shadow #" + i + ": " + shadows.get(i), shadows.get(i));
+			} else {
+				assertNotNull("No shadow #" + i, shadows.get(i));
+				assertEquals("Wrong shadow #" + i, expectedOids.get(i), shadows.get(i).getOid());
+			}
+		}
+	}
+
+	/**
+	 * The repository shadow with definitions applied is used as a resource object; it contains the identifiers.
+	 */
+	private PrismObject<ShadowType> getResourceShadow(String name, OperationResult result) throws Exception {
+		PrismObject<ShadowType> shadow = accountShadows.get(name).clone();
+		provisioningService.applyDefinition(shadow, result);
+		return shadow;
+	}
+
+	private ObjectQuery getAccountQuery() throws Exception {
+		return ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_DUMMY_OID,
+				ProvisioningTestUtil.getDefaultAccountObjectClass(resourceType), prismContext);
+	}
+
+	private ObjectQuery getGroupQuery() throws Exception {
+		return ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_DUMMY_OID,
+				new QName(RESOURCE_DUMMY_NS, OBJECTCLAS_GROUP_LOCAL_NAME), prismContext);
+	}
+
+	private Task createTask(String testName) {
+		return taskManager.createTaskInstance(TestDummyShadowLookup.class.getName() + "." + testName);
+	}
+
+	private String getAccountName(int i) {
+		return String.format("lookup-%02d", i);
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.ucf.impl;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.schema.statistics.ProvisioningOperation;
+import com.evolveum.midpoint.util.exception.CommunicationException;
+
+/**
+ * Tests token debt, adaptive back-off and recovery of the resource rate limiter.
+ *
+ * @author agent
+ */
+public class TestResourceRateLimiter {
+
+	private static final String RESOURCE_OID = "10000000-0000-0000-0000-000000000004";
+	private static final double DELTA = 0.001;
+
+	@Test
+	public void test100Unlimited() throws Exception {
+		ResourceRateLimiter limiter = new ResourceRateLimiter(RESOURCE_OID,
+				new ResourceRateLimiter.Configuration(10, 0, 0, 1, false, 0, 0));
+
+		for (int i = 0; i < 100; i++) {
+			assertEquals("Write operation was throttled", 0, limiter.acquire(ProvisioningOperation.ICF_CREATE));
+			assertEquals("Search operation was throttled", 0, limiter.acquire(ProvisioningOperation.ICF_SEARCH));
+		}
+		assertEquals("Wrong write rate", 0, limiter.getEffectiveRate(ProvisioningOperation.ICF_CREATE), DELTA);
+		assertEquals("Wrong # of throttled writes", 0, limiter.getThrottledCount(ProvisioningOperation.ICF_CREATE));
+		assertEquals("Wrong # of throttled reads", 0, limiter.getThrottledCount(ProvisioningOperation.ICF_GET));
+	}
+
+	@Test
+	public void test110TokenDebt() throws Exception {
+		final int THREADS = 5;
+		final ResourceRateLimiter limiter = new ResourceRateLimiter(RESOURCE_OID,
+				new ResourceRateLimiter.Configuration(10, 0, 0, 1, false, 0, 0));
+
+		// all threads ask for a token at once: the first one takes the burst token, the others go into debt
+		// and have to wait 100, 200, 300 and 400 ms, respectively
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<Long>> waits = new ArrayList<>();
+			for (int i = 0; i < THREADS; i++) {
+				waits.add(executor.submit(() -> {
+					start.await();
+					return limiter.acquire(ProvisioningOperation.ICF_GET);
+				}));
+			}
+			long started = System.currentTimeMillis();
+			start.countDown();
+			long maxWait = 0;
+			int throttled = 0;
+			for (Future<Long> wait : waits) {
+				long waitTime = wait.get();
+				maxWait = Math.max(maxWait, waitTime);
+				if (waitTime > 0) {
+					throttled++;
+				}
+			}
+			long elapsed = System.currentTimeMillis() - started;
+
+			assertEquals("Wrong # of throttled operations", THREADS - 1, throttled);
+			assertEquals("Wrong # of throttled operations recorded", THREADS - 1,
+					limiter.getThrottledCount(ProvisioningOperation.ICF_GET));
+			assertTrue("Debt was not accumulated, max wait: " + maxWait, maxWait >= 300);
+			assertTrue("Operations were not delayed, elapsed: " + elapsed, elapsed >= 300);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void test200BackOffAndRecovery() throws Exception {
+		ResourceRateLimiter limiter = new ResourceRateLimiter(RESOURCE_OID,
+				new ResourceRateLimiter.Configuration(100, 0, 0, 1, true, 50, 100));
+		ProvisioningOperation get = ProvisioningOperation.ICF_GET;
+
+		limiter.operationFinished(get, new CommunicationException("Connection refused"), 10);
+		assertEquals("Rate was not decreased after communication problem", 50, limiter.getEffectiveRate(get), DELTA);
+
+		// failures within the adjustment interval count only once
+		limiter.operationFinished(get, new CommunicationException("Connection refused"), 10);
+		assertEquals("Rate was decreased twice within the adjustment interval", 50, limiter.getEffectiveRate(get), DELTA);
+
+		Thread.sleep(150);
+		limiter.operationFinished(get, null, 80);
+		assertEquals("Rate was not decreased after slow operation", 25, limiter.getEffectiveRate(get), DELTA);
+
+		// not an adjustment interval without problems yet
+		limiter.operationFinished(get, null, 10);
+		assertEquals("Rate was increased too early", 25, limiter.getEffectiveRate(get), DELTA);
+
+		Thread.sleep(150);
+		limiter.operationFinished(get, null, 10);
+		assertEquals("Rate was not increased", 35, limiter.getEffectiveRate(get), DELTA);
+		limiter.operationFinished(get, null, 10);
+		assertEquals("Rate was increased twice within the adjustment interval", 35, limiter.getEffectiveRate(get), DELTA);
+
+		for (int i = 0; i < 10; i++) {
+			Thread.sleep(110);
+			limiter.operationFinished(get, null, 10);
+		}
+		assertEquals("Rate was not restored to the configured value", 100, limiter.getEffectiveRate(get), DELTA);
+	}
+
+	@Test
+	public void test210BackOffFloor() throws Exception {
+		ResourceRateLimiter limiter = new ResourceRateLimiter(RESOURCE_OID,
+				new ResourceRateLimiter.Configuration(0, 100, 0, 1, true, 0, 0));
+		ProvisioningOperation update = ProvisioningOperation.ICF_UPDATE;
+
+		for (int i = 0; i < 20; i++) {
+			limiter.operationFinished(update, new CommunicationException("Connection reset"), 10);
+		}
+		assertEquals("Rate was decreased below the minimum", 5, limiter.getEffectiveRate(update), DELTA);
+		assertEquals("Read rate was affected", 0, limiter.getEffectiveRate(ProvisioningOperation.ICF_GET), DELTA);
+	}
+
+	@Test
+	public void test220SearchLatencyIgnored() throws Exception {
+		ResourceRateLimiter limiter = new ResourceRateLimiter(RESOURCE_OID,
+				new ResourceRateLimiter.Configuration(0, 0, 10, 1, true, 50, 0));
+		ProvisioningOperation search = ProvisioningOperation.ICF_SEARCH;
+
+		limiter.operationFinished(search, null, 10000);
+		assertEquals("Rate was decreased because of long search", 10, limiter.getEffectiveRate(search), DELTA);
+
+		limiter.operationFinished(search, new RuntimeException(new java.net.ConnectException("Connection refused")), 10);
+		assertEquals("Rate was not decreased after communication problem", 5, limiter.getEffectiveRate(search), DELTA);
+
+		limiter.operationFinished(search, new IllegalStateException("not a communication problem"), 10);
+		assertEquals("Unrelated problem was not treated as success", 6, limiter.getEffectiveRate(search), DELTA);
+	}
+
+	@Test
+	public void test230NotAdaptive() throws Exception {
+		ResourceRateLimiter limiter = new ResourceRateLimiter(RESOURCE_OID,
+				new ResourceRateLimiter.Configuration(100, 0, 0, 1, false, 50, 0));
+
+		limiter.operationFinished(ProvisioningOperation.ICF_GET, new CommunicationException("Connection refused"), 1000);
+		assertEquals("Rate of non-adaptive limiter was changed", 100,
+				limiter.getEffectiveRate(ProvisioningOperation.ICF_GET), DELTA);
+	}
+}
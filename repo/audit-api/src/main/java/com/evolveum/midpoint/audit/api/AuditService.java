@@ -31,6 +31,13 @@ public interface AuditService {
 
     public static final int MAX_MESSAGE_SIZE = 1024;
 
+    /**
+     * Query parameter for listRecords and listRecordsIterative: if set to true, initiator, target and
+     * target owner of returned records contain only OID and name (as recorded in the audit trail),
+     * instead of full objects read from the repository.
+     */
+    public static final String PARAM_RESOLVE_NAMES_ONLY = "resolveNamesOnly";
+
 	void audit(AuditEventRecord record, Task task);
 
     /**
@@ -44,6 +51,14 @@ public interface AuditService {
      * @throws UnsupportedOperationException if object retrieval is not supported
      */
     List<AuditEventRecord> listRecords(String query, Map<String, Object> params);
+
+    /**
+     * Passes records matching the query to the handler one by one, without keeping all of them in memory.
+     * Suitable for large result sets, e.g. in reports.
+     *
+     * @throws UnsupportedOperationException if object retrieval is not supported
+     */
+    void listRecordsIterative(String query, Map<String, Object> params, AuditResultHandler handler);
     
     /**
      * @throws UnsupportedOperationException if object retrieval is not supported
@@ -27,6 +27,7 @@ import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.audit.api.AuditResultHandler;
 import com.evolveum.midpoint.audit.api.AuditService;
 import com.evolveum.midpoint.common.LoggingConfigurationManager;
 import com.evolveum.midpoint.prism.PrismObject;
@@ -162,6 +163,11 @@ public class LoggerAuditServiceImpl implements AuditService {
 		throw new UnsupportedOperationException("Object retrieval not supported");
 	}
 
+	@Override
+	public void listRecordsIterative(String query, Map<String, Object> params, AuditResultHandler handler) {
+		throw new UnsupportedOperationException("Object retrieval not supported");
+	}
+
     @Override
     public long countObjects(String query, Map<String, Object> params){
     	throw new UnsupportedOperationException("Object retrieval not supported");
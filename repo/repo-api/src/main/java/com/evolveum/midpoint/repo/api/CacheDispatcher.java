@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.api;
+
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Distributes information about changed repository objects to interested caches on this node
+ * (and, through cluster-aware listeners, to other nodes as well).
+ *
+ * @author agent
+ */
+public interface CacheDispatcher {
+
+	void registerCacheListener(CacheListener cacheListener);
+
+	/**
+	 * Registers a listener that keeps objects of given types beyond a single operation. Changes of these types
+	 * have to reach it also from other cluster nodes (see {@link #getCachedTypes()}).
+	 */
+	void registerCacheListener(CacheListener cacheListener, Collection<Class<? extends ObjectType>> cachedTypes);
+
+	void unregisterCacheListener(CacheListener cacheListener);
+
+	/**
+	 * Returns object types kept by currently registered listeners, i.e. types whose changes are to be propagated
+	 * among cluster nodes.
+	 */
+	Set<Class<? extends ObjectType>> getCachedTypes();
+
+	/**
+	 * Announces a change made on this node.
+	 */
+	<O extends ObjectType> void dispatch(Class<O> type, String oid);
+
+	/**
+	 * Announces a change made on another cluster node.
+	 */
+	<O extends ObjectType> void dispatchRemote(Class<O> type, String oid);
+}
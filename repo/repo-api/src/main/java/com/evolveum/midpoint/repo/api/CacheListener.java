@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.api;
+
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Component that keeps (some) repository objects in memory and therefore needs to know when they change.
+ *
+ * @author agent
+ */
+public interface CacheListener {
+
+	/**
+	 * Called after an object was added, modified or deleted.
+	 *
+	 * @param type type of the object (as used in the repository operation; may be a supertype of the real one)
+	 * @param oid OID of the object
+	 * @param remote true if the change was made on another cluster node
+	 */
+	<O extends ObjectType> void invalidateCacheEntry(Class<O> type, String oid, boolean remote);
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.api;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.util.DebugDumpable;
+import com.evolveum.midpoint.util.DebugUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.apache.commons.lang.Validate;
+
+import java.util.Collection;
+
+/**
+ * One member of a batch executed by {@link RepositoryService#executeBatch(java.util.List, com.evolveum.midpoint.schema.result.OperationResult)}.
+ *
+ * Besides the description of the operation it holds its outcome: OID of the added object
+ * and the exception, if the operation failed.
+ *
+ * @author agent
+ */
+public class RepoOperation<T extends ObjectType> implements DebugDumpable {
+
+    public enum Kind { ADD, MODIFY, DELETE }
+
+    private final Kind kind;
+    private final Class<T> type;
+    private final String oid;
+    private final PrismObject<T> object;
+    private final Collection<? extends ItemDelta> modifications;
+    private final RepoAddOptions addOptions;
+    private final RepoModifyOptions modifyOptions;
+
+    // outcome
+    private String resultOid;
+    private Throwable exception;
+    private boolean executed;
+
+    private RepoOperation(Kind kind, Class<T> type, String oid, PrismObject<T> object,
+                          Collection<? extends ItemDelta> modifications, RepoAddOptions addOptions,
+                          RepoModifyOptions modifyOptions) {
+        this.kind = kind;
+        this.type = type;
+        this.oid = oid;
+        this.object = object;
+        this.modifications = modifications;
+        this.addOptions = addOptions;
+        this.modifyOptions = modifyOptions;
+    }
+
+    public static <T extends ObjectType> RepoOperation<T> add(PrismObject<T> object, RepoAddOptions options) {
+        Validate.notNull(object, "Object must not be null.");
+        return new RepoOperation<>(Kind.ADD, object.getCompileTimeClass(), object.getOid(), object, null, options, null);
+    }
+
+    public static <T extends ObjectType> RepoOperation<T> modify(Class<T> type, String oid,
+                                                                 Collection<? extends ItemDelta> modifications,
+                                                                 RepoModifyOptions options) {
+        Validate.notNull(type, "Object type must not be null.");
+        Validate.notEmpty(oid, "Oid must not be null or empty.");
+        Validate.notNull(modifications, "Modifications must not be null.");
+        return new RepoOperation<>(Kind.MODIFY, type, oid, null, modifications, null, options);
+    }
+
+    public static <T extends ObjectType> RepoOperation<T> delete(Class<T> type, String oid) {
+        Validate.notNull(type, "Object type must not be null.");
+        Validate.notEmpty(oid, "Oid must not be null or empty.");
+        return new RepoOperation<>(Kind.DELETE, type, oid, null, null, null, null);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * OID of the object to be modified or deleted. For ADD operation it is the OID of the object
+     * as provided by the client (may be null).
+     */
+    public String getOid() {
+        return oid;
+    }
+
+    public PrismObject<T> getObject() {
+        return object;
+    }
+
+    public Collection<? extends ItemDelta> getModifications() {
+        return modifications;
+    }
+
+    public RepoAddOptions getAddOptions() {
+        return addOptions;
+    }
+
+    public RepoModifyOptions getModifyOptions() {
+        return modifyOptions;
+    }
+
+    /**
+     * OID of the added (modified, deleted) object. Set after successful execution.
+     */
+    public String getResultOid() {
+        return resultOid;
+    }
+
+    public Throwable getException() {
+        return exception;
+    }
+
+    public boolean isExecuted() {
+        return executed;
+    }
+
+    public boolean isSuccess() {
+        return executed && exception == null;
+    }
+
+    public void recordSuccess(String resultOid) {
+        this.resultOid = resultOid;
+        this.exception = null;
+        this.executed = true;
+    }
+
+    public void recordFailure(Throwable exception) {
+        this.resultOid = null;
+        this.exception = exception;
+        this.executed = true;
+    }
+
+    @Override
+    public String debugDump(int indent) {
+        StringBuilder sb = new StringBuilder();
+        DebugUtil.indentDebugDump(sb, indent);
+        sb.append("RepoOperation ").append(kind).append(" ").append(type != null ? type.getSimpleName() : null)
+                .append(":").append(oid);
+        if (kind == Kind.ADD) {
+            sb.append("\n");
+            DebugUtil.debugDumpWithLabel(sb, "object", object, indent + 1);
+        } else if (kind == Kind.MODIFY) {
+            sb.append("\n");
+            DebugUtil.debugDumpWithLabel(sb, "modifications", modifications, indent + 1);
+        }
+        if (executed) {
+            sb.append("\n");
+            DebugUtil.indentDebugDump(sb, indent + 1);
+            sb.append(exception == null ? "SUCCESS " + resultOid : "FAILURE " + exception);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "RepoOperation(" + kind + " " + (type != null ? type.getSimpleName() : null) + ":" + oid
+                + (executed ? (exception == null ? ", success" : ", failed: " + exception) : "") + ")";
+    }
+}
@@ -131,6 +131,7 @@ public interface RepositoryService {
 	String SEARCH_CONTAINERS = CLASS_NAME_WITH_DOT + "searchContainers";
     String LIST_RESOURCE_OBJECT_SHADOWS = CLASS_NAME_WITH_DOT + "listResourceObjectShadows";
     String MODIFY_OBJECT = CLASS_NAME_WITH_DOT + "modifyObject";
+    String EXECUTE_BATCH = CLASS_NAME_WITH_DOT + "executeBatch";
     String COUNT_OBJECTS = CLASS_NAME_WITH_DOT + "countObjects";
     String GET_VERSION = CLASS_NAME_WITH_DOT + "getVersion";
     String SEARCH_OBJECTS_ITERATIVE = CLASS_NAME_WITH_DOT + "searchObjectsIterative";
@@ -402,6 +403,26 @@ public interface RepositoryService {
 	 */
 	<T extends ObjectType> void deleteObject(Class<T> type, String oid, OperationResult parentResult) throws ObjectNotFoundException;
 
+	/**
+	 * <p>Executes a batch of independent add, modify and delete operations.</p>
+	 * <p>
+	 * Semantics of each operation is the same as of the respective single-object method. However, the batch
+	 * as a whole is NOT atomic: the implementation may group the operations into transactions as it sees fit
+	 * (e.g. to save per-transaction overhead), and failure of one operation does not prevent execution of the others.
+	 * Operations are executed in the order given; operations on the same object must not be put into one batch.
+	 * </p>
+	 * <p>
+	 * The outcome of each operation (OID of added object or the exception) is recorded in the respective
+	 * {@link RepoOperation}. The method itself does not throw checked exceptions.
+	 * </p>
+	 *
+	 * @param operations
+	 *            operations to be executed
+	 * @param parentResult
+	 *            parent OperationResult (in/out)
+	 */
+	void executeBatch(List<? extends RepoOperation<?>> operations, OperationResult parentResult);
+
 	/**
 	 * <p>Returns the User object representing owner of specified account (account
 	 * shadow).</p>
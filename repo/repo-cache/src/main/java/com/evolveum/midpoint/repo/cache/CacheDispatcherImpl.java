@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheListener;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * @author agent
+ */
+@Component
+public class CacheDispatcherImpl implements CacheDispatcher {
+
+    private static final Trace LOGGER = TraceManager.getTrace(CacheDispatcherImpl.class);
+
+    private final List<CacheListener> cacheListeners = new CopyOnWriteArrayList<>();
+
+    // listener -> object types it keeps
+    private final Map<CacheListener, Collection<Class<? extends ObjectType>>> cachedTypes = new ConcurrentHashMap<>();
+
+    @Override
+    public void registerCacheListener(CacheListener cacheListener) {
+        registerCacheListener(cacheListener, Collections.<Class<? extends ObjectType>>emptyList());
+    }
+
+    @Override
+    public void registerCacheListener(CacheListener cacheListener, Collection<Class<? extends ObjectType>> types) {
+        if (cacheListeners.contains(cacheListener)) {
+            LOGGER.warn("Registering listener {} which was already registered.", cacheListener);
+            return;
+        }
+        if (!types.isEmpty()) {
+            LOGGER.debug("Listener {} keeps objects of types {}", cacheListener, types);
+            cachedTypes.put(cacheListener, types);
+        }
+        cacheListeners.add(cacheListener);
+    }
+
+    @Override
+    public void unregisterCacheListener(CacheListener cacheListener) {
+        cachedTypes.remove(cacheListener);
+        if (!cacheListeners.remove(cacheListener)) {
+            LOGGER.warn("Unregistering listener {} which was not registered.", cacheListener);
+        }
+    }
+
+    @Override
+    public Set<Class<? extends ObjectType>> getCachedTypes() {
+        Set<Class<? extends ObjectType>> rv = new HashSet<>();
+        for (Collection<Class<? extends ObjectType>> types : cachedTypes.values()) {
+            rv.addAll(types);
+        }
+        return rv;
+    }
+
+    @Override
+    public <O extends ObjectType> void dispatch(Class<O> type, String oid) {
+        notifyListeners(type, oid, false);
+    }
+
+    @Override
+    public <O extends ObjectType> void dispatchRemote(Class<O> type, String oid) {
+        notifyListeners(type, oid, true);
+    }
+
+    private <O extends ObjectType> void notifyListeners(Class<O> type, String oid, boolean remote) {
+        LOGGER.trace("Dispatching cache invalidation for {} ({}), remote={}", oid, type, remote);
+        for (CacheListener listener : cacheListeners) {
+            try {
+                listener.invalidateCacheEntry(type, oid, remote);
+            } catch (RuntimeException e) {
+                // a broken listener must not break the repository operation that triggered the invalidation
+                LoggingUtils.logUnexpectedException(LOGGER, "Cache listener {} failed to invalidate {} ({})", e,
+                        listener, oid, type);
+            }
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.CacheListener;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.util.DebugDumpable;
+import com.evolveum.midpoint.util.DebugUtil;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectTemplateType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SecurityPolicyType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ServiceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ValuePolicyType;
+import org.apache.commons.configuration.Configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Node-wide (shared) second-level cache of repository objects, sitting behind the thread-local {@link Cache}.
+ *
+ * Unlike {@link Cache} it outlives individual operations, so it holds only object types that have
+ * a {@link GlobalCachePolicy}. Each such type gets its own region bounded by the number of objects
+ * (least recently used objects are evicted first).
+ *
+ * Objects are stored as private clones and are handed out as clones, so cached instances are never
+ * visible (and therefore never modified) outside this class. Entries are validated either by comparing
+ * their version with the repository version, or by time to live. Local modifications invalidate them directly;
+ * changes made on other nodes or through repository service that bypasses the cache are announced by the cache
+ * dispatcher (the cache is registered as a listener once, by {@link RepositoryCacheFactory}).
+ *
+ * An object read from the repository is stored only if it was not invalidated while it was being read;
+ * otherwise a reader could put back a version that has just been replaced. To detect this, each invalidation
+ * bumps a generation counter of the OID, and the reader passes the generation taken before the read
+ * to {@link #put(Class, PrismObject, long)}. Counters are striped by OID hash (a false conflict only means
+ * the object is not cached this time).
+ *
+ * @author agent
+ */
+public class GlobalCache implements CacheListener, DebugDumpable {
+
+    private static final Trace LOGGER = TraceManager.getTrace(GlobalCache.class);
+
+    public static final String CONFIGURATION_KEY = "globalCache";
+    public static final String ENABLED = "enabled";
+
+    public static final List<Class<? extends ObjectType>> DEFAULT_CACHED_TYPES = Arrays.asList(
+            SystemConfigurationType.class, RoleType.class, OrgType.class, ServiceType.class,
+            ResourceType.class, ObjectTemplateType.class, SecurityPolicyType.class, ValuePolicyType.class);
+
+    private static final int GENERATION_STRIPES = 1024;         // must be a power of 2
+
+    // read-only after initialization
+    private final Map<String, Region> regions = new TreeMap<>();
+
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    public static GlobalCache createDisabled() {
+        return new GlobalCache();
+    }
+
+    /**
+     * @param configuration repository configuration (midpoint.repository); may be null
+     */
+    public static GlobalCache fromConfiguration(Configuration configuration) {
+        GlobalCache globalCache = new GlobalCache();
+        Configuration cacheConfig = configuration != null ? configuration.subset(CONFIGURATION_KEY) : null;
+        if (cacheConfig == null || cacheConfig.isEmpty()) {
+            for (Class<? extends ObjectType> type : DEFAULT_CACHED_TYPES) {
+                globalCache.addRegion(type.getSimpleName(), GlobalCachePolicy.createDefault());
+            }
+        } else if (cacheConfig.getBoolean(ENABLED, true)) {
+            Iterator<String> keys = cacheConfig.getKeys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                int i = key.indexOf('.');
+                if (i < 0) {
+                    continue;       // e.g. "enabled"
+                }
+                String typeName = key.substring(0, i);
+                if (!globalCache.regions.containsKey(typeName)) {
+                    globalCache.addRegion(typeName, GlobalCachePolicy.fromConfiguration(cacheConfig.subset(typeName)));
+                }
+            }
+        }
+        LOGGER.info("Global repository cache configured for types: {}", globalCache.regions.keySet());
+        return globalCache;
+    }
+
+    private void addRegion(String typeName, GlobalCachePolicy policy) {
+        LOGGER.debug("Global cache region for {}: {}", typeName, policy);
+        regions.put(typeName, new Region(policy));
+    }
+
+    public boolean isEnabled() {
+        return !regions.isEmpty();
+    }
+
+    /**
+     * Object types the cache has regions for (these are registered with the cache dispatcher, so their changes
+     * are propagated among cluster nodes). Regions named after unknown types are ignored.
+     */
+    public List<Class<? extends ObjectType>> getCachedTypes() {
+        List<Class<? extends ObjectType>> rv = new ArrayList<>();
+        for (Class<? extends ObjectType> type : ObjectTypes.getAllObjectTypes()) {
+            if (regions.containsKey(type.getSimpleName())) {
+                rv.add(type);
+            }
+        }
+        return rv;
+    }
+
+    public boolean supports(Class<? extends ObjectType> type) {
+        return getRegion(type) != null;
+    }
+
+    public GlobalCachePolicy getPolicy(Class<? extends ObjectType> type) {
+        Region region = getRegion(type);
+        return region != null ? region.policy : null;
+    }
+
+    private Region getRegion(Class<?> type) {
+        return regions.get(type.getSimpleName());
+    }
+
+    /**
+     * Returns the cached entry (without checking its version). The caller is responsible for cloning
+     * the object before handing it out.
+     */
+    public <T extends ObjectType> Entry get(Class<T> type, String oid) {
+        Region region = getRegion(type);
+        if (region == null) {
+            return null;
+        }
+        Entry entry = region.get(oid);
+        if (entry == null) {
+            region.misses.incrementAndGet();
+            return null;
+        }
+        if (region.policy.isExpired(entry.cachedAt, System.currentTimeMillis())) {
+            region.remove(oid);
+            region.expirations.incrementAndGet();
+            region.misses.incrementAndGet();
+            return null;
+        }
+        return entry;
+    }
+
+    public <T extends ObjectType> void recordHit(Class<T> type) {
+        Region region = getRegion(type);
+        if (region != null) {
+            region.hits.incrementAndGet();
+        }
+    }
+
+    /**
+     * Called when a cached entry was found but its version did not match the repository.
+     */
+    public <T extends ObjectType> void recordStale(Class<T> type, String oid) {
+        Region region = getRegion(type);
+        if (region != null) {
+            region.remove(oid);
+            region.staleEntries.incrementAndGet();
+            region.misses.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the invalidation generation of the OID. It has to be obtained before the object is read
+     * from the repository and then passed to {@link #put(Class, PrismObject, long)}.
+     */
+    public long getGeneration(String oid) {
+        return generations.get(getStripe(oid));
+    }
+
+    private int getStripe(String oid) {
+        int h = oid.hashCode();
+        return (h ^ (h >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    /**
+     * Stores a clone of the object, unless the object was invalidated since the generation was obtained.
+     *
+     * @return false if the object was not stored because of the invalidation
+     */
+    public <T extends ObjectType> boolean put(Class<T> type, PrismObject<T> object, long generation) {
+        Region region = getRegion(type);
+        if (region == null || object.getOid() == null || object.getVersion() == null) {
+            return false;
+        }
+        String oid = object.getOid();
+        Entry entry = new Entry(object.clone(), System.currentTimeMillis());
+        // the check is done under region lock; invalidation bumps the generation before removing the entry
+        // under the same lock, so either we see the new generation or the entry is removed after we store it
+        synchronized (region) {
+            if (getGeneration(oid) != generation) {
+                return false;
+            }
+            region.put(oid, entry);
+            return true;
+        }
+    }
+
+    /**
+     * Removes the object from all regions. (We do not know which ones contain it, because objects are
+     * stored in regions according to the type they were requested by.)
+     */
+    public void remove(String oid) {
+        generations.incrementAndGet(getStripe(oid));
+        for (Region region : regions.values()) {
+            if (region.remove(oid)) {
+                region.invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Only the global cache can be invalidated here; thread-local caches of other threads are short-lived
+     * and are left alone.
+     */
+    @Override
+    public <O extends ObjectType> void invalidateCacheEntry(Class<O> type, String oid, boolean remote) {
+        LOGGER.trace("Invalidating {} ({}), remote={}", oid, type != null ? type.getSimpleName() : null, remote);
+        remove(oid);
+    }
+
+    public void clear() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+        for (Region region : regions.values()) {
+            region.clear();
+        }
+    }
+
+    public List<GlobalCacheStatistics> getStatistics() {
+        List<GlobalCacheStatistics> rv = new ArrayList<>();
+        for (Map.Entry<String, Region> entry : regions.entrySet()) {
+            rv.add(entry.getValue().getStatistics(entry.getKey()));
+        }
+        return rv;
+    }
+
+    @Override
+    public String debugDump(int indent) {
+        StringBuilder sb = new StringBuilder();
+        DebugUtil.indentDebugDump(sb, indent);
+        sb.append("GlobalCache");
+        if (regions.isEmpty()) {
+            sb.append(" (disabled)");
+        }
+        for (GlobalCacheStatistics statistics : getStatistics()) {
+            sb.append("\n");
+            DebugUtil.indentDebugDump(sb, indent + 1);
+            sb.append(statistics);
+        }
+        return sb.toString();
+    }
+
+    public static class Entry {
+        private final PrismObject<? extends ObjectType> object;
+        private final long cachedAt;
+
+        Entry(PrismObject<? extends ObjectType> object, long cachedAt) {
+            this.object = object;
+            this.cachedAt = cachedAt;
+        }
+
+        public String getVersion() {
+            return object.getVersion();
+        }
+
+        public <T extends ObjectType> PrismObject<T> cloneObject() {
+            return (PrismObject<T>) (PrismObject) object.clone();
+        }
+    }
+
+    private static class Region {
+
+        private final GlobalCachePolicy policy;
+        private final LinkedHashMap<String, Entry> entries;
+
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong evictions = new AtomicLong();
+        private final AtomicLong expirations = new AtomicLong();
+        private final AtomicLong staleEntries = new AtomicLong();
+        private final AtomicLong invalidations = new AtomicLong();
+
+        Region(final GlobalCachePolicy policy) {
+            this.policy = policy;
+            this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    if (size() > policy.getMaxSize()) {
+                        evictions.incrementAndGet();
+                        return true;
+                    } else {
+                        return false;
+                    }
+                }
+            };
+        }
+
+        synchronized Entry get(String oid) {
+            return entries.get(oid);
+        }
+
+        synchronized void put(String oid, Entry entry) {
+            entries.put(oid, entry);
+        }
+
+        synchronized boolean remove(String oid) {
+            return entries.remove(oid) != null;
+        }
+
+        synchronized void clear() {
+            entries.clear();
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        GlobalCacheStatistics getStatistics(String typeName) {
+            return new GlobalCacheStatistics(typeName, size(), hits.get(), misses.get(), evictions.get(),
+                    expirations.get(), staleEntries.get(), invalidations.get());
+        }
+    }
+}
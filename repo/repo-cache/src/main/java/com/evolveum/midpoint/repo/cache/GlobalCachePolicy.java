@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+import org.apache.commons.configuration.Configuration;
+
+/**
+ * Caching policy for one object type in the {@link GlobalCache}.
+ *
+ * Configured in config.xml as e.g.
+ *
+ * <pre>
+ * &lt;repository&gt;
+ *     &lt;globalCache&gt;
+ *         &lt;RoleType&gt;
+ *             &lt;maxSize&gt;10000&lt;/maxSize&gt;
+ *             &lt;timeToLive&gt;0&lt;/timeToLive&gt;
+ *             &lt;validateVersion&gt;true&lt;/validateVersion&gt;
+ *         &lt;/RoleType&gt;
+ *     &lt;/globalCache&gt;
+ * &lt;/repository&gt;
+ * </pre>
+ *
+ * @author agent
+ */
+public class GlobalCachePolicy {
+
+    public static final String MAX_SIZE = "maxSize";
+    public static final String TIME_TO_LIVE = "timeToLive";
+    public static final String VALIDATE_VERSION = "validateVersion";
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+    public static final long DEFAULT_TIME_TO_LIVE = 0;
+    public static final boolean DEFAULT_VALIDATE_VERSION = true;
+
+    private final int maxSize;
+    private final long timeToLive;             // in milliseconds; 0 means "no limit"
+    private final boolean validateVersion;
+
+    public GlobalCachePolicy(int maxSize, long timeToLive, boolean validateVersion) {
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        this.validateVersion = validateVersion;
+    }
+
+    public static GlobalCachePolicy createDefault() {
+        return new GlobalCachePolicy(DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE, DEFAULT_VALIDATE_VERSION);
+    }
+
+    /**
+     * @param configuration configuration subset for the particular object type (may be empty)
+     */
+    public static GlobalCachePolicy fromConfiguration(Configuration configuration) {
+        return new GlobalCachePolicy(
+                configuration.getInt(MAX_SIZE, DEFAULT_MAX_SIZE),
+                configuration.getLong(TIME_TO_LIVE, DEFAULT_TIME_TO_LIVE),
+                configuration.getBoolean(VALIDATE_VERSION, DEFAULT_VALIDATE_VERSION));
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public boolean isValidateVersion() {
+        return validateVersion;
+    }
+
+    public boolean isExpired(long cachedAt, long now) {
+        return timeToLive > 0 && now - cachedAt > timeToLive;
+    }
+
+    @Override
+    public String toString() {
+        return "GlobalCachePolicy{" +
+                "maxSize=" + maxSize +
+                ", timeToLive=" + timeToLive +
+                ", validateVersion=" + validateVersion +
+                '}';
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+/**
+ * Snapshot of {@link GlobalCache} counters for one object type.
+ *
+ * @author agent
+ */
+public class GlobalCacheStatistics {
+
+    private final String typeName;
+    private final int size;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long expirations;
+    private final long staleEntries;
+    private final long invalidations;
+
+    public GlobalCacheStatistics(String typeName, int size, long hits, long misses, long evictions,
+                                 long expirations, long staleEntries, long invalidations) {
+        this.typeName = typeName;
+        this.size = size;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.expirations = expirations;
+        this.staleEntries = staleEntries;
+        this.invalidations = invalidations;
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getExpirations() {
+        return expirations;
+    }
+
+    public long getStaleEntries() {
+        return staleEntries;
+    }
+
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    @Override
+    public String toString() {
+        return typeName + ": size=" + size + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+                + ", expirations=" + expirations + ", stale=" + staleEntries + ", invalidations=" + invalidations;
+    }
+}
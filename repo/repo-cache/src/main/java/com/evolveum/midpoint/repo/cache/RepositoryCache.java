@@ -22,6 +22,7 @@ import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.api.RepoAddOptions;
 import com.evolveum.midpoint.repo.api.RepoModifyOptions;
+import com.evolveum.midpoint.repo.api.RepoOperation;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.*;
 import com.evolveum.midpoint.schema.result.OperationResult;
@@ -44,7 +45,10 @@ import java.util.List;
 
 /**
  * Read-through write-through per-session repository cache.
- * 
+ *
+ * Behind the per-session (thread-local) cache there is a node-wide {@link GlobalCache}
+ * holding selected object types across sessions.
+ *
  * TODO doc
  * TODO logging perf measurements
  *
@@ -62,6 +66,8 @@ public class RepositoryCache implements RepositoryService {
 
 	private PrismContext prismContext;
 
+	private GlobalCache globalCache = GlobalCache.createDisabled();
+
 	public RepositoryCache() {
     }
 	
@@ -71,6 +77,15 @@ public class RepositoryCache implements RepositoryService {
         this.repository = service;
 		this.prismContext = prismContext;
     }
+
+	public GlobalCache getGlobalCache() {
+		return globalCache;
+	}
+
+	public void setGlobalCache(GlobalCache globalCache) {
+		Validate.notNull(globalCache, "Global cache must not be null.");
+		this.globalCache = globalCache;
+	}
 	
 	private static Cache getCache() {
 		return cacheInstance.get();
@@ -124,11 +139,44 @@ public class RepositoryCache implements RepositoryService {
 			}
 			log("Cache: MISS {} ({})", oid, type.getSimpleName());
 		}
-		PrismObject<T> object = repository.getObject(type, oid, null, parentResult);
+		PrismObject<T> object = getObjectFromGlobalCache(type, oid, parentResult);
+		if (object == null) {
+			long generation = globalCache.getGeneration(oid);
+			object = repository.getObject(type, oid, null, parentResult);
+			if (!globalCache.put(type, object, generation)) {
+				log("Cache: GLOBAL NOT STORED {} ({}): invalidated or not cacheable", oid, type.getSimpleName());
+			}
+		}
 		cacheObject(cache, object, readOnly);
 		return object;
 	}
 
+	private <T extends ObjectType> PrismObject<T> getObjectFromGlobalCache(Class<T> type, String oid,
+			OperationResult parentResult) throws SchemaException {
+		GlobalCache.Entry entry = globalCache.get(type, oid);
+		if (entry == null) {
+			return null;
+		}
+		if (globalCache.getPolicy(type).isValidateVersion()) {
+			String currentVersion;
+			try {
+				currentVersion = repository.getVersion(type, oid, parentResult);
+			} catch (ObjectNotFoundException e) {
+				// the object was deleted (probably on another node); let the repository report it
+				currentVersion = null;
+			}
+			if (currentVersion == null || !currentVersion.equals(entry.getVersion())) {
+				log("Cache: GLOBAL STALE {} ({}): cached version {}, current version {}", oid, type.getSimpleName(),
+						entry.getVersion(), currentVersion);
+				globalCache.recordStale(type, oid);
+				return null;
+			}
+		}
+		log("Cache: GLOBAL HIT {} ({})", oid, type.getSimpleName());
+		globalCache.recordHit(type);
+		return entry.cloneObject();
+	}
+
 	private boolean isCacheable(Class<?> type) {
 		if (type.equals(TaskType.class)) {
 			return false;
@@ -152,6 +200,7 @@ public class RepositoryCache implements RepositoryService {
 			cache.removeObject(oid);
 			cache.clearQueryResults(object.getCompileTimeClass());
 		}
+		globalCache.remove(oid);
 		return oid;
 	}
 	
@@ -248,6 +297,7 @@ public class RepositoryCache implements RepositoryService {
 			cache.removeObject(oid);
 			cache.clearQueryResults(type);
 		}
+		globalCache.remove(oid);
 	}
 
 	@Override
@@ -260,6 +310,20 @@ public class RepositoryCache implements RepositoryService {
 		}
 	}
 	
+	@Override
+	public void executeBatch(List<? extends RepoOperation<?>> operations, OperationResult parentResult) {
+		try {
+			repository.executeBatch(operations, parentResult);
+		} finally {
+			for (RepoOperation<?> operation : operations) {
+				String oid = operation.getResultOid() != null ? operation.getResultOid() : operation.getOid();
+				if (oid != null) {
+					invalidateCacheEntry(operation.getType(), oid);
+				}
+			}
+		}
+	}
+
 	@Override
 	public <F extends FocusType> PrismObject<F> searchShadowOwner(
 			String shadowOid, Collection<SelectorOptions<GetOperationOptions>> options, OperationResult parentResult) {
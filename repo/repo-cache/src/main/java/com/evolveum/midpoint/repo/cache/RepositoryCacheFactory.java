@@ -16,22 +16,49 @@
 
 package com.evolveum.midpoint.repo.cache;
 
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactory;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactoryException;
 import org.apache.commons.configuration.Configuration;
+import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * @author lazyman
  */
 public class RepositoryCacheFactory implements RepositoryServiceFactory {
 
+    @Autowired
+    private CacheDispatcher cacheDispatcher;
+
+    private GlobalCache globalCache = GlobalCache.createDisabled();
+    private boolean globalCacheRegistered;
+
     @Override
     public void destroy() throws RepositoryServiceFactoryException {
+        unregisterGlobalCache();
+        globalCache.clear();
     }
 
+    /**
+     * The global cache is shared by all repository cache instances, so it is registered for invalidations
+     * only once (here), not for each instance.
+     */
     @Override
     public void init(Configuration configuration) throws RepositoryServiceFactoryException {
+        unregisterGlobalCache();
+        globalCache = GlobalCache.fromConfiguration(configuration);
+        if (globalCache.isEnabled()) {
+            cacheDispatcher.registerCacheListener(globalCache, globalCache.getCachedTypes());
+            globalCacheRegistered = true;
+        }
+    }
+
+    private void unregisterGlobalCache() {
+        if (globalCacheRegistered) {
+            cacheDispatcher.unregisterCacheListener(globalCache);
+            globalCacheRegistered = false;
+        }
     }
 
     @Override
@@ -47,6 +74,8 @@ public class RepositoryCacheFactory implements RepositoryServiceFactory {
     @Override
     public RepositoryService getRepositoryService() throws RepositoryServiceFactoryException {
         RepositoryCache.init();
-        return new RepositoryCache();
+        RepositoryCache repositoryCache = new RepositoryCache();
+        repositoryCache.setGlobalCache(globalCache);
+        return repositoryCache;
     }
 }
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheListener;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SequenceType;
+import org.apache.commons.configuration.BaseConfiguration;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testng.annotations.Test;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * @author agent
+ */
+public class TestCacheDispatcher {
+
+    private static final String OID = "10000000-0000-0000-0000-000000000001";
+
+    @Test
+    public void test100Dispatch() {
+        CacheDispatcherImpl dispatcher = new CacheDispatcherImpl();
+        RecordingListener listener1 = new RecordingListener();
+        RecordingListener listener2 = new RecordingListener();
+        dispatcher.registerCacheListener(listener1);
+        dispatcher.registerCacheListener(listener2);
+
+        dispatcher.dispatch(RoleType.class, OID);
+        dispatcher.dispatchRemote(ObjectType.class, OID);
+
+        for (RecordingListener listener : new RecordingListener[] { listener1, listener2 }) {
+            assertEquals("Wrong invalidations", 2, listener.invalidations.size());
+            assertEquals("Wrong local invalidation", "RoleType:" + OID + ":false", listener.invalidations.get(0));
+            assertEquals("Wrong remote invalidation", "ObjectType:" + OID + ":true", listener.invalidations.get(1));
+        }
+    }
+
+    @Test
+    public void test110RegisterTwice() {
+        CacheDispatcherImpl dispatcher = new CacheDispatcherImpl();
+        RecordingListener listener = new RecordingListener();
+        dispatcher.registerCacheListener(listener);
+        dispatcher.registerCacheListener(listener);
+
+        dispatcher.dispatch(RoleType.class, OID);
+
+        assertEquals("Listener registered twice was notified twice", 1, listener.invalidations.size());
+    }
+
+    @Test
+    public void test120Unregister() {
+        CacheDispatcherImpl dispatcher = new CacheDispatcherImpl();
+        RecordingListener listener = new RecordingListener();
+        dispatcher.registerCacheListener(listener);
+        dispatcher.unregisterCacheListener(listener);
+        dispatcher.unregisterCacheListener(listener);           // only a warning
+
+        dispatcher.dispatch(RoleType.class, OID);
+
+        assertEquals("Unregistered listener was notified", 0, listener.invalidations.size());
+    }
+
+    @Test
+    public void test130FailingListener() {
+        CacheDispatcherImpl dispatcher = new CacheDispatcherImpl();
+        dispatcher.registerCacheListener(new CacheListener() {
+            @Override
+            public <O extends ObjectType> void invalidateCacheEntry(Class<O> type, String oid, boolean remote) {
+                throw new IllegalStateException("broken listener");
+            }
+        });
+        RecordingListener listener = new RecordingListener();
+        dispatcher.registerCacheListener(listener);
+
+        dispatcher.dispatch(RoleType.class, OID);
+
+        assertEquals("Listener after the failing one was not notified", 1, listener.invalidations.size());
+    }
+
+    @Test
+    public void test140CachedTypes() {
+        CacheDispatcherImpl dispatcher = new CacheDispatcherImpl();
+        RecordingListener listener1 = new RecordingListener();
+        RecordingListener listener2 = new RecordingListener();
+        dispatcher.registerCacheListener(listener1, Arrays.<Class<? extends ObjectType>>asList(RoleType.class, OrgType.class));
+        dispatcher.registerCacheListener(listener2, Arrays.<Class<? extends ObjectType>>asList(OrgType.class, SequenceType.class));
+        dispatcher.registerCacheListener(new RecordingListener());
+
+        assertEquals("Wrong cached types", new HashSet<>(Arrays.asList(RoleType.class, OrgType.class, SequenceType.class)),
+                dispatcher.getCachedTypes());
+
+        dispatcher.unregisterCacheListener(listener1);
+        assertEquals("Wrong cached types after unregistration",
+                new HashSet<>(Arrays.asList(OrgType.class, SequenceType.class)), dispatcher.getCachedTypes());
+    }
+
+    @Test
+    public void test200FactoryRegistersGlobalCacheOnce() throws Exception {
+        RecordingDispatcher dispatcher = new RecordingDispatcher();
+        RepositoryCacheFactory factory = new RepositoryCacheFactory();
+        ReflectionTestUtils.setField(factory, "cacheDispatcher", dispatcher);
+
+        factory.init(null);
+        RepositoryCache cache1 = (RepositoryCache) factory.getRepositoryService();
+        RepositoryCache cache2 = (RepositoryCache) factory.getRepositoryService();
+
+        assertEquals("Wrong # of registered listeners", 1, dispatcher.listeners.size());
+        assertSame("Global cache is not registered", cache1.getGlobalCache(), dispatcher.listeners.get(0));
+        assertEquals("Wrong cached types", new HashSet<>(GlobalCache.DEFAULT_CACHED_TYPES), dispatcher.getCachedTypes());
+        assertSame("Global cache is not shared", cache1.getGlobalCache(), cache2.getGlobalCache());
+
+        // invalidation through the dispatcher reaches the global cache
+        GlobalCache globalCache = cache1.getGlobalCache();
+        PrismObject<RoleType> role = new PrismObject<>(new QName(SchemaConstants.NS_C, "role"), RoleType.class);
+        role.setOid(OID);
+        role.setVersion("1");
+        assertTrue("Role was not stored", globalCache.put(RoleType.class, role, globalCache.getGeneration(OID)));
+        assertNotNull("Role is not cached", globalCache.get(RoleType.class, OID));
+        dispatcher.listeners.get(0).invalidateCacheEntry(RoleType.class, OID, true);
+        assertNull("Role was not invalidated", globalCache.get(RoleType.class, OID));
+
+        factory.destroyService(cache2);
+        factory.destroyService(cache1);
+        factory.destroy();
+        assertEquals("Global cache was not unregistered", 0, dispatcher.listeners.size());
+    }
+
+    @Test
+    public void test210FactoryRegistersConfiguredTypes() throws Exception {
+        RecordingDispatcher dispatcher = new RecordingDispatcher();
+        RepositoryCacheFactory factory = new RepositoryCacheFactory();
+        ReflectionTestUtils.setField(factory, "cacheDispatcher", dispatcher);
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty("globalCache.RoleType.maxSize", "100");
+        configuration.setProperty("globalCache.SequenceType.maxSize", "10");
+        configuration.setProperty("globalCache.NoSuchType.maxSize", "10");        // not an object type
+
+        factory.init(configuration);
+
+        assertEquals("Wrong cached types", new HashSet<>(Arrays.asList(RoleType.class, SequenceType.class)),
+                dispatcher.getCachedTypes());
+        factory.destroy();
+    }
+
+    private static class RecordingListener implements CacheListener {
+        private final List<String> invalidations = new ArrayList<>();
+
+        @Override
+        public <O extends ObjectType> void invalidateCacheEntry(Class<O> type, String oid, boolean remote) {
+            invalidations.add(type.getSimpleName() + ":" + oid + ":" + remote);
+        }
+    }
+
+    private static class RecordingDispatcher implements CacheDispatcher {
+        private final List<CacheListener> listeners = new ArrayList<>();
+        private final Set<Class<? extends ObjectType>> cachedTypes = new HashSet<>();
+
+        @Override
+        public void registerCacheListener(CacheListener cacheListener) {
+            listeners.add(cacheListener);
+        }
+
+        @Override
+        public void registerCacheListener(CacheListener cacheListener, Collection<Class<? extends ObjectType>> types) {
+            listeners.add(cacheListener);
+            cachedTypes.addAll(types);
+        }
+
+        @Override
+        public void unregisterCacheListener(CacheListener cacheListener) {
+            listeners.remove(cacheListener);
+        }
+
+        @Override
+        public Set<Class<? extends ObjectType>> getCachedTypes() {
+            return cachedTypes;
+        }
+
+        @Override
+        public <O extends ObjectType> void dispatch(Class<O> type, String oid) {
+        }
+
+        @Override
+        public <O extends ObjectType> void dispatchRemote(Class<O> type, String oid) {
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.apache.commons.configuration.BaseConfiguration;
+import org.testng.annotations.Test;
+
+import javax.xml.namespace.QName;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * @author agent
+ */
+public class TestGlobalCache {
+
+    private static final String OID_1 = "10000000-0000-0000-0000-000000000001";
+    private static final String OID_2 = "10000000-0000-0000-0000-000000000002";
+    private static final String OID_3 = "10000000-0000-0000-0000-000000000003";
+
+    @Test
+    public void test100DefaultConfiguration() {
+        GlobalCache cache = GlobalCache.fromConfiguration(null);
+
+        assertTrue("Cache is not enabled", cache.isEnabled());
+        for (Class<? extends ObjectType> type : GlobalCache.DEFAULT_CACHED_TYPES) {
+            assertTrue("Type " + type.getSimpleName() + " is not supported", cache.supports(type));
+        }
+        assertFalse("Users are cached", cache.supports(UserType.class));
+    }
+
+    @Test
+    public void test110ExplicitConfiguration() {
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty("globalCache.RoleType.maxSize", "5");
+        configuration.setProperty("globalCache.OrgType.timeToLive", "1000");
+
+        GlobalCache cache = GlobalCache.fromConfiguration(configuration);
+
+        assertTrue("Roles are not cached", cache.supports(RoleType.class));
+        assertTrue("Orgs are not cached", cache.supports(OrgType.class));
+        assertEquals("Wrong number of regions", 2, cache.getStatistics().size());
+        assertEquals("Wrong max size", 5, cache.getPolicy(RoleType.class).getMaxSize());
+        assertEquals("Wrong time to live", 1000L, cache.getPolicy(OrgType.class).getTimeToLive());
+        assertEquals("Wrong default max size", GlobalCachePolicy.DEFAULT_MAX_SIZE, cache.getPolicy(OrgType.class).getMaxSize());
+    }
+
+    @Test
+    public void test120Disabled() {
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty("globalCache.enabled", "false");
+        configuration.setProperty("globalCache.RoleType.maxSize", "5");
+
+        GlobalCache cache = GlobalCache.fromConfiguration(configuration);
+
+        assertFalse("Cache is enabled", cache.isEnabled());
+        assertFalse("Roles are cached", cache.supports(RoleType.class));
+        assertFalse("Disabled cache is enabled", GlobalCache.createDisabled().isEnabled());
+    }
+
+    @Test
+    public void test200PutAndGet() {
+        GlobalCache cache = createCache(10, 0);
+        PrismObject<RoleType> role = createRole(OID_1, "1");
+
+        assertTrue("Object was not stored", cache.put(RoleType.class, role, cache.getGeneration(OID_1)));
+        GlobalCache.Entry entry = cache.get(RoleType.class, OID_1);
+
+        assertNotNull("No entry", entry);
+        assertEquals("Wrong version", "1", entry.getVersion());
+        PrismObject<RoleType> cached = entry.cloneObject();
+        assertNotSame("Cached object was not cloned", role, cached);
+        assertEquals("Wrong object", role, cached);
+
+        // modifying the original does not affect the cached object
+        role.setVersion("2");
+        assertEquals("Cached object was modified", "1", cache.get(RoleType.class, OID_1).getVersion());
+    }
+
+    @Test
+    public void test210NotCached() {
+        GlobalCache cache = createCache(10, 0);
+        PrismObject<RoleType> noVersion = createRole(OID_1, null);
+
+        assertFalse("Object without version was stored", cache.put(RoleType.class, noVersion, cache.getGeneration(OID_1)));
+        assertNull("Object without version was stored", cache.get(RoleType.class, OID_1));
+        assertNull("Unsupported type was looked up", cache.get(UserType.class, OID_1));
+    }
+
+    @Test
+    public void test220Eviction() {
+        GlobalCache cache = createCache(2, 0);
+        put(cache, createRole(OID_1, "1"));
+        put(cache, createRole(OID_2, "1"));
+        assertNotNull("Object 1 is not cached", cache.get(RoleType.class, OID_1));     // 1 is now the most recently used
+
+        put(cache, createRole(OID_3, "1"));
+
+        assertNotNull("Object 1 was evicted", cache.get(RoleType.class, OID_1));
+        assertNull("Object 2 was not evicted", cache.get(RoleType.class, OID_2));
+        assertNotNull("Object 3 was evicted", cache.get(RoleType.class, OID_3));
+        GlobalCacheStatistics statistics = cache.getStatistics().get(0);
+        assertEquals("Wrong size", 2, statistics.getSize());
+        assertEquals("Wrong # of evictions", 1, statistics.getEvictions());
+    }
+
+    @Test
+    public void test230Expiration() throws Exception {
+        GlobalCache cache = createCache(10, 50);
+        put(cache, createRole(OID_1, "1"));
+        assertNotNull("Object expired too early", cache.get(RoleType.class, OID_1));
+
+        Thread.sleep(100);
+
+        assertNull("Object did not expire", cache.get(RoleType.class, OID_1));
+        GlobalCacheStatistics statistics = cache.getStatistics().get(0);
+        assertEquals("Wrong # of expirations", 1, statistics.getExpirations());
+        assertEquals("Wrong size", 0, statistics.getSize());
+    }
+
+    @Test
+    public void test240Statistics() {
+        GlobalCache cache = createCache(10, 0);
+        put(cache, createRole(OID_1, "1"));
+        put(cache, createRole(OID_2, "1"));
+
+        cache.get(RoleType.class, OID_1);
+        cache.recordHit(RoleType.class);
+        cache.get(RoleType.class, OID_3);
+        cache.get(RoleType.class, OID_2);
+        cache.recordStale(RoleType.class, OID_2);
+        cache.remove(OID_1);
+        cache.remove(OID_3);        // not cached, so not counted
+
+        GlobalCacheStatistics statistics = cache.getStatistics().get(0);
+        assertEquals("Wrong # of hits", 1, statistics.getHits());
+        assertEquals("Wrong # of misses", 2, statistics.getMisses());
+        assertEquals("Wrong # of stale entries", 1, statistics.getStaleEntries());
+        assertEquals("Wrong # of invalidations", 1, statistics.getInvalidations());
+        assertEquals("Wrong size", 0, statistics.getSize());
+    }
+
+    @Test
+    public void test300InvalidatedDuringRead() {
+        GlobalCache cache = createCache(10, 0);
+
+        // reader takes the generation and reads the object from the repository
+        long generation = cache.getGeneration(OID_1);
+        PrismObject<RoleType> oldRole = createRole(OID_1, "1");
+        // meanwhile the object is modified and invalidated
+        cache.remove(OID_1);
+
+        assertFalse("Object invalidated during the read was stored", cache.put(RoleType.class, oldRole, generation));
+        assertNull("Object invalidated during the read was stored", cache.get(RoleType.class, OID_1));
+
+        // the next reader stores the current version
+        assertTrue("Object was not stored", cache.put(RoleType.class, createRole(OID_1, "2"), cache.getGeneration(OID_1)));
+        assertEquals("Wrong version", "2", cache.get(RoleType.class, OID_1).getVersion());
+    }
+
+    @Test
+    public void test310ClearedDuringRead() {
+        GlobalCache cache = createCache(10, 0);
+        long generation1 = cache.getGeneration(OID_1);
+        long generation2 = cache.getGeneration(OID_2);
+
+        cache.clear();
+
+        assertFalse("Object 1 was stored after clear", cache.put(RoleType.class, createRole(OID_1, "1"), generation1));
+        assertFalse("Object 2 was stored after clear", cache.put(RoleType.class, createRole(OID_2, "1"), generation2));
+    }
+
+    private GlobalCache createCache(int maxSize, long timeToLive) {
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty("globalCache.RoleType.maxSize", String.valueOf(maxSize));
+        configuration.setProperty("globalCache.RoleType.timeToLive", String.valueOf(timeToLive));
+        return GlobalCache.fromConfiguration(configuration);
+    }
+
+    private void put(GlobalCache cache, PrismObject<RoleType> role) {
+        assertTrue("Object was not stored", cache.put(RoleType.class, role, cache.getGeneration(role.getOid())));
+    }
+
+    private PrismObject<RoleType> createRole(String oid, String version) {
+        PrismObject<RoleType> role = new PrismObject<>(new QName(SchemaConstants.NS_C, "role"), RoleType.class);
+        role.setOid(oid);
+        role.setVersion(version);
+        return role;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.testng.annotations.Test;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * @author agent
+ */
+public class TestGlobalCachePolicy {
+
+    @Test
+    public void test100Defaults() {
+        GlobalCachePolicy policy = GlobalCachePolicy.fromConfiguration(new BaseConfiguration());
+
+        assertEquals("Wrong max size", GlobalCachePolicy.DEFAULT_MAX_SIZE, policy.getMaxSize());
+        assertEquals("Wrong time to live", GlobalCachePolicy.DEFAULT_TIME_TO_LIVE, policy.getTimeToLive());
+        assertEquals("Wrong validate version", GlobalCachePolicy.DEFAULT_VALIDATE_VERSION, policy.isValidateVersion());
+    }
+
+    @Test
+    public void test110FromConfiguration() {
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty(GlobalCachePolicy.MAX_SIZE, "50");
+        configuration.setProperty(GlobalCachePolicy.TIME_TO_LIVE, "60000");
+        configuration.setProperty(GlobalCachePolicy.VALIDATE_VERSION, "false");
+
+        GlobalCachePolicy policy = GlobalCachePolicy.fromConfiguration(configuration);
+
+        assertEquals("Wrong max size", 50, policy.getMaxSize());
+        assertEquals("Wrong time to live", 60000L, policy.getTimeToLive());
+        assertFalse("Version validation was not switched off", policy.isValidateVersion());
+    }
+
+    @Test
+    public void test200Expiration() {
+        GlobalCachePolicy policy = new GlobalCachePolicy(10, 1000, true);
+
+        assertFalse("Entry expired too early", policy.isExpired(5000, 5000));
+        assertFalse("Entry expired at the time to live", policy.isExpired(5000, 6000));
+        assertTrue("Entry did not expire", policy.isExpired(5000, 6001));
+    }
+
+    @Test
+    public void test210NoExpiration() {
+        GlobalCachePolicy policy = new GlobalCachePolicy(10, 0, true);
+
+        assertFalse("Entry expired without time to live", policy.isExpired(0, Long.MAX_VALUE));
+    }
+}
@@ -22,7 +22,9 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.bind.JAXBException;
 import javax.xml.namespace.QName;
@@ -31,6 +33,7 @@ import com.evolveum.midpoint.common.refinery.RefinedResourceSchemaImpl;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.testng.AssertJUnit;
@@ -50,6 +53,10 @@ import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.delta.ReferenceDelta;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.sql.data.common.any.RValueType;
+import com.evolveum.midpoint.repo.sql.helpers.ObjectRetriever;
+import com.evolveum.midpoint.repo.sql.helpers.ShadowAttributeDefinitionCache;
 import com.evolveum.midpoint.repo.sql.type.XMLGregorianCalendarType;
 import com.evolveum.midpoint.repo.sql.util.RUtil;
 import com.evolveum.midpoint.schema.DeltaConvertor;
@@ -92,6 +99,12 @@ public class AddGetObjectTest extends BaseSQLRepoTest {
 
     private static final Trace LOGGER = TraceManager.getTrace(AddGetObjectTest.class);
 
+    @Autowired
+    private ObjectRetriever objectRetriever;
+
+    @Autowired
+    private CacheDispatcher cacheDispatcher;
+
     @Test(enabled = false)
     public <T extends ObjectType> void perfTest() throws Exception {
         Statistics stats = getFactory().getStatistics();
@@ -544,6 +557,91 @@ public class AddGetObjectTest extends BaseSQLRepoTest {
         AssertJUnit.assertTrue(!objects.isEmpty());
     }
 
+    /**
+     * Shadow attribute definitions are taken from per-resource dictionary on subsequent reads;
+     * the result must be the same as when they are loaded from extension tables.
+     */
+    @Test
+    public void addGetFullAccountCachedDefinitions() throws Exception {
+        LOGGER.info("===[ addGetFullAccountCachedDefinitions ]===");
+        PrismObject<ShadowType> fileAccount = prismContext.parseObject(new File(FOLDER_BASIC, "account-full.xml"));
+        fileAccount.asObjectable().setName(new PolyStringType("hbarbossa-cached"));
+
+        PrismObject<ResourceType> resource = prismContext.parseObject(new File(FOLDER_BASIC, "resource-opendj.xml"));
+        ResourceSchema resourceSchema = RefinedResourceSchemaImpl.getResourceSchema(resource, prismContext);
+        ShadowUtil.applyResourceSchema(fileAccount, resourceSchema);
+
+        OperationResult result = new OperationResult("addGetFullAccountCachedDefinitions");
+        String oid = repositoryService.addObject(fileAccount, null, result);
+
+        ShadowAttributeDefinitionCache cache = objectRetriever.getShadowDefinitionCache();
+        cache.clear();
+        long hitsBefore = cache.getHits();
+
+        PrismObject<ShadowType> loaded = repositoryService.getObject(ShadowType.class, oid, null, result);
+        PrismObject<ShadowType> cached = repositoryService.getObject(ShadowType.class, oid, null, result);
+        AssertJUnit.assertEquals("Definitions were not taken from the cache", 1, cache.getHits() - hitsBefore);
+
+        AssertJUnit.assertTrue("Shadows differ", loaded.diff(cached).isEmpty());
+        AssertJUnit.assertTrue("Shadow differs from the original", fileAccount.diff(cached).isEmpty());
+    }
+
+    /**
+     * Resource changed on another node: definitions for that resource have to be dropped.
+     */
+    @Test
+    public void shadowDefinitionCacheRemoteInvalidation() throws Exception {
+        LOGGER.info("===[ shadowDefinitionCacheRemoteInvalidation ]===");
+        final String RESOURCE_OID = "ef2bc95b-76e0-59e2-86d6-3d4f02d30001";
+        QName name = new QName("http://example.com/p", "uid");
+        List<QName> names = Arrays.asList(name);
+        Map<QName, ShadowAttributeDefinitionCache.AttributeInfo> found = new HashMap<>();
+        found.put(name, ShadowAttributeDefinitionCache.createInfo(new QName(SchemaConstants.NS_C, "string"), RValueType.PROPERTY));
+
+        ShadowAttributeDefinitionCache cache = objectRetriever.getShadowDefinitionCache();
+        cache.put(RESOURCE_OID, names, found);
+        AssertJUnit.assertNotNull("Definitions were not cached", cache.get(RESOURCE_OID, names));
+
+        cacheDispatcher.dispatchRemote(UserType.class, RESOURCE_OID);
+        AssertJUnit.assertNotNull("Definitions were dropped because of unrelated object", cache.get(RESOURCE_OID, names));
+
+        cacheDispatcher.dispatchRemote(ResourceType.class, RESOURCE_OID);
+        AssertJUnit.assertNull("Definitions were not dropped", cache.get(RESOURCE_OID, names));
+    }
+
+    /**
+     * Attributes not found in extension tables are looked up again after their entries expire.
+     */
+    @Test
+    public void shadowDefinitionCacheNotStoredExpiration() throws Exception {
+        LOGGER.info("===[ shadowDefinitionCacheNotStoredExpiration ]===");
+        final String RESOURCE_OID = "ef2bc95b-76e0-59e2-86d6-3d4f02d30002";
+        QName stored = new QName("http://example.com/p", "uid");
+        QName notStored = new QName("http://example.com/p", "photo");
+        List<QName> names = Arrays.asList(stored, notStored);
+        Map<QName, ShadowAttributeDefinitionCache.AttributeInfo> found = new HashMap<>();
+        found.put(stored, ShadowAttributeDefinitionCache.createInfo(new QName(SchemaConstants.NS_C, "string"), RValueType.PROPERTY));
+
+        ShadowAttributeDefinitionCache cache = new ShadowAttributeDefinitionCache(200);
+        cache.put(RESOURCE_OID, names, found);
+        Map<QName, ShadowAttributeDefinitionCache.AttributeInfo> definitions = cache.get(RESOURCE_OID, names);
+        AssertJUnit.assertNotNull("Definitions were not cached", definitions);
+        AssertJUnit.assertTrue("Stored attribute is not stored", definitions.get(stored).isStored());
+        AssertJUnit.assertFalse("Not stored attribute is stored", definitions.get(notStored).isStored());
+
+        Thread.sleep(300);
+        AssertJUnit.assertNull("Expired entry was used", cache.get(RESOURCE_OID, names));
+        AssertJUnit.assertNotNull("Stored attribute expired", cache.get(RESOURCE_OID, Arrays.asList(stored)));
+
+        // the attribute is now found (e.g. in another shadow); a shadow without it does not override that
+        found.put(notStored, ShadowAttributeDefinitionCache.createInfo(new QName(SchemaConstants.NS_C, "string"), RValueType.PROPERTY));
+        cache.put(RESOURCE_OID, names, found);
+        cache.put(RESOURCE_OID, names, new HashMap<QName, ShadowAttributeDefinitionCache.AttributeInfo>());
+        definitions = cache.get(RESOURCE_OID, names);
+        AssertJUnit.assertNotNull("Definitions were not cached", definitions);
+        AssertJUnit.assertTrue("Entry was not updated", definitions.get(notStored).isStored());
+    }
+
     @Test
     private void addGetFullAccountShadow() throws Exception {
         LOGGER.info("===[ simpleAddAccountShadowTest ]===");
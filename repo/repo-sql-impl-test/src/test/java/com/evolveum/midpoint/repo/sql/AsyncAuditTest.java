@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.audit.api.AuditEventStage;
+import com.evolveum.midpoint.audit.api.AuditEventType;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.repo.sql.helpers.AuditWriter;
+import com.evolveum.midpoint.repo.sql.util.SimpleTaskAdapter;
+import com.evolveum.midpoint.schema.ObjectDeltaOperation;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * @author agent
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class AsyncAuditTest extends BaseSQLRepoTest {
+
+    private static final int RECORDS = 500;
+    private static final long FLUSH_TIMEOUT = 60000L;
+
+    @Autowired
+    private AuditWriter auditWriter;
+
+    private int queueSizeBefore;
+    private int batchSizeBefore;
+
+    @BeforeClass
+    public void beforeClass() throws Exception {
+        super.beforeClass();
+        queueSizeBefore = baseHelper.getConfiguration().getAsyncAuditQueueSize();
+        batchSizeBefore = baseHelper.getConfiguration().getAsyncAuditBatchSize();
+    }
+
+    @AfterClass
+    public void disableAsyncAudit() {
+        SqlRepositoryConfiguration configuration = baseHelper.getConfiguration();
+        configuration.setAsyncAudit(false);
+        configuration.setAsyncAuditJournalFile(null);
+        configuration.setAsyncAuditQueueSize(queueSizeBefore);
+        configuration.setAsyncAuditBatchSize(batchSizeBefore);
+    }
+
+    @Test
+    public void test100AuditAsynchronously() throws Exception {
+        baseHelper.getConfiguration().setAsyncAudit(true);
+
+        for (int i = 0; i < RECORDS; i++) {
+            AuditEventRecord record = new AuditEventRecord(AuditEventType.ADD_OBJECT, AuditEventStage.EXECUTION);
+            record.setEventIdentifier("event" + i);
+            record.setTimestamp(System.currentTimeMillis());
+            record.addDelta(createObjectDeltaOperation(i));
+            auditService.audit(record, new SimpleTaskAdapter());
+        }
+
+        // reading flushes the queue
+        long count = auditService.countObjects("select count(*) from " + RAuditEventRecord.class.getSimpleName(),
+                new HashMap<String, Object>());
+        AssertJUnit.assertEquals("Wrong # of audit records; " + auditWriter.getStatistics(), RECORDS, count);
+        AssertJUnit.assertEquals("Some records were not stored", 0, auditWriter.getPending());
+        AssertJUnit.assertEquals("Some records failed", 0, auditWriter.getFailed());
+
+        List<AuditEventRecord> records = auditService.listRecords("from " + RAuditEventRecord.class.getSimpleName()
+                + " as aer where aer.eventIdentifier = :id", map("id", "event7"));
+        AssertJUnit.assertEquals("Wrong # of records found", 1, records.size());
+        AssertJUnit.assertEquals("Wrong # of deltas", 1, records.get(0).getDeltas().size());
+    }
+
+    @Test
+    public void test110FailedRecordKeptInJournal() throws Exception {
+        File journal = createJournalFile();
+        AuditWriter writer = createWriter(journal, 100, 10);
+        try {
+            for (int i = 0; i < 5; i++) {
+                writer.write(createRecord("failing-ok-" + i, null));
+            }
+            writer.write(createRecord("failing-bad", StringUtils.repeat("x", 2000)));      // too long for the column
+            AssertJUnit.assertTrue("Records were not processed; " + writer.getStatistics(), writer.flush(FLUSH_TIMEOUT));
+            AssertJUnit.assertEquals("Wrong # of failed records", 1, writer.getFailed());
+            AssertJUnit.assertEquals("Wrong # of written records", 5, writer.getWritten());
+            AssertJUnit.assertEquals("Wrong # of records kept in journal", 1, writer.getUnstored());
+        } finally {
+            writer.shutdown();
+        }
+        AssertJUnit.assertTrue("Failed record was removed from journal", journal.length() > 0);
+        AssertJUnit.assertEquals("Wrong # of stored records", 5, countRecords("failing-ok-%"));
+
+        // only the failed record is stored again on the next start (and it fails again)
+        AuditWriter restarted = createWriter(journal, 100, 10);
+        try {
+            AssertJUnit.assertEquals("Wrong # of failed records after restart", 1, restarted.getFailed());
+            AssertJUnit.assertEquals("Wrong # of records written after restart", 0, restarted.getWritten());
+            AssertJUnit.assertEquals("Wrong # of records kept in journal after restart", 1, restarted.getUnstored());
+        } finally {
+            restarted.shutdown();
+        }
+        AssertJUnit.assertEquals("Stored records were written again", 5, countRecords("failing-ok-%"));
+    }
+
+    @Test
+    public void test120JournalReplay() throws Exception {
+        File journal = createJournalFile();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(journal))) {
+            for (int i = 0; i < 3; i++) {
+                byte[] data = serialize(createRecord("replayed-" + i, null));
+                out.writeInt(data.length);
+                out.write(data);
+            }
+            out.writeInt(1000);             // incomplete record, as if midPoint crashed while writing it
+            out.write(new byte[10]);
+        }
+
+        AuditWriter writer = createWriter(journal, 100, 2);
+        try {
+            // the records are stored when the writer is initialized, not on the first write
+            AssertJUnit.assertEquals("Wrong # of replayed records", 3, writer.getWritten());
+            AssertJUnit.assertEquals("Wrong # of failed records", 0, writer.getFailed());
+            AssertJUnit.assertEquals("Journal was not truncated", 0, journal.length());
+            AssertJUnit.assertEquals("Wrong # of stored records", 3, countRecords("replayed-%"));
+
+            writer.write(createRecord("replayed-new", null));
+            AssertJUnit.assertTrue("Record was not processed", writer.flush(FLUSH_TIMEOUT));
+        } finally {
+            writer.shutdown();
+        }
+        AssertJUnit.assertEquals("Journal was not truncated", 0, journal.length());
+        AssertJUnit.assertEquals("Wrong # of stored records", 4, countRecords("replayed-%"));
+    }
+
+    @Test
+    public void test130Backpressure() throws Exception {
+        final int COUNT = 100;
+        AuditWriter writer = createWriter(null, 1, 1);
+        try {
+            for (int i = 0; i < COUNT; i++) {
+                writer.write(createRecord("backpressure-" + i, null));
+            }
+            AssertJUnit.assertTrue("Records were not processed; " + writer.getStatistics(), writer.flush(FLUSH_TIMEOUT));
+            AssertJUnit.assertTrue("Queue grew beyond its size: " + writer.getMaxQueueDepth(), writer.getMaxQueueDepth() <= 1);
+            // the writer thread cannot keep pace with the loop above, so the caller had to write some records itself
+            AssertJUnit.assertTrue("No record was written synchronously; " + writer.getStatistics(),
+                    writer.getWrittenSynchronously() > 0);
+            AssertJUnit.assertEquals("Wrong # of written records", COUNT, writer.getWritten());
+            AssertJUnit.assertEquals("Some records were not stored", 0, writer.getPending());
+        } finally {
+            writer.shutdown();
+        }
+        AssertJUnit.assertEquals("Wrong # of stored records", COUNT, countRecords("backpressure-%"));
+    }
+
+    @Test
+    public void test140FailedRecordRetriedWithoutJournal() throws Exception {
+        AuditWriter writer = createWriter(null, 100, 10);
+        try {
+            RAuditEventRecord record = createRecord("retried", StringUtils.repeat("x", 2000));      // too long for the column
+            writer.write(record);
+            AssertJUnit.assertTrue("Record was not processed; " + writer.getStatistics(), writer.flush(FLUSH_TIMEOUT));
+            AssertJUnit.assertEquals("Wrong # of failed records", 1, writer.getFailed());
+            AssertJUnit.assertEquals("Failed record was not kept", 1, writer.getUnstored());
+
+            // the cause of the failure goes away (as if the database was available again)
+            record.setMessage("retried");
+            long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT;
+            while (writer.getUnstored() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            AssertJUnit.assertEquals("Failed record was not stored later; " + writer.getStatistics(), 0, writer.getUnstored());
+            AssertJUnit.assertEquals("Wrong # of retried records", 1, writer.getRetried());
+            AssertJUnit.assertEquals("Wrong # of written records", 1, writer.getWritten());
+        } finally {
+            writer.shutdown();
+        }
+        AssertJUnit.assertEquals("Wrong # of stored records", 1, countRecords("retried"));
+    }
+
+    // a separate writer, so the journal and queue settings are taken into account
+    private AuditWriter createWriter(File journal, int queueSize, int batchSize) {
+        SqlRepositoryConfiguration configuration = baseHelper.getConfiguration();
+        configuration.setAsyncAuditJournalFile(journal != null ? journal.getPath() : null);
+        configuration.setAsyncAuditQueueSize(queueSize);
+        configuration.setAsyncAuditBatchSize(batchSize);
+        return applicationContext.getAutowireCapableBeanFactory().createBean(AuditWriter.class);
+    }
+
+    private File createJournalFile() throws Exception {
+        File file = File.createTempFile("audit-journal", ".bin");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private RAuditEventRecord createRecord(String eventIdentifier, String message) throws Exception {
+        AuditEventRecord record = new AuditEventRecord(AuditEventType.ADD_OBJECT, AuditEventStage.EXECUTION);
+        record.setEventIdentifier(eventIdentifier);
+        record.setTimestamp(System.currentTimeMillis());
+        RAuditEventRecord repoRecord = RAuditEventRecord.toRepo(record, prismContext);
+        if (message != null) {
+            repoRecord.setMessage(message);
+        }
+        return repoRecord;
+    }
+
+    private byte[] serialize(RAuditEventRecord record) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(record);
+        }
+        return baos.toByteArray();
+    }
+
+    private long countRecords(String eventIdentifierPattern) {
+        return auditService.countObjects("select count(*) from " + RAuditEventRecord.class.getSimpleName()
+                + " as aer where aer.eventIdentifier like :id", map("id", eventIdentifierPattern));
+    }
+
+    private HashMap<String, Object> map(String key, Object value) {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put(key, value);
+        return map;
+    }
+
+    private ObjectDeltaOperation createObjectDeltaOperation(int i) throws Exception {
+        ObjectDeltaOperation delta = new ObjectDeltaOperation();
+        delta.setExecutionResult(new OperationResult("test"));
+        UserType user = new UserType();
+        prismContext.adopt(user);
+        user.setName(new PolyStringType("user" + i));
+        delta.setObjectDelta(ObjectDelta.createAddDelta(user.asPrismObject()));
+        return delta;
+    }
+}
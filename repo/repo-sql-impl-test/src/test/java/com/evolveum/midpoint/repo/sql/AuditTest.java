@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.audit.api.AuditEventStage;
+import com.evolveum.midpoint.audit.api.AuditEventType;
+import com.evolveum.midpoint.audit.api.AuditService;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.repo.sql.util.SimpleTaskAdapter;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * @author agent
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class AuditTest extends BaseSQLRepoTest {
+
+    private static final int RECORDS = 1200;          // more than one chunk of listRecordsIterative
+
+    private static final String QUERY = "from " + RAuditEventRecord.class.getSimpleName() + " as aer order by aer.id";
+
+    private String initiatorOid;
+    private String targetOid;
+
+    @Test
+    public void test100ListRecords() throws Exception {
+        OperationResult result = new OperationResult("test100ListRecords");
+
+        initiatorOid = repositoryService.addObject(createUser("administrator"), null, result);
+        targetOid = repositoryService.addObject(createUser("jack"), null, result);
+        PrismObject<UserType> initiator = repositoryService.getObject(UserType.class, initiatorOid, null, result);
+        PrismObject<UserType> target = repositoryService.getObject(UserType.class, targetOid, null, result);
+
+        for (int i = 0; i < RECORDS; i++) {
+            AuditEventRecord record = new AuditEventRecord(AuditEventType.MODIFY_OBJECT, AuditEventStage.EXECUTION);
+            record.setInitiator(initiator);
+            record.setTarget(target);
+            record.setTimestamp(System.currentTimeMillis());
+            auditService.audit(record, new SimpleTaskAdapter());
+        }
+
+        HashMap<String, Object> params = new HashMap<>();
+        params.put("setMaxResults", 10);
+        List<AuditEventRecord> records = auditService.listRecords(QUERY, params);
+
+        AssertJUnit.assertEquals("Wrong # of records", 10, records.size());
+        AssertJUnit.assertEquals("Parameters were modified", 10, params.get("setMaxResults"));
+        for (AuditEventRecord record : records) {
+            AssertJUnit.assertEquals("Wrong initiator", initiatorOid, record.getInitiator().getOid());
+            AssertJUnit.assertEquals("Wrong initiator name", "administrator",
+                    record.getInitiator().asObjectable().getName().getOrig());
+            AssertJUnit.assertEquals("Wrong initiator full name", "administrator full name",
+                    record.getInitiator().asObjectable().getFullName().getOrig());
+            AssertJUnit.assertEquals("Wrong target", targetOid, record.getTarget().getOid());
+            AssertJUnit.assertEquals("Wrong target name", "jack",
+                    ((UserType) record.getTarget().getObject().asObjectable()).getName().getOrig());
+        }
+    }
+
+    @Test
+    public void test110ListRecordsIterative() throws Exception {
+        List<AuditEventRecord> records = new ArrayList<>();
+        auditService.listRecordsIterative(QUERY, new HashMap<String, Object>(), record -> records.add(record));
+
+        AssertJUnit.assertEquals("Wrong # of records", RECORDS, records.size());
+        AuditEventRecord last = records.get(RECORDS - 1);
+        AssertJUnit.assertEquals("Wrong initiator", initiatorOid, last.getInitiator().getOid());
+        AssertJUnit.assertEquals("Wrong target", targetOid, last.getTarget().getOid());
+    }
+
+    @Test
+    public void test120ListRecordsIterativeNamesOnlyWithStop() throws Exception {
+        HashMap<String, Object> params = new HashMap<>();
+        params.put(AuditService.PARAM_RESOLVE_NAMES_ONLY, true);
+        List<AuditEventRecord> records = new ArrayList<>();
+        auditService.listRecordsIterative(QUERY, params, record -> {
+            records.add(record);
+            return records.size() < 5;
+        });
+
+        AssertJUnit.assertEquals("Wrong # of records", 5, records.size());
+        AssertJUnit.assertEquals("Parameters were modified", Boolean.TRUE, params.get(AuditService.PARAM_RESOLVE_NAMES_ONLY));
+        PrismObject<UserType> initiator = records.get(0).getInitiator();
+        AssertJUnit.assertEquals("Wrong initiator", initiatorOid, initiator.getOid());
+        AssertJUnit.assertEquals("Wrong initiator name", "administrator", initiator.asObjectable().getName().getOrig());
+        AssertJUnit.assertNull("Full object was read", initiator.asObjectable().getFullName());
+    }
+
+    private PrismObject<UserType> createUser(String name) throws Exception {
+        UserType user = new UserType();
+        prismContext.adopt(user);
+        user.setName(new PolyStringType(name));
+        user.setFullName(new PolyStringType(name + " full name"));
+        return user.asPrismObject();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
+import com.evolveum.midpoint.repo.api.RepoOperation;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author agent
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class BatchTest extends BaseSQLRepoTest {
+
+    private static final int USERS = 10;
+
+    private static final String OID_PREFIX = "c0c010c0-d34d-b33f-f00d-0000000000";
+
+    @Test
+    public void test100AddUsers() throws Exception {
+        OperationResult result = new OperationResult("test100AddUsers");
+
+        List<RepoOperation<UserType>> operations = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            operations.add(RepoOperation.add(createUser(i), null));
+        }
+
+        repositoryService.executeBatch(operations, result);
+        result.computeStatusIfUnknown();
+
+        AssertJUnit.assertTrue("Batch failed: " + result, result.isSuccess());
+        for (int i = 0; i < USERS; i++) {
+            RepoOperation<UserType> operation = operations.get(i);
+            AssertJUnit.assertTrue("Operation failed: " + operation, operation.isSuccess());
+            AssertJUnit.assertEquals(oid(i), operation.getResultOid());
+            PrismObject<UserType> user = repositoryService.getObject(UserType.class, oid(i), null, result);
+            AssertJUnit.assertEquals("user" + i, user.asObjectable().getName().getOrig());
+        }
+    }
+
+    @Test
+    public void test110AddWithConflict() throws Exception {
+        OperationResult result = new OperationResult("test110AddWithConflict");
+
+        List<RepoOperation<UserType>> operations = new ArrayList<>();
+        operations.add(RepoOperation.add(createUser(USERS), null));
+        operations.add(RepoOperation.add(createUser(0), null));          // already exists
+        operations.add(RepoOperation.add(createUser(USERS + 1), null));
+
+        repositoryService.executeBatch(operations, result);
+        result.computeStatusIfUnknown();
+
+        AssertJUnit.assertTrue("Operation failed: " + operations.get(0), operations.get(0).isSuccess());
+        AssertJUnit.assertFalse("Operation succeeded: " + operations.get(1), operations.get(1).isSuccess());
+        AssertJUnit.assertTrue("Wrong exception: " + operations.get(1).getException(),
+                operations.get(1).getException() instanceof ObjectAlreadyExistsException);
+        AssertJUnit.assertTrue("Operation failed: " + operations.get(2), operations.get(2).isSuccess());
+        AssertJUnit.assertTrue("Result is not partial error: " + result, result.isPartialError());
+
+        repositoryService.getObject(UserType.class, oid(USERS), null, result);
+        repositoryService.getObject(UserType.class, oid(USERS + 1), null, result);
+    }
+
+    @Test
+    public void test200ModifyAndDelete() throws Exception {
+        OperationResult result = new OperationResult("test200ModifyAndDelete");
+
+        List<RepoOperation<UserType>> operations = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            List<ItemDelta<?, ?>> modifications = DeltaBuilder.deltaFor(UserType.class, prismContext)
+                    .item(UserType.F_DESCRIPTION).replace("description" + i)
+                    .asItemDeltas();
+            operations.add(RepoOperation.modify(UserType.class, oid(i), modifications, null));
+        }
+        operations.add(RepoOperation.<UserType>delete(UserType.class, oid(USERS)));
+        operations.add(RepoOperation.<UserType>delete(UserType.class, oid(USERS + 5)));       // does not exist
+
+        repositoryService.executeBatch(operations, result);
+        result.computeStatusIfUnknown();
+
+        for (int i = 0; i < USERS; i++) {
+            AssertJUnit.assertTrue("Operation failed: " + operations.get(i), operations.get(i).isSuccess());
+            PrismObject<UserType> user = repositoryService.getObject(UserType.class, oid(i), null, result);
+            AssertJUnit.assertEquals("description" + i, user.asObjectable().getDescription());
+            AssertJUnit.assertEquals("1", user.getVersion());
+        }
+        AssertJUnit.assertTrue("Operation failed: " + operations.get(USERS), operations.get(USERS).isSuccess());
+        AssertJUnit.assertTrue("Wrong exception: " + operations.get(USERS + 1).getException(),
+                operations.get(USERS + 1).getException() instanceof ObjectNotFoundException);
+
+        try {
+            repositoryService.getObject(UserType.class, oid(USERS), null, new OperationResult("dummy"));
+            AssertJUnit.fail("Deleted user still exists");
+        } catch (ObjectNotFoundException e) {
+            // expected
+        }
+    }
+
+    private PrismObject<UserType> createUser(int i) throws Exception {
+        UserType user = new UserType();
+        prismContext.adopt(user);
+        user.setOid(oid(i));
+        user.setName(new PolyStringType("user" + i));
+        return user.asPrismObject();
+    }
+
+    private String oid(int i) {
+        return OID_PREFIX + String.format("%02d", i);
+    }
+}
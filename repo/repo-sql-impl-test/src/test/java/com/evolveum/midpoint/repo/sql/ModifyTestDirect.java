@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
+import com.evolveum.midpoint.repo.sql.helpers.ObjectDeltaUpdater;
+import com.evolveum.midpoint.repo.sql.testing.SqlRepoTestUtil;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationStatusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+/**
+ * The same as ModifyTest but with modifications translated to SQL statements where possible (see {@link ObjectDeltaUpdater}).
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class ModifyTestDirect extends ModifyTest {
+
+    private static final int ASSIGNMENTS = 100;
+
+    private static final String SHADOW_1_OID = "9a4f7ac8-8e60-4bb2-b0e2-1a8b6e1c0001";
+    private static final String SHADOW_2_OID = "9a4f7ac8-8e60-4bb2-b0e2-1a8b6e1c0002";
+    private static final String SHADOW_3_OID = "9a4f7ac8-8e60-4bb2-b0e2-1a8b6e1c0003";
+
+    @Autowired
+    private ObjectDeltaUpdater objectDeltaUpdater;
+
+    @BeforeClass
+    public void enableDirectModify() {
+        baseHelper.getConfiguration().setDirectModify(true);
+    }
+
+    @AfterClass
+    public void disableDirectModify() {
+        baseHelper.getConfiguration().setDirectModify(false);
+    }
+
+    @Test
+    public void test200ModifyUserWithManyAssignments() throws Exception {
+        OperationResult result = new OperationResult("test200ModifyUserWithManyAssignments");
+
+        UserType user = new UserType();
+        prismContext.adopt(user);
+        user.setName(new PolyStringType("direct"));
+        user.setFullName(new PolyStringType("Direct Before"));
+        user.setTelephoneNumber("111");
+        for (int i = 0; i < ASSIGNMENTS; i++) {
+            AssignmentType assignment = new AssignmentType();
+            assignment.setDescription("assignment " + i);
+            user.getAssignment().add(assignment);
+        }
+        user.getLinkRef().add(shadowRef(SHADOW_1_OID));
+        user.getLinkRef().add(shadowRef(SHADOW_2_OID));
+        String oid = repositoryService.addObject(user.asPrismObject(), null, result);
+        String versionBefore = repositoryService.getObject(UserType.class, oid, null, result).getVersion();
+
+        List<ItemDelta<?, ?>> modifications = DeltaBuilder.deltaFor(UserType.class, prismContext)
+                .item(UserType.F_TELEPHONE_NUMBER).replace("222")
+                .item(UserType.F_FULL_NAME).replace(new PolyString("Direct After"))
+                .item(UserType.F_DESCRIPTION).replace("modified directly")
+                .item(UserType.F_ACTIVATION, ActivationType.F_ADMINISTRATIVE_STATUS).replace(ActivationStatusType.DISABLED)
+                .item(UserType.F_LINK_REF).add(shadowRef(SHADOW_3_OID).asReferenceValue())
+                    .delete(shadowRef(SHADOW_1_OID).asReferenceValue())
+                .asItemDeltas();
+        long directBefore = objectDeltaUpdater.getExecutedPlansCount();
+        repositoryService.modifyObject(UserType.class, oid, modifications, getModifyOptions(), result);
+        assertEquals("Modification was not executed directly", directBefore + 1, objectDeltaUpdater.getExecutedPlansCount());
+
+        PrismObject<UserType> userAfter = repositoryService.getObject(UserType.class, oid, null, result);
+        UserType userTypeAfter = userAfter.asObjectable();
+        SqlRepoTestUtil.assertVersionProgress(versionBefore, userAfter.getVersion());
+        assertEquals("Wrong telephone number", "222", userTypeAfter.getTelephoneNumber());
+        assertEquals("Wrong full name", "Direct After", userTypeAfter.getFullName().getOrig());
+        assertEquals("Wrong description", "modified directly", userTypeAfter.getDescription());
+        assertEquals("Wrong administrative status", ActivationStatusType.DISABLED,
+                userTypeAfter.getActivation().getAdministrativeStatus());
+        assertEquals("Wrong # of assignments", ASSIGNMENTS, userTypeAfter.getAssignment().size());
+        Set<String> linkOids = new HashSet<>();
+        for (ObjectReferenceType linkRef : userTypeAfter.getLinkRef()) {
+            linkOids.add(linkRef.getOid());
+        }
+        assertEquals("Wrong links", new HashSet<>(Arrays.asList(SHADOW_2_OID, SHADOW_3_OID)), linkOids);
+
+        // columns and reference rows have to be updated as well
+        assertFound("full name", oid, QueryBuilder.queryFor(UserType.class, prismContext)
+                .item(UserType.F_FULL_NAME).eqPoly("Direct After", "direct after").matchingStrict()
+                .build());
+        assertFound("administrative status", oid, QueryBuilder.queryFor(UserType.class, prismContext)
+                .item(new ItemPath(UserType.F_ACTIVATION, ActivationType.F_ADMINISTRATIVE_STATUS)).eq(ActivationStatusType.DISABLED)
+                .build());
+        assertFound("new link", oid, QueryBuilder.queryFor(UserType.class, prismContext)
+                .item(UserType.F_LINK_REF).ref(SHADOW_3_OID)
+                .build());
+        assertEquals("Deleted link was found", 0, repositoryService.countObjects(UserType.class,
+                QueryBuilder.queryFor(UserType.class, prismContext).item(UserType.F_LINK_REF).ref(SHADOW_1_OID).build(),
+                result));
+
+        Session session = open();
+        try {
+            Number assignments = (Number) session.createQuery("select count(*) from RAssignment where ownerOid = :oid")
+                    .setString("oid", oid)
+                    .uniqueResult();
+            assertEquals("Wrong # of assignment rows", ASSIGNMENTS, assignments.intValue());
+        } finally {
+            close(session);
+        }
+    }
+
+    private void assertFound(String what, String oid, ObjectQuery query) throws Exception {
+        List<PrismObject<UserType>> users = repositoryService.searchObjects(UserType.class, query, null,
+                new OperationResult("search"));
+        assertEquals("User not found by " + what, 1, users.size());
+        assertEquals("Wrong user found by " + what, oid, users.get(0).getOid());
+    }
+
+    private ObjectReferenceType shadowRef(String oid) {
+        ObjectReferenceType ref = new ObjectReferenceType();
+        ref.setOid(oid);
+        ref.setType(ShadowType.COMPLEX_TYPE);
+        return ref;
+    }
+}
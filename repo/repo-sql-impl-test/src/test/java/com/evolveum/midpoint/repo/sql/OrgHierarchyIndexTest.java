@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that answers given using the org hierarchy index are the same as those based on the closure table.
+ *
+ * Structure: A <- B <- C, A <- D; user U1 in C, user U2 in D.
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class OrgHierarchyIndexTest extends BaseSQLRepoTest {
+
+    private static final String A = "00000000-8888-6666-0000-10000000000a";
+    private static final String B = "00000000-8888-6666-0000-10000000000b";
+    private static final String C = "00000000-8888-6666-0000-10000000000c";
+    private static final String D = "00000000-8888-6666-0000-10000000000d";
+    private static final String U1 = "00000000-8888-6666-0000-200000000001";
+    private static final String U2 = "00000000-8888-6666-0000-200000000002";
+
+    @AfterClass
+    public void disableIndex() {
+        baseHelper.getConfiguration().setOrgHierarchyIndex(false);
+    }
+
+    @Test
+    public void test100Initial() throws Exception {
+        OperationResult result = new OperationResult("test100Initial");
+
+        addObject(org(A, "A"), result);
+        addObject(org(B, "B", A), result);
+        addObject(org(C, "C", B), result);
+        addObject(org(D, "D", A), result);
+        addObject(user(U1, "U1", C), result);
+        addObject(user(U2, "U2", D), result);
+
+        assertSame(result);
+        assertSubordinate(A, C, true);
+        assertSubordinate(B, D, false);
+        assertSubordinate(C, A, false);
+    }
+
+    @Test
+    public void test110MoveOrg() throws Exception {
+        OperationResult result = new OperationResult("test110MoveOrg");
+
+        baseHelper.getConfiguration().setOrgHierarchyIndex(true);
+        assertSubordinate(B, C, true);          // loads the index
+
+        List<ItemDelta<?, ?>> modifications = DeltaBuilder.deltaFor(OrgType.class, prismContext)
+                .item(OrgType.F_PARENT_ORG_REF).replace(orgRef(D).asReferenceValue())
+                .asItemDeltas();
+        repositoryService.modifyObject(OrgType.class, C, modifications, result);
+
+        assertSame(result);
+        assertSubordinate(B, C, false);
+        assertSubordinate(D, C, true);
+    }
+
+    @Test
+    public void test120DeleteOrg() throws Exception {
+        OperationResult result = new OperationResult("test120DeleteOrg");
+
+        repositoryService.deleteObject(OrgType.class, D, result);
+
+        assertSame(result);
+        assertSubordinate(A, C, false);
+    }
+
+    // compares results of org-related queries with and without the index
+    private void assertSame(OperationResult result) throws Exception {
+        for (String org : Arrays.asList(A, B, C, D)) {
+            ObjectQuery subtree = QueryBuilder.queryFor(ObjectType.class, prismContext).isChildOf(org).build();
+            ObjectQuery ancestors = QueryBuilder.queryFor(ObjectType.class, prismContext).isParentOf(org).build();
+            for (ObjectQuery query : Arrays.asList(subtree, ancestors)) {
+                baseHelper.getConfiguration().setOrgHierarchyIndex(false);
+                Set<String> expected = search(query, result);
+                baseHelper.getConfiguration().setOrgHierarchyIndex(true);
+                Set<String> actual = search(query, result);
+                AssertJUnit.assertEquals("Wrong result of " + query, expected, actual);
+            }
+        }
+    }
+
+    private void assertSubordinate(String upper, String lower, boolean expected) throws Exception {
+        baseHelper.getConfiguration().setOrgHierarchyIndex(false);
+        AssertJUnit.assertEquals("Wrong closure-based answer for " + upper + " > " + lower, expected,
+                repositoryService.isAnySubordinate(upper, Collections.singleton(lower)));
+        baseHelper.getConfiguration().setOrgHierarchyIndex(true);
+        AssertJUnit.assertEquals("Wrong index-based answer for " + upper + " > " + lower, expected,
+                repositoryService.isAnySubordinate(upper, Collections.singleton(lower)));
+    }
+
+    private Set<String> search(ObjectQuery query, OperationResult result) throws Exception {
+        Set<String> oids = new HashSet<>();
+        for (PrismObject<ObjectType> object : repositoryService.searchObjects(ObjectType.class, query, null, result)) {
+            oids.add(object.getOid());
+        }
+        return oids;
+    }
+
+    private void addObject(ObjectType object, OperationResult result) throws Exception {
+        repositoryService.addObject(object.asPrismObject(), null, result);
+    }
+
+    private OrgType org(String oid, String name, String... parents) {
+        OrgType org = new OrgType();
+        prismContext.adopt(org);
+        fill(org, oid, name, parents);
+        return org;
+    }
+
+    private UserType user(String oid, String name, String... parents) {
+        UserType user = new UserType();
+        prismContext.adopt(user);
+        fill(user, oid, name, parents);
+        return user;
+    }
+
+    private void fill(FocusType focus, String oid, String name, String[] parents) {
+        focus.setOid(oid);
+        focus.setName(new PolyStringType(name));
+        for (String parent : parents) {
+            focus.getParentOrgRef().add(orgRef(parent));
+        }
+    }
+
+    private ObjectReferenceType orgRef(String oid) {
+        ObjectReferenceType ref = new ObjectReferenceType();
+        ref.setOid(oid);
+        ref.setType(OrgType.COMPLEX_TYPE);
+        return ref;
+    }
+}
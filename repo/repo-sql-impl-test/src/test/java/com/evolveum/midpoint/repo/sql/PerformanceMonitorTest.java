@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.repo.sql.pool.HikariConnectionPool;
+import com.evolveum.midpoint.schema.LabeledString;
+import com.evolveum.midpoint.schema.RepositoryDiag;
+import com.evolveum.midpoint.schema.RepositoryOperationStatistics;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * @author agent
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class PerformanceMonitorTest extends BaseSQLRepoTest {
+
+    private static final int COUNT = 5;
+
+    @Test
+    public void test100OperationStatistics() throws Exception {
+        OperationResult result = new OperationResult("test100OperationStatistics");
+        SqlPerformanceMonitor monitor = ((SqlRepositoryServiceImpl) repositoryService).getPerformanceMonitor();
+        monitor.resetStatistics();
+
+        for (int i = 0; i < COUNT; i++) {
+            UserType user = new UserType();
+            prismContext.adopt(user);
+            user.setName(new PolyStringType("monitored" + i));
+            String oid = repositoryService.addObject(user.asPrismObject(), null, result);
+            repositoryService.getObject(UserType.class, oid, null, result);
+        }
+
+        RepositoryDiag diag = repositoryService.getRepositoryDiag();
+        assertNotNull("No operation statistics", diag.getOperationStatistics());
+        assertStatistics(diag, "addObject", UserType.class.getSimpleName());
+        assertStatistics(diag, "getObject", UserType.class.getSimpleName());
+    }
+
+    @Test
+    public void test110JmxRegistration() throws Exception {
+        ObjectName name = new ObjectName(SqlPerformanceMonitor.MBEAN_NAME);
+        assertTrue("Performance monitor not registered in JMX",
+                ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        Object statistics = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "FormattedStatistics");
+        assertTrue("No getObject statistics in JMX", String.valueOf(statistics).contains("getObject (UserType)"));
+    }
+
+    @Test
+    public void test120ConnectionPool() throws Exception {
+        RepositoryDiag diag = repositoryService.getRepositoryDiag();
+
+        String pool = null;
+        for (LabeledString detail : diag.getAdditionalDetails()) {
+            if ("connectionPool".equals(detail.getLabel())) {
+                pool = detail.getData();
+            }
+        }
+        assertEquals("Wrong connection pool", baseHelper.getConfiguration().getConnectionPool(), pool);
+
+        if (SqlRepositoryConfiguration.CONNECTION_POOL_HIKARI.equals(pool)) {
+            for (RepositoryOperationStatistics statistics : diag.getOperationStatistics()) {
+                if (HikariConnectionPool.OPERATION_ACQUIRE_CONNECTION.equals(statistics.getOperation())) {
+                    assertTrue("No connections acquired", statistics.getCount() > 0);
+                    return;
+                }
+            }
+            fail("No connection acquire statistics in " + diag.getOperationStatistics());
+        }
+    }
+
+    private void assertStatistics(RepositoryDiag diag, String operation, String objectType) {
+        for (RepositoryOperationStatistics statistics : diag.getOperationStatistics()) {
+            if (operation.equals(statistics.getOperation()) && objectType.equals(statistics.getObjectType())) {
+                assertEquals("Wrong count of " + operation, COUNT, statistics.getCount());
+                assertTrue("Wrong attempts of " + operation, statistics.getAttempts() >= COUNT);
+                assertTrue("No time recorded for " + operation, statistics.getTotalTime() > 0);
+                return;
+            }
+        }
+        fail("No statistics for " + operation + " on " + objectType + " in " + diag.getOperationStatistics());
+    }
+}
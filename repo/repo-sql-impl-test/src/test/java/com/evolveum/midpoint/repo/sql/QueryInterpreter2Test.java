@@ -32,6 +32,7 @@ import com.evolveum.midpoint.repo.sql.type.XMLGregorianCalendarType;
 import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
 import com.evolveum.midpoint.schema.constants.MidPointConstants;
 import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
 import com.evolveum.midpoint.schema.util.ObjectTypeUtil;
@@ -59,6 +60,7 @@ import javax.xml.namespace.QName;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -645,6 +647,35 @@ public class QueryInterpreter2Test extends BaseSQLRepoTest {
         }
     }
 
+    @Test
+    public void test078QueryAccountByAttributeMultipleValues() throws Exception {
+        Session session = open();
+        try {
+            /*
+             * ### shadow: attributes/uid = any of ('u1', 'u2', 'u3') (used for bulk lookup of shadows)
+             */
+            PrismPropertyDefinitionImpl<String> uidDef = new PrismPropertyDefinitionImpl<>(
+                    SchemaConstants.ICFS_UID, DOMUtil.XSD_STRING, prismContext);
+            ObjectQuery query = QueryBuilder.queryFor(ShadowType.class, prismContext)
+                    .itemWithDef(uidDef, ShadowType.F_ATTRIBUTES, uidDef.getName()).eq("u1", "u2", "u3")
+                    .build();
+
+            RQueryImpl realQuery = (RQueryImpl) getInterpretedQuery2Whole(session, ShadowType.class, query, false);
+            String expected = "select\n" +
+                    "  s.fullObject, s.stringsCount, s.longsCount, s.datesCount, s.referencesCount, s.polysCount, s.booleansCount\n" +
+                    "from\n" +
+                    "  RShadow s\n" +
+                    "    left join s.strings s2 with ( s2.ownerType = :ownerType and s2.name = :name )\n" +
+                    "where\n" +
+                    "  s2.value in :value\n";
+            assertEqualsIgnoreWhitespace(expected, realQuery.getQuery().getQueryString());
+            assertEquals("Wrong values", Arrays.asList("u1", "u2", "u3"),
+                    realQuery.getQuerySource().getParameters().get("value").getValue());
+        } finally {
+            close(session);
+        }
+    }
+
     @Test
     public void test080QueryExistsAssignment() throws Exception {
         Session session = open();
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.OrderDirection;
+import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
+import com.evolveum.midpoint.repo.sql.helpers.ObjectRetriever;
+import com.evolveum.midpoint.repo.sql.query2.QueryPlanCache;
+import com.evolveum.midpoint.repo.sql.util.RUtil;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+/**
+ * Checks that queries of the same shape executed via cached query plans return the same results
+ * as freshly interpreted ones.
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class QueryPlanCacheTest extends BaseSQLRepoTest {
+
+    private static final int USERS = 5;
+    private static final String ORG_OID = "5b3c9a0e-2d3a-4f7e-9a51-6a3f0c1d0001";
+    private static final QName SHIP_NAME = new QName("http://example.com/p", "shipName");
+    // the same string as the item name stored in the repository (a constant parameter of queries on shipName)
+    private static final String SHIP_NAME_ITEM = RUtil.qnameToString(SHIP_NAME);
+
+    @Autowired
+    private ObjectRetriever objectRetriever;
+
+    @BeforeClass
+    public void beforeClass() throws Exception {
+        super.beforeClass();
+
+        OperationResult result = new OperationResult("add objects");
+        for (int i = 1; i <= USERS; i++) {
+            UserType user = new UserType();
+            prismContext.adopt(user);
+            user.setName(new PolyStringType("PlanUser" + i));
+            user.setFullName(new PolyStringType("Plan User " + i));
+            user.setEmployeeNumber("E-" + i);
+            user.asPrismObject().findOrCreateProperty(new ItemPath(UserType.F_EXTENSION, SHIP_NAME))
+                    .setRealValue(i == 1 ? SHIP_NAME_ITEM : "ship-" + i);
+            if (i % 2 == 1) {
+                ObjectReferenceType parentOrgRef = new ObjectReferenceType();
+                parentOrgRef.setOid(ORG_OID);
+                parentOrgRef.setType(OrgType.COMPLEX_TYPE);
+                user.getParentOrgRef().add(parentOrgRef);
+            }
+            repositoryService.addObject(user.asPrismObject(), null, result);
+        }
+    }
+
+    @Test
+    public void test100EqualPolyString() throws Exception {
+        QueryPlanCache cache = objectRetriever.getQueryPlanCache();
+        cache.clear();
+        long hitsBefore = cache.getHits();
+
+        for (int i = 1; i <= USERS; i++) {
+            ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                    .item(UserType.F_NAME).eqPoly("PlanUser" + i, "planuser" + i).matchingStrict()
+                    .build();
+            assertNames(query, "PlanUser" + i);
+        }
+        assertEquals("Wrong # of cached plans", 1, cache.size());
+        assertEquals("Wrong # of cache hits", USERS - 1, cache.getHits() - hitsBefore);
+    }
+
+    @Test
+    public void test110SubstringAndString() throws Exception {
+        QueryPlanCache cache = objectRetriever.getQueryPlanCache();
+        cache.clear();
+        long hitsBefore = cache.getHits();
+
+        for (int i = 1; i <= USERS; i++) {
+            ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                    .item(UserType.F_FULL_NAME).startsWithPoly("Plan User " + i).matchingOrig()
+                    .and().item(UserType.F_EMPLOYEE_NUMBER).eq("E-" + i)
+                    .build();
+            assertNames(query, "PlanUser" + i);
+        }
+        assertEquals("Wrong # of cache hits", USERS - 1, cache.getHits() - hitsBefore);
+    }
+
+    @Test
+    public void test120CountWithReference() throws Exception {
+        QueryPlanCache cache = objectRetriever.getQueryPlanCache();
+        cache.clear();
+        long hitsBefore = cache.getHits();
+        OperationResult result = new OperationResult("test120CountWithReference");
+
+        for (int i = 0; i < 3; i++) {
+            ObjectQuery inOrg = QueryBuilder.queryFor(UserType.class, prismContext)
+                    .item(UserType.F_PARENT_ORG_REF).ref(ORG_OID)
+                    .build();
+            assertEquals("Wrong count of users in org", 3, repositoryService.countObjects(UserType.class, inOrg, result));
+            ObjectQuery inOtherOrg = QueryBuilder.queryFor(UserType.class, prismContext)
+                    .item(UserType.F_PARENT_ORG_REF).ref("5b3c9a0e-2d3a-4f7e-9a51-6a3f0c1d0002")
+                    .build();
+            assertEquals("Wrong count of users in other org", 0, repositoryService.countObjects(UserType.class, inOtherOrg, result));
+        }
+        assertEquals("Wrong # of cache hits", 5, cache.getHits() - hitsBefore);
+    }
+
+    @Test
+    public void test130Paging() throws Exception {
+        QueryPlanCache cache = objectRetriever.getQueryPlanCache();
+        cache.clear();
+
+        List<String> names = new ArrayList<>();
+        for (int offset = 0; offset < USERS; offset += 2) {
+            ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                    .item(UserType.F_NAME).startsWithPoly("PlanUser").matchingOrig()
+                    .build();
+            query.setPaging(ObjectPaging.createPaging(offset, 2, UserType.F_NAME, OrderDirection.DESCENDING));
+            for (PrismObject<UserType> user : search(query)) {
+                names.add(user.asObjectable().getName().getOrig());
+            }
+        }
+        assertEquals("Wrong names", Arrays.asList("PlanUser5", "PlanUser4", "PlanUser3", "PlanUser2", "PlanUser1"), names);
+        assertEquals("Wrong # of cached plans", 1, cache.size());
+    }
+
+    @Test
+    public void test140AmbiguousValues() throws Exception {
+        QueryPlanCache cache = objectRetriever.getQueryPlanCache();
+        cache.clear();
+
+        // both values are the same, so we cannot tell which parameter comes from which literal
+        ObjectQuery ambiguous = QueryBuilder.queryFor(UserType.class, prismContext)
+                .item(UserType.F_EMPLOYEE_NUMBER).eq("E-1")
+                .or().item(UserType.F_DESCRIPTION).eq("E-1")
+                .build();
+        assertNames(ambiguous, "PlanUser1");
+        assertEquals("Plan was created for ambiguous query", 0, cache.size());
+
+        ObjectQuery distinct = QueryBuilder.queryFor(UserType.class, prismContext)
+                .item(UserType.F_EMPLOYEE_NUMBER).eq("E-2")
+                .or().item(UserType.F_DESCRIPTION).eq("nothing")
+                .build();
+        assertNames(distinct, "PlanUser2");
+        assertEquals("Plan was not created", 1, cache.size());
+        assertNames(ambiguous, "PlanUser1");
+    }
+
+    @Test
+    public void test150Disabled() throws Exception {
+        QueryPlanCache cache = objectRetriever.getQueryPlanCache();
+        cache.clear();
+        int sizeBefore = baseHelper.getConfiguration().getQueryPlanCacheSize();
+        baseHelper.getConfiguration().setQueryPlanCacheSize(0);
+        try {
+            ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                    .item(UserType.F_EMPLOYEE_NUMBER).eq("E-2")
+                    .build();
+            assertNames(query, "PlanUser2");
+            assertNames(query, "PlanUser2");
+            assertEquals("Plans were cached", 0, cache.size());
+        } finally {
+            baseHelper.getConfiguration().setQueryPlanCacheSize(sizeBefore);
+        }
+    }
+
+    @Test
+    public void test160IgnoreCaseInNot() throws Exception {
+        QueryPlanCache cache = objectRetriever.getQueryPlanCache();
+        cache.clear();
+        long hitsBefore = cache.getHits();
+
+        for (int i = 1; i <= USERS; i++) {
+            // the value is lower-cased in the parameter; the case of the literal differs between queries
+            String employeeNumber = (i % 2 == 0 ? "e-" : "E-") + i;
+            ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                    .item(UserType.F_NAME).startsWithPoly("PlanUser").matchingOrig()
+                    .and().not().item(UserType.F_EMPLOYEE_NUMBER).eq(employeeNumber).matchingCaseIgnore()
+                    .build();
+            query.setPaging(ObjectPaging.createPaging(0, USERS, UserType.F_NAME, OrderDirection.ASCENDING));
+            List<String> expected = new ArrayList<>();
+            for (int j = 1; j <= USERS; j++) {
+                if (j != i) {
+                    expected.add("PlanUser" + j);
+                }
+            }
+            assertNames(query, expected.toArray(new String[0]));
+        }
+        assertEquals("Wrong # of cached plans", 1, cache.size());
+        assertEquals("Wrong # of cache hits", USERS - 1, cache.getHits() - hitsBefore);
+    }
+
+    @Test
+    public void test170LiteralEqualToItemName() throws Exception {
+        QueryPlanCache cache = objectRetriever.getQueryPlanCache();
+        cache.clear();
+        long hitsBefore = cache.getHits();
+
+        // the plan is created for the first query, whose literal has the same value as the item name parameter;
+        // the item name must stay constant when the plan is used for the others
+        for (int i = 1; i <= 3; i++) {
+            ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                    .item(UserType.F_EXTENSION, SHIP_NAME).eq(i == 1 ? SHIP_NAME_ITEM : "ship-" + i)
+                    .build();
+            assertNames(query, "PlanUser" + i);
+        }
+        assertEquals("Wrong # of cached plans", 1, cache.size());
+        assertEquals("Wrong # of cache hits", 2, cache.getHits() - hitsBefore);
+    }
+
+    private List<PrismObject<UserType>> search(ObjectQuery query) throws Exception {
+        return repositoryService.searchObjects(UserType.class, query, null, new OperationResult("search"));
+    }
+
+    private void assertNames(ObjectQuery query, String... expectedNames) throws Exception {
+        List<String> names = new ArrayList<>();
+        for (PrismObject<UserType> user : search(query)) {
+            names.add(user.asObjectable().getName().getOrig());
+        }
+        assertEquals("Wrong users found by " + query, Arrays.asList(expectedNames), names);
+    }
+}
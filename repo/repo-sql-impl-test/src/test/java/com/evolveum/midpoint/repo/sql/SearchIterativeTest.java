@@ -17,7 +17,11 @@
 package com.evolveum.midpoint.repo.sql;
 
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
 import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.OrderDirection;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
 import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
 import com.evolveum.midpoint.schema.ResultHandler;
@@ -118,6 +122,42 @@ public class SearchIterativeTest extends BaseSQLRepoTest {
         assertObjects(objects, COUNT);
     }
 
+    @Test
+    public void test106SimpleIterationWithPrefetch() throws Exception {
+        OperationResult result = new OperationResult("test106SimpleIterationWithPrefetch");
+
+        final List<PrismObject<UserType>> objects = new ArrayList<>();
+        final Thread caller = Thread.currentThread();
+
+        ResultHandler handler = new ResultHandler() {
+            @Override
+            public boolean handle(PrismObject object, OperationResult parentResult) {
+                assertTrue("Handler does not run in the calling thread", caller == Thread.currentThread());
+                objects.add(object);
+                return true;
+            }
+        };
+
+        SqlRepositoryConfiguration config = ((SqlRepositoryServiceImpl) repositoryService).getConfiguration();
+        boolean prefetch = config.isIterativeSearchPrefetch();
+        config.setIterativeSearchPrefetch(true);
+        try {
+            ObjectQuery query = new ObjectQuery();
+            query.setPaging(ObjectPaging.createPaging(null, null, UserType.F_NAME, OrderDirection.ASCENDING));
+            repositoryService.searchObjectsIterative(UserType.class, query, handler, null, false, result);
+        } finally {
+            config.setIterativeSearchPrefetch(prefetch);
+        }
+        result.recomputeStatus();
+
+        assertTrue(result.isSuccess());
+        assertObjects(objects, COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals("Wrong object at position " + i, "user-" + (BASE + i),
+                    objects.get(i).asObjectable().getName().getOrig());
+        }
+    }
+
     private boolean[] assertObjects(List<PrismObject<UserType>> objects, Integer count) {
         if (count != null) {
             assertEquals("Wrong # of objects", count.intValue(), objects.size());
@@ -137,6 +177,121 @@ public class SearchIterativeTest extends BaseSQLRepoTest {
         return numbers;
     }
 
+    @Test
+    public void test107OrderedIterationWithLimit() throws Exception {
+        OperationResult result = new OperationResult("test107OrderedIterationWithLimit");
+
+        final List<PrismObject<UserType>> objects = new ArrayList<>();
+
+        ResultHandler handler = new ResultHandler() {
+            @Override
+            public boolean handle(PrismObject object, OperationResult parentResult) {
+                objects.add(object);
+                return true;
+            }
+        };
+
+        final int limit = COUNT - 10;
+        ObjectQuery query = new ObjectQuery();
+        query.setPaging(ObjectPaging.createPaging(null, limit, UserType.F_NAME, OrderDirection.DESCENDING));
+        repositoryService.searchObjectsIterative(UserType.class, query, handler, null, false, result);
+        result.recomputeStatus();
+
+        assertTrue(result.isSuccess());
+        assertObjects(objects, limit);
+        for (int i = 0; i < limit; i++) {
+            assertEquals("Wrong object at position " + i, "user-" + (BASE + COUNT - 1 - i),
+                    objects.get(i).asObjectable().getName().getOrig());
+        }
+    }
+
+    @Test
+    public void test108OrderedAscendingIterationWithLimit() throws Exception {
+        OperationResult result = new OperationResult("test108OrderedAscendingIterationWithLimit");
+
+        final List<PrismObject<UserType>> objects = new ArrayList<>();
+
+        ResultHandler handler = new ResultHandler() {
+            @Override
+            public boolean handle(PrismObject object, OperationResult parentResult) {
+                objects.add(object);
+                return true;
+            }
+        };
+
+        final int limit = COUNT - 10;
+        ObjectQuery query = new ObjectQuery();
+        query.setPaging(ObjectPaging.createPaging(null, limit, UserType.F_NAME, OrderDirection.ASCENDING));
+        repositoryService.searchObjectsIterative(UserType.class, query, handler, null, false, result);
+        result.recomputeStatus();
+
+        assertTrue(result.isSuccess());
+        assertObjects(objects, limit);
+        for (int i = 0; i < limit; i++) {
+            assertEquals("Wrong object at position " + i, "user-" + (BASE + i),
+                    objects.get(i).asObjectable().getName().getOrig());
+        }
+    }
+
+    /**
+     * Only every fifth user has an employee number. Users having it come first (in the requested order),
+     * the others follow, ordered by OID - regardless of the ordering direction and database null ordering.
+     */
+    @Test
+    public void test109OrderedIterationWithNullValues() throws Exception {
+        OperationResult result = new OperationResult("test109OrderedIterationWithNullValues");
+
+        for (int i = BASE; i < BASE + COUNT; i += 5) {
+            repositoryService.modifyObject(UserType.class, "user-" + i + "-00",
+                    DeltaBuilder.deltaFor(UserType.class, prismContext)
+                            .item(UserType.F_EMPLOYEE_NUMBER).replace("E-" + i)
+                            .asItemDeltas(), result);
+        }
+
+        try {
+            for (OrderDirection direction : OrderDirection.values()) {
+                final List<PrismObject<UserType>> objects = new ArrayList<>();
+
+                ResultHandler handler = new ResultHandler() {
+                    @Override
+                    public boolean handle(PrismObject object, OperationResult parentResult) {
+                        objects.add(object);
+                        return true;
+                    }
+                };
+
+                ObjectQuery query = new ObjectQuery();
+                query.setPaging(ObjectPaging.createPaging(null, null, UserType.F_EMPLOYEE_NUMBER, direction));
+                repositoryService.searchObjectsIterative(UserType.class, query, handler, null, false, result);
+                result.recomputeStatus();
+
+                assertTrue(result.isSuccess());
+                assertObjects(objects, COUNT);
+
+                List<Integer> expected = new ArrayList<>();
+                for (int i = 0; i < COUNT; i += 5) {
+                    expected.add(direction == OrderDirection.ASCENDING ? BASE + i : BASE + COUNT - 5 - i);
+                }
+                for (int i = 0; i < COUNT; i++) {
+                    if (i % 5 != 0) {
+                        expected.add(BASE + i);
+                    }
+                }
+                for (int i = 0; i < COUNT; i++) {
+                    assertEquals("Wrong object at position " + i + " (" + direction + ")", "user-" + expected.get(i),
+                            objects.get(i).asObjectable().getName().getOrig());
+                }
+            }
+        } finally {
+            for (int i = BASE; i < BASE + COUNT; i += 5) {
+                repositoryService.modifyObject(UserType.class, "user-" + i + "-00",
+                        DeltaBuilder.deltaFor(UserType.class, prismContext)
+                                .item(UserType.F_EMPLOYEE_NUMBER).delete("E-" + i)
+                                .asItemDeltas(), result);
+            }
+        }
+    }
+
     @Test
     public void test110DeleteAll() throws Exception {
         OperationResult result = new OperationResult("test110DeleteAll");
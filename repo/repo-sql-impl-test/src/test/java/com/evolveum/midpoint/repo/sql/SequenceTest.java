@@ -17,6 +17,10 @@
 package com.evolveum.midpoint.repo.sql;
 
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.sql.helpers.SequenceHelper;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
@@ -24,10 +28,13 @@ import com.evolveum.midpoint.util.exception.SystemException;
 import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.SequenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
 import org.hibernate.Session;
 import org.hibernate.jdbc.Work;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.testng.annotations.Test;
@@ -57,6 +64,12 @@ public class SequenceTest extends BaseSQLRepoTest {
 
     private static final int STOP_TIMEOUT = 10000;
 
+    @Autowired
+    private SequenceHelper sequenceHelper;
+
+    @Autowired
+    private CacheDispatcher cacheDispatcher;
+
     @Test
     public void test001_OneThread() throws Exception {
 
@@ -198,6 +211,137 @@ public class SequenceTest extends BaseSQLRepoTest {
         concurrencyUniversal("Test033", "sequence-unbound.xml", 10000L, mts, true);
     }
 
+    @Test
+    public void test040_SixteenThreadsInBlocks() throws Exception {
+
+        WorkerThread[] mts = new WorkerThread[16];
+        for (int i = 0; i < mts.length; i++) {
+            mts[i] = new WorkerThread(i + 1);
+        }
+
+        concurrencyUniversal("Test040", "sequence-unbound-blocks.xml", 10000L, mts, false);
+    }
+
+    @Test
+    public void test041_ReturningReservedValues() throws Exception {
+
+        OperationResult result = new OperationResult("test041_ReturningReservedValues");
+        final File file = new File(TEST_DIR + "sequence-unbound-blocks.xml");
+        PrismObject<SequenceType> sequence = prismContext.parseObject(file);
+        sequence.asObjectable().setName(new PolyStringType("Test041"));
+        String oid = repositoryService.addObject(sequence, null, result);
+
+        assertEquals(0L, repositoryService.advanceSequence(oid, result));
+        assertEquals(1L, repositoryService.advanceSequence(oid, result));
+        assertEquals(2L, repositoryService.advanceSequence(oid, result));
+
+        SequenceType sequenceAfter = repositoryService.getObject(SequenceType.class, oid, null, result).asObjectable();
+        assertEquals("Wrong counter after the first block", 50L, (long) sequenceAfter.getCounter());
+        assertEquals("Unexpected unused values", 0, sequenceAfter.getUnusedValues().size());
+
+        // this is what happens on shutdown
+        sequenceHelper.returnReservedValues();
+
+        sequenceAfter = repositoryService.getObject(SequenceType.class, oid, null, result).asObjectable();
+        assertEquals("Wrong unused values", Arrays.asList(3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L, 11L, 12L), sequenceAfter.getUnusedValues());
+
+        // returned values go first, then the counter
+        for (long expected = 3L; expected <= 12L; expected++) {
+            assertEquals(expected, repositoryService.advanceSequence(oid, result));
+        }
+        assertEquals(50L, repositoryService.advanceSequence(oid, result));
+    }
+
+    @Test
+    public void test042_RewindWithLargeBlock() throws Exception {
+
+        OperationResult result = new OperationResult("test042_RewindWithLargeBlock");
+        final File file = new File(TEST_DIR + "sequence-bound-returned-wrapped.xml");
+        PrismObject<SequenceType> sequence = prismContext.parseObject(file);
+        sequence.asObjectable().setName(new PolyStringType("Test042"));
+        sequence.asObjectable().setAllocationBlockSize(25);         // more than one cycle (0-9)
+        String oid = repositoryService.addObject(sequence, null, result);
+
+        assertEquals(0L, repositoryService.advanceSequence(oid, result));
+
+        SequenceType sequenceAfter = repositoryService.getObject(SequenceType.class, oid, null, result).asObjectable();
+        assertEquals("Wrong counter after the first block", 0L, (long) sequenceAfter.getCounter());
+
+        // the first block ends at the rewind, the second one starts after it
+        for (long expected = 1L; expected <= 9L; expected++) {
+            assertEquals(expected, repositoryService.advanceSequence(oid, result));
+        }
+        for (long expected = 0L; expected <= 9L; expected++) {
+            assertEquals(expected, repositoryService.advanceSequence(oid, result));
+        }
+        assertEquals(0L, repositoryService.advanceSequence(oid, result));
+    }
+
+    @Test
+    public void test043_ModifyAfterReserve() throws Exception {
+
+        OperationResult result = new OperationResult("test043_ModifyAfterReserve");
+        final File file = new File(TEST_DIR + "sequence-unbound-blocks.xml");
+        PrismObject<SequenceType> sequence = prismContext.parseObject(file);
+        sequence.asObjectable().setName(new PolyStringType("Test043"));
+        String oid = repositoryService.addObject(sequence, null, result);
+
+        assertEquals(0L, repositoryService.advanceSequence(oid, result));
+        assertEquals(1L, repositoryService.advanceSequence(oid, result));
+
+        List<ItemDelta<?, ?>> modifications = DeltaBuilder.deltaFor(SequenceType.class, prismContext)
+                .item(SequenceType.F_COUNTER).replace(1000L)
+                .asItemDeltas();
+        repositoryService.modifyObject(SequenceType.class, oid, modifications, result);
+
+        // values reserved before the modification are not used any more
+        assertEquals(1000L, repositoryService.advanceSequence(oid, result));
+        assertEquals(1001L, repositoryService.advanceSequence(oid, result));
+
+        // nothing is returned on shutdown, except for the block taken after the modification
+        sequenceHelper.returnReservedValues();
+        SequenceType sequenceAfter = repositoryService.getObject(SequenceType.class, oid, null, result).asObjectable();
+        assertEquals("Wrong unused values", Arrays.asList(1002L, 1003L, 1004L, 1005L, 1006L, 1007L, 1008L, 1009L, 1010L, 1011L),
+                sequenceAfter.getUnusedValues());
+
+        assertEquals(1002L, repositoryService.advanceSequence(oid, result));      // reserves another block
+        repositoryService.deleteObject(SequenceType.class, oid, result);
+        // values reserved from a deleted sequence are not used either
+        try {
+            long value = repositoryService.advanceSequence(oid, result);
+            fail("Expected an exception, got value of " + value);
+        } catch (ObjectNotFoundException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void test044_RemoteChangeAfterReserve() throws Exception {
+
+        OperationResult result = new OperationResult("test044_RemoteChangeAfterReserve");
+        final File file = new File(TEST_DIR + "sequence-unbound-blocks.xml");
+        PrismObject<SequenceType> sequence = prismContext.parseObject(file);
+        sequence.asObjectable().setName(new PolyStringType("Test044"));
+        String oid = repositoryService.addObject(sequence, null, result);
+
+        assertEquals(0L, repositoryService.advanceSequence(oid, result));
+        assertEquals(1L, repositoryService.advanceSequence(oid, result));
+
+        // another node changed the sequence (e.g. reset its counter); we only get the notification
+        cacheDispatcher.dispatchRemote(SequenceType.class, oid);
+
+        // values reserved before the change are not used any more, a new block is taken from the repository
+        assertEquals(50L, repositoryService.advanceSequence(oid, result));
+        assertEquals(51L, repositoryService.advanceSequence(oid, result));
+
+        // the same for a generic notification (e.g. delete of ObjectType)
+        cacheDispatcher.dispatchRemote(ObjectType.class, oid);
+        assertEquals(100L, repositoryService.advanceSequence(oid, result));
+
+        // notifications about other objects are ignored
+        cacheDispatcher.dispatchRemote(UserType.class, oid);
+        assertEquals(101L, repositoryService.advanceSequence(oid, result));
+    }
 
     private void concurrencyUniversal(String name, String sequenceFileName, long duration, WorkerThread[] workerThreads, boolean alwaysOrder) throws Exception {
 
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.closure;
+
+import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
+import com.evolveum.midpoint.repo.sql.SqlRepositoryServiceImpl;
+import com.evolveum.midpoint.repo.sql.helpers.OrgClosureManager;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+
+/**
+ * The same as {@link OrgClosureCorrectnessTest}, but the closure is maintained in "row" locking mode.
+ *
+ * @author agent
+ */
+@ContextConfiguration(locations = {"../../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class OrgClosureRowLockingCorrectnessTest extends OrgClosureCorrectnessTest {
+
+    private OrgClosureManager.LockingMode originalLockingMode;
+
+    @BeforeClass
+    @Override
+    public void beforeClass() throws Exception {
+        super.beforeClass();
+
+        SqlRepositoryConfiguration config = ((SqlRepositoryServiceImpl) repositoryService).getConfiguration();
+        originalLockingMode = config.getOrgClosureLockingMode();
+        config.setOrgClosureLockingMode(OrgClosureManager.LockingMode.ROW.toString());
+    }
+
+    @AfterClass
+    @Override
+    public void afterClass() {
+        ((SqlRepositoryServiceImpl) repositoryService).getConfiguration()
+                .setOrgClosureLockingMode(originalLockingMode.toString());
+
+        super.afterClass();
+    }
+}
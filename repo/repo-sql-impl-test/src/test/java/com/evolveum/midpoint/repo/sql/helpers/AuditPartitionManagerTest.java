@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.helpers;
+
+import com.evolveum.midpoint.repo.sql.helpers.AuditPartitionManager.Flavor;
+import com.evolveum.midpoint.repo.sql.helpers.AuditPartitionManager.Partition;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Tests partition bookkeeping of {@link AuditPartitionManager} that does not need a database.
+ *
+ * @author agent
+ */
+public class AuditPartitionManagerTest {
+
+    private static final long SIZE = 1000;
+
+    @Test
+    public void test100ParsePartitions() {
+        List<Partition> partitions = AuditPartitionManager.parsePartitions(Arrays.asList(
+                "P2000_3000", "pmax", "p0_1000", "m_audit_event_p1000_2000", "m_audit_event_pmax", "other"));
+
+        assertEquals("Wrong partitions", "[p0_1000, p1000_2000, p2000_3000]", partitions.toString());
+        assertEquals("Wrong lower bound", 1000, partitions.get(1).lower);
+        assertEquals("Wrong upper bound", 2000, partitions.get(1).upper);
+    }
+
+    @Test
+    public void test110ParseLargeBounds() {
+        List<Partition> partitions = AuditPartitionManager.parsePartitions(Arrays.asList("p10000000000_10000001000"));
+
+        assertEquals("Wrong lower bound", 10000000000L, partitions.get(0).lower);
+        assertEquals("Wrong upper bound", 10000001000L, partitions.get(0).upper);
+    }
+
+    @Test
+    public void test200NewPartitionsFirstRun() {
+        // existing records are in pmax, so they are split off into partitions of their own
+        List<Partition> partitions = AuditPartitionManager.getNewPartitions(Flavor.MYSQL,
+                Collections.<Partition>emptyList(), 2500, SIZE);
+
+        assertEquals("Wrong partitions", "[p0_1000, p1000_2000, p2000_3000, p3000_4000, p4000_5000]",
+                partitions.toString());
+    }
+
+    @Test
+    public void test210NewPartitionsNothingToDo() {
+        List<Partition> existing = AuditPartitionManager.parsePartitions(Arrays.asList("p0_1000", "p1000_2000", "p2000_3000"));
+
+        assertTrue("Partitions created although there are enough",
+                AuditPartitionManager.getNewPartitions(Flavor.ORACLE, existing, 500, SIZE).isEmpty());
+        assertEquals("Wrong partitions", "[p3000_4000]",
+                AuditPartitionManager.getNewPartitions(Flavor.ORACLE, existing, 1000, SIZE).toString());
+    }
+
+    @Test
+    public void test220NewPartitionsPostgreSQL() {
+        // records up to 2500 are in the default partition; the new ones must not overlap them
+        List<Partition> partitions = AuditPartitionManager.getNewPartitions(Flavor.POSTGRESQL,
+                Collections.<Partition>emptyList(), 2500, SIZE);
+
+        assertEquals("Wrong partitions", "[p2501_3501, p3501_4501]", partitions.toString());
+    }
+
+    @Test
+    public void test300CreateStatementsMySQL() {
+        List<Partition> partitions = AuditPartitionManager.parsePartitions(Arrays.asList("p0_1000", "p1000_2000"));
+
+        List<String> statements = AuditPartitionManager.getCreateStatements(Flavor.MYSQL, "m_audit_event", partitions);
+
+        assertEquals("Wrong statements", Arrays.asList("alter table m_audit_event reorganize partition pmax into ("
+                + "partition p0_1000 values less than (1000), partition p1000_2000 values less than (2000), "
+                + "partition pmax values less than maxvalue)"), statements);
+    }
+
+    @Test
+    public void test310CreateStatementsOthers() {
+        List<Partition> partitions = AuditPartitionManager.parsePartitions(Arrays.asList("p0_1000", "p1000_2000"));
+
+        assertEquals("Wrong # of PostgreSQL statements", 2,
+                AuditPartitionManager.getCreateStatements(Flavor.POSTGRESQL, "m_audit_delta", partitions).size());
+        assertEquals("Wrong PostgreSQL statement",
+                "create table m_audit_delta_p0_1000 partition of m_audit_delta for values from (0) to (1000)",
+                AuditPartitionManager.getCreateStatements(Flavor.POSTGRESQL, "m_audit_delta", partitions).get(0));
+        assertEquals("Wrong # of Oracle statements", 2,
+                AuditPartitionManager.getCreateStatements(Flavor.ORACLE, "m_audit_event", partitions).size());
+    }
+
+    @Test
+    public void test400ExpiredPartitions() {
+        List<Partition> partitions = AuditPartitionManager.parsePartitions(
+                Arrays.asList("p0_1000", "p1000_2000", "p2000_3000", "p3000_4000", "p4000_5000"));
+        final Map<String, Date> newest = new HashMap<>();
+        newest.put("p0_1000", new Date(100));
+        newest.put("p1000_2000", null);                         // empty
+        newest.put("p2000_3000", new Date(500));                // not expired
+        newest.put("p3000_4000", new Date(100));                // expired, but behind a non-expired one
+        final List<String> checked = new ArrayList<>();
+
+        List<Partition> expired = AuditPartitionManager.getExpiredPartitions(partitions, 4500, new Date(300),
+                partition -> {
+                    checked.add(partition.getName());
+                    return newest.get(partition.getName());
+                });
+
+        assertEquals("Wrong expired partitions", "[p0_1000, p1000_2000]", expired.toString());
+        assertEquals("Wrong partitions checked", Arrays.asList("p0_1000", "p1000_2000", "p2000_3000"), checked);
+    }
+
+    @Test
+    public void test410CurrentPartitionIsNotDropped() {
+        List<Partition> partitions = AuditPartitionManager.parsePartitions(Arrays.asList("p0_1000", "p1000_2000"));
+
+        // p1000_2000 can still receive records, even if the ones it has are old
+        List<Partition> expired = AuditPartitionManager.getExpiredPartitions(partitions, 1500, new Date(300),
+                partition -> new Date(100));
+
+        assertEquals("Wrong expired partitions", "[p0_1000]", expired.toString());
+    }
+
+    @Test
+    public void test420PartitionCheckedAgainBeforeDrop() {
+        List<Partition> expired = AuditPartitionManager.parsePartitions(
+                Arrays.asList("p0_1000", "p1000_2000", "p2000_3000"));
+        final Map<String, Date> newest = new HashMap<>();
+        newest.put("p0_1000", new Date(100));
+        newest.put("p1000_2000", new Date(500));                // got a record from a pooled ID block meanwhile
+        newest.put("p2000_3000", null);
+        final List<String> dropped = new ArrayList<>();
+
+        List<Partition> result = AuditPartitionManager.dropPartitions(expired, new Date(300),
+                partition -> newest.get(partition.getName()),
+                partition -> dropped.add(partition.getName()));
+
+        assertEquals("Wrong dropped partitions", "[p0_1000]", result.toString());
+        assertEquals("Wrong partitions dropped", Collections.singletonList("p0_1000"), dropped);
+    }
+}
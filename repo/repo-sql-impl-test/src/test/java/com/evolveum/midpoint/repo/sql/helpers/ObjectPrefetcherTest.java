@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.helpers;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.slf4j.MDC;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+/**
+ * Tests {@link ObjectPrefetcher} without a database: the producer is a plain generator of objects.
+ *
+ * @author agent
+ */
+public class ObjectPrefetcherTest {
+
+    private static final int BUFFER_SIZE = 5;
+
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void createExecutor() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterMethod
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void test100AllObjects() throws Exception {
+        OperationResult result = new OperationResult("test100AllObjects");
+        final Thread caller = Thread.currentThread();
+        final AtomicReference<Thread> producerThread = new AtomicReference<>();
+        final List<String> oids = new ArrayList<>();
+
+        new ObjectPrefetcher<UserType>(BUFFER_SIZE).execute(executor,
+                (sink, producerResult) -> {
+                    producerThread.set(Thread.currentThread());
+                    produce(sink, producerResult, 100, null);
+                },
+                (object, parentResult) -> {
+                    assertSame("Handler does not run in the calling thread", caller, Thread.currentThread());
+                    oids.add(object.getOid());
+                    return true;
+                }, result);
+
+        assertEquals("Wrong # of objects", 100, oids.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("Wrong object at position " + i, "oid-" + i, oids.get(i));
+        }
+        assertNotNull("Producer did not run", producerThread.get());
+        assertFalse("Producer runs in the calling thread", producerThread.get() == caller);
+        assertNotNull("No producer result", findSubresult(result, ObjectPrefetcher.OPERATION_PREFETCH));
+    }
+
+    @Test
+    public void test110HandlerStops() throws Exception {
+        OperationResult result = new OperationResult("test110HandlerStops");
+        final AtomicInteger produced = new AtomicInteger();
+        final AtomicInteger refused = new AtomicInteger();
+        final AtomicInteger handled = new AtomicInteger();
+
+        new ObjectPrefetcher<UserType>(BUFFER_SIZE).execute(executor,
+                (sink, producerResult) -> {
+                    for (int i = 0; i < 10000; i++) {
+                        produced.incrementAndGet();
+                        if (!sink.handle(createObject(i), producerResult)) {
+                            refused.incrementAndGet();
+                            return;
+                        }
+                    }
+                },
+                (object, parentResult) -> handled.incrementAndGet() < 10, result);
+
+        // execute() returns only after the producer has finished
+        assertEquals("Wrong # of handled objects", 10, handled.get());
+        assertEquals("Producer was not stopped", 1, refused.get());
+        assertTrue("Producer went on after the handler stopped: " + produced.get(),
+                produced.get() <= 10 + BUFFER_SIZE + 2);
+    }
+
+    @Test
+    public void test120ProducerSchemaException() throws Exception {
+        OperationResult result = new OperationResult("test120ProducerSchemaException");
+        final List<String> oids = new ArrayList<>();
+
+        try {
+            new ObjectPrefetcher<UserType>(BUFFER_SIZE).execute(executor,
+                    (sink, producerResult) -> produce(sink, producerResult, 3, new SchemaException("Bad object")),
+                    (object, parentResult) -> oids.add(object.getOid()), result);
+            fail("Unexpected success");
+        } catch (SchemaException e) {
+            assertEquals("Wrong exception", "Bad object", e.getMessage());
+        }
+        assertEquals("Objects produced before the failure were not handled", 3, oids.size());
+    }
+
+    @Test
+    public void test130ProducerRuntimeException() throws Exception {
+        OperationResult result = new OperationResult("test130ProducerRuntimeException");
+
+        try {
+            new ObjectPrefetcher<UserType>(BUFFER_SIZE).execute(executor,
+                    (sink, producerResult) -> {
+                        throw new IllegalStateException("Database is gone");
+                    },
+                    (object, parentResult) -> true, result);
+            fail("Unexpected success");
+        } catch (IllegalStateException e) {
+            assertEquals("Wrong exception", "Database is gone", e.getMessage());
+        }
+    }
+
+    /**
+     * Thread-bound context (like RepositoryCache or security context) is available to the handler, as it runs
+     * in the calling thread; the producer gets only a copy of the logging MDC, and it is not left in the pooled thread.
+     */
+    @Test
+    public void test200ThreadContext() throws Exception {
+        OperationResult result = new OperationResult("test200ThreadContext");
+        final ThreadLocal<String> callerContext = new ThreadLocal<>();
+        final AtomicReference<String> producerMdc = new AtomicReference<>();
+        final AtomicReference<String> producerContext = new AtomicReference<>();
+        final List<String> handlerContexts = Collections.synchronizedList(new ArrayList<>());
+
+        callerContext.set("caller");
+        MDC.put("subsystem", "REPOSITORY");
+        try {
+            new ObjectPrefetcher<UserType>(BUFFER_SIZE).execute(executor,
+                    (sink, producerResult) -> {
+                        producerMdc.set(MDC.get("subsystem"));
+                        producerContext.set(callerContext.get());
+                        produce(sink, producerResult, 20, null);
+                    },
+                    (object, parentResult) -> handlerContexts.add(callerContext.get()), result);
+        } finally {
+            MDC.remove("subsystem");
+            callerContext.remove();
+        }
+
+        assertEquals("MDC was not copied to the producer", "REPOSITORY", producerMdc.get());
+        assertNull("Producer sees caller's thread-local", producerContext.get());
+        assertEquals("Wrong # of objects", 20, handlerContexts.size());
+        for (String handlerContext : handlerContexts) {
+            assertEquals("Handler does not see caller's thread-local", "caller", handlerContext);
+        }
+        assertNull("MDC was left in the pooled thread", executor.submit(() -> MDC.get("subsystem")).get());
+    }
+
+    private void produce(ResultHandler<UserType> sink, OperationResult result, int count, SchemaException failure)
+            throws SchemaException {
+        for (int i = 0; i < count; i++) {
+            if (!sink.handle(createObject(i), result)) {
+                return;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private PrismObject<UserType> createObject(int i) {
+        PrismObject<UserType> object = new PrismObject<>(UserType.COMPLEX_TYPE, UserType.class);
+        object.setOid("oid-" + i);
+        return object;
+    }
+
+    private OperationResult findSubresult(OperationResult result, String operation) {
+        for (OperationResult subresult : result.getSubresults()) {
+            if (operation.equals(subresult.getOperation())) {
+                return subresult;
+            }
+        }
+        return null;
+    }
+}
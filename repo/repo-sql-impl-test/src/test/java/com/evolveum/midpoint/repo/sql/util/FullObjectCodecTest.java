@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.util;
+
+import com.evolveum.midpoint.repo.sql.util.FullObjectCodec.Compression;
+import com.evolveum.midpoint.repo.sql.util.FullObjectCodec.Format;
+import com.evolveum.midpoint.util.exception.SystemException;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+/**
+ * Tests {@link FullObjectCodec}: round trips in all formats and compressions, and decoding of the layouts
+ * written by older versions (see {@link RUtil#getByteArrayFromXml(String, boolean)}).
+ *
+ * @author agent
+ */
+public class FullObjectCodecTest {
+
+    private static final File USER_BIG_FILE = new File("./src/test/resources/basic/user-big.xml");
+
+    private static final String JSON = "{\"user\":{\"name\":\"jack\",\"fullName\":\"Jack Sparrow žluťoučký kůň\"}}";
+
+    private String readXml() throws Exception {
+        return FileUtils.readFileToString(USER_BIG_FILE, "utf-8");
+    }
+
+    @Test
+    public void test100RoundTrip() throws Exception {
+        String xml = readXml();
+        for (Format format : Format.values()) {
+            String data = format == Format.XML ? xml : JSON;
+            for (Compression compression : Compression.values()) {
+                FullObjectCodec codec = new FullObjectCodec(format, compression);
+                byte[] encoded = codec.encode(data);
+                assertEquals("Wrong decoded data for " + codec, data, FullObjectCodec.decode(encoded));
+            }
+        }
+    }
+
+    @Test
+    public void test110Layouts() throws Exception {
+        String xml = readXml();
+        byte[] plain = xml.getBytes(StandardCharsets.UTF_8);
+
+        byte[] xmlNone = new FullObjectCodec(Format.XML, Compression.NONE).encode(xml);
+        assertTrue("XML without compression is not plain text", Arrays.equals(plain, xmlNone));
+
+        byte[] xmlGzip = new FullObjectCodec(Format.XML, Compression.GZIP).encode(xml);
+        assertEquals("XML with gzip is not a gzip stream", 0x1f, xmlGzip[0] & 0xff);
+        assertEquals("XML with gzip is not a gzip stream", 0x8b, xmlGzip[1] & 0xff);
+
+        byte[] xmlDeflate = new FullObjectCodec(Format.XML, Compression.DEFLATE).encode(xml);
+        assertHeader(xmlDeflate, 'X', 'D');
+        assertTrue("Data were not compressed", xmlDeflate.length < plain.length / 2);
+
+        assertHeader(new FullObjectCodec(Format.JSON, Compression.NONE).encode(JSON), 'J', 'N');
+        assertHeader(new FullObjectCodec(Format.JSON, Compression.GZIP).encode(JSON), 'J', 'G');
+        assertHeader(new FullObjectCodec(Format.JSON, Compression.DEFLATE).encode(JSON), 'J', 'D');
+    }
+
+    private void assertHeader(byte[] encoded, char format, char compression) {
+        assertEquals("Wrong header", "MP", new String(encoded, 0, 2, StandardCharsets.US_ASCII));
+        assertEquals("Wrong header version", 1, encoded[2]);
+        assertEquals("Wrong format in header", format, (char) encoded[3]);
+        assertEquals("Wrong compression in header", compression, (char) encoded[4]);
+    }
+
+    @Test
+    public void test200DecodeLegacyGzip() throws Exception {
+        String xml = readXml();
+
+        byte[] legacy = RUtil.getByteArrayFromXml(xml, true);
+
+        assertEquals("Wrong decoded data", xml, FullObjectCodec.decode(legacy));
+    }
+
+    @Test
+    public void test210DecodeLegacyPlain() throws Exception {
+        String xml = readXml();
+
+        byte[] legacy = RUtil.getByteArrayFromXml(xml, false);
+
+        assertEquals("Wrong decoded data", xml, FullObjectCodec.decode(legacy));
+    }
+
+    /**
+     * XML without compression or with gzip is written in the legacy layouts, so older versions can read it.
+     */
+    @Test
+    public void test220LegacyReadersCanDecode() throws Exception {
+        String xml = readXml();
+
+        assertEquals("Wrong data read as gzip", xml,
+                RUtil.getXmlFromByteArray(new FullObjectCodec(Format.XML, Compression.GZIP).encode(xml), true));
+        assertEquals("Wrong data read as plain text", xml,
+                RUtil.getXmlFromByteArray(new FullObjectCodec(Format.XML, Compression.NONE).encode(xml), false));
+    }
+
+    @Test
+    public void test300Create() {
+        assertCodec(FullObjectCodec.create(null, null, true), Format.XML, Compression.GZIP);
+        assertCodec(FullObjectCodec.create("", "", false), Format.XML, Compression.NONE);
+        assertCodec(FullObjectCodec.create("json", null, true), Format.JSON, Compression.GZIP);
+        assertCodec(FullObjectCodec.create("XML", "deflate", true), Format.XML, Compression.DEFLATE);
+    }
+
+    private void assertCodec(FullObjectCodec codec, Format format, Compression compression) {
+        assertEquals("Wrong format", format, codec.getFormat());
+        assertEquals("Wrong compression", compression, codec.getCompression());
+    }
+
+    @Test
+    public void test310UnsupportedHeader() {
+        assertNotDecodable(new byte[] { 'M', 'P', 2, 'X', 'N', '<' });
+        assertNotDecodable(new byte[] { 'M', 'P', 1, 'Y', 'N', '<' });
+        assertNotDecodable(new byte[] { 'M', 'P', 1, 'X', 'Z', '<' });
+    }
+
+    private void assertNotDecodable(byte[] array) {
+        try {
+            FullObjectCodec.decode(array);
+            fail("Unexpected success for " + Arrays.toString(array));
+        } catch (SystemException e) {
+            // This is expected
+        }
+    }
+}
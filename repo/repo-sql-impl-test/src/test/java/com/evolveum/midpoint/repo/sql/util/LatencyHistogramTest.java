@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.util;
+
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Tests bucket boundaries and percentiles of {@link LatencyHistogram}.
+ *
+ * @author agent
+ */
+public class LatencyHistogramTest {
+
+    private static final double MAX_RELATIVE_ERROR = 0.125;
+
+    @Test
+    public void test100LinearBuckets() {
+        for (long value = 0; value < 16; value++) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertEquals("Wrong bucket for " + value, value, index);
+            assertEquals("Wrong upper bound for " + value, value, LatencyHistogram.bucketUpperBound(index));
+        }
+        assertEquals("Wrong bucket for negative value", 0, LatencyHistogram.bucketIndex(-5));
+    }
+
+    @Test
+    public void test110LogarithmicBucketBoundaries() {
+        // 16..31 is divided into 8 buckets of 2, 32..63 into 8 buckets of 4
+        assertBucket(16, 16, 17);
+        assertBucket(17, 16, 17);
+        assertBucket(18, 17, 19);
+        assertBucket(30, 23, 31);
+        assertBucket(31, 23, 31);
+        assertBucket(32, 24, 35);
+        assertBucket(35, 24, 35);
+        assertBucket(36, 25, 39);
+        assertBucket(63, 31, 63);
+        assertBucket(64, 32, 71);
+    }
+
+    private void assertBucket(long value, int expectedIndex, long expectedUpperBound) {
+        int index = LatencyHistogram.bucketIndex(value);
+        assertEquals("Wrong bucket for " + value, expectedIndex, index);
+        assertEquals("Wrong upper bound for " + value, expectedUpperBound, LatencyHistogram.bucketUpperBound(index));
+    }
+
+    /**
+     * Each value lies in its bucket (above the upper bound of the previous one) and the bucket's upper bound
+     * is within the declared relative error.
+     */
+    @Test
+    public void test120BucketsCoverValues() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long value = i < 10000 ? i : (long) Math.pow(2, random.nextDouble() * 45);
+            int index = LatencyHistogram.bucketIndex(value);
+            long upperBound = LatencyHistogram.bucketUpperBound(index);
+            assertTrue("Upper bound " + upperBound + " is below " + value, upperBound >= value);
+            if (index > 0) {
+                assertTrue("Value " + value + " belongs to the previous bucket",
+                        LatencyHistogram.bucketUpperBound(index - 1) < value);
+            }
+            if (value > 0) {
+                assertTrue("Relative error for " + value + " is too big: upper bound " + upperBound,
+                        (upperBound - value) <= value * MAX_RELATIVE_ERROR);
+            }
+        }
+    }
+
+    @Test
+    public void test130Overflow() {
+        int last = LatencyHistogram.bucketIndex(Long.MAX_VALUE);
+        assertEquals("Wrong bucket for 2^46", last, LatencyHistogram.bucketIndex(1L << 46));
+        assertTrue("2^45 is in the overflow bucket", LatencyHistogram.bucketIndex(1L << 45) < last);
+        assertTrue("Wrong upper bound of the overflow bucket", LatencyHistogram.bucketUpperBound(last) >= (1L << 45));
+    }
+
+    @Test
+    public void test200EmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals("Wrong median", 0, histogram.getPercentile(0.5));
+        assertEquals("Wrong maximum", 0, histogram.getPercentile(1.0));
+    }
+
+    @Test
+    public void test210Percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals("Wrong minimum", 1, histogram.getPercentile(0.0));
+        assertPercentile(histogram, 0.5, 500);
+        assertPercentile(histogram, 0.9, 900);
+        assertPercentile(histogram, 0.99, 990);
+        assertPercentile(histogram, 1.0, 1000);
+    }
+
+    @Test
+    public void test220SkewedDistribution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 990; i++) {
+            histogram.record(5);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(2000000);
+        }
+
+        assertEquals("Wrong median", 5, histogram.getPercentile(0.5));
+        assertEquals("Wrong 99th percentile", 5, histogram.getPercentile(0.99));
+        assertPercentile(histogram, 0.991, 2000000);
+        assertPercentile(histogram, 1.0, 2000000);
+    }
+
+    private void assertPercentile(LatencyHistogram histogram, double fraction, long exactValue) {
+        long percentile = histogram.getPercentile(fraction);
+        assertEquals("Wrong percentile " + fraction, LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(exactValue)),
+                percentile);
+        assertTrue("Percentile " + fraction + " (" + percentile + ") is out of bounds",
+                percentile >= exactValue && percentile - exactValue <= exactValue * MAX_RELATIVE_ERROR);
+    }
+}
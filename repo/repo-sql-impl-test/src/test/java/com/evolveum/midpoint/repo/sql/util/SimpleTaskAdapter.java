@@ -699,6 +699,10 @@ public class SimpleTaskAdapter implements Task {
     public void recordProvisioningOperation(String resourceOid, String resourceName, QName objectClassName, ProvisioningOperation operation, boolean success, int count, long duration) {
     }
 
+    @Override
+    public void recordProvisioningThrottling(String resourceOid, String resourceName, QName objectClassName, ProvisioningOperation operation, long waitTime) {
+    }
+
     @Override
     public void recordNotificationOperation(String transportName, boolean success, long duration) {
     }
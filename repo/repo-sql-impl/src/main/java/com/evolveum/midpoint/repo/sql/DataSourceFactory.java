@@ -17,11 +17,11 @@
 package com.evolveum.midpoint.repo.sql;
 
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactoryException;
-import com.evolveum.midpoint.repo.sql.util.MidPointConnectionCustomizer;
-import com.evolveum.midpoint.repo.sql.util.MidPointConnectionTester;
+import com.evolveum.midpoint.repo.sql.pool.C3P0ConnectionPool;
+import com.evolveum.midpoint.repo.sql.pool.ConnectionPool;
+import com.evolveum.midpoint.repo.sql.pool.HikariConnectionPool;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
-import com.mchange.v2.c3p0.ComboPooledDataSource;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.jndi.JndiObjectFactoryBean;
 
@@ -37,13 +37,25 @@ public class DataSourceFactory {
     private static final Trace LOGGER = TraceManager.getTrace(DataSourceFactory.class);
 
     private SqlRepositoryConfiguration configuration;
+    private SqlPerformanceMonitor performanceMonitor;
 
-    private DataSource dataSource;
+    private ConnectionPool connectionPool;
 
     public void setConfiguration(SqlRepositoryConfiguration configuration) {
         this.configuration = configuration;
     }
 
+    public void setPerformanceMonitor(SqlPerformanceMonitor performanceMonitor) {
+        this.performanceMonitor = performanceMonitor;
+    }
+
+    /**
+     * Returns the connection pool, or null if JNDI data source is used.
+     */
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
     public DataSource createDataSource() throws RepositoryServiceFactoryException {
         LOGGER.info("Loading datasource.");
         if (configuration == null) {
@@ -57,9 +69,8 @@ public class DataSourceFactory {
                 return createJNDIDataSource();
             }
 
-            LOGGER.info("Constructing default C3P0 datasource with connection pooling.");
-            dataSource = createC3P0DataSource();
-            return dataSource;
+            connectionPool = createConnectionPool();
+            return connectionPool.getDataSource();
         } catch (Exception ex) {
             throw new RepositoryServiceFactoryException("Couldn't initialize datasource, reason: " + ex.getMessage(), ex);
         }
@@ -73,27 +84,19 @@ public class DataSourceFactory {
         return (DataSource) factory.getObject();
     }
 
-    private DataSource createC3P0DataSource() throws PropertyVetoException {
-        ComboPooledDataSource ds = new ComboPooledDataSource();
-        ds.setDriverClass(configuration.getDriverClassName());
-        ds.setJdbcUrl(configuration.getJdbcUrl());
-        ds.setUser(configuration.getJdbcUsername());
-        ds.setPassword(configuration.getJdbcPassword());
-
-        ds.setAcquireIncrement(3);
-        ds.setMinPoolSize(configuration.getMinPoolSize());
-        ds.setMaxPoolSize(configuration.getMaxPoolSize());
-        ds.setIdleConnectionTestPeriod(1800);
-        ds.setConnectionTesterClassName(MidPointConnectionTester.class.getName());
-        ds.setConnectionCustomizerClassName(MidPointConnectionCustomizer.class.getName());
-
-        return ds;
+    private ConnectionPool createConnectionPool() throws PropertyVetoException {
+        if (SqlRepositoryConfiguration.CONNECTION_POOL_C3P0.equals(configuration.getConnectionPool())) {
+            LOGGER.info("Constructing C3P0 datasource with connection pooling.");
+            return new C3P0ConnectionPool(configuration);
+        } else {
+            LOGGER.info("Constructing default HikariCP datasource with connection pooling.");
+            return new HikariConnectionPool(configuration, performanceMonitor);
+        }
     }
 
     public void destroy() {
-        if (dataSource instanceof ComboPooledDataSource) {
-            ComboPooledDataSource ds = (ComboPooledDataSource) dataSource;
-            ds.close();
+        if (connectionPool != null) {
+            connectionPool.close();
         }
     }
 }
@@ -18,15 +18,23 @@ package com.evolveum.midpoint.repo.sql;
 
 import com.evolveum.midpoint.prism.query.ObjectPaging;
 
+import java.util.Objects;
+
 /**
  * @author Pavol
  */ // Temporary hack. Represents special paging object that means
 // "give me objects with OID greater than specified one, sorted by OID ascending".
 //
+// If a single ordering is present, it means "give me objects that follow the (orderingValue, oidGreaterThan) key,
+// sorted by the ordering item and then by OID ascending" (keyset paging). Objects with no value of the ordering item
+// are never returned in this mode; they are walked separately (sorted by OID) when nullOrderingValues is set.
+//
 // TODO: replace by using cookie that is part of the standard ObjectPaging
 // (but think out all consequences, e.g. conflicts with the other use of the cookie)
 public class ObjectPagingAfterOid extends ObjectPaging {
     private String oidGreaterThan;
+    private Object orderingValue;               // real value of the ordering item of the last object returned
+    private boolean nullOrderingValues;
 
     public String getOidGreaterThan() {
         return oidGreaterThan;
@@ -36,9 +44,26 @@ public class ObjectPagingAfterOid extends ObjectPaging {
         this.oidGreaterThan = oidGreaterThan;
     }
 
+    public Object getOrderingValue() {
+        return orderingValue;
+    }
+
+    public void setOrderingValue(Object orderingValue) {
+        this.orderingValue = orderingValue;
+    }
+
+    public boolean isNullOrderingValues() {
+        return nullOrderingValues;
+    }
+
+    public void setNullOrderingValues(boolean nullOrderingValues) {
+        this.nullOrderingValues = nullOrderingValues;
+    }
+
     @Override
     public String toString() {
-        return super.toString() + ", after OID: " + oidGreaterThan;
+        return super.toString() + ", after OID: " + oidGreaterThan
+                + (hasOrdering() ? ", after value: " + orderingValue + (nullOrderingValues ? " (null values)" : "") : "");
     }
 
     @Override
@@ -51,6 +76,8 @@ public class ObjectPagingAfterOid extends ObjectPaging {
     protected void copyTo(ObjectPagingAfterOid clone) {
         super.copyTo(clone);
         clone.oidGreaterThan = this.oidGreaterThan;
+        clone.orderingValue = this.orderingValue;
+        clone.nullOrderingValues = this.nullOrderingValues;
     }
 
 	public boolean equals(Object o, boolean exact) {
@@ -63,7 +90,9 @@ public class ObjectPagingAfterOid extends ObjectPaging {
 
 		ObjectPagingAfterOid that = (ObjectPagingAfterOid) o;
 
-		return oidGreaterThan != null ? oidGreaterThan.equals(that.oidGreaterThan) : that.oidGreaterThan == null;
+		return Objects.equals(oidGreaterThan, that.oidGreaterThan)
+				&& Objects.equals(orderingValue, that.orderingValue)
+				&& nullOrderingValues == that.nullOrderingValues;
 
 	}
 
@@ -71,6 +100,8 @@ public class ObjectPagingAfterOid extends ObjectPaging {
 	public int hashCode() {
 		int result = super.hashCode();
 		result = 31 * result + (oidGreaterThan != null ? oidGreaterThan.hashCode() : 0);
+		result = 31 * result + (orderingValue != null ? orderingValue.hashCode() : 0);
+		result = 31 * result + (nullOrderingValues ? 1 : 0);
 		return result;
 	}
 }
@@ -18,6 +18,7 @@ package com.evolveum.midpoint.repo.sql;
 import com.evolveum.midpoint.audit.api.AuditEventRecord;
 import com.evolveum.midpoint.audit.api.AuditEventStage;
 import com.evolveum.midpoint.audit.api.AuditEventType;
+import com.evolveum.midpoint.audit.api.AuditResultHandler;
 import com.evolveum.midpoint.audit.api.AuditService;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.marshaller.XNodeProcessorEvaluationMode;
@@ -28,10 +29,15 @@ import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
 import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventStage;
 import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventType;
 import com.evolveum.midpoint.repo.sql.data.audit.RObjectDeltaOperation;
+import com.evolveum.midpoint.repo.sql.data.common.other.RObjectType;
+import com.evolveum.midpoint.repo.sql.helpers.AuditPartitionManager;
+import com.evolveum.midpoint.repo.sql.helpers.AuditWriter;
 import com.evolveum.midpoint.repo.sql.helpers.BaseHelper;
+import com.evolveum.midpoint.repo.sql.util.ClassMapper;
 import com.evolveum.midpoint.repo.sql.util.DtoTranslationException;
-import com.evolveum.midpoint.repo.sql.util.GetObjectResult;
-import com.evolveum.midpoint.repo.sql.util.RUtil;
+import com.evolveum.midpoint.repo.sql.util.FullObjectCodec;
+import com.evolveum.midpoint.repo.sql.util.ScrollableResultsIterator;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.DebugUtil;
@@ -43,10 +49,14 @@ import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.CleanupPolicyType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
 
 import org.apache.commons.lang.Validate;
 import org.hibernate.Query;
 import org.hibernate.SQLQuery;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.dialect.Dialect;
 import org.hibernate.dialect.pagination.LimitHandler;
@@ -59,6 +69,10 @@ import javax.xml.datatype.XMLGregorianCalendar;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -74,8 +88,22 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 	@Autowired
 	private BaseHelper baseHelper;
 
+	@Autowired
+	private AuditWriter auditWriter;
+
+	@Autowired
+	private AuditPartitionManager auditPartitionManager;
+
     private static final Trace LOGGER = TraceManager.getTrace(SqlAuditServiceImpl.class);
     private static final Integer CLEANUP_AUDIT_BATCH_SIZE = 500;
+    // how long do we wait for asynchronously written records before reading audit log
+    private static final long ASYNC_AUDIT_FLUSH_TIMEOUT = 10000L;
+    // number of records fetched and converted at once by listRecordsIterative
+    private static final int ITERATIVE_CHUNK_SIZE = 500;
+    // must be greater than 3 * ITERATIVE_CHUNK_SIZE (initiator, target and owner for each record)
+    private static final int RESOLVED_OBJECTS_CACHE_SIZE = 2000;
+    // to stay within database limits on IN clause size
+    private static final int MAX_OIDS_IN_QUERY = 1000;
 
     public SqlAuditServiceImpl(SqlRepositoryFactory repositoryFactory) {
         super(repositoryFactory);
@@ -86,6 +114,11 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
         Validate.notNull(record, "Audit event record must not be null.");
         Validate.notNull(task, "Task must not be null.");
 
+        if (getConfiguration().isAsyncAudit()) {
+            auditAsync(record);
+            return;
+        }
+
         final String operation = "audit";
         int attempt = 1;
 
@@ -99,11 +132,32 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
         }
     }
 
+    private void auditAsync(AuditEventRecord record) {
+        RAuditEventRecord newRecord;
+        try {
+            // converted in the caller's thread, as the record can be changed after this method returns
+            newRecord = RAuditEventRecord.toRepo(record, getPrismContext());
+        } catch (DtoTranslationException ex) {
+            LOGGER.error("Couldn't convert audit record.", ex);
+            throw new SystemException(ex.getMessage(), ex);
+        }
+        auditWriter.write(newRecord);
+    }
+
+    private void flushAsyncAudit() {
+        if (getConfiguration().isAsyncAudit() && !auditWriter.flush(ASYNC_AUDIT_FLUSH_TIMEOUT)) {
+            LOGGER.warn("Not all audit records were stored in {} ms; continuing without them. {}",
+                    ASYNC_AUDIT_FLUSH_TIMEOUT, auditWriter.getStatistics());
+        }
+    }
+
     @Override
     public List<AuditEventRecord> listRecords(String query, Map<String, Object> params) {
         final String operation = "listRecords";
         int attempt = 1;
 
+        flushAsyncAudit();
+
         while (true) {
             try {
                 return listRecordsAttempt(query, params);
@@ -125,6 +179,7 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
             session = baseHelper.beginTransaction();
             session.setFlushMode(FlushMode.MANUAL);
             Query q = session.createQuery(query);
+            boolean namesOnly = isResolveNamesOnly(params);
             setParametersToQuery(q, params);
 //            q.setResultTransformer(Transformers.aliasToBean(RAuditEventRecord.class));
             
@@ -134,22 +189,11 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
             
             List resultList = q.list();
 
-            auditRecords = new ArrayList<>();
-
+            List<RAuditEventRecord> rRecords = new ArrayList<>(resultList.size());
             for (Object o : resultList) {
-                if (!(o instanceof RAuditEventRecord)) {
-                    throw new DtoTranslationException("Unexpected object in result set. Expected audit record, but got " + o.getClass().getSimpleName());
-                }
-                RAuditEventRecord raudit = (RAuditEventRecord) o;
-
-                AuditEventRecord audit = RAuditEventRecord.fromRepo(raudit, getPrismContext());
-
-                audit.setInitiator(resolve(session, (raudit.getInitiatorOid())));
-                audit.setTarget(resolve(session, (raudit.getTargetOid())));
-                audit.setTargetOwner(resolve(session, raudit.getTargetOwnerOid()));
-
-                auditRecords.add(audit);
+                rRecords.add(toRAuditEventRecord(o));
             }
+            auditRecords = fromRepo(rRecords, new HashMap<>(), namesOnly, session);
 
             session.getTransaction().commit();
 
@@ -169,17 +213,171 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 
     }
 
-    private void setParametersToQuery(Query q,  Map<String, Object> params){
-        if (params != null){
-            if (params.containsKey("setFirstResult")){
-                q.setFirstResult((int)params.get("setFirstResult"));
-                params.remove("setFirstResult");
+    @Override
+    public void listRecordsIterative(String query, Map<String, Object> params, AuditResultHandler handler) {
+        Validate.notNull(handler, "Result handler must not be null.");
+
+        flushAsyncAudit();
+
+        // no retries here, as records already passed to the handler cannot be taken back
+        Session session = null;
+        try {
+            session = baseHelper.beginTransaction();
+            session.setFlushMode(FlushMode.MANUAL);
+            Query q = session.createQuery(query);
+            boolean namesOnly = isResolveNamesOnly(params);
+            setParametersToQuery(q, params);
+            q.setFetchSize(ITERATIVE_CHUNK_SIZE);
+
+            ScrollableResults results = q.scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                Map<String, PrismObject> resolved = new LinkedHashMap<String, PrismObject>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, PrismObject> eldest) {
+                        return size() > RESOLVED_OBJECTS_CACHE_SIZE;
+                    }
+                };
+                List<RAuditEventRecord> chunk = new ArrayList<>(ITERATIVE_CHUNK_SIZE);
+                Iterator<Object> iterator = new ScrollableResultsIterator<>(results);
+                boolean proceed = true;
+                while (proceed && iterator.hasNext()) {
+                    chunk.add(toRAuditEventRecord(iterator.next()));
+                    if (chunk.size() < ITERATIVE_CHUNK_SIZE && iterator.hasNext()) {
+                        continue;
+                    }
+                    for (AuditEventRecord record : fromRepo(chunk, resolved, namesOnly, session)) {
+                        if (!handler.handle(record)) {
+                            proceed = false;
+                            break;
+                        }
+                    }
+                    chunk.clear();
+                    session.clear();            // processed records are not needed in the session any more
+                }
+            } finally {
+                results.close();
             }
-            if (params.containsKey("setMaxResults")){
-                q.setMaxResults((int)params.get("setMaxResults"));
-                params.remove("setMaxResults");
+
+            session.getTransaction().commit();
+        } catch (DtoTranslationException | SchemaException ex) {
+            baseHelper.handleGeneralCheckedException(ex, session, null);
+        } catch (RuntimeException ex) {
+            baseHelper.handleGeneralRuntimeException(ex, session, null);
+        } finally {
+            baseHelper.cleanupSessionAndResult(session, null);
+        }
+    }
+
+    private RAuditEventRecord toRAuditEventRecord(Object o) throws DtoTranslationException {
+        if (!(o instanceof RAuditEventRecord)) {
+            throw new DtoTranslationException("Unexpected object in result set. Expected audit record, but got " + o.getClass().getSimpleName());
+        }
+        return (RAuditEventRecord) o;
+    }
+
+    /**
+     * Converts a page of records. Initiators, targets and target owners are resolved using one query
+     * for the whole page; objects already present in the "resolved" map are reused.
+     */
+    private List<AuditEventRecord> fromRepo(List<RAuditEventRecord> rRecords, Map<String, PrismObject> resolved,
+                                            boolean namesOnly, Session session) throws DtoTranslationException, SchemaException {
+        if (!namesOnly) {
+            Set<String> oids = new HashSet<>();
+            for (RAuditEventRecord raudit : rRecords) {
+                addOidToResolve(oids, raudit.getInitiatorOid(), resolved);
+                addOidToResolve(oids, raudit.getTargetOid(), resolved);
+                addOidToResolve(oids, raudit.getTargetOwnerOid(), resolved);
+            }
+            resolve(session, oids, resolved);
+        }
+
+        List<AuditEventRecord> auditRecords = new ArrayList<>(rRecords.size());
+        for (RAuditEventRecord raudit : rRecords) {
+            AuditEventRecord audit = RAuditEventRecord.fromRepo(raudit, getPrismContext());
+            if (namesOnly) {
+                audit.setInitiator(createObjectStub(UserType.class, raudit.getInitiatorOid(), raudit.getInitiatorName()));
+                audit.setTarget(createObjectStub(getTargetClass(raudit.getTargetType()), raudit.getTargetOid(), raudit.getTargetName()));
+                audit.setTargetOwner(createObjectStub(UserType.class, raudit.getTargetOwnerOid(), raudit.getTargetOwnerName()));
+            } else {
+                audit.setInitiator(getResolved(resolved, raudit.getInitiatorOid()));
+                audit.setTarget(getResolved(resolved, raudit.getTargetOid()));
+                audit.setTargetOwner(getResolved(resolved, raudit.getTargetOwnerOid()));
+            }
+            auditRecords.add(audit);
+        }
+        return auditRecords;
+    }
+
+    private void addOidToResolve(Set<String> oids, String oid, Map<String, PrismObject> resolved) {
+        if (oid == null) {
+            return;
+        }
+        if (resolved.containsKey(oid)) {
+            resolved.get(oid);          // marks the entry as recently used, so it is not evicted while processing this page
+        } else {
+            oids.add(oid);
+        }
+    }
+
+    private PrismObject getResolved(Map<String, PrismObject> resolved, String oid) {
+        return oid != null ? resolved.get(oid) : null;
+    }
+
+    private void resolve(Session session, Set<String> oids, Map<String, PrismObject> resolved) throws SchemaException {
+        if (oids.isEmpty()) {
+            return;
+        }
+        List<String> oidList = new ArrayList<>(oids);
+        for (int i = 0; i < oidList.size(); i += MAX_OIDS_IN_QUERY) {
+            List<String> part = oidList.subList(i, Math.min(i + MAX_OIDS_IN_QUERY, oidList.size()));
+            Query query = session.createQuery("select o.oid, o.fullObject from RObject as o where o.oid in (:oids)");
+            query.setParameterList("oids", part);
+            for (Object[] row : (List<Object[]>) query.list()) {
+                String xml = FullObjectCodec.decode((byte[]) row[1]);
+                resolved.put((String) row[0], getPrismContext().parserFor(xml).compat().parse());
             }
         }
+        // remembering objects that do not exist (any more), in order not to look for them again
+        for (String oid : oids) {
+            if (!resolved.containsKey(oid)) {
+                resolved.put(oid, null);
+            }
+        }
+    }
+
+    private Class<? extends ObjectType> getTargetClass(RObjectType targetType) {
+        ObjectTypes objectType = ClassMapper.getObjectTypeForHQLType(targetType);
+        return objectType != null ? objectType.getClassDefinition() : ObjectType.class;
+    }
+
+    private PrismObject createObjectStub(Class<? extends ObjectType> type, String oid, String name) throws SchemaException {
+        if (oid == null) {
+            return null;
+        }
+        PrismObject object = getPrismContext().createObject(type);
+        object.setOid(oid);
+        if (name != null) {
+            ((ObjectType) object.asObjectable()).setName(new PolyStringType(name));
+        }
+        return object;
+    }
+
+    private boolean isResolveNamesOnly(Map<String, Object> params) {
+        return params != null && Boolean.TRUE.equals(params.get(PARAM_RESOLVE_NAMES_ONLY));
+    }
+
+    private void setParametersToQuery(Query q,  Map<String, Object> callerParams){
+        // the caller's map is left intact; it can be reused e.g. for the next page or for counting
+        Map<String, Object> params = callerParams != null ? new HashMap<>(callerParams) : new HashMap<String, Object>();
+        if (params.containsKey("setFirstResult")){
+            q.setFirstResult((int)params.get("setFirstResult"));
+            params.remove("setFirstResult");
+        }
+        if (params.containsKey("setMaxResults")){
+            q.setMaxResults((int)params.get("setMaxResults"));
+            params.remove("setMaxResults");
+        }
+        params.remove(PARAM_RESOLVE_NAMES_ONLY);
         Set<Entry<String, Object>> paramSet = params.entrySet();
         for (Entry<String, Object> p : paramSet) {
             if (p.getValue() == null) {
@@ -198,22 +396,6 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
         }
     }
 
-    private PrismObject resolve(Session session, String oid) throws SchemaException {
-        Query query = session.getNamedQuery("get.object");
-        query.setParameter("oid", oid);
-        query.setResultTransformer(GetObjectResult.RESULT_TRANSFORMER);
-        GetObjectResult object = null;
-        object = (GetObjectResult) query.uniqueResult();
-
-        PrismObject result = null;
-        if (object != null) {
-            String xml = RUtil.getXmlFromByteArray(object.getFullObject(), getConfiguration().isUseZip());
-            result = getPrismContext().parserFor(xml).compat().parse();
-        }
-
-        return result;
-    }
-
     private void auditAttempt(AuditEventRecord record) {
         Session session = null;
         try {
@@ -254,6 +436,13 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
         Date minValue = new Date();
         duration.addTo(minValue);
 
+        if (auditPartitionManager.isEnabled()) {
+            // whole partitions are dropped first; only the rest of the records has to be deleted one by one
+            auditPartitionManager.createPartitions();
+            int dropped = auditPartitionManager.dropExpiredPartitions(minValue);
+            LOGGER.info("Dropped {} expired audit partition(s).", dropped);
+        }
+
         // factored out because it produces INFO-level message
         Dialect dialect = Dialect.getDialect(baseHelper.getSessionFactoryBean().getHibernateProperties());
         if (!dialect.supportsTemporaryTables()) {
@@ -410,6 +599,8 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
     }
 
     public long countObjects(String query, Map<String, Object> params) {
+        flushAsyncAudit();
+
         Session session = null;
         long count = 0;
         try {
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2010-2013 Evolveum
+ * Copyright (c) 2010-2016 Evolveum
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,85 +16,169 @@
 
 package com.evolveum.midpoint.repo.sql;
 
+import com.evolveum.midpoint.repo.sql.util.LatencyHistogram;
+import com.evolveum.midpoint.schema.RepositoryOperationStatistics;
 import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Created with IntelliJ IDEA.
- * User: Pavol
- * Date: 31.1.2013
- * Time: 18:43
- * To change this template use File | Settings | File Templates.
+ * Collects statistics of repository operations: for each operation kind and object type there are
+ * counters of operations and attempts, total and wasted (i.e. spent in retried attempts) time and
+ * a latency histogram. All of these are lock-free and of fixed size, so the monitor can stay switched on
+ * in production. The statistics are available via repository diagnostics and JMX.
+ *
+ * Level {@link #LEVEL_METRICS} (default) collects the statistics. Level {@link #LEVEL_DETAILS} additionally
+ * dumps them to the log (and to the performance statistics file, if configured) on shutdown.
+ *
+ * @author Pavol
  */
-public class SqlPerformanceMonitor {
+public class SqlPerformanceMonitor implements SqlPerformanceMonitorMXBean {
 
     private static final Trace LOGGER = TraceManager.getTrace(SqlPerformanceMonitor.class);
 
     public static final int LEVEL_NONE = 0;
+    public static final int LEVEL_METRICS = 1;
     public static final int LEVEL_DETAILS = 10;
 
+    public static final String MBEAN_NAME = "com.evolveum.midpoint.repo.sql:type=SqlPerformanceMonitor";
+
+    /**
+     * Upper bound on the number of (kind, object type) entries. Should not be reached in practice, as both
+     * kinds and types are from a fixed set. But if it is, the rest is aggregated under "other" type.
+     */
+    private static final int MAX_STATISTICS_ENTRIES = 1000;
+    private static final String OTHER_TYPE = "other";
+
     private int level = 0;
 
     private AtomicLong currentHandle = new AtomicLong();
 
-    private ConcurrentMap<Long,OperationRecord> outstandingOperations = new ConcurrentHashMap<Long, OperationRecord>();
-    private List<OperationRecord> finishedOperations = Collections.synchronizedList(new ArrayList<OperationRecord>());
+    private ConcurrentMap<Long, OperationRecord> outstandingOperations = new ConcurrentHashMap<>();
+    private ConcurrentMap<StatisticsKey, OperationStatistics> statistics = new ConcurrentHashMap<>();
 
     private SqlRepositoryFactory sqlRepositoryFactory;
+    private ObjectName mbeanName;
 
     class OperationRecord {
         String kind;
+        String objectType;
         long handle;
-        int attempts;
-        long startTime;
-        long startCpuTime;
-        long totalTime;
-        long totalCpuTime;
+        int attempts = 1;
+        long startTime;                 // nanoseconds, only for measuring durations
         long wastedTime;
-        long wastedCpuTime;
 
-        public OperationRecord(String kind, long handle) {
+        public OperationRecord(String kind, String objectType, long handle) {
             this.kind = kind;
+            this.objectType = objectType;
             this.handle = handle;
-            this.startTime = System.currentTimeMillis();
+            this.startTime = System.nanoTime();
         }
 
         @Override
         public String toString() {
             return "OperationRecord{" +
                     "kind='" + kind + '\'' +
+                    ", objectType=" + objectType +
                     ", handle=" + handle +
                     ", attempts=" + attempts +
-                    ", startTime=" + new Date(startTime) +
-                    ", totalTime=" + totalTime +
-//                    ", totalCpuTime=" + totalCpuTime +
-                    ", wastedTime=" + wastedTime +
-//                    ", wastedCpuTime=" + wastedCpuTime +
+                    ", runningFor=" + (System.nanoTime() - startTime) / 1000000L + " ms" +
+                    ", wastedTime=" + wastedTime / 1000000L + " ms" +
                     '}';
         }
     }
 
+    static class StatisticsKey {
+        final String kind;
+        final String objectType;
+
+        StatisticsKey(String kind, String objectType) {
+            this.kind = kind;
+            this.objectType = objectType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            StatisticsKey that = (StatisticsKey) o;
+            return kind.equals(that.kind) && Objects.equals(objectType, that.objectType);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * kind.hashCode() + (objectType != null ? objectType.hashCode() : 0);
+        }
+    }
+
+    static class OperationStatistics {
+        final LongAdder count = new LongAdder();
+        final LongAdder attempts = new LongAdder();
+        final LongAdder totalMicros = new LongAdder();
+        final LongAdder wastedMicros = new LongAdder();
+        final AtomicLong maxMicros = new AtomicLong();
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        void record(long micros, long wasted, int attemptCount) {
+            count.increment();
+            attempts.add(attemptCount);
+            totalMicros.add(micros);
+            wastedMicros.add(wasted);
+            histogram.record(micros);
+            long max;
+            while ((max = maxMicros.get()) < micros && !maxMicros.compareAndSet(max, micros)) {
+                // retry
+            }
+        }
+
+        RepositoryOperationStatistics toBean(StatisticsKey key) {
+            RepositoryOperationStatistics bean = new RepositoryOperationStatistics();
+            bean.setOperation(key.kind);
+            bean.setObjectType(key.objectType);
+            long c = count.sum();
+            bean.setCount(c);
+            bean.setAttempts(attempts.sum());
+            long total = totalMicros.sum();
+            bean.setTotalTime(toMillis(total));
+            bean.setWastedTime(toMillis(wastedMicros.sum()));
+            bean.setMeanTime(c > 0 ? toMillis(total) / c : 0);
+            bean.setMedianTime(toMillis(histogram.getPercentile(0.5)));
+            bean.setPercentile90Time(toMillis(histogram.getPercentile(0.9)));
+            bean.setPercentile99Time(toMillis(histogram.getPercentile(0.99)));
+            bean.setMaxTime(toMillis(maxMicros.get()));
+            return bean;
+        }
+
+        private static double toMillis(long micros) {
+            return micros / 1000.0;
+        }
+    }
+
     public void initialize(SqlRepositoryFactory sqlRepositoryFactory) {
         outstandingOperations.clear();
-        finishedOperations.clear();
+        statistics.clear();
         this.sqlRepositoryFactory = sqlRepositoryFactory;
         this.level = sqlRepositoryFactory.getSqlConfiguration().getPerformanceStatisticsLevel();
-        if (level >= LEVEL_NONE) {
-            LOGGER.info("SQL Performance Monitor initialized (level = " + level + ").");
+        if (level > LEVEL_NONE) {
+            registerMBean();
         }
+        LOGGER.info("SQL Performance Monitor initialized (level = " + level + ").");
     }
 
     public void shutdown() {
-        if (level > LEVEL_NONE) {
+        if (level >= LEVEL_DETAILS) {
             LOGGER.info("SQL Performance Monitor shutting down.");
             LOGGER.info("Statistics:\n" + getFormattedStatistics());
             String file = sqlRepositoryFactory.getSqlConfiguration().getPerformanceStatisticsFile();
@@ -102,97 +186,102 @@ public class SqlPerformanceMonitor {
                 writeStatisticsToFile(file);
             }
         }
+        unregisterMBean();
     }
 
-    private void writeStatisticsToFile(String file) {
+    private void registerMBean() {
         try {
-            PrintWriter pw = new PrintWriter(new FileWriter(file, true));
-            for (OperationRecord or : finishedOperations) {
-                pw.println(new Date(or.startTime) + "\t" + or.kind + "\t" + or.attempts + "\t" + or.totalTime + "\t" + or.wastedTime);
-            }
-            for (OperationRecord or : outstandingOperations.values()) {
-                pw.println(new Date(or.startTime) + "\t" + or.kind + "\t" + "?" + "\t" + "?" + "\t" + or.wastedTime);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                // e.g. left over from previous repository instance in the same JVM (tests)
+                server.unregisterMBean(name);
             }
-            pw.close();
-            LOGGER.trace("" + (finishedOperations.size() + outstandingOperations.size()) + " record(s) written to file " + file);
-        } catch (IOException e) {
-            LoggingUtils.logException(LOGGER, "Couldn't write repository performance statistics to file " + file, e);
+            server.registerMBean(this, name);
+            mbeanName = name;
+        } catch (Exception e) {
+            LoggingUtils.logException(LOGGER, "Couldn't register SQL performance monitor in JMX", e);
         }
-
     }
 
-    class StatEntry {
-        long totalTime, wastedTime;
-        int attempts;
-        int records;
-
-        public void process(OperationRecord operation) {
-            totalTime += operation.totalTime;
-            wastedTime += operation.wastedTime;
-            attempts += operation.attempts;
-            records++;
+    private void unregisterMBean() {
+        if (mbeanName == null) {
+            return;
         }
-
-        public String dump() {
-            if (records == 0) {
-                return "no records";
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(mbeanName)) {
+                server.unregisterMBean(mbeanName);
             }
-            return "Records: " + records + ", " +
-                   "Total time (avg/sum): " + ((float) totalTime/records) + "/" + totalTime + ", " +
-                   "Wasted time (avg/sum): " + ((float) wastedTime/records) + "/" + wastedTime + " (" + (wastedTime*100.0f/totalTime) + "%), " +
-                   "Attempts (avg): " + ((float) attempts/records);
+        } catch (Exception e) {
+            LoggingUtils.logException(LOGGER, "Couldn't unregister SQL performance monitor from JMX", e);
         }
+        mbeanName = null;
     }
 
-    private String getFormattedStatistics() {
-        StatEntry all = new StatEntry();
-        StatEntry unfinished = new StatEntry();
-        StatEntry[] perAttempts = new StatEntry[SqlBaseService.LOCKING_MAX_ATTEMPTS+1];         // "+1" is a safety margin
-
-        for (int i = 0; i < SqlBaseService.LOCKING_MAX_ATTEMPTS+1; i++) {
-            perAttempts[i] = new StatEntry();
+    private void writeStatisticsToFile(String file) {
+        try (PrintWriter pw = new PrintWriter(new FileWriter(file, true))) {
+            Date now = new Date();
+            List<RepositoryOperationStatistics> all = getOperationStatistics();
+            for (RepositoryOperationStatistics s : all) {
+                pw.println(now + "\t" + s.getOperation() + "\t" + s.getObjectType() + "\t" + s.getCount() + "\t"
+                        + s.getAttempts() + "\t" + s.getTotalTime() + "\t" + s.getWastedTime() + "\t" + s.getMeanTime()
+                        + "\t" + s.getMedianTime() + "\t" + s.getPercentile90Time() + "\t" + s.getPercentile99Time()
+                        + "\t" + s.getMaxTime());
+            }
+            LOGGER.trace("" + all.size() + " record(s) written to file " + file);
+        } catch (IOException e) {
+            LoggingUtils.logException(LOGGER, "Couldn't write repository performance statistics to file " + file, e);
         }
+    }
 
-        synchronized (finishedOperations) {
-            for (OperationRecord operation : finishedOperations) {
-                all.process(operation);
-                if (operation.attempts >= 1 && operation.attempts <= SqlBaseService.LOCKING_MAX_ATTEMPTS+1) {
-                    perAttempts[operation.attempts-1].process(operation);
-                } else if (operation.attempts < 0) {
-                    unfinished.process(operation);
+    @Override
+    public List<RepositoryOperationStatistics> getOperationStatistics() {
+        List<RepositoryOperationStatistics> rv = new ArrayList<>(statistics.size());
+        for (Map.Entry<StatisticsKey, OperationStatistics> entry : statistics.entrySet()) {
+            rv.add(entry.getValue().toBean(entry.getKey()));
+        }
+        Collections.sort(rv, new Comparator<RepositoryOperationStatistics>() {
+            @Override
+            public int compare(RepositoryOperationStatistics o1, RepositoryOperationStatistics o2) {
+                int c = o1.getOperation().compareTo(o2.getOperation());
+                if (c != 0) {
+                    return c;
                 }
+                return String.valueOf(o1.getObjectType()).compareTo(String.valueOf(o2.getObjectType()));
             }
-        }
+        });
+        return rv;
+    }
 
+    @Override
+    public String getFormattedStatistics() {
         StringBuilder retval = new StringBuilder();
-        retval.append("Overall: " + all.dump() + "\n");
-        for (int i = 0; i < SqlBaseService.LOCKING_MAX_ATTEMPTS+1; i++) {
-            retval.append((i+1) + " attempt(s): " + perAttempts[i].dump() + "\n");
+        for (RepositoryOperationStatistics s : getOperationStatistics()) {
+            retval.append(s).append("\n");
         }
-        retval.append("Unfinished: " + unfinished.dump() + "\n");
-        retval.append("Outstanding: " + outstandingOperations.toString());
+        retval.append("Outstanding: ").append(outstandingOperations.values());
         return retval.toString();
     }
 
-    private String dump() {
-        return "Finished operations: " + finishedOperations + "\nOutstanding operations: " + outstandingOperations;
+    @Override
+    public void resetStatistics() {
+        statistics.clear();
     }
 
-
     public long registerOperationStart(String kind) {
+        return registerOperationStart(kind, null);
+    }
+
+    public long registerOperationStart(String kind, Class<?> objectType) {
 
         if (level <= LEVEL_NONE) {
             return 0L;
         }
 
-        long handle = currentHandle.getAndIncrement();
-        Long threadId = Thread.currentThread().getId();
-        if (outstandingOperations.containsKey(threadId)) {
-            OperationRecord unfinishedOperation = outstandingOperations.get(threadId);
-            LOGGER.warn("Unfinished operation: " + unfinishedOperation);
-            registerOperationFinishRaw(threadId, unfinishedOperation, -1);
-        }
-        outstandingOperations.put(threadId, new OperationRecord(kind, handle));
+        long handle = currentHandle.incrementAndGet();
+        String typeName = objectType != null ? objectType.getSimpleName() : null;
+        outstandingOperations.put(handle, new OperationRecord(kind, typeName, handle));
         return handle;
     }
 
@@ -202,26 +291,41 @@ public class SqlPerformanceMonitor {
             return;
         }
 
-        Long threadId = Thread.currentThread().getId();
-        OperationRecord operation = outstandingOperations.get(threadId);
-
+        OperationRecord operation = outstandingOperations.remove(opHandle);
         if (operation == null) {
             LOGGER.warn("Attempted to record finish event for unregistered operation: handle = " + opHandle + ", attempt = " + attempt + ", ignoring the request.");
             return;
         }
-        if (operation.handle != opHandle) {
-            LOGGER.error("Attempted to record finish event with unexpected operation handle: handle = " + opHandle + ", stored outstanding operation for this thread = " + operation);
-            outstandingOperations.remove(threadId);
+        long totalTime = System.nanoTime() - operation.startTime;
+        operation.attempts = attempt;
+        getStatistics(operation.kind, operation.objectType)
+                .record(totalTime / 1000L, operation.wastedTime / 1000L, Math.max(attempt, 1));
+    }
+
+    /**
+     * Records an operation that was measured elsewhere, e.g. connection acquisition measured by the pool.
+     */
+    public void registerOperation(String kind, long durationNanos) {
+
+        if (level <= LEVEL_NONE) {
             return;
         }
-        registerOperationFinishRaw(threadId, operation, attempt);
+
+        getStatistics(kind, null).record(durationNanos / 1000L, 0, 1);
     }
 
-    private void registerOperationFinishRaw(Long threadId, OperationRecord operation, int attempt) {
-        operation.totalTime = System.currentTimeMillis() - operation.startTime;
-        operation.attempts = attempt;
-        finishedOperations.add(operation);
-        outstandingOperations.remove(threadId);
+    private OperationStatistics getStatistics(String kind, String objectType) {
+        StatisticsKey key = new StatisticsKey(kind, objectType);
+        OperationStatistics stats = statistics.get(key);
+        if (stats != null) {
+            return stats;
+        }
+        if (statistics.size() >= MAX_STATISTICS_ENTRIES) {
+            key = new StatisticsKey(kind, OTHER_TYPE);
+        }
+        stats = new OperationStatistics();
+        OperationStatistics existing = statistics.putIfAbsent(key, stats);
+        return existing != null ? existing : stats;
     }
 
     public void registerOperationNewTrial(long opHandle, int attempt) {
@@ -230,19 +334,12 @@ public class SqlPerformanceMonitor {
             return;
         }
 
-        Long threadId = Thread.currentThread().getId();
-        OperationRecord operation = outstandingOperations.get(threadId);
-
+        OperationRecord operation = outstandingOperations.get(opHandle);
         if (operation == null) {
             LOGGER.warn("Attempted to record new trial event for unregistered operation: handle = " + opHandle + ", attempt = " + attempt + ", ignoring the request.");
             return;
         }
-        if (operation.handle != opHandle) {
-            LOGGER.error("Attempted to record new trial event with unexpected operation handle: handle = " + opHandle + ", stored outstanding operation for this thread = " + operation);
-            outstandingOperations.remove(threadId);
-            return;
-        }
-        operation.wastedTime = System.currentTimeMillis() - operation.startTime;
+        operation.wastedTime = System.nanoTime() - operation.startTime;
         operation.attempts = attempt;
     }
 
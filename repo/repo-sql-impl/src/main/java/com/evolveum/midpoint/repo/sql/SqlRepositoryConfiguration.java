@@ -18,6 +18,7 @@ package com.evolveum.midpoint.repo.sql;
 
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactoryException;
 import com.evolveum.midpoint.repo.sql.helpers.OrgClosureManager;
+import com.evolveum.midpoint.repo.sql.util.FullObjectCodec;
 import com.evolveum.midpoint.repo.sql.util.MidPointConnectionCustomizer;
 import com.evolveum.midpoint.repo.sql.util.MidPointMySQLDialect;
 import com.evolveum.midpoint.repo.sql.util.MidPointPostgreSQLDialect;
@@ -58,8 +59,18 @@ public class SqlRepositoryConfiguration {
     public static final String PROPERTY_JDBC_URL = "jdbcUrl";
     public static final String PROPERTY_DATASOURCE = "dataSource";
     public static final String PROPERTY_USE_ZIP = "useZip";
+    public static final String PROPERTY_FULL_OBJECT_FORMAT = "fullObjectFormat";
+    public static final String PROPERTY_FULL_OBJECT_COMPRESSION = "fullObjectCompression";
     public static final String PROPERTY_MIN_POOL_SIZE = "minPoolSize";
     public static final String PROPERTY_MAX_POOL_SIZE = "maxPoolSize";
+    public static final String PROPERTY_CONNECTION_POOL = "connectionPool";
+    public static final String PROPERTY_MAX_CONNECTION_LIFETIME = "maxConnectionLifetime";
+    public static final String PROPERTY_CONNECTION_TIMEOUT = "connectionTimeout";
+    public static final String PROPERTY_VALIDATION_TIMEOUT = "validationTimeout";
+    public static final String PROPERTY_LEAK_DETECTION_THRESHOLD = "leakDetectionThreshold";
+
+    public static final String CONNECTION_POOL_HIKARI = "hikari";
+    public static final String CONNECTION_POOL_C3P0 = "c3p0";
 
     // concurrency properties
     public static final String PROPERTY_TRANSACTION_ISOLATION = "transactionIsolation";
@@ -72,12 +83,26 @@ public class SqlRepositoryConfiguration {
     //other
     public static final String PROPERTY_ITERATIVE_SEARCH_BY_PAGING = "iterativeSearchByPaging";
     public static final String PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE = "iterativeSearchByPagingBatchSize";
+    public static final String PROPERTY_WRITE_BATCH_SIZE = "writeBatchSize";
+    public static final String PROPERTY_ITERATIVE_SEARCH_PREFETCH = "iterativeSearchPrefetch";
+    public static final String PROPERTY_ITERATIVE_SEARCH_PREFETCH_BUFFER_SIZE = "iterativeSearchPrefetchBufferSize";
+    public static final String PROPERTY_PARSE_THREADS = "parseThreads";
+    public static final String PROPERTY_ASYNC_AUDIT = "asyncAudit";
+    public static final String PROPERTY_ASYNC_AUDIT_QUEUE_SIZE = "asyncAuditQueueSize";
+    public static final String PROPERTY_ASYNC_AUDIT_BATCH_SIZE = "asyncAuditBatchSize";
+    public static final String PROPERTY_ASYNC_AUDIT_JOURNAL_FILE = "asyncAuditJournalFile";
+    public static final String PROPERTY_AUDIT_PARTITIONING = "auditPartitioning";
+    public static final String PROPERTY_AUDIT_PARTITION_SIZE = "auditPartitionSize";
+    public static final String PROPERTY_DIRECT_MODIFY = "directModify";
+    public static final String PROPERTY_QUERY_PLAN_CACHE_SIZE = "queryPlanCacheSize";
 
     //closure
     public static final String PROPERTY_IGNORE_ORG_CLOSURE = "ignoreOrgClosure";
     public static final String PROPERTY_ORG_CLOSURE_STARTUP_ACTION = "orgClosureStartupAction";
     public static final String PROPERTY_SKIP_ORG_CLOSURE_STRUCTURE_CHECK = "skipOrgClosureStructureCheck";
     public static final String PROPERTY_STOP_ON_ORG_CLOSURE_STARTUP_FAILURE = "stopOnOrgClosureStartupFailure";
+    public static final String PROPERTY_ORG_CLOSURE_LOCKING_MODE = "orgClosureLockingMode";
+    public static final String PROPERTY_ORG_HIERARCHY_INDEX = "orgHierarchyIndex";
 
     private String database = Database.H2.name();
 
@@ -99,20 +124,66 @@ public class SqlRepositoryConfiguration {
     private String dataSource;
     private int minPoolSize = 8;
     private int maxPoolSize = 20;
+    // connection pool implementation (see DataSourceFactory); timeouts below are in milliseconds
+    private String connectionPool = CONNECTION_POOL_HIKARI;
+    private long maxConnectionLifetime = 1800000L;
+    // max time to wait for a connection from the pool
+    private long connectionTimeout = 30000L;
+    // max time to wait for connection validation (JDBC4 isValid)
+    private long validationTimeout = 5000L;
+    // connections not returned within this time are reported as possibly leaked; 0 means "no detection"
+    private long leakDetectionThreshold;
     private boolean useZip;
+    private String fullObjectFormat;
+    private String fullObjectCompression;
+    private FullObjectCodec fullObjectCodec;
 
     private TransactionIsolation transactionIsolation;
     private boolean lockForUpdateViaHibernate;
     private boolean lockForUpdateViaSql;
     private boolean useReadOnlyTransactions;
     private String performanceStatisticsFile;
-    private int performanceStatisticsLevel;
+    // operation statistics are collected by default (see SqlPerformanceMonitor)
+    private int performanceStatisticsLevel = SqlPerformanceMonitor.LEVEL_METRICS;
 
     private boolean iterativeSearchByPaging;
     private int iterativeSearchByPagingBatchSize;
 
+    // max number of operations executed in one transaction by executeBatch; 1 means "no batching"
+    private int writeBatchSize = 100;
+
+    // iterative search by paging: fetch next pages in background while the handler processes current objects
+    private boolean iterativeSearchPrefetch;
+    // max number of objects fetched ahead of the handler
+    private int iterativeSearchPrefetchBufferSize = 200;
+    // number of threads parsing full objects of search results; 0 means "parse in the calling thread"
+    private int parseThreads;
+
+    // audit records are stored by a background thread
+    private boolean asyncAudit;
+    // max number of audit records waiting to be stored; if exceeded, records are stored synchronously
+    private int asyncAuditQueueSize = 10000;
+    // max number of audit records stored in one transaction
+    private int asyncAuditBatchSize = 100;
+    // local file where queued audit records are kept until they are stored; null means "no journal"
+    private String asyncAuditJournalFile;
+
+    // audit tables are partitioned (see AuditPartitionManager)
+    private boolean auditPartitioning;
+    // number of audit record IDs covered by one partition
+    private long auditPartitionSize = 1000000L;
+
+    // modifications are translated to targeted SQL updates where possible, instead of merging whole entity (see ObjectDeltaUpdater)
+    private boolean directModify;
+
+    // max number of HQL query plans kept for repeated query shapes (see QueryPlanCache); 0 means "no caching"
+    private int queryPlanCacheSize = 500;
+
     private boolean ignoreOrgClosure;
     private OrgClosureManager.StartupAction orgClosureStartupAction;
+    private OrgClosureManager.LockingMode orgClosureLockingMode;
+    // keep org structure in memory and use it instead of closure table where possible
+    private boolean orgHierarchyIndex;
     private boolean skipOrgClosureStructureCheck;
     private boolean stopOnOrgClosureStartupFailure;
 
@@ -137,7 +208,14 @@ public class SqlRepositoryConfiguration {
         setDataSource(configuration.getString(PROPERTY_DATASOURCE, null));
         setMinPoolSize(configuration.getInt(PROPERTY_MIN_POOL_SIZE, minPoolSize));
         setMaxPoolSize(configuration.getInt(PROPERTY_MAX_POOL_SIZE, maxPoolSize));
+        setConnectionPool(configuration.getString(PROPERTY_CONNECTION_POOL, connectionPool));
+        setMaxConnectionLifetime(configuration.getLong(PROPERTY_MAX_CONNECTION_LIFETIME, maxConnectionLifetime));
+        setConnectionTimeout(configuration.getLong(PROPERTY_CONNECTION_TIMEOUT, connectionTimeout));
+        setValidationTimeout(configuration.getLong(PROPERTY_VALIDATION_TIMEOUT, validationTimeout));
+        setLeakDetectionThreshold(configuration.getLong(PROPERTY_LEAK_DETECTION_THRESHOLD, leakDetectionThreshold));
         setUseZip(configuration.getBoolean(PROPERTY_USE_ZIP, useZip));
+        setFullObjectFormat(configuration.getString(PROPERTY_FULL_OBJECT_FORMAT, fullObjectFormat));
+        setFullObjectCompression(configuration.getString(PROPERTY_FULL_OBJECT_COMPRESSION, fullObjectCompression));
 
         computeDefaultConcurrencyParameters();
 
@@ -152,11 +230,25 @@ public class SqlRepositoryConfiguration {
 
         setIterativeSearchByPaging(configuration.getBoolean(PROPERTY_ITERATIVE_SEARCH_BY_PAGING, iterativeSearchByPaging));
         setIterativeSearchByPagingBatchSize(configuration.getInt(PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE, iterativeSearchByPagingBatchSize));
+        setWriteBatchSize(configuration.getInt(PROPERTY_WRITE_BATCH_SIZE, writeBatchSize));
+        setIterativeSearchPrefetch(configuration.getBoolean(PROPERTY_ITERATIVE_SEARCH_PREFETCH, iterativeSearchPrefetch));
+        setIterativeSearchPrefetchBufferSize(configuration.getInt(PROPERTY_ITERATIVE_SEARCH_PREFETCH_BUFFER_SIZE, iterativeSearchPrefetchBufferSize));
+        setParseThreads(configuration.getInt(PROPERTY_PARSE_THREADS, parseThreads));
+        setAsyncAudit(configuration.getBoolean(PROPERTY_ASYNC_AUDIT, asyncAudit));
+        setAsyncAuditQueueSize(configuration.getInt(PROPERTY_ASYNC_AUDIT_QUEUE_SIZE, asyncAuditQueueSize));
+        setAsyncAuditBatchSize(configuration.getInt(PROPERTY_ASYNC_AUDIT_BATCH_SIZE, asyncAuditBatchSize));
+        setAsyncAuditJournalFile(configuration.getString(PROPERTY_ASYNC_AUDIT_JOURNAL_FILE, asyncAuditJournalFile));
+        setAuditPartitioning(configuration.getBoolean(PROPERTY_AUDIT_PARTITIONING, auditPartitioning));
+        setAuditPartitionSize(configuration.getLong(PROPERTY_AUDIT_PARTITION_SIZE, auditPartitionSize));
+        setDirectModify(configuration.getBoolean(PROPERTY_DIRECT_MODIFY, directModify));
+        setQueryPlanCacheSize(configuration.getInt(PROPERTY_QUERY_PLAN_CACHE_SIZE, queryPlanCacheSize));
 
         setIgnoreOrgClosure(configuration.getBoolean(PROPERTY_IGNORE_ORG_CLOSURE, false));
         setOrgClosureStartupAction(configuration.getString(PROPERTY_ORG_CLOSURE_STARTUP_ACTION, OrgClosureManager.StartupAction.REBUILD_IF_NEEDED.toString()));
         setSkipOrgClosureStructureCheck(configuration.getBoolean(PROPERTY_SKIP_ORG_CLOSURE_STRUCTURE_CHECK, false));
         setStopOnOrgClosureStartupFailure(configuration.getBoolean(PROPERTY_STOP_ON_ORG_CLOSURE_STARTUP_FAILURE, true));
+        setOrgClosureLockingMode(configuration.getString(PROPERTY_ORG_CLOSURE_LOCKING_MODE, OrgClosureManager.LockingMode.TABLE.toString()));
+        setOrgHierarchyIndex(configuration.getBoolean(PROPERTY_ORG_HIERARCHY_INDEX, false));
     }
 
     private void computeDefaultDatabaseParameters() {
@@ -274,6 +366,51 @@ public class SqlRepositoryConfiguration {
         if (getMinPoolSize() > getMaxPoolSize()) {
             throw new RepositoryServiceFactoryException("Max. pool size must be greater than min. pool size.");
         }
+
+        if (!CONNECTION_POOL_HIKARI.equals(getConnectionPool()) && !CONNECTION_POOL_C3P0.equals(getConnectionPool())) {
+            throw new RepositoryServiceFactoryException("Unsupported connection pool '" + getConnectionPool()
+                    + "', supported are '" + CONNECTION_POOL_HIKARI + "' and '" + CONNECTION_POOL_C3P0 + "'.");
+        }
+
+        if (getMaxConnectionLifetime() < 0 || getConnectionTimeout() < 0 || getValidationTimeout() < 0
+                || getLeakDetectionThreshold() < 0) {
+            throw new RepositoryServiceFactoryException("Connection pool timeouts must not be negative.");
+        }
+
+        if (getWriteBatchSize() <= 0) {
+            throw new RepositoryServiceFactoryException("Write batch size must be greater than zero.");
+        }
+
+        if (getIterativeSearchPrefetchBufferSize() <= 0) {
+            throw new RepositoryServiceFactoryException("Iterative search prefetch buffer size must be greater than zero.");
+        }
+
+        if (getParseThreads() < 0) {
+            throw new RepositoryServiceFactoryException("Number of parse threads must not be negative.");
+        }
+
+        if (getAsyncAuditQueueSize() <= 0) {
+            throw new RepositoryServiceFactoryException("Asynchronous audit queue size must be greater than zero.");
+        }
+
+        if (getAsyncAuditBatchSize() <= 0) {
+            throw new RepositoryServiceFactoryException("Asynchronous audit batch size must be greater than zero.");
+        }
+
+        if (getAuditPartitionSize() <= 0) {
+            throw new RepositoryServiceFactoryException("Audit partition size must be greater than zero.");
+        }
+
+        if (getQueryPlanCacheSize() < 0) {
+            throw new RepositoryServiceFactoryException("Query plan cache size must not be negative.");
+        }
+
+        try {
+            getFullObjectCodec();
+        } catch (IllegalArgumentException ex) {
+            throw new RepositoryServiceFactoryException("Unsupported full object format or compression ("
+                    + getFullObjectFormat() + ", " + getFullObjectCompression() + ").", ex);
+        }
     }
 
     private void notNull(String value, String message) throws RepositoryServiceFactoryException {
@@ -520,12 +657,178 @@ public class SqlRepositoryConfiguration {
         this.maxPoolSize = maxPoolSize;
     }
 
+    public String getConnectionPool() {
+        return connectionPool;
+    }
+
+    public void setConnectionPool(String connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    public long getMaxConnectionLifetime() {
+        return maxConnectionLifetime;
+    }
+
+    public void setMaxConnectionLifetime(long maxConnectionLifetime) {
+        this.maxConnectionLifetime = maxConnectionLifetime;
+    }
+
+    public long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public void setConnectionTimeout(long connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    public long getValidationTimeout() {
+        return validationTimeout;
+    }
+
+    public void setValidationTimeout(long validationTimeout) {
+        this.validationTimeout = validationTimeout;
+    }
+
+    public long getLeakDetectionThreshold() {
+        return leakDetectionThreshold;
+    }
+
+    public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+        this.leakDetectionThreshold = leakDetectionThreshold;
+    }
+
     public boolean isUseZip() {
         return useZip;
     }
 
     public void setUseZip(boolean useZip) {
         this.useZip = useZip;
+        this.fullObjectCodec = null;
+    }
+
+    public String getFullObjectFormat() {
+        return fullObjectFormat;
+    }
+
+    public void setFullObjectFormat(String fullObjectFormat) {
+        this.fullObjectFormat = fullObjectFormat;
+        this.fullObjectCodec = null;
+    }
+
+    public String getFullObjectCompression() {
+        return fullObjectCompression;
+    }
+
+    public void setFullObjectCompression(String fullObjectCompression) {
+        this.fullObjectCompression = fullObjectCompression;
+        this.fullObjectCodec = null;
+    }
+
+    /**
+     * Codec used to write the full object column. If neither format nor compression is set,
+     * objects are stored as XML, compressed by gzip if useZip is set (i.e. as before).
+     */
+    public FullObjectCodec getFullObjectCodec() {
+        if (fullObjectCodec == null) {
+            fullObjectCodec = FullObjectCodec.create(fullObjectFormat, fullObjectCompression, useZip);
+        }
+        return fullObjectCodec;
+    }
+
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    public void setWriteBatchSize(int writeBatchSize) {
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    public boolean isIterativeSearchPrefetch() {
+        return iterativeSearchPrefetch;
+    }
+
+    public void setIterativeSearchPrefetch(boolean iterativeSearchPrefetch) {
+        this.iterativeSearchPrefetch = iterativeSearchPrefetch;
+    }
+
+    public int getIterativeSearchPrefetchBufferSize() {
+        return iterativeSearchPrefetchBufferSize;
+    }
+
+    public void setIterativeSearchPrefetchBufferSize(int iterativeSearchPrefetchBufferSize) {
+        this.iterativeSearchPrefetchBufferSize = iterativeSearchPrefetchBufferSize;
+    }
+
+    public int getParseThreads() {
+        return parseThreads;
+    }
+
+    public void setParseThreads(int parseThreads) {
+        this.parseThreads = parseThreads;
+    }
+
+    public boolean isAsyncAudit() {
+        return asyncAudit;
+    }
+
+    public void setAsyncAudit(boolean asyncAudit) {
+        this.asyncAudit = asyncAudit;
+    }
+
+    public int getAsyncAuditQueueSize() {
+        return asyncAuditQueueSize;
+    }
+
+    public void setAsyncAuditQueueSize(int asyncAuditQueueSize) {
+        this.asyncAuditQueueSize = asyncAuditQueueSize;
+    }
+
+    public int getAsyncAuditBatchSize() {
+        return asyncAuditBatchSize;
+    }
+
+    public void setAsyncAuditBatchSize(int asyncAuditBatchSize) {
+        this.asyncAuditBatchSize = asyncAuditBatchSize;
+    }
+
+    public String getAsyncAuditJournalFile() {
+        return asyncAuditJournalFile;
+    }
+
+    public void setAsyncAuditJournalFile(String asyncAuditJournalFile) {
+        this.asyncAuditJournalFile = asyncAuditJournalFile;
+    }
+
+    public boolean isAuditPartitioning() {
+        return auditPartitioning;
+    }
+
+    public void setAuditPartitioning(boolean auditPartitioning) {
+        this.auditPartitioning = auditPartitioning;
+    }
+
+    public long getAuditPartitionSize() {
+        return auditPartitionSize;
+    }
+
+    public void setAuditPartitionSize(long auditPartitionSize) {
+        this.auditPartitionSize = auditPartitionSize;
+    }
+
+    public boolean isDirectModify() {
+        return directModify;
+    }
+
+    public void setDirectModify(boolean directModify) {
+        this.directModify = directModify;
+    }
+
+    public int getQueryPlanCacheSize() {
+        return queryPlanCacheSize;
+    }
+
+    public void setQueryPlanCacheSize(int queryPlanCacheSize) {
+        this.queryPlanCacheSize = queryPlanCacheSize;
     }
 
     public boolean isIgnoreOrgClosure() {
@@ -544,6 +847,22 @@ public class SqlRepositoryConfiguration {
         this.orgClosureStartupAction = OrgClosureManager.StartupAction.fromValue(orgClosureStartupAction);
     }
 
+    public OrgClosureManager.LockingMode getOrgClosureLockingMode() {
+        return orgClosureLockingMode;
+    }
+
+    public void setOrgClosureLockingMode(String orgClosureLockingMode) {
+        this.orgClosureLockingMode = OrgClosureManager.LockingMode.fromValue(orgClosureLockingMode);
+    }
+
+    public boolean isOrgHierarchyIndex() {
+        return orgHierarchyIndex && !ignoreOrgClosure;          // the index is maintained along with the closure
+    }
+
+    public void setOrgHierarchyIndex(boolean orgHierarchyIndex) {
+        this.orgHierarchyIndex = orgHierarchyIndex;
+    }
+
     public boolean isUsingH2() {
         if (hibernateDialect == null) {
             return true;
@@ -31,10 +31,14 @@ import com.evolveum.midpoint.prism.query.NoneFilter;
 import com.evolveum.midpoint.prism.query.ObjectFilter;
 import com.evolveum.midpoint.prism.query.ObjectPaging;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
 import com.evolveum.midpoint.repo.api.RepoAddOptions;
 import com.evolveum.midpoint.repo.api.RepoModifyOptions;
+import com.evolveum.midpoint.repo.api.RepoOperation;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.sql.helpers.*;
+import com.evolveum.midpoint.repo.sql.pool.ConnectionPool;
+import com.evolveum.midpoint.repo.sql.pool.ConnectionPoolStatistics;
 import com.evolveum.midpoint.schema.*;
 import com.evolveum.midpoint.schema.internals.InternalsConfig;
 import com.evolveum.midpoint.schema.result.OperationResult;
@@ -47,6 +51,7 @@ import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
@@ -93,6 +98,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
     private static final String DETAILS_DATA_SOURCE = "dataSource";
     private static final String DETAILS_HIBERNATE_DIALECT = "hibernateDialect";
     private static final String DETAILS_HIBERNATE_HBM_2_DDL = "hibernateHbm2ddl";
+    private static final String DETAILS_CONNECTION_POOL = "connectionPool";
 
     @Autowired
     private SequenceHelper sequenceHelper;
@@ -109,6 +115,13 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
     @Autowired
     private BaseHelper baseHelper;
 
+    // not present e.g. in repository-only tests
+    @Autowired(required = false)
+    private CacheDispatcher cacheDispatcher;
+
+    @Autowired(required = false)
+    private DataSourceFactory dataSourceFactory;
+
     public SqlRepositoryServiceImpl(SqlRepositoryFactory repositoryFactory) {
         super(repositoryFactory);
     }
@@ -138,7 +151,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         subResult.addParam("oid", oid);
 
         SqlPerformanceMonitor pm = getPerformanceMonitor();
-        long opHandle = pm.registerOperationStart("getObject");
+        long opHandle = pm.registerOperationStart("getObject", type);
 
         try {
             while (true) {
@@ -167,12 +180,20 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         OperationResult subResult = result.createSubresult(SEARCH_SHADOW_OWNER);
         subResult.addParam("shadowOid", shadowOid);
 
-        while (true) {
-            try {
-                return objectRetriever.searchShadowOwnerAttempt(shadowOid, options, subResult);
-            } catch (RuntimeException ex) {
-                attempt = baseHelper.logOperationAttempt(shadowOid, operation, attempt, ex, subResult);
+        SqlPerformanceMonitor pm = getPerformanceMonitor();
+        long opHandle = pm.registerOperationStart("searchShadowOwner");
+
+        try {
+            while (true) {
+                try {
+                    return objectRetriever.searchShadowOwnerAttempt(shadowOid, options, subResult);
+                } catch (RuntimeException ex) {
+                    attempt = baseHelper.logOperationAttempt(shadowOid, operation, attempt, ex, subResult);
+                    pm.registerOperationNewTrial(opHandle, attempt);
+                }
             }
+        } finally {
+            pm.registerOperationFinish(opHandle, attempt);
         }
     }
 
@@ -191,12 +212,20 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         OperationResult subResult = result.createSubresult(LIST_ACCOUNT_SHADOW);
         subResult.addParam("accountOid", accountOid);
 
-        while (true) {
-            try {
-                return objectRetriever.listAccountShadowOwnerAttempt(accountOid, subResult);
-            } catch (RuntimeException ex) {
-                attempt = baseHelper.logOperationAttempt(accountOid, operation, attempt, ex, subResult);
+        SqlPerformanceMonitor pm = getPerformanceMonitor();
+        long opHandle = pm.registerOperationStart("listAccountShadowOwner");
+
+        try {
+            while (true) {
+                try {
+                    return objectRetriever.listAccountShadowOwnerAttempt(accountOid, subResult);
+                } catch (RuntimeException ex) {
+                    attempt = baseHelper.logOperationAttempt(accountOid, operation, attempt, ex, subResult);
+                    pm.registerOperationNewTrial(opHandle, attempt);
+                }
             }
+        } finally {
+            pm.registerOperationFinish(opHandle, attempt);
         }
     }
 
@@ -226,7 +255,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
 		}
 
         SqlPerformanceMonitor pm = getPerformanceMonitor();
-        long opHandle = pm.registerOperationStart("searchObjects");
+        long opHandle = pm.registerOperationStart("searchObjects", type);
 
         final String operation = "searching";
         int attempt = 1;
@@ -276,7 +305,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
 		}
 
         SqlPerformanceMonitor pm = getPerformanceMonitor();
-        long opHandle = pm.registerOperationStart("searchContainers");
+        long opHandle = pm.registerOperationStart("searchContainers", type);
 
         final String operation = "searching";
         int attempt = 1;
@@ -332,6 +361,36 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
                         options.isAllowUnencryptedValues()}
         );
 
+        checkObjectToAdd(object, options);
+
+        OperationResult subResult = result.createSubresult(ADD_OBJECT);
+        subResult.addParam("object", object);
+        subResult.addParam("options", options);
+
+        final String operation = "adding";
+        int attempt = 1;
+
+        SqlPerformanceMonitor pm = getPerformanceMonitor();
+        long opHandle = pm.registerOperationStart("addObject", object.getCompileTimeClass());
+
+        String oid = object.getOid();
+        try {
+            while (true) {
+                try {
+                    String createdOid = objectUpdater.addObjectAttempt(object, options, subResult);
+                    invokeCacheDispatcher(object.getCompileTimeClass(), createdOid);
+                    return createdOid;
+                } catch (RuntimeException ex) {
+                    attempt = baseHelper.logOperationAttempt(oid, operation, attempt, ex, subResult);
+                    pm.registerOperationNewTrial(opHandle, attempt);
+                }
+            }
+        } finally {
+            pm.registerOperationFinish(opHandle, attempt);
+        }
+    }
+
+    private <T extends ObjectType> void checkObjectToAdd(PrismObject<T> object, RepoAddOptions options) {
         if (InternalsConfig.encryptionChecks && !RepoAddOptions.isAllowUnencryptedValues(options)) {
             CryptoUtil.checkEncrypted(object);
         }
@@ -347,21 +406,18 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
             PolyStringType namePolyType = object.asObjectable().getName();
             LOGGER.trace("NAME: {} - {}", namePolyType.getOrig(), namePolyType.getNorm());
         }
+    }
 
-        OperationResult subResult = result.createSubresult(ADD_OBJECT);
-        subResult.addParam("object", object);
-        subResult.addParam("options", options);
-
-        final String operation = "adding";
-        int attempt = 1;
-
-        String oid = object.getOid();
-        while (true) {
-            try {
-                return objectUpdater.addObjectAttempt(object, options, subResult);
-            } catch (RuntimeException ex) {
-                attempt = baseHelper.logOperationAttempt(oid, operation, attempt, ex, subResult);
-            }
+    private <T extends ObjectType> void invokeCacheDispatcher(Class<T> type, String oid) {
+        if (ResourceType.class.equals(type) && oid != null) {
+            // resource schema might have been changed
+            objectRetriever.getShadowDefinitionCache().invalidate(oid);
+        }
+        if (cacheDispatcher != null && type != null && oid != null) {
+            cacheDispatcher.dispatch(type, oid);            // sequence helper is among the listeners
+        } else if (oid != null) {
+            // counter or other sequence properties might have been changed
+            sequenceHelper.invalidateCacheEntry(type, oid, false);
         }
     }
 
@@ -389,12 +445,13 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         subResult.addParam("oid", oid);
 
         SqlPerformanceMonitor pm = getPerformanceMonitor();
-        long opHandle = pm.registerOperationStart("deleteObject");
+        long opHandle = pm.registerOperationStart("deleteObject", type);
 
         try {
             while (true) {
                 try {
                     objectUpdater.deleteObjectAttempt(type, oid, subResult);
+                    invokeCacheDispatcher(type, oid);
                     return;
                 } catch (RuntimeException ex) {
                     attempt = baseHelper.logOperationAttempt(oid, operation, attempt, ex, subResult);
@@ -434,12 +491,20 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         final String operation = "counting";
         int attempt = 1;
 
-        while (true) {
-            try {
-                return objectRetriever.countObjectsAttempt(type, query, subResult);
-            } catch (RuntimeException ex) {
-                attempt = baseHelper.logOperationAttempt(null, operation, attempt, ex, subResult);
+        SqlPerformanceMonitor pm = getPerformanceMonitor();
+        long opHandle = pm.registerOperationStart("countObjects", type);
+
+        try {
+            while (true) {
+                try {
+                    return objectRetriever.countObjectsAttempt(type, query, subResult);
+                } catch (RuntimeException ex) {
+                    attempt = baseHelper.logOperationAttempt(null, operation, attempt, ex, subResult);
+                    pm.registerOperationNewTrial(opHandle, attempt);
+                }
             }
+        } finally {
+            pm.registerOperationFinish(opHandle, attempt);
         }
     }
     public <T extends ObjectType> void modifyObject(Class<T> type, String oid,
@@ -472,6 +537,32 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
             return;
         }
 
+        checkModifications(modifications);
+
+        final String operation = "modifying";
+        int attempt = 1;
+
+        SqlPerformanceMonitor pm = getPerformanceMonitor();
+        long opHandle = pm.registerOperationStart("modifyObject", type);
+
+        try {
+            while (true) {
+                try {
+                    objectUpdater.modifyObjectAttempt(type, oid, modifications, options, subResult);
+                    invokeCacheDispatcher(type, oid);
+                    return;
+                } catch (RuntimeException ex) {
+                    attempt = baseHelper.logOperationAttempt(oid, operation, attempt, ex, subResult);
+                    pm.registerOperationNewTrial(opHandle, attempt);
+                }
+            }
+        } finally {
+            pm.registerOperationFinish(opHandle, attempt);
+        }
+
+    }
+
+    private void checkModifications(Collection<? extends ItemDelta> modifications) {
         if (InternalsConfig.encryptionChecks) {
             CryptoUtil.checkEncrypted(modifications);
         }
@@ -496,27 +587,132 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
                 }
             }
         }
+    }
 
-        final String operation = "modifying";
-        int attempt = 1;
+    @Override
+    public void executeBatch(List<? extends RepoOperation<?>> operations, OperationResult result) {
+        Validate.notNull(operations, "Operations must not be null.");
+        Validate.notNull(result, "Operation result must not be null.");
+
+        LOGGER.debug("Executing batch of {} operations.", operations.size());
+
+        OperationResult subResult = result.createSubresult(EXECUTE_BATCH);
+        subResult.addParam("operations", operations.size());
 
         SqlPerformanceMonitor pm = getPerformanceMonitor();
-        long opHandle = pm.registerOperationStart("modifyObject");
+        long opHandle = pm.registerOperationStart("executeBatch");
 
+        int batchSize = getConfiguration().getWriteBatchSize();
+        List<RepoOperation<?>> batch = new ArrayList<>(batchSize);
         try {
-            while (true) {
-                try {
-                    objectUpdater.modifyObjectAttempt(type, oid, modifications, options, subResult);
-                    return;
-                } catch (RuntimeException ex) {
-                    attempt = baseHelper.logOperationAttempt(oid, operation, attempt, ex, subResult);
-                    pm.registerOperationNewTrial(opHandle, attempt);
+            for (RepoOperation<?> operation : operations) {
+                if (batchSize > 1 && objectUpdater.isBatchable(operation)) {
+                    if (prepareForBatch(operation)) {
+                        batch.add(operation);
+                        if (batch.size() >= batchSize) {
+                            executeBatchPart(batch, subResult);
+                        }
+                    }
+                } else {
+                    // operations are executed in the given order
+                    executeBatchPart(batch, subResult);
+                    executeSingleOperation(operation, subResult);
                 }
             }
+            executeBatchPart(batch, subResult);
         } finally {
-            pm.registerOperationFinish(opHandle, attempt);
+            pm.registerOperationFinish(opHandle, 1);
+        }
+
+        int failed = 0;
+        for (RepoOperation<?> operation : operations) {
+            if (!operation.isSuccess()) {
+                failed++;
+            }
+        }
+        if (failed == 0) {
+            subResult.recordSuccess();
+        } else if (failed == operations.size()) {
+            subResult.recordFatalError("All " + failed + " operations failed.");
+        } else {
+            subResult.recordPartialError(failed + " out of " + operations.size() + " operations failed.");
+        }
+    }
+
+    /**
+     * Does the checks that single-object methods do before touching the database.
+     * Returns false if the operation need not (or cannot) be executed; its outcome is recorded in that case.
+     */
+    private boolean prepareForBatch(RepoOperation<?> operation) {
+        try {
+            switch (operation.getKind()) {
+                case ADD:
+                    validateName(operation.getObject());
+                    checkObjectToAdd(operation.getObject(), operation.getAddOptions());
+                    return true;
+                case MODIFY:
+                    if (operation.getModifications().isEmpty()
+                            && !RepoModifyOptions.isExecuteIfNoChanges(operation.getModifyOptions())) {
+                        operation.recordSuccess(operation.getOid());
+                        return false;
+                    }
+                    checkModifications(operation.getModifications());
+                    return true;
+                default:
+                    return true;
+            }
+        } catch (SchemaException | RuntimeException e) {
+            operation.recordFailure(e);
+            return false;
         }
+    }
 
+    /**
+     * Executes the operations in one transaction. If that fails, they are executed one by one,
+     * so only the failing ones are reported (and retried) as they would be by single-object methods.
+     */
+    private void executeBatchPart(List<RepoOperation<?>> batch, OperationResult result) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (batch.size() == 1) {
+            executeSingleOperation(batch.get(0), result);
+        } else if (objectUpdater.executeBatchAttempt(batch, result)) {
+            for (RepoOperation<?> operation : batch) {
+                if (operation.isSuccess()) {
+                    invokeCacheDispatcher(operation.getType(), operation.getResultOid());
+                }
+            }
+        } else {
+            for (RepoOperation<?> operation : batch) {
+                executeSingleOperation(operation, result);
+            }
+        }
+        batch.clear();
+    }
+
+    private <T extends ObjectType> void executeSingleOperation(RepoOperation<T> operation, OperationResult result) {
+        try {
+            switch (operation.getKind()) {
+                case ADD:
+                    operation.recordSuccess(addObject(operation.getObject(), operation.getAddOptions(), result));
+                    break;
+                case MODIFY:
+                    modifyObject(operation.getType(), operation.getOid(), operation.getModifications(),
+                            operation.getModifyOptions(), result);
+                    operation.recordSuccess(operation.getOid());
+                    break;
+                case DELETE:
+                    deleteObject(operation.getType(), operation.getOid(), result);
+                    operation.recordSuccess(operation.getOid());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported operation kind: " + operation.getKind());
+            }
+        } catch (ObjectAlreadyExistsException | ObjectNotFoundException | SchemaException | RuntimeException e) {
+            LOGGER.debug("Operation {} failed: {}", operation, e.getMessage(), e);
+            operation.recordFailure(e);
+        }
     }
 
     @Override
@@ -538,7 +734,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         int attempt = 1;
 
         SqlPerformanceMonitor pm = getPerformanceMonitor();
-        long opHandle = pm.registerOperationStart("listResourceObjectShadow");
+        long opHandle = pm.registerOperationStart("listResourceObjectShadow", resourceObjectShadowType);
 
         try {
             while (true) {
@@ -584,6 +780,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         details.add(new LabeledString(DETAILS_DATA_SOURCE, config.getDataSource()));
         details.add(new LabeledString(DETAILS_HIBERNATE_DIALECT, config.getHibernateDialect()));
         details.add(new LabeledString(DETAILS_HIBERNATE_HBM_2_DDL, config.getHibernateHbm2ddl()));
+        addConnectionPoolDetails(details, config);
 
         readDetailsFromConnection(diag, config);
 
@@ -595,9 +792,25 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
             }
         });
 
+        diag.setOperationStatistics(getPerformanceMonitor().getOperationStatistics());
+
         return diag;
     }
 
+    private void addConnectionPoolDetails(List<LabeledString> details, SqlRepositoryConfiguration config) {
+        ConnectionPool pool = dataSourceFactory != null ? dataSourceFactory.getConnectionPool() : null;
+        if (pool == null) {
+            return;
+        }
+        ConnectionPoolStatistics statistics = pool.getStatistics();
+        details.add(new LabeledString(DETAILS_CONNECTION_POOL, config.getConnectionPool()));
+        details.add(new LabeledString(DETAILS_CONNECTION_POOL + ".active", String.valueOf(statistics.getActive())));
+        details.add(new LabeledString(DETAILS_CONNECTION_POOL + ".idle", String.valueOf(statistics.getIdle())));
+        details.add(new LabeledString(DETAILS_CONNECTION_POOL + ".total", String.valueOf(statistics.getTotal())));
+        details.add(new LabeledString(DETAILS_CONNECTION_POOL + ".waitingThreads",
+                String.valueOf(statistics.getWaitingThreads())));
+    }
+
     private void readDetailsFromConnection(RepositoryDiag diag, final SqlRepositoryConfiguration config) {
         final List<LabeledString> details = diag.getAdditionalDetails();
 
@@ -820,21 +1033,37 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         if (LOGGER.isTraceEnabled())
             LOGGER.trace("Advancing sequence {}", oid);
 
-        int attempt = 1;
+        // values reserved by this node (if the sequence is allocated in blocks) are assigned without repository access
+        Long reservedValue = sequenceHelper.takeReservedValue(oid);
+        if (reservedValue != null) {
+            result.recordSuccess();
+            return reservedValue;
+        }
 
-        SqlPerformanceMonitor pm = getPerformanceMonitor();
-        long opHandle = pm.registerOperationStart("advanceSequence");
-        try {
-            while (true) {
-                try {
-                    return sequenceHelper.advanceSequenceAttempt(oid, result);
-                } catch (RuntimeException ex) {
-                    attempt = baseHelper.logOperationAttempt(oid, "advanceSequence", attempt, ex, null);
-                    pm.registerOperationNewTrial(opHandle, attempt);
+        synchronized (sequenceHelper.getAllocationLock(oid)) {
+            // maybe another thread has just reserved a new block
+            reservedValue = sequenceHelper.takeReservedValue(oid);
+            if (reservedValue != null) {
+                result.recordSuccess();
+                return reservedValue;
+            }
+
+            int attempt = 1;
+
+            SqlPerformanceMonitor pm = getPerformanceMonitor();
+            long opHandle = pm.registerOperationStart("advanceSequence");
+            try {
+                while (true) {
+                    try {
+                        return sequenceHelper.advanceSequenceAttempt(oid, result);
+                    } catch (RuntimeException ex) {
+                        attempt = baseHelper.logOperationAttempt(oid, "advanceSequence", attempt, ex, null);
+                        pm.registerOperationNewTrial(opHandle, attempt);
+                    }
                 }
+            } finally {
+                pm.registerOperationFinish(opHandle, attempt);
             }
-        } finally {
-            pm.registerOperationFinish(opHandle, attempt);
         }
 	}
 
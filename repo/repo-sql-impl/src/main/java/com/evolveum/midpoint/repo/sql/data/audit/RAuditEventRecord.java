@@ -32,6 +32,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 
 import org.apache.commons.lang.Validate;
+import org.hibernate.annotations.BatchSize;
 import org.hibernate.annotations.Cascade;
 import org.hibernate.annotations.ForeignKey;
 
@@ -106,6 +107,7 @@ public class RAuditEventRecord implements Serializable {
     @ForeignKey(name = "fk_audit_delta")
     @OneToMany(mappedBy = "record", orphanRemoval = true)
     @Cascade({org.hibernate.annotations.CascadeType.ALL})
+    @BatchSize(size = 100)      // deltas of listed records are loaded together, not one select per record
     public Set<RObjectDeltaOperation> getDeltas() {
         if (deltas == null) {
             deltas = new HashSet<RObjectDeltaOperation>();
@@ -38,6 +38,7 @@ import org.hibernate.annotations.ForeignKey;
 import org.hibernate.annotations.Type;
 
 import javax.persistence.*;
+import java.io.Serializable;
 
 /**
  * @author lazyman
@@ -45,7 +46,7 @@ import javax.persistence.*;
 @Entity
 @IdClass(RObjectDeltaOperationId.class)
 @Table(name = RObjectDeltaOperation.TABLE_NAME)
-public class RObjectDeltaOperation implements OperationResultFull, EntityState {
+public class RObjectDeltaOperation implements OperationResultFull, EntityState, Serializable {
 
     public static final String TABLE_NAME = "m_audit_delta";
     public static final String COLUMN_RECORD_ID = "record_id";
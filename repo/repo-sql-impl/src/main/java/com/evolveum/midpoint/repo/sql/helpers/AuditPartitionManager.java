@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.helpers;
+
+import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.repo.sql.data.audit.RObjectDeltaOperation;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maintains partitions of audit tables (m_audit_event and m_audit_delta), if they are partitioned.
+ *
+ * Both tables are partitioned by range of record ID (id and record_id, respectively), using the same bounds.
+ * Record IDs grow with time, so old records are grouped together, and each delta lives in the same partition
+ * as its record. (Partitioning by timestamp is not possible, as m_audit_delta has no timestamp.)
+ * The growth is not strictly monotonic, though: with pooled ID generators, a node can insert a record with an ID
+ * below the current maximum (from a block it allocated earlier). So the age of a partition is always determined
+ * by the newest timestamp in it, never by IDs alone.
+ * Partition covering IDs from L (inclusive) to U (exclusive) is named pL_U; new records that do not fit
+ * into any of them go to the "pmax" (or default) partition.
+ *
+ * The audit cleanup drops partitions that contain only expired records - it is a matter of milliseconds,
+ * regardless of the number of records. Remaining expired records are deleted as usual. Right before a partition
+ * is dropped, inserts are blocked (on PostgreSQL and Oracle; MySQL locks the table only for the drop itself)
+ * and its newest timestamp is checked again, as a record could have been inserted into it in the meanwhile.
+ *
+ * On MySQL, all missing partitions are split off the pmax partition by a single statement, as each reorganization
+ * copies the rows of pmax (on the first run these can be all existing records). On PostgreSQL, a new partition must
+ * not cover rows already present in the default partition, so new partitions start above the highest record ID;
+ * the tables are locked against inserts while the ID is determined and partitions are created.
+ *
+ * Supported on MySQL, PostgreSQL (11+) and Oracle; tables are to be partitioned using *-audit-partitioning.sql scripts.
+ * Other databases (H2, SQL Server) are left unpartitioned.
+ *
+ * @author agent
+ */
+@Component
+public class AuditPartitionManager {
+
+    private static final Trace LOGGER = TraceManager.getTrace(AuditPartitionManager.class);
+
+    private static final Pattern PARTITION_NAME = Pattern.compile("p(\\d+)_(\\d+)$", Pattern.CASE_INSENSITIVE);
+    private static final String MAX_PARTITION = "pmax";
+
+    // how many empty partitions are kept ready for new records
+    private static final int PARTITIONS_AHEAD = 2;
+
+    private static final List<String> TABLES = Arrays.asList(RAuditEventRecord.TABLE_NAME, RObjectDeltaOperation.TABLE_NAME);
+
+    enum Flavor { MYSQL, POSTGRESQL, ORACLE }
+
+    static class Partition {
+        final long lower;           // inclusive
+        final long upper;           // exclusive
+
+        Partition(long lower, long upper) {
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        String getName() {
+            return "p" + lower + "_" + upper;
+        }
+
+        @Override
+        public String toString() {
+            return getName();
+        }
+    }
+
+    @Autowired
+    private BaseHelper baseHelper;
+
+    public boolean isEnabled() {
+        return baseHelper.getConfiguration().isAuditPartitioning() && getFlavor() != null;
+    }
+
+    private Flavor getFlavor() {
+        SqlRepositoryConfiguration configuration = baseHelper.getConfiguration();
+        if (configuration.isUsingMySQL()) {
+            return Flavor.MYSQL;
+        } else if (configuration.isUsingPostgreSQL()) {
+            return Flavor.POSTGRESQL;
+        } else if (configuration.isUsingOracle()) {
+            return Flavor.ORACLE;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Creates partitions for records to come, so they do not end up in the max/default partition.
+     */
+    public void createPartitions() {
+        Flavor flavor = getFlavor();
+        long size = baseHelper.getConfiguration().getAuditPartitionSize();
+        Session session = null;
+        try {
+            session = baseHelper.beginTransaction();
+            if (flavor == Flavor.POSTGRESQL) {
+                // Records inserted after we read max(id) would go to the default partition, possibly into the range
+                // of a new partition, and its creation would fail. Reads are not blocked. (Locking the parent tables
+                // locks the partitions as well; locking only the default ones could deadlock with inserts.)
+                lockTables(session);
+            }
+            List<Partition> partitions = listPartitions(session, flavor);
+            long maxId = getMaxId(session);
+
+            List<Partition> newPartitions = getNewPartitions(flavor, partitions, maxId, size);
+            if (!newPartitions.isEmpty()) {
+                LOGGER.info("Creating audit partitions {}", newPartitions);
+                for (String table : TABLES) {
+                    for (String statement : getCreateStatements(flavor, table, newPartitions)) {
+                        session.createSQLQuery(statement).executeUpdate();
+                    }
+                }
+            }
+            session.getTransaction().commit();
+        } catch (RuntimeException ex) {
+            baseHelper.handleGeneralRuntimeException(ex, session, null);
+        } finally {
+            baseHelper.cleanupSessionAndResult(session, null);
+        }
+    }
+
+    /**
+     * Drops partitions that contain only records older than minValue, starting from the oldest one.
+     * Returns the number of partitions dropped.
+     */
+    public int dropExpiredPartitions(Date minValue) {
+        Flavor flavor = getFlavor();
+        int dropped = 0;
+        Session session = null;
+        try {
+            session = baseHelper.beginTransaction();
+            final Session finalSession = session;
+            List<Partition> partitions = listPartitions(session, flavor);
+            long maxId = getMaxId(session);
+            List<Partition> expired = getExpiredPartitions(partitions, maxId, minValue,
+                    partition -> getNewestTimestamp(finalSession, partition));
+            dropped = dropPartitions(expired, minValue,
+                    partition -> {
+                        // on MySQL and Oracle, each drop commits the transaction (and releases the lock)
+                        if (flavor != Flavor.MYSQL) {
+                            lockTables(finalSession);
+                        }
+                        return getNewestTimestamp(finalSession, partition);
+                    },
+                    partition -> {
+                        LOGGER.info("Dropping audit partition {}", partition);
+                        // deltas first, to be on the safe side if there's a foreign key
+                        for (int i = TABLES.size() - 1; i >= 0; i--) {
+                            finalSession.createSQLQuery(getDropStatement(flavor, TABLES.get(i), partition)).executeUpdate();
+                        }
+                    }).size();
+            session.getTransaction().commit();
+        } catch (RuntimeException ex) {
+            baseHelper.handleGeneralRuntimeException(ex, session, null);
+        } finally {
+            baseHelper.cleanupSessionAndResult(session, null);
+        }
+        return dropped;
+    }
+
+    /**
+     * Partitions to be created so that there are PARTITIONS_AHEAD partitions' worth of IDs above maxId.
+     */
+    static List<Partition> getNewPartitions(Flavor flavor, List<Partition> existing, long maxId, long size) {
+        long nextLower = existing.isEmpty() ? 0 : existing.get(existing.size() - 1).upper;
+        if (flavor == Flavor.POSTGRESQL) {
+            // rows in the default partition cannot be moved to a new partition; so we start above them
+            nextLower = Math.max(nextLower, maxId + 1);
+        }
+        List<Partition> partitions = new ArrayList<>();
+        long target = maxId + size * PARTITIONS_AHEAD;
+        while (nextLower <= target) {
+            Partition partition = new Partition(nextLower, nextLower + size);
+            partitions.add(partition);
+            nextLower = partition.upper;
+        }
+        return partitions;
+    }
+
+    /**
+     * Partitions (from the oldest one) that contain only records older than minValue. The selection stops at the first
+     * partition that has a newer record or that can still receive new records.
+     *
+     * @param newestTimestamp Returns timestamp of the newest record in a partition (null if it is empty).
+     */
+    static List<Partition> getExpiredPartitions(List<Partition> partitions, long maxId, Date minValue,
+            Function<Partition, Date> newestTimestamp) {
+        List<Partition> expired = new ArrayList<>();
+        for (Partition partition : partitions) {
+            if (partition.upper > maxId) {
+                break;          // this one can still receive new records
+            }
+            Date newest = newestTimestamp.apply(partition);
+            if (!isExpired(newest, minValue)) {
+                break;
+            }
+            LOGGER.trace("Audit partition {} is expired (newest record: {})", partition, newest);
+            expired.add(partition);
+        }
+        return expired;
+    }
+
+    /**
+     * Drops the expired partitions (from the oldest one), checking each one again right before it is dropped.
+     * Stops at the first partition that got a newer record since it was selected. Returns the partitions dropped.
+     *
+     * @param newestTimestamp Blocks inserts (if possible) and returns timestamp of the newest record in a partition.
+     */
+    static List<Partition> dropPartitions(List<Partition> expired, Date minValue, Function<Partition, Date> newestTimestamp,
+            Consumer<Partition> drop) {
+        List<Partition> dropped = new ArrayList<>();
+        for (Partition partition : expired) {
+            Date newest = newestTimestamp.apply(partition);
+            if (!isExpired(newest, minValue)) {
+                LOGGER.info("Audit partition {} got a newer record ({}) in the meanwhile, not dropping it", partition, newest);
+                break;
+            }
+            drop.accept(partition);
+            dropped.add(partition);
+        }
+        return dropped;
+    }
+
+    private static boolean isExpired(Date newest, Date minValue) {
+        return newest == null || newest.before(minValue);
+    }
+
+    // blocks inserts (but not reads) until the end of the transaction; not used on MySQL
+    private void lockTables(Session session) {
+        session.createSQLQuery("lock table " + String.join(", ", TABLES) + " in share row exclusive mode")
+                .executeUpdate();
+    }
+
+    private Date getNewestTimestamp(Session session, Partition partition) {
+        return (Timestamp) session.createSQLQuery("select max(" + RAuditEventRecord.COLUMN_TIMESTAMP
+                + ") from " + RAuditEventRecord.TABLE_NAME + " where id >= :lower and id < :upper")
+                .setLong("lower", partition.lower)
+                .setLong("upper", partition.upper)
+                .uniqueResult();
+    }
+
+    private long getMaxId(Session session) {
+        Number maxId = (Number) session.createSQLQuery("select max(id) from " + RAuditEventRecord.TABLE_NAME).uniqueResult();
+        return maxId != null ? maxId.longValue() : 0;
+    }
+
+    private List<Partition> listPartitions(Session session, Flavor flavor) {
+        String query;
+        switch (flavor) {
+            case MYSQL:
+                query = "select partition_name from information_schema.partitions where table_schema = database()"
+                        + " and table_name = '" + RAuditEventRecord.TABLE_NAME + "' and partition_name is not null";
+                break;
+            case POSTGRESQL:
+                query = "select c.relname from pg_inherits i join pg_class c on c.oid = i.inhrelid"
+                        + " join pg_class p on p.oid = i.inhparent where p.relname = '" + RAuditEventRecord.TABLE_NAME + "'";
+                break;
+            case ORACLE:
+                query = "select partition_name from user_tab_partitions where table_name = '"
+                        + RAuditEventRecord.TABLE_NAME.toUpperCase() + "'";
+                break;
+            default:
+                throw new IllegalStateException("Unsupported: " + flavor);
+        }
+        List<Partition> partitions = parsePartitions(session.createSQLQuery(query).list());
+        LOGGER.trace("Audit partitions: {}", partitions);
+        return partitions;
+    }
+
+    /**
+     * Parses partition bounds from their names (ignoring pmax/default and other partitions), sorted by lower bound.
+     */
+    static List<Partition> parsePartitions(Collection<?> names) {
+        List<Partition> partitions = new ArrayList<>();
+        for (Object name : names) {
+            Matcher matcher = PARTITION_NAME.matcher((String) name);
+            if (matcher.find()) {
+                partitions.add(new Partition(Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2))));
+            }
+        }
+        partitions.sort((p1, p2) -> Long.compare(p1.lower, p2.lower));
+        return partitions;
+    }
+
+    static List<String> getCreateStatements(Flavor flavor, String table, List<Partition> partitions) {
+        List<String> statements = new ArrayList<>();
+        switch (flavor) {
+            case MYSQL:
+                StringBuilder sb = new StringBuilder("alter table " + table + " reorganize partition " + MAX_PARTITION
+                        + " into (");
+                for (Partition partition : partitions) {
+                    sb.append("partition ").append(partition.getName())
+                            .append(" values less than (").append(partition.upper).append("), ");
+                }
+                sb.append("partition ").append(MAX_PARTITION).append(" values less than maxvalue)");
+                statements.add(sb.toString());
+                break;
+            case POSTGRESQL:
+                for (Partition partition : partitions) {
+                    statements.add("create table " + table + "_" + partition.getName() + " partition of " + table
+                            + " for values from (" + partition.lower + ") to (" + partition.upper + ")");
+                }
+                break;
+            case ORACLE:
+                for (Partition partition : partitions) {
+                    statements.add("alter table " + table + " split partition " + MAX_PARTITION + " at (" + partition.upper
+                            + ") into (partition " + partition.getName() + ", partition " + MAX_PARTITION
+                            + ") update global indexes");
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unsupported: " + flavor);
+        }
+        return statements;
+    }
+
+    private String getDropStatement(Flavor flavor, String table, Partition partition) {
+        switch (flavor) {
+            case MYSQL:
+                return "alter table " + table + " drop partition " + partition.getName();
+            case POSTGRESQL:
+                return "drop table " + table + "_" + partition.getName();
+            case ORACLE:
+                return "alter table " + table + " drop partition " + partition.getName() + " update global indexes";
+            default:
+                throw new IllegalStateException("Unsupported: " + flavor);
+        }
+    }
+}
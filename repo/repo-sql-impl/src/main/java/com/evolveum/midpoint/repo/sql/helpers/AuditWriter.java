@@ -0,0 +1,585 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.helpers;
+
+import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.repo.sql.data.audit.RObjectDeltaOperation;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Writes audit records asynchronously. Records are put into a bounded queue that is drained by a writer thread;
+ * the thread stores them in batches, each batch in one transaction (so hibernate can use JDBC batch inserts).
+ *
+ * If the queue is full, the record is written synchronously in the caller's thread. This slows down the producers
+ * to the speed of the database instead of letting the queue grow without limits.
+ *
+ * Records that could not be stored are kept in memory and the writer thread tries to store them again, with
+ * the delay between attempts growing up to RETRY_MAX_DELAY. The last attempt is made when the writer is shut down.
+ *
+ * Optionally, each record is appended to a local journal file before it is queued. Whenever all records written
+ * to the journal are processed, it is truncated, keeping only the records that could not be stored. Records found
+ * in the journal on startup are stored (before any new ones) when this bean is initialized; the ones that fail
+ * again are kept in the journal (and retried as described above). Without the journal, records that are still
+ * not stored when midPoint stops are lost. Note that a record can be stored twice if midPoint crashes between storing it
+ * and truncating the journal. The journal is a sequence of records, each one written as its length (int)
+ * followed by the serialized RAuditEventRecord.
+ *
+ * @author agent
+ */
+@Component
+public class AuditWriter {
+
+    private static final Trace LOGGER = TraceManager.getTrace(AuditWriter.class);
+
+    private static final long POLL_TIMEOUT = 1000L;              // ms
+    private static final long SHUTDOWN_TIMEOUT = 60000L;         // ms
+    private static final long RETRY_INITIAL_DELAY = 1000L;       // ms
+    private static final long RETRY_MAX_DELAY = 300000L;         // ms
+
+    @Autowired
+    private BaseHelper baseHelper;
+
+    private BlockingQueue<RAuditEventRecord> queue;
+    private int batchSize;
+    private Thread writerThread;
+    private volatile boolean running;
+    private volatile boolean shutDown;
+    // write lock is taken when shutting down, so no record can be queued after the writer thread is told to stop
+    private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+
+    // records accepted but not stored yet (including the ones being written synchronously)
+    private final AtomicLong pending = new AtomicLong();
+
+    private final Object journalLock = new Object();
+    private File journalFile;
+    private FileOutputStream journalStream;
+    private DataOutputStream journalOut;
+    private final List<RAuditEventRecord> unstoredRecords = new ArrayList<>();     // retried; also kept in the journal
+
+    private volatile long nextRetry;
+    private volatile long retryDelay = RETRY_INITIAL_DELAY;         // changed by the writer thread only
+
+    // statistics
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong writtenSynchronously = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private volatile int maxQueueDepth;
+
+    /**
+     * Accepts the record for writing. Returns as soon as the record is queued (or written, if the queue is full).
+     */
+    public void write(RAuditEventRecord record) {
+        if (!running) {
+            ensureStarted();
+        }
+        boolean accepted = false;
+        boolean queued = false;
+        stateLock.readLock().lock();
+        try {
+            if (!shutDown) {
+                pending.incrementAndGet();
+                accepted = true;
+                try {
+                    appendToJournal(record);
+                } catch (RuntimeException e) {
+                    recordsProcessed(1);
+                    throw e;
+                }
+                queued = queue.offer(record);
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        if (!accepted) {
+            storeSingle(record);            // records coming after the shutdown are stored synchronously
+        } else if (queued) {
+            enqueued.incrementAndGet();
+            int depth = queue.size();
+            if (depth > maxQueueDepth) {
+                maxQueueDepth = depth;
+            }
+        } else {
+            LOGGER.trace("Audit queue is full, writing the record synchronously");
+            try {
+                storeSingle(record);
+                writtenSynchronously.incrementAndGet();
+            } catch (RuntimeException e) {
+                keepForRetry(record);
+                throw e;
+            } finally {
+                recordsProcessed(1);
+            }
+        }
+    }
+
+    /**
+     * Waits until all records accepted up to now are stored (or the timeout expires).
+     * Returns false in case of timeout.
+     */
+    public boolean flush(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (pending) {
+            while (pending.get() > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    pending.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores records left in the journal (if there is any) and opens the journal for new records.
+     */
+    @PostConstruct
+    public void initialize() {
+        SqlRepositoryConfiguration configuration = baseHelper.getConfiguration();
+        batchSize = configuration.getAsyncAuditBatchSize();
+        if (configuration.getAsyncAuditJournalFile() != null) {
+            openJournal(new File(configuration.getAsyncAuditJournalFile()));
+        }
+    }
+
+    private synchronized void ensureStarted() {
+        if (running || shutDown) {
+            return;
+        }
+        SqlRepositoryConfiguration configuration = baseHelper.getConfiguration();
+        queue = new ArrayBlockingQueue<>(configuration.getAsyncAuditQueueSize());
+        batchSize = configuration.getAsyncAuditBatchSize();
+        running = true;
+        writerThread = new Thread(this::run, "audit-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        LOGGER.info("Asynchronous audit writer started (queue size {}, batch size {}, journal {})",
+                queue.remainingCapacity(), batchSize, journalFile);
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        stateLock.writeLock().lock();
+        try {
+            shutDown = true;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        if (!running) {
+            closeJournal();
+            return;
+        }
+        running = false;
+        try {
+            writerThread.join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int notStored = queue.size() + getUnstored();
+        if (notStored > 0) {
+            LOGGER.warn("Asynchronous audit writer stopped with {} records not stored{}", notStored,
+                    journalFile != null ? "; they will be stored on next start from " + journalFile
+                            : "; they are lost, as there is no journal");
+        }
+        closeJournal();
+        LOGGER.info("Asynchronous audit writer stopped. {}", getStatistics());
+    }
+
+    private void run() {
+        List<RAuditEventRecord> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                RAuditEventRecord first = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    storeBatch(batch);
+                }
+            } catch (InterruptedException e) {
+                LOGGER.debug("Audit writer thread interrupted");
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable t) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Unexpected exception in audit writer thread", t);
+            } finally {
+                if (!batch.isEmpty()) {
+                    recordsProcessed(batch.size());
+                    batch.clear();
+                }
+            }
+            if (System.currentTimeMillis() >= nextRetry) {
+                retryUnstored();
+            }
+        }
+        retryUnstored();            // the last chance for records that are not in the journal
+    }
+
+    /**
+     * Stores the records in one transaction. If that fails, they are stored one by one, so a single wrong
+     * record does not cause the loss of the whole batch.
+     */
+    private void storeBatch(List<RAuditEventRecord> batch) {
+        if (batch.size() > 1) {
+            try {
+                storeWithRetries(batch);
+                written.addAndGet(batch.size());
+                batches.incrementAndGet();
+                return;
+            } catch (RuntimeException ex) {
+                LOGGER.debug("Couldn't store batch of {} audit records, storing them one by one", batch.size(), ex);
+            }
+        }
+        for (RAuditEventRecord record : batch) {
+            try {
+                storeSingle(record);
+            } catch (RuntimeException ex) {
+                // already logged and counted
+                keepForRetry(record);
+            }
+        }
+    }
+
+    /**
+     * Tries to store records that failed before. Called from the writer thread.
+     */
+    private void retryUnstored() {
+        List<RAuditEventRecord> records;
+        synchronized (journalLock) {
+            if (unstoredRecords.isEmpty()) {
+                return;
+            }
+            records = new ArrayList<>(unstoredRecords);
+        }
+        LOGGER.debug("Trying to store {} audit records that could not be stored before", records.size());
+        int stored = 0;
+        for (RAuditEventRecord record : records) {
+            try {
+                storeWithRetries(Collections.singletonList(record));
+            } catch (RuntimeException ex) {
+                LOGGER.debug("Couldn't store audit record {} again", record.getEventIdentifier(), ex);
+                continue;
+            }
+            stored++;
+            written.incrementAndGet();
+            retried.incrementAndGet();
+            synchronized (journalLock) {
+                unstoredRecords.remove(record);
+            }
+        }
+        if (stored > 0) {
+            truncateJournalIfIdle();
+        }
+        retryDelay = stored < records.size() ? Math.min(retryDelay * 2, RETRY_MAX_DELAY) : RETRY_INITIAL_DELAY;
+        nextRetry = System.currentTimeMillis() + retryDelay;
+        if (stored < records.size()) {
+            LOGGER.warn("{} audit records could not be stored yet, trying again in {} ms", records.size() - stored, retryDelay);
+        }
+    }
+
+    private void storeSingle(RAuditEventRecord record) {
+        try {
+            storeWithRetries(Collections.singletonList(record));
+            written.incrementAndGet();
+        } catch (RuntimeException ex) {
+            failed.incrementAndGet();
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't store audit record {}", ex, record.getEventIdentifier());
+            throw ex;
+        }
+    }
+
+    private void storeWithRetries(List<RAuditEventRecord> records) {
+        final String operation = "audit";
+        int attempt = 1;
+
+        while (true) {
+            try {
+                storeAttempt(records);
+                return;
+            } catch (RuntimeException ex) {
+                attempt = baseHelper.logOperationAttempt(null, operation, attempt, ex, null);
+            }
+        }
+    }
+
+    private void storeAttempt(List<RAuditEventRecord> records) {
+        Session session = null;
+        try {
+            session = baseHelper.beginTransaction();
+            for (RAuditEventRecord record : records) {
+                prepareForInsert(record);
+                session.save(record);
+            }
+            session.getTransaction().commit();
+        } catch (RuntimeException ex) {
+            baseHelper.handleGeneralRuntimeException(ex, session, null);
+        } finally {
+            baseHelper.cleanupSessionAndResult(session, null);
+        }
+    }
+
+    // the record can come from a failed attempt or from the journal
+    private void prepareForInsert(RAuditEventRecord record) {
+        record.setId(0);
+        if (record.getDeltas() != null) {
+            for (RObjectDeltaOperation delta : record.getDeltas()) {
+                delta.setTransient(true);
+                delta.setRecord(record);
+                delta.setRecordId(null);
+            }
+        }
+    }
+
+    private void recordsProcessed(int count) {
+        long remaining = pending.addAndGet(-count);
+        if (remaining == 0) {
+            truncateJournalIfIdle();
+        }
+        synchronized (pending) {
+            pending.notifyAll();
+        }
+    }
+
+    //region Journal
+
+    private void openJournal(File file) {
+        journalFile = file;
+        List<RAuditEventRecord> unstored = readJournal(file);
+        try {
+            journalStream = new FileOutputStream(file, true);
+            journalOut = new DataOutputStream(journalStream);
+        } catch (IOException e) {
+            throw new SystemException("Couldn't open audit journal " + file + ": " + e.getMessage(), e);
+        }
+        if (!unstored.isEmpty()) {
+            // the records stay in the journal until they are stored; failed ones are kept there (see storeBatch)
+            LOGGER.info("Storing {} audit records found in journal {}", unstored.size(), file);
+            pending.addAndGet(unstored.size());
+            for (int i = 0; i < unstored.size(); i += batchSize) {
+                List<RAuditEventRecord> batch = unstored.subList(i, Math.min(i + batchSize, unstored.size()));
+                try {
+                    storeBatch(batch);
+                } finally {
+                    recordsProcessed(batch.size());
+                }
+            }
+        }
+        truncateJournalIfIdle();        // e.g. incomplete last record
+    }
+
+    private List<RAuditEventRecord> readJournal(File file) {
+        List<RAuditEventRecord> records = new ArrayList<>();
+        if (!file.exists()) {
+            return records;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            for (;;) {
+                byte[] data;
+                try {
+                    data = new byte[in.readInt()];
+                    in.readFully(data);
+                } catch (EOFException e) {
+                    break;          // end of file or incomplete last record
+                }
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+                    records.add((RAuditEventRecord) ois.readObject());
+                } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                    LoggingUtils.logUnexpectedException(LOGGER, "Couldn't read audit record from journal {}, skipping it", e, file);
+                }
+            }
+        } catch (IOException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't read audit journal {}", e, file);
+        }
+        return records;
+    }
+
+    private void appendToJournal(RAuditEventRecord record) {
+        if (journalOut == null) {
+            return;
+        }
+        byte[] data = serialize(record);
+        synchronized (journalLock) {
+            try {
+                writeToJournal(data);
+            } catch (IOException e) {
+                throw new SystemException("Couldn't write audit record to journal " + journalFile + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private byte[] serialize(RAuditEventRecord record) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+                oos.writeObject(record);
+            }
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new SystemException("Couldn't serialize audit record: " + e.getMessage(), e);
+        }
+    }
+
+    // guarded by journalLock
+    private void writeToJournal(byte[] data) throws IOException {
+        journalOut.writeInt(data.length);
+        journalOut.write(data);
+        journalOut.flush();
+    }
+
+    // the record was not stored, so it is retried later and it has to survive the truncation of the journal
+    private void keepForRetry(RAuditEventRecord record) {
+        synchronized (journalLock) {
+            if (unstoredRecords.isEmpty()) {
+                nextRetry = System.currentTimeMillis() + retryDelay;
+            }
+            unstoredRecords.add(record);
+        }
+    }
+
+    /**
+     * Truncates the journal if all records written to it are processed. Records that could not be stored are
+     * written to it again, so they are not lost.
+     */
+    private void truncateJournalIfIdle() {
+        if (journalOut == null) {
+            return;
+        }
+        synchronized (journalLock) {
+            // a new record could have been appended in the meanwhile
+            if (pending.get() > 0 || journalStream == null) {
+                return;
+            }
+            try {
+                journalStream.getChannel().truncate(0);
+                for (RAuditEventRecord record : unstoredRecords) {
+                    writeToJournal(serialize(record));
+                }
+            } catch (IOException | RuntimeException e) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't truncate audit journal {}", e, journalFile);
+            }
+        }
+    }
+
+    private void closeJournal() {
+        synchronized (journalLock) {
+            if (journalOut != null) {
+                try {
+                    journalOut.close();
+                } catch (IOException e) {
+                    LoggingUtils.logUnexpectedException(LOGGER, "Couldn't close audit journal {}", e, journalFile);
+                }
+                journalOut = null;
+                journalStream = null;
+            }
+        }
+    }
+
+    //endregion
+
+    //region Statistics
+
+    public int getQueueDepth() {
+        return queue != null ? queue.size() : 0;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public long getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Returns the number of records that could not be stored (yet). They are retried and kept in the journal,
+     * if there is one.
+     */
+    public int getUnstored() {
+        synchronized (journalLock) {
+            return unstoredRecords.size();
+        }
+    }
+
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getWrittenSynchronously() {
+        return writtenSynchronously.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public String getStatistics() {
+        return "Audit writer: queue depth " + getQueueDepth() + " (max " + maxQueueDepth + "), enqueued " + enqueued
+                + ", written " + written + " (in " + batches + " batches; " + writtenSynchronously + " synchronously)"
+                + ", failed " + failed + " (" + retried + " of them stored later, " + getUnstored() + " not stored yet)";
+    }
+
+    //endregion
+}
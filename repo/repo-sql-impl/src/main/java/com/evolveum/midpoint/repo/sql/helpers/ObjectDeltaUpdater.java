@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.helpers;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismReference;
+import com.evolveum.midpoint.prism.PrismReferenceValue;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.repo.sql.data.common.RObject;
+import com.evolveum.midpoint.repo.sql.data.common.RObjectReference;
+import com.evolveum.midpoint.repo.sql.data.common.other.RObjectType;
+import com.evolveum.midpoint.repo.sql.data.common.other.RReferenceOwner;
+import com.evolveum.midpoint.repo.sql.query.QueryException;
+import com.evolveum.midpoint.repo.sql.query2.QueryDefinitionRegistry2;
+import com.evolveum.midpoint.repo.sql.query2.definition.JpaAnyPropertyDefinition;
+import com.evolveum.midpoint.repo.sql.query2.definition.JpaDataNodeDefinition;
+import com.evolveum.midpoint.repo.sql.query2.definition.JpaEntityDefinition;
+import com.evolveum.midpoint.repo.sql.query2.definition.JpaEntityPointerDefinition;
+import com.evolveum.midpoint.repo.sql.query2.definition.JpaLinkDefinition;
+import com.evolveum.midpoint.repo.sql.query2.definition.JpaPropertyDefinition;
+import com.evolveum.midpoint.repo.sql.query2.definition.JpaReferenceDefinition;
+import com.evolveum.midpoint.repo.sql.query2.resolution.DataSearchResult;
+import com.evolveum.midpoint.repo.sql.util.ClassMapper;
+import com.evolveum.midpoint.repo.sql.util.RUtil;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.apache.commons.lang.StringUtils;
+import org.hibernate.EntityMode;
+import org.hibernate.MappingException;
+import org.hibernate.Query;
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
+import org.hibernate.annotations.Where;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.ComponentType;
+import org.hibernate.type.Type;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Executes object modifications as targeted SQL statements, instead of merging the whole entity graph.
+ *
+ * Merge of RObject makes Hibernate load and compare all assignments, references, extension values and so on,
+ * even if only a single property is changed. Here, each modified item is resolved using query definitions
+ * (the same ones that are used to translate queries into HQL):
+ *
+ *  - properties and embedded containers/references stored in columns are updated by "update ... set ..." statements,
+ *  - references stored in m_reference (linkRef, roleMembershipRef, parentOrgRef, approvers, ...) are updated
+ *    by deleting removed and inserting added rows,
+ *  - items that are not stored in any column (e.g. description) are present only in the full object.
+ *
+ * Full object and version are updated always. Modifications that can't be executed this way (assignments, extension,
+ * multi-valued properties stored in separate tables, photo, ...) go through the merge, as before.
+ *
+ * @author agent
+ */
+@Component
+public class ObjectDeltaUpdater {
+
+    private static final Trace LOGGER = TraceManager.getTrace(ObjectDeltaUpdater.class);
+
+    private static final Pattern REFERENCE_TYPE_CLAUSE = Pattern.compile(RObjectReference.REFERENCE_TYPE + "\\s*=\\s*(\\d+)");
+
+    private static final String F_VERSION = "version";
+    private static final String F_FULL_OBJECT = "fullObject";
+
+    @Autowired
+    private BaseHelper baseHelper;
+
+    // entity class name + "." + JPA name -> reference type (or null if not a plain reference collection)
+    private final Map<String, RReferenceOwner> referenceOwners = new ConcurrentHashMap<>();
+
+    // number of modifications executed directly (i.e. not by merge); for diagnostics and tests
+    private final AtomicLong executedPlans = new AtomicLong();
+
+    /**
+     * Describes what is to be updated.
+     */
+    public static class Plan {
+        private final Class<? extends RObject> entityClass;
+        private final AbstractEntityPersister persister;
+        // Hibernate property paths of single-column properties (e.g. "fullName.orig", "activation.administrativeStatus")
+        private final Set<String> properties = new LinkedHashSet<>();
+        private final List<ReferenceItem> references = new ArrayList<>();
+
+        private Plan(Class<? extends RObject> entityClass, AbstractEntityPersister persister) {
+            this.entityClass = entityClass;
+            this.persister = persister;
+        }
+
+        /**
+         * Remembers current values of modified references. Must be called before modifications are applied.
+         */
+        public void recordOriginalValues(PrismObject<?> object) {
+            for (ReferenceItem reference : references) {
+                reference.originalRows = getRows(object, reference.path);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Plan{entity=" + entityClass.getSimpleName() + ", properties=" + properties + ", references=" + references + "}";
+        }
+    }
+
+    private static class ReferenceItem {
+        private final ItemPath path;
+        private final RReferenceOwner owner;
+        private Set<ReferenceRow> originalRows;
+
+        private ReferenceItem(ItemPath path, RReferenceOwner owner) {
+            this.path = path;
+            this.owner = owner;
+        }
+
+        @Override
+        public String toString() {
+            return path + " (" + owner + ")";
+        }
+    }
+
+    private static class ReferenceRow {
+        private final String targetOid;
+        private final String relation;
+        private final RObjectType type;
+
+        private ReferenceRow(PrismReferenceValue value) {
+            this.targetOid = value.getOid();
+            this.relation = RUtil.qnameToString(value.getRelation());
+            this.type = ClassMapper.getHQLTypeForQName(value.getTargetType());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            ReferenceRow row = (ReferenceRow) o;
+            return targetOid.equals(row.targetOid) && relation.equals(row.relation) && type == row.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(targetOid, relation, type);
+        }
+    }
+
+    /**
+     * Returns the plan of direct updates for given modifications, or null if they have to be executed via merge.
+     */
+    public <T extends ObjectType> Plan createPlan(Class<T> type, Collection<? extends ItemDelta> modifications) {
+        if (!baseHelper.getConfiguration().isDirectModify()) {
+            return null;
+        }
+
+        Class<? extends RObject> entityClass = ClassMapper.getHQLTypeClass(type);
+        JpaEntityDefinition entityDefinition;
+        try {
+            entityDefinition = QueryDefinitionRegistry2.getInstance().findEntityDefinition(type);
+        } catch (QueryException e) {
+            LOGGER.debug("No entity definition for {}, modifications will be merged: {}", type, e.getMessage());
+            return null;
+        }
+        AbstractEntityPersister persister = (AbstractEntityPersister) baseHelper.getSessionFactory().getClassMetadata(entityClass);
+
+        Plan plan = new Plan(entityClass, persister);
+        for (ItemDelta delta : modifications) {
+            if (!addToPlan(plan, entityDefinition, delta)) {
+                LOGGER.trace("Modification of {} can't be executed directly, the object will be merged", delta.getPath());
+                return null;
+            }
+        }
+        LOGGER.trace("Direct update plan: {}", plan);
+        return plan;
+    }
+
+    private boolean addToPlan(Plan plan, JpaEntityDefinition entityDefinition, ItemDelta delta) {
+        ItemPath path = delta.getPath();
+
+        List<JpaLinkDefinition> links = new ArrayList<>();
+        DataSearchResult<JpaDataNodeDefinition> result;
+        try {
+            result = entityDefinition.findDataNodeDefinition(path, delta.getDefinition(), JpaDataNodeDefinition.class, links::add);
+        } catch (QueryException | RuntimeException e) {
+            LOGGER.trace("Couldn't resolve {}: {}", path, e.getMessage());
+            return false;
+        }
+
+        if (result == null) {
+            // item is stored only in the full object - if it's not a container with some items stored separately
+            return links.isEmpty() && !entityDefinition.hasLinkDefinitionInside(path);
+        }
+
+        StringBuilder propertyPath = new StringBuilder();
+        for (int i = 0; i < links.size(); i++) {
+            JpaLinkDefinition link = links.get(i);
+            JpaDataNodeDefinition target = link.getTargetDefinition();
+            boolean last = i == links.size() - 1;
+            if (!last) {
+                if (link.isMultivalued() || !isEmbeddedEntity(link)) {
+                    return false;
+                }
+            } else if (link.isMultivalued()) {
+                return i == 0 && addReferenceToPlan(plan, link, path);
+            } else if (target instanceof JpaAnyPropertyDefinition
+                    || !(target instanceof JpaPropertyDefinition || link.isEmbedded() && isColumnContent(target))) {
+                return false;
+            }
+            if (link.hasJpaRepresentation()) {
+                if (propertyPath.length() > 0) {
+                    propertyPath.append('.');
+                }
+                propertyPath.append(link.getJpaName());
+            }
+        }
+        return propertyPath.length() > 0 && addPropertyToPlan(plan, propertyPath.toString());
+    }
+
+    private boolean isEmbeddedEntity(JpaLinkDefinition link) {
+        JpaDataNodeDefinition target = link.getTargetDefinition();
+        if (!link.hasJpaRepresentation()) {
+            // "self" link, e.g. metadata
+            return target instanceof JpaEntityDefinition || target instanceof JpaEntityPointerDefinition;
+        } else {
+            return link.isEmbedded() && target instanceof JpaEntityDefinition;
+        }
+    }
+
+    private boolean isColumnContent(JpaDataNodeDefinition target) {
+        return target instanceof JpaEntityDefinition || target instanceof JpaReferenceDefinition;
+    }
+
+    private boolean addPropertyToPlan(Plan plan, String property) {
+        Type type;
+        try {
+            type = plan.persister.getPropertyType(property);
+        } catch (MappingException e) {
+            LOGGER.trace("No property {} in {}: {}", property, plan.entityClass, e.getMessage());
+            return false;
+        }
+        if (type instanceof ComponentType) {
+            for (String subProperty : ((ComponentType) type).getPropertyNames()) {
+                if (!addPropertyToPlan(plan, property + "." + subProperty)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (type.isAssociationType() || type.isCollectionType() || plan.persister.getPropertyColumnNames(property).length != 1) {
+            return false;
+        }
+        plan.properties.add(property);
+        return true;
+    }
+
+    private boolean addReferenceToPlan(Plan plan, JpaLinkDefinition link, ItemPath path) {
+        if (!(link.getTargetDefinition() instanceof JpaReferenceDefinition)
+                || !RObjectReference.class.equals(link.getTargetDefinition().getJpaClass())) {
+            return false;
+        }
+        RReferenceOwner owner = getReferenceOwner(plan.entityClass, link.getJpaName());
+        if (owner == null) {
+            return false;
+        }
+        for (ReferenceItem reference : plan.references) {
+            if (reference.path.equivalent(path)) {
+                return true;        // more deltas for the same item
+            }
+        }
+        plan.references.add(new ReferenceItem(path, owner));
+        return true;
+    }
+
+    /**
+     * Reference collections stored in m_reference are distinguished by reference type in @Where clause of their getters.
+     */
+    private RReferenceOwner getReferenceOwner(Class<? extends RObject> entityClass, String jpaName) {
+        String key = entityClass.getName() + "." + jpaName;
+        RReferenceOwner owner = referenceOwners.get(key);
+        if (owner == null && !referenceOwners.containsKey(key)) {
+            owner = findReferenceOwner(entityClass, jpaName);
+            referenceOwners.put(key, owner);
+        }
+        return owner;
+    }
+
+    private RReferenceOwner findReferenceOwner(Class<? extends RObject> entityClass, String jpaName) {
+        Method getter;
+        try {
+            getter = entityClass.getMethod("get" + StringUtils.capitalize(jpaName));
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+        Where where = getter.getAnnotation(Where.class);
+        if (where == null) {
+            return null;
+        }
+        Matcher matcher = REFERENCE_TYPE_CLAUSE.matcher(where.clause());
+        if (!matcher.find()) {
+            return null;
+        }
+        return RReferenceOwner.values()[Integer.parseInt(matcher.group(1))];
+    }
+
+    /**
+     * Stores the object, which already contains applied modifications, according to the plan.
+     *
+     * @param rObject Data object created from the modified object, with updated version and full object.
+     */
+    public <T extends ObjectType> void execute(Plan plan, RObject rObject, PrismObject<T> object, Session session) {
+        String oid = rObject.getOid();
+        executedPlans.incrementAndGet();
+
+        List<String> properties = new ArrayList<>(plan.properties);
+        properties.add(F_VERSION);
+        properties.add(F_FULL_OBJECT);
+
+        Map<String, List<String>> propertiesByTable = new LinkedHashMap<>();
+        for (String property : properties) {
+            String table = plan.persister.getPropertyTableName(StringUtils.substringBefore(property, "."));
+            if (table == null) {
+                throw new IllegalStateException("No table for property " + property + " in " + plan.entityClass);
+            }
+            List<String> tableProperties = propertiesByTable.get(table);
+            if (tableProperties == null) {
+                tableProperties = new ArrayList<>();
+                propertiesByTable.put(table, tableProperties);
+            }
+            tableProperties.add(property);
+        }
+
+        for (Map.Entry<String, List<String>> entry : propertiesByTable.entrySet()) {
+            StringBuilder sb = new StringBuilder("update ").append(entry.getKey()).append(" set ");
+            List<String> tableProperties = entry.getValue();
+            for (int i = 0; i < tableProperties.size(); i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(plan.persister.getPropertyColumnNames(tableProperties.get(i))[0]).append(" = :p").append(i);
+            }
+            sb.append(" where oid = :oid");
+
+            SQLQuery query = session.createSQLQuery(sb.toString());
+            for (int i = 0; i < tableProperties.size(); i++) {
+                String property = tableProperties.get(i);
+                query.setParameter("p" + i, getPropertyValue(plan.persister, rObject, property),
+                        plan.persister.getPropertyType(property));
+            }
+            query.setString("oid", oid);
+            int rows = query.executeUpdate();
+            LOGGER.trace("Updated {} row(s) in {}: {}", rows, entry.getKey(), tableProperties);
+        }
+
+        for (ReferenceItem reference : plan.references) {
+            updateReferences(plan, reference, oid, object, session);
+        }
+    }
+
+    public long getExecutedPlansCount() {
+        return executedPlans.get();
+    }
+
+    private Object getPropertyValue(AbstractEntityPersister persister, RObject rObject, String property) {
+        String[] segments = StringUtils.split(property, '.');
+        Object value = persister.getPropertyValue(rObject, segments[0]);
+        String path = segments[0];
+        for (int i = 1; i < segments.length && value != null; i++) {
+            ComponentType componentType = (ComponentType) persister.getPropertyType(path);
+            value = componentType.getPropertyValue(value, componentType.getPropertyIndex(segments[i]), EntityMode.POJO);
+            path = path + "." + segments[i];
+        }
+        return value;
+    }
+
+    private void updateReferences(Plan plan, ReferenceItem reference, String oid, PrismObject<?> object, Session session) {
+        Set<ReferenceRow> rows = getRows(object, reference.path);
+
+        Set<ReferenceRow> toDelete = new HashSet<>(reference.originalRows);
+        toDelete.removeAll(rows);
+        Set<ReferenceRow> toAdd = new HashSet<>(rows);
+        toAdd.removeAll(reference.originalRows);
+        LOGGER.trace("Updating {}: deleting {} row(s), adding {} row(s)", reference, toDelete.size(), toAdd.size());
+
+        // deletes are executed right now, inserts are executed on flush; this is safe because toDelete and toAdd are disjoint
+        for (ReferenceRow row : toDelete) {
+            Query query = session.createQuery("delete from RObjectReference where ownerOid = :oid"
+                    + " and referenceType = :referenceType and targetOid = :targetOid and relation = :relation");
+            query.setString("oid", oid);
+            query.setParameter("referenceType", reference.owner);
+            query.setString("targetOid", row.targetOid);
+            query.setString("relation", row.relation);
+            query.executeUpdate();
+        }
+
+        if (!toAdd.isEmpty()) {
+            RObject owner = (RObject) session.load(plan.entityClass, oid);
+            for (ReferenceRow row : toAdd) {
+                RObjectReference repoRef = new RObjectReference();
+                repoRef.setReferenceType(reference.owner);
+                repoRef.setOwner(owner);
+                repoRef.setOwnerOid(oid);
+                repoRef.setTargetOid(row.targetOid);
+                repoRef.setRelation(row.relation);
+                repoRef.setType(row.type);
+                session.save(repoRef);
+            }
+        }
+    }
+
+    private static Set<ReferenceRow> getRows(PrismObject<?> object, ItemPath path) {
+        Set<ReferenceRow> rows = new HashSet<>();
+        PrismReference reference = object.findItem(path, PrismReference.class);
+        if (reference != null) {
+            for (PrismReferenceValue value : reference.getValues()) {
+                if (value.getOid() != null) {
+                    rows.add(new ReferenceRow(value));
+                }
+            }
+        }
+        return rows;
+    }
+}
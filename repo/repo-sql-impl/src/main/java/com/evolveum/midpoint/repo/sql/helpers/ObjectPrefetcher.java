@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.helpers;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.slf4j.MDC;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decouples fetching of objects from their processing. Objects are fetched (and parsed) by a producer running
+ * in a background thread and passed via bounded buffer to the handler that runs in the calling thread.
+ * So the next page is being read from the database while the handler processes objects from the current one.
+ *
+ * The producer is stopped as soon as the handler asks for it; it can fetch at most one page more than needed.
+ *
+ * The producer does not see thread-bound context of the caller. This is safe, as it only reads from the SQL
+ * repository itself, i.e. below the repository cache, and the SQL repository does no authorizations. The handler
+ * (and therefore anything above the SQL repository, e.g. RepositoryCache storing the objects or code using the
+ * security context) runs in the calling thread. Only the logging MDC is copied to the producer, so its log
+ * messages are attributed correctly.
+ *
+ * @author agent
+ */
+class ObjectPrefetcher<T extends ObjectType> {
+
+    private static final Trace LOGGER = TraceManager.getTrace(ObjectPrefetcher.class);
+
+    static final String OPERATION_PREFETCH = ObjectPrefetcher.class.getName() + ".prefetch";
+
+    private static final long OFFER_TIMEOUT = 100L;         // ms
+
+    private static final Object END = new Object();
+
+    interface Producer<T extends ObjectType> {
+        /**
+         * Feeds objects into the sink, until there are no more of them or the sink returns false.
+         */
+        void produce(ResultHandler<T> sink, OperationResult result) throws SchemaException;
+    }
+
+    private final BlockingQueue<Object> buffer;
+    private final CountDownLatch producerFinished = new CountDownLatch(1);
+    private volatile boolean stopped;
+    private volatile Throwable producerException;
+
+    ObjectPrefetcher(int bufferSize) {
+        buffer = new ArrayBlockingQueue<>(bufferSize);
+    }
+
+    void execute(Executor executor, Producer<T> producer, ResultHandler<T> handler, OperationResult result)
+            throws SchemaException {
+
+        OperationResult producerResult = new OperationResult(OPERATION_PREFETCH);
+        Map<String, String> callerMdc = MDC.getCopyOfContextMap();
+        executor.execute(() -> {
+            if (callerMdc != null) {
+                MDC.setContextMap(callerMdc);
+            }
+            try {
+                producer.produce((object, parentResult) -> put(object), producerResult);
+            } catch (Throwable t) {
+                LOGGER.debug("Prefetching of objects failed", t);
+                producerException = t;
+            } finally {
+                put(END);
+                MDC.clear();            // the thread is pooled
+                producerFinished.countDown();
+            }
+        });
+
+        try {
+            for (;;) {
+                Object item = buffer.take();
+                if (item == END) {
+                    break;
+                }
+                //noinspection unchecked
+                if (!handler.handle((PrismObject<T>) item, result)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemException("Interrupted while waiting for prefetched objects", e);
+        } finally {
+            stopped = true;
+            buffer.clear();
+            awaitProducer();
+            producerResult.computeStatusIfUnknown();
+            result.addSubresult(producerResult);
+        }
+
+        rethrowProducerException();
+    }
+
+    private boolean put(Object item) {
+        try {
+            while (!stopped) {
+                if (buffer.offer(item, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private void awaitProducer() {
+        try {
+            producerFinished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void rethrowProducerException() throws SchemaException {
+        Throwable t = producerException;
+        if (t == null) {
+            return;
+        } else if (t instanceof SchemaException) {
+            throw (SchemaException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else {
+            throw new SystemException(t.getMessage(), t);
+        }
+    }
+}
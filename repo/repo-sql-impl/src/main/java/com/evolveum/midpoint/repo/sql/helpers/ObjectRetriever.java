@@ -26,6 +26,7 @@ import com.evolveum.midpoint.prism.query.ObjectPaging;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.query.ValueFilter;
 import com.evolveum.midpoint.prism.query.Visitor;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.sql.ObjectPagingAfterOid;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
@@ -38,6 +39,7 @@ import com.evolveum.midpoint.repo.sql.query.QueryEngine;
 import com.evolveum.midpoint.repo.sql.query.QueryException;
 import com.evolveum.midpoint.repo.sql.query.RQuery;
 import com.evolveum.midpoint.repo.sql.query2.QueryEngine2;
+import com.evolveum.midpoint.repo.sql.query2.QueryPlanCache;
 import com.evolveum.midpoint.repo.sql.query2.RQueryImpl;
 import com.evolveum.midpoint.repo.sql.query2.hqm.QueryParameterValue;
 import com.evolveum.midpoint.repo.sql.util.*;
@@ -54,7 +56,9 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationC
 import com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationCaseType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.LookupTableType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 import org.hibernate.Criteria;
@@ -71,8 +75,16 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.xml.namespace.QName;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author lazyman, mederly
@@ -105,6 +117,67 @@ public class ObjectRetriever {
     @Autowired
     private PrismContext prismContext;
 
+    @Autowired
+    private OrgHierarchyIndex orgHierarchyIndex;
+
+    // not present e.g. in repository-only tests
+    @Autowired(required = false)
+    private CacheDispatcher cacheDispatcher;
+
+    private final QueryPlanCache queryPlanCache = new QueryPlanCache();
+
+    private final ShadowAttributeDefinitionCache shadowDefinitionCache = new ShadowAttributeDefinitionCache();
+
+    private ExecutorService parseExecutor;              // created on first use
+    private ExecutorService prefetchExecutor;           // created on first use
+
+    @PostConstruct
+    public void initialize() {
+        if (cacheDispatcher != null) {
+            cacheDispatcher.registerCacheListener(shadowDefinitionCache,
+                    Collections.<Class<? extends ObjectType>>singletonList(ResourceType.class));
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (cacheDispatcher != null) {
+            cacheDispatcher.unregisterCacheListener(shadowDefinitionCache);
+        }
+        if (parseExecutor != null) {
+            parseExecutor.shutdownNow();
+            parseExecutor = null;
+        }
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdownNow();
+            prefetchExecutor = null;
+        }
+    }
+
+    private synchronized ExecutorService getParseExecutor() {
+        if (parseExecutor == null) {
+            parseExecutor = Executors.newFixedThreadPool(getConfiguration().getParseThreads(),
+                    createThreadFactory("repo-parse-"));
+        }
+        return parseExecutor;
+    }
+
+    private synchronized ExecutorService getPrefetchExecutor() {
+        if (prefetchExecutor == null) {
+            prefetchExecutor = Executors.newCachedThreadPool(createThreadFactory("repo-prefetch-"));
+        }
+        return prefetchExecutor;
+    }
+
+    private static ThreadFactory createThreadFactory(String namePrefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
     public <T extends ObjectType> PrismObject<T> getObjectAttempt(Class<T> type, String oid,
                                                                   Collection<SelectorOptions<GetOperationOptions>> options,
                                                                   OperationResult result)
@@ -144,6 +217,17 @@ public class ObjectRetriever {
 			Collection<SelectorOptions<GetOperationOptions>> options,
 			boolean lockForUpdate, OperationResult operationResult)
             throws ObjectNotFoundException, SchemaException, DtoTranslationException {
+		return getObjectInternal(session, type, oid, options, lockForUpdate, lockForUpdate, operationResult);
+	}
+
+	/**
+	 * @param loadEntity Whether to load the whole entity into the session. It makes subsequent merge faster;
+	 *                   but it is useless if the object is going to be updated directly (see ObjectDeltaUpdater).
+	 */
+    public <T extends ObjectType> PrismObject<T> getObjectInternal(Session session, Class<T> type, String oid,
+			Collection<SelectorOptions<GetOperationOptions>> options,
+			boolean lockForUpdate, boolean loadEntity, OperationResult operationResult)
+            throws ObjectNotFoundException, SchemaException, DtoTranslationException {
 
 		boolean lockedForUpdateViaHibernate = false;
 		boolean lockedForUpdateViaSql = false;
@@ -181,7 +265,7 @@ public class ObjectRetriever {
 		}
 
 		GetObjectResult fullObject = null;
-		if (!lockForUpdate) {
+		if (!loadEntity) {
 			Query query = session.getNamedQuery("get.object");
 			query.setString("oid", oid);
 			query.setResultTransformer(GetObjectResult.RESULT_TRANSFORMER);
@@ -233,6 +317,14 @@ public class ObjectRetriever {
         return baseHelper.getConfiguration();
     }
 
+    public QueryPlanCache getQueryPlanCache() {
+        return queryPlanCache;
+    }
+
+    public ShadowAttributeDefinitionCache getShadowDefinitionCache() {
+        return shadowDefinitionCache;
+    }
+
     private <T extends ObjectType> PrismObject<T> throwObjectNotFoundException(Class<T> type, String oid)
             throws ObjectNotFoundException {
         throw new ObjectNotFoundException("Object of type '" + type.getSimpleName() + "' with oid '" + oid
@@ -335,7 +427,7 @@ public class ObjectRetriever {
             } else {
                 RQuery rQuery;
                 if (isUseNewQueryInterpreter(query)) {
-                    QueryEngine2 engine = new QueryEngine2(getConfiguration(), prismContext);
+                    QueryEngine2 engine = new QueryEngine2(getConfiguration(), prismContext, orgHierarchyIndex, queryPlanCache);
                     rQuery = engine.interpret(query, type, null, true, session);
                 } else {
                     QueryEngine engine = new QueryEngine(getConfiguration(), prismContext);
@@ -368,7 +460,7 @@ public class ObjectRetriever {
             RQuery rQuery;
 
             if (isUseNewQueryInterpreter(query)) {
-                QueryEngine2 engine = new QueryEngine2(getConfiguration(), prismContext);
+                QueryEngine2 engine = new QueryEngine2(getConfiguration(), prismContext, orgHierarchyIndex, queryPlanCache);
                 rQuery = engine.interpret(query, type, options, false, session);
             } else {
                 QueryEngine engine = new QueryEngine(getConfiguration(), prismContext);
@@ -396,14 +488,60 @@ public class ObjectRetriever {
 			Session session, OperationResult result) throws SchemaException {
 		List<PrismObject<T>> rv = new ArrayList<>();
 		if (objects != null) {
-			for (GetObjectResult object : objects) {
-				PrismObject<T> prismObject = updateLoadedObject(object, type, oid, options, session, result);
+			List<PrismObject<T>> parsed = parseObjects(objects, type, oid);
+			for (int i = 0; i < objects.size(); i++) {
+				PrismObject<T> prismObject = updateLoadedObject(objects.get(i), parsed.get(i), type, options, session, result);
 				rv.add(prismObject);
 			}
 		}
 		return rv;
 	}
 
+	/**
+	 * Parsing is the most expensive part of object retrieval. It doesn't need the session, so (if configured)
+	 * it is done by a pool of threads. Parsed objects are returned in the original order.
+	 */
+	private <T extends ObjectType> List<PrismObject<T>> parseObjects(List<GetObjectResult> objects, Class<T> type,
+			String oid) throws SchemaException {
+		List<PrismObject<T>> rv = new ArrayList<>(objects.size());
+		if (getConfiguration().getParseThreads() == 0 || objects.size() < 2) {
+			for (GetObjectResult object : objects) {
+				rv.add(parseObject(object, type, oid));
+			}
+			return rv;
+		}
+
+		ExecutorService executor = getParseExecutor();
+		List<Future<PrismObject<T>>> futures = new ArrayList<>(objects.size());
+		for (GetObjectResult object : objects) {
+			futures.add(executor.submit(() -> parseObject(object, type, oid)));
+		}
+		try {
+			for (Future<PrismObject<T>> future : futures) {
+				rv.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SystemException("Interrupted while parsing objects", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SchemaException) {
+				throw (SchemaException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw new SystemException(cause);
+			}
+		} finally {
+			for (Future<PrismObject<T>> future : futures) {
+				future.cancel(false);
+			}
+		}
+		return rv;
+	}
+
 	public <C extends Containerable> SearchResultList<C> searchContainersAttempt(Class<C> type, ObjectQuery query,
                                                                                  Collection<SelectorOptions<GetOperationOptions>> options,
                                                                                  OperationResult result) throws SchemaException {
@@ -418,7 +556,7 @@ public class ObjectRetriever {
         try {
             session = baseHelper.beginReadOnlyTransaction();
 
-            QueryEngine2 engine = new QueryEngine2(getConfiguration(), prismContext);
+            QueryEngine2 engine = new QueryEngine2(getConfiguration(), prismContext, orgHierarchyIndex, queryPlanCache);
             RQuery rQuery = engine.interpret(query, type, options, false, session);
 
             List<GetContainerableResult> items = rQuery.list();
@@ -446,8 +584,12 @@ public class ObjectRetriever {
     private <T extends ObjectType> PrismObject<T> updateLoadedObject(GetObjectResult result, Class<T> type,
     		String oid, Collection<SelectorOptions<GetOperationOptions>> options,
 			Session session, OperationResult operationResult) throws SchemaException {
+        return updateLoadedObject(result, parseObject(result, type, oid), type, options, session, operationResult);
+    }
 
-        String xml = RUtil.getXmlFromByteArray(result.getFullObject(), getConfiguration().isUseZip());
+    private <T extends ObjectType> PrismObject<T> parseObject(GetObjectResult result, Class<T> type, String oid)
+            throws SchemaException {
+        String xml = FullObjectCodec.decode(result.getFullObject());
         PrismObject<T> prismObject;
         try {
             // "Postel mode": be tolerant what you read. We need this to tolerate (custom) schema changes
@@ -466,6 +608,12 @@ public class ObjectRetriever {
             		type.getSimpleName(), oid, e.getClass().getName(), e.getMessage(), xml, e);
             throw e;
         }
+        return prismObject;
+    }
+
+    private <T extends ObjectType> PrismObject<T> updateLoadedObject(GetObjectResult result, PrismObject<T> prismObject,
+            Class<T> type, Collection<SelectorOptions<GetOperationOptions>> options,
+            Session session, OperationResult operationResult) throws SchemaException {
 
         if (FocusType.class.isAssignableFrom(prismObject.getCompileTimeClass())) {
             if (SelectorOptions.hasToLoadPath(FocusType.F_JPEG_PHOTO, options)) {
@@ -483,19 +631,7 @@ public class ObjectRetriever {
             //we store it because provisioning now sends it to repo, but it should be transient
             prismObject.removeContainer(ShadowType.F_ASSOCIATION);
 
-            LOGGER.debug("Loading definitions for shadow attributes.");
-
-            Short[] counts = result.getCountProjection();
-            Class[] classes = GetObjectResult.EXT_COUNT_CLASSES;
-
-            for (int i = 0; i < classes.length; i++) {
-                if (counts[i] == null || counts[i] == 0) {
-                    continue;
-                }
-
-                applyShadowAttributeDefinitions(classes[i], prismObject, session);
-            }
-            LOGGER.debug("Definitions for attributes loaded. Counts: {}", Arrays.toString(counts));
+            applyShadowAttributeDefinitions((PrismObject<ShadowType>) prismObject, result.getCountProjection(), session);
         } else if (LookupTableType.class.equals(prismObject.getCompileTimeClass())) {
             lookupTableHelper.updateLoadedLookupTable(prismObject, options, session);
         } else if (AccessCertificationCampaignType.class.equals(prismObject.getCompileTimeClass())) {
@@ -509,39 +645,94 @@ public class ObjectRetriever {
     }
 
 
-    private void applyShadowAttributeDefinitions(Class<? extends RAnyValue> anyValueType,
-                                                 PrismObject object, Session session) throws SchemaException {
+    /**
+     * Applies definitions to shadow attributes that are stored in extension value tables. Definitions are taken
+     * from per-resource dictionary; the tables are queried only if some of the attributes are not known yet.
+     */
+    private void applyShadowAttributeDefinitions(PrismObject<ShadowType> shadow, Short[] counts, Session session)
+            throws SchemaException {
+
+        Class[] classes = GetObjectResult.EXT_COUNT_CLASSES;
+        boolean hasValues = false;
+        for (int i = 0; i < classes.length; i++) {
+            if (counts[i] != null && counts[i] != 0) {
+                hasValues = true;
+            }
+        }
+        PrismContainer<?> attributes = shadow.findContainer(ShadowType.F_ATTRIBUTES);
+        if (!hasValues || attributes == null || attributes.isEmpty()) {
+            return;
+        }
+
+        List<Item> undefined = new ArrayList<>();
+        Set<QName> names = new HashSet<>();
+        for (Item item : attributes.getValue().getItems()) {
+            if (item.getDefinition() == null) {
+                undefined.add(item);
+                names.add(item.getElementName());
+            }
+        }
+        if (undefined.isEmpty()) {
+            return;
+        }
+
+        ObjectReferenceType resourceRef = shadow.asObjectable().getResourceRef();
+        String resourceOid = resourceRef != null ? resourceRef.getOid() : null;
+
+        Map<QName, ShadowAttributeDefinitionCache.AttributeInfo> definitions =
+                resourceOid != null ? shadowDefinitionCache.get(resourceOid, names) : null;
+        if (definitions == null) {
+            LOGGER.debug("Loading definitions for shadow attributes.");
+            definitions = new HashMap<>();
+            for (int i = 0; i < classes.length; i++) {
+                if (counts[i] == null || counts[i] == 0) {
+                    continue;
+                }
+                loadShadowAttributeDefinitions(classes[i], shadow.getOid(), session, definitions);
+            }
+            LOGGER.debug("Definitions for attributes loaded. Counts: {}", Arrays.toString(counts));
+            if (resourceOid != null) {
+                shadowDefinitionCache.put(resourceOid, names, definitions);
+            }
+        }
+
+        for (Item item : undefined) {
+            ShadowAttributeDefinitionCache.AttributeInfo info = definitions.get(item.getElementName());
+            if (info == null || !info.isStored()) {
+                continue;
+            }
+            QName name = item.getElementName();
+            // A switch statement used to be here
+            // but that caused strange trouble with OpenJDK. This if-then-else works.
+            RValueType rValType = info.getValueType();
+            if (rValType == RValueType.PROPERTY) {
+                PrismPropertyDefinition<Object> def = new PrismPropertyDefinitionImpl<Object>(name, info.getType(), shadow.getPrismContext());
+                item.applyDefinition(def, true);
+            } else if (rValType == RValueType.REFERENCE) {
+                PrismReferenceDefinition def = new PrismReferenceDefinitionImpl(name, info.getType(), shadow.getPrismContext());
+                item.applyDefinition(def, true);
+            } else {
+                throw new UnsupportedOperationException("Unsupported value type " + rValType);
+            }
+        }
+    }
 
-        PrismContainer attributes = object.findContainer(ShadowType.F_ATTRIBUTES);
+    private void loadShadowAttributeDefinitions(Class<? extends RAnyValue> anyValueType, String oid, Session session,
+            Map<QName, ShadowAttributeDefinitionCache.AttributeInfo> definitions) {
 
         Query query = session.getNamedQuery("getDefinition." + anyValueType.getSimpleName());
-        query.setParameter("oid", object.getOid());
+        query.setParameter("oid", oid);
         query.setParameter("ownerType", RObjectExtensionType.ATTRIBUTES);
 
         List<Object[]> values = query.list();
-        if (values == null || values.isEmpty()) {
+        if (values == null) {
             return;
         }
 
         for (Object[] value : values) {
             QName name = RUtil.stringToQName((String) value[0]);
             QName type = RUtil.stringToQName((String) value[1]);
-            Item item = attributes.findItem(name);
-
-            // A switch statement used to be here
-            // but that caused strange trouble with OpenJDK. This if-then-else works.
-            if (item.getDefinition() == null) {
-                RValueType rValType = (RValueType) value[2];
-                if (rValType == RValueType.PROPERTY) {
-                    PrismPropertyDefinition<Object> def = new PrismPropertyDefinitionImpl<Object>(name, type, object.getPrismContext());
-                    item.applyDefinition(def, true);
-                } else if (rValType == RValueType.REFERENCE) {
-                    PrismReferenceDefinition def = new PrismReferenceDefinitionImpl(name, type, object.getPrismContext());
-                    item.applyDefinition(def, true);
-                } else {
-                    throw new UnsupportedOperationException("Unsupported value type " + rValType);
-                }
-            }
+            definitions.put(name, ShadowAttributeDefinitionCache.createInfo(type, (RValueType) value[2]));
         }
     }
 
@@ -630,7 +821,7 @@ public class ObjectRetriever {
             session = baseHelper.beginReadOnlyTransaction();
             RQuery rQuery;
             if (isUseNewQueryInterpreter(query)) {
-                QueryEngine2 engine = new QueryEngine2(getConfiguration(), prismContext);
+                QueryEngine2 engine = new QueryEngine2(getConfiguration(), prismContext, orgHierarchyIndex, queryPlanCache);
                 rQuery = engine.interpret(query, type, options, false, session);
             } else {
                 QueryEngine engine = new QueryEngine(getConfiguration(), prismContext);
@@ -662,6 +853,14 @@ public class ObjectRetriever {
         }
     }
 
+    /**
+     * Paged search. Unless offset or more orderings are requested, pages are walked by "after last key"
+     * (see {@link ObjectPagingAfterOid}), so neither counting objects upfront nor skipping already
+     * returned rows is needed.
+     *
+     * If iterativeSearchPrefetch is configured, pages are fetched in a background thread while the handler
+     * processes objects already fetched.
+     */
     public <T extends ObjectType> void searchObjectsIterativeByPaging(Class<T> type, ObjectQuery query,
                                                                       ResultHandler<T> handler,
                                                                       Collection<SelectorOptions<GetOperationOptions>> options,
@@ -669,48 +868,139 @@ public class ObjectRetriever {
             throws SchemaException {
 
         try {
-            ObjectQuery pagedQuery = query != null ? query.clone() : new ObjectQuery();
+            ObjectPaging paging = query != null ? query.getPaging() : null;
+            ObjectPrefetcher.Producer<T> search;
+            if (isKeysetPagingApplicable(paging)) {
+                search = (sink, searchResult) -> searchObjectsIterativeByKeyset(type, query, sink, options, searchResult);
+            } else {
+                search = (sink, searchResult) -> searchObjectsIterativeByOffset(type, query, sink, options, searchResult);
+            }
+            if (getConfiguration().isIterativeSearchPrefetch()) {
+                new ObjectPrefetcher<T>(getConfiguration().getIterativeSearchPrefetchBufferSize())
+                        .execute(getPrefetchExecutor(), search, handler, result);
+            } else {
+                search.produce(handler, result);
+            }
+        } finally {
+            if (result != null && result.isUnknown()) {
+                result.computeStatus();
+            }
+            result.setSummarizeSuccesses(true);
+            result.summarize();
+        }
+    }
 
-            int offset;
-            int remaining;
-            final int batchSize = getConfiguration().getIterativeSearchByPagingBatchSize();
+    private boolean isKeysetPagingApplicable(ObjectPaging paging) {
+        return paging == null
+                || (paging.getOffset() == null || paging.getOffset() == 0)
+                    && paging.getOrderingInstructions().size() <= 1
+                    && paging.getCookie() == null;
+    }
 
-            ObjectPaging paging = pagedQuery.getPaging();
+    /**
+     * Objects are ordered by (ordering item, OID); objects having no value of the ordering item come last,
+     * ordered by OID.
+     */
+    private <T extends ObjectType> void searchObjectsIterativeByKeyset(Class<T> type, ObjectQuery query,
+                                                                       ResultHandler<T> handler,
+                                                                       Collection<SelectorOptions<GetOperationOptions>> options,
+                                                                       OperationResult result)
+            throws SchemaException {
 
-            if (paging == null) {
-                paging = ObjectPaging.createPaging(0, 0);        // counts will be filled-in later
-                pagedQuery.setPaging(paging);
-                offset = 0;
-                remaining = repositoryService.countObjects(type, query, result);
-            } else {
-                offset = paging.getOffset() != null ? paging.getOffset() : 0;
-                remaining = paging.getMaxSize() != null ? paging.getMaxSize() : repositoryService.countObjects(type, query, result) - offset;
+        ObjectQuery pagedQuery = query != null ? query.clone() : new ObjectQuery();
+        ObjectPaging originalPaging = pagedQuery.getPaging();
+        final int batchSize = getConfiguration().getIterativeSearchByPagingBatchSize();
+
+        ObjectPagingAfterOid paging = new ObjectPagingAfterOid();
+        ItemPath orderBy = null;
+        int remaining = Integer.MAX_VALUE;
+        if (originalPaging != null) {
+            if (originalPaging.hasOrdering()) {
+                paging.setOrdering(originalPaging.getPrimaryOrdering());
+                orderBy = originalPaging.getOrderBy();
+            }
+            if (originalPaging.getMaxSize() != null) {
+                remaining = originalPaging.getMaxSize();
             }
+        }
+        pagedQuery.setPaging(paging);
 
-main:       while (remaining > 0) {
-                paging.setOffset(offset);
-                paging.setMaxSize(remaining < batchSize ? remaining : batchSize);
+main:   while (remaining > 0) {
+            int pageSize = remaining < batchSize ? remaining : batchSize;
+            paging.setMaxSize(pageSize);
 
-                List<PrismObject<T>> objects = repositoryService.searchObjects(type, pagedQuery, options, result);
+            List<PrismObject<T>> objects = repositoryService.searchObjects(type, pagedQuery, options, result);
 
-                for (PrismObject<T> object : objects) {
-                    if (!handler.handle(object, result)) {
-                        break main;
-                    }
+            for (PrismObject<T> object : objects) {
+                remaining--;
+                if (!handler.handle(object, result)) {
+                    break main;
                 }
+            }
 
-                if (objects.size() == 0) {
-                    break;                      // should not occur, but let's check for this to avoid endless loops
+            if (objects.size() < pageSize) {
+                if (orderBy != null && !paging.isNullOrderingValues()) {
+                    // objects with ordering item values are done, let's continue with the ones without them
+                    paging.setNullOrderingValues(true);
+                    paging.setOrderingValue(null);
+                    paging.setOidGreaterThan(null);
+                    continue;
                 }
-                offset += objects.size();
-                remaining -= objects.size();
+                break;
             }
-        } finally {
-            if (result != null && result.isUnknown()) {
-                result.computeStatus();
+
+            PrismObject<T> last = objects.get(objects.size() - 1);
+            paging.setOidGreaterThan(last.getOid());
+            if (orderBy != null && !paging.isNullOrderingValues()) {
+                paging.setOrderingValue(getOrderingValue(last, orderBy));
             }
-            result.setSummarizeSuccesses(true);
-            result.summarize();
+        }
+    }
+
+    private <T extends ObjectType> Object getOrderingValue(PrismObject<T> object, ItemPath orderBy) {
+        PrismProperty<?> property = object.findProperty(orderBy);
+        Object value = property != null ? property.getRealValue() : null;
+        if (value == null) {
+            // we would not be able to continue (and we must not start from the beginning)
+            throw new SystemException("No value of '" + orderBy + "' in " + object + " although it was used for ordering; "
+                    + "is it excluded from retrieval?");
+        }
+        return value;
+    }
+
+    private <T extends ObjectType> void searchObjectsIterativeByOffset(Class<T> type, ObjectQuery query,
+                                                                       ResultHandler<T> handler,
+                                                                       Collection<SelectorOptions<GetOperationOptions>> options,
+                                                                       OperationResult result)
+            throws SchemaException {
+
+        ObjectQuery pagedQuery = query.clone();
+
+        int offset;
+        int remaining;
+        final int batchSize = getConfiguration().getIterativeSearchByPagingBatchSize();
+
+        ObjectPaging paging = pagedQuery.getPaging();
+        offset = paging.getOffset() != null ? paging.getOffset() : 0;
+        remaining = paging.getMaxSize() != null ? paging.getMaxSize() : repositoryService.countObjects(type, query, result) - offset;
+
+main:   while (remaining > 0) {
+            paging.setOffset(offset);
+            paging.setMaxSize(remaining < batchSize ? remaining : batchSize);
+
+            List<PrismObject<T>> objects = repositoryService.searchObjects(type, pagedQuery, options, result);
+
+            for (PrismObject<T> object : objects) {
+                if (!handler.handle(object, result)) {
+                    break main;
+                }
+            }
+
+            if (objects.size() == 0) {
+                break;                      // should not occur, but let's check for this to avoid endless loops
+            }
+            offset += objects.size();
+            remaining -= objects.size();
         }
     }
 
@@ -776,6 +1066,11 @@ main:       for (;;) {
     }
 
     public boolean isAnySubordinateAttempt(String upperOrgOid, Collection<String> lowerObjectOids) {
+        Boolean fromIndex = orgHierarchyIndex.isAnySubordinate(upperOrgOid, lowerObjectOids);
+        if (fromIndex != null) {
+            return fromIndex;
+        }
+
         Session session = null;
         try {
             session = baseHelper.beginReadOnlyTransaction();
@@ -815,7 +1110,7 @@ main:       for (;;) {
 			final Query query;
 			final boolean isMidpointQuery = request.getImplementationLevelQuery() == null;
 			if (isMidpointQuery) {
-				QueryEngine2 engine = new QueryEngine2(getConfiguration(), prismContext);
+				QueryEngine2 engine = new QueryEngine2(getConfiguration(), prismContext, orgHierarchyIndex);
 				RQueryImpl rQuery = (RQueryImpl) engine.interpret(request.getQuery(), request.getType(), null, false, session);
 				query = rQuery.getQuery();
 				implementationLevelQuery = query.getQueryString();
@@ -27,6 +27,7 @@ import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.util.CloneUtil;
 import com.evolveum.midpoint.repo.api.RepoAddOptions;
 import com.evolveum.midpoint.repo.api.RepoModifyOptions;
+import com.evolveum.midpoint.repo.api.RepoOperation;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.sql.SerializationRelatedException;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
@@ -34,6 +35,7 @@ import com.evolveum.midpoint.repo.sql.SqlRepositoryServiceImpl;
 import com.evolveum.midpoint.repo.sql.data.common.RObject;
 import com.evolveum.midpoint.repo.sql.util.ClassMapper;
 import com.evolveum.midpoint.repo.sql.util.DtoTranslationException;
+import com.evolveum.midpoint.repo.sql.util.FullObjectCodec;
 import com.evolveum.midpoint.repo.sql.util.IdGeneratorResult;
 import com.evolveum.midpoint.repo.sql.util.PrismIdentifierGenerator;
 import com.evolveum.midpoint.repo.sql.util.RUtil;
@@ -51,6 +53,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationC
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.LookupTableType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
 import org.apache.commons.lang.StringUtils;
 import org.hibernate.Criteria;
 import org.hibernate.Query;
@@ -62,6 +65,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import javax.xml.namespace.QName;
 import java.lang.reflect.Method;
 import java.sql.SQLException;
 import java.util.*;
@@ -95,6 +99,9 @@ public class ObjectUpdater {
     @Autowired
     private OrgClosureManager closureManager;
 
+    @Autowired
+    private ObjectDeltaUpdater objectDeltaUpdater;
+
     @Autowired
     private PrismContext prismContext;
 
@@ -230,32 +237,33 @@ public class ObjectUpdater {
 
     public <T extends ObjectType> void updateFullObject(RObject object, PrismObject<T> savedObject)
             throws DtoTranslationException, SchemaException {
-        LOGGER.debug("Updating full object xml column start.");
+        LOGGER.debug("Updating full object column start.");
         savedObject.setVersion(Integer.toString(object.getVersion()));
 
-        // Deep cloning for object transformation - we don't want to return object "changed" by save.
-        // Its' because we're removing some properties during save operation and if save fails,
-        // overwrite attempt (for example using object importer) might try to delete existing object
-        // and then try to save this object one more time.
-        String xml = prismContext.serializeObjectToString(savedObject, PrismContext.LANG_XML);
-        savedObject = prismContext.parseObject(xml);
-
-        if (FocusType.class.isAssignableFrom(savedObject.getCompileTimeClass())) {
-            savedObject.removeProperty(FocusType.F_JPEG_PHOTO);
-        } else if (LookupTableType.class.equals(savedObject.getCompileTimeClass())) {
-            savedObject.removeContainer(LookupTableType.F_ROW);
-        } else if (AccessCertificationCampaignType.class.equals(savedObject.getCompileTimeClass())) {
-            savedObject.removeContainer(AccessCertificationCampaignType.F_CASE);
+        // Some items are stored separately (or not at all); they are left out during serialization.
+        // We don't remove them from the object itself, because if save fails, overwrite attempt (for example
+        // using object importer) might try to delete existing object and then try to save this object one more time.
+        List<QName> itemsToSkip = new ArrayList<>();
+        Class<T> compileTimeClass = savedObject.getCompileTimeClass();
+        if (compileTimeClass != null && FocusType.class.isAssignableFrom(compileTimeClass)) {
+            itemsToSkip.add(FocusType.F_JPEG_PHOTO);
+        } else if (LookupTableType.class.equals(compileTimeClass)) {
+            itemsToSkip.add(LookupTableType.F_ROW);
+        } else if (AccessCertificationCampaignType.class.equals(compileTimeClass)) {
+            itemsToSkip.add(AccessCertificationCampaignType.F_CASE);
         }
 
-        xml = prismContext.serializeObjectToString(savedObject, PrismContext.LANG_XML);
-        byte[] fullObject = RUtil.getByteArrayFromXml(xml, getConfiguration().isUseZip());
+        FullObjectCodec codec = getConfiguration().getFullObjectCodec();
+        String data = prismContext.serializerFor(codec.getLanguage())
+                .itemsToSkip(itemsToSkip)
+                .serialize(savedObject);
+        byte[] fullObject = codec.encode(data);
 
-        LOGGER.trace("Storing full object\n{}", xml);
+        LOGGER.trace("Storing full object\n{}", data);
 
         object.setFullObject(fullObject);
 
-        LOGGER.debug("Updating full object xml column finish.");
+        LOGGER.debug("Updating full object column finish.");
     }
 
     protected SqlRepositoryConfiguration getConfiguration() {
@@ -309,23 +317,7 @@ public class ObjectUpdater {
 
             closureContext = closureManager.onBeginTransactionDelete(session, type, oid);
 
-            Criteria query = session.createCriteria(ClassMapper.getHQLTypeClass(type));
-            query.add(Restrictions.eq("oid", oid));
-            RObject object = (RObject) query.uniqueResult();
-            if (object == null) {
-                throw new ObjectNotFoundException("Object of type '" + type.getSimpleName() + "' with oid '" + oid
-                        + "' was not found.", null, oid);
-            }
-
-            closureManager.updateOrgClosure(null, null, session, oid, type, OrgClosureManager.Operation.DELETE, closureContext);
-
-            session.delete(object);
-            if (LookupTableType.class.equals(type)) {
-                lookupTableHelper.deleteLookupTableRows(session, oid);
-            }
-            if (AccessCertificationCampaignType.class.equals(type)) {
-                caseHelper.deleteCertificationCampaignCases(session, oid);
-            }
+            deleteObjectInSession(type, oid, session, closureContext);
 
             session.getTransaction().commit();
         } catch (ObjectNotFoundException ex) {
@@ -338,6 +330,28 @@ public class ObjectUpdater {
         }
     }
 
+    private <T extends ObjectType> void deleteObjectInSession(Class<T> type, String oid, Session session,
+                                                              OrgClosureManager.Context closureContext)
+            throws ObjectNotFoundException {
+        Criteria query = session.createCriteria(ClassMapper.getHQLTypeClass(type));
+        query.add(Restrictions.eq("oid", oid));
+        RObject object = (RObject) query.uniqueResult();
+        if (object == null) {
+            throw new ObjectNotFoundException("Object of type '" + type.getSimpleName() + "' with oid '" + oid
+                    + "' was not found.", null, oid);
+        }
+
+        closureManager.updateOrgClosure(null, null, session, oid, type, OrgClosureManager.Operation.DELETE, closureContext);
+
+        session.delete(object);
+        if (LookupTableType.class.equals(type)) {
+            lookupTableHelper.deleteLookupTableRows(session, oid);
+        }
+        if (AccessCertificationCampaignType.class.equals(type)) {
+            caseHelper.deleteCertificationCampaignCases(session, oid);
+        }
+    }
+
     public <T extends ObjectType> void modifyObjectAttempt(Class<T> type, String oid,
 			Collection<? extends ItemDelta> modifications,
 			RepoModifyOptions modifyOptions, OperationResult result) throws ObjectNotFoundException,
@@ -361,78 +375,7 @@ public class ObjectUpdater {
 
             closureContext = closureManager.onBeginTransactionModify(session, type, oid, modifications);
 
-            Collection<? extends ItemDelta> lookupTableModifications = lookupTableHelper.filterLookupTableModifications(type, modifications);
-            Collection<? extends ItemDelta> campaignCaseModifications = caseHelper.filterCampaignCaseModifications(type, modifications);
-
-            if (!modifications.isEmpty() || RepoModifyOptions.isExecuteIfNoChanges(modifyOptions)) {
-
-                // JpegPhoto (RFocusPhoto) is a special kind of entity. First of all, it is lazily loaded, because photos are really big.
-                // Each RFocusPhoto naturally belongs to one RFocus, so it would be appropriate to set orphanRemoval=true for focus-photo
-                // association. However, this leads to a strange problem when merging in-memory RFocus object with the database state:
-                // If in-memory RFocus object has no photo associated (because of lazy loading), then the associated RFocusPhoto is deleted.
-                //
-                // To prevent this behavior, we've set orphanRemoval to false. Fortunately, the remove operation on RFocus
-                // seems to be still cascaded to RFocusPhoto. What we have to implement ourselves, however, is removal of RFocusPhoto
-                // _without_ removing of RFocus. In order to know whether the photo has to be removed, we have to retrieve
-                // its value, apply the delta (e.g. if the delta is a DELETE VALUE X, we have to know whether X matches current
-                // value of the photo), and if the resulting value is empty, we have to manually delete the RFocusPhoto instance.
-                //
-                // So the first step is to retrieve the current value of photo - we obviously do this only if the modifications
-                // deal with the jpegPhoto property.
-                Collection<SelectorOptions<GetOperationOptions>> options;
-                boolean containsFocusPhotoModification = FocusType.class.isAssignableFrom(type) && containsPhotoModification(modifications);
-                if (containsFocusPhotoModification) {
-                    options = Collections.singletonList(SelectorOptions.create(FocusType.F_JPEG_PHOTO, GetOperationOptions.createRetrieve(RetrieveOption.INCLUDE)));
-                } else {
-                    options = null;
-                }
-
-                // get object
-                PrismObject<T> prismObject = objectRetriever.getObjectInternal(session, type, oid, options, true, result);
-                // apply diff
-                if (LOGGER.isTraceEnabled()) {
-                    LOGGER.trace("OBJECT before:\n{}", new Object[]{prismObject.debugDump()});
-                }
-                PrismObject<T> originalObject = null;
-                if (closureManager.isEnabled()) {
-                    originalObject = prismObject.clone();
-                }
-                ItemDelta.applyTo(modifications, prismObject);
-                if (LOGGER.isTraceEnabled()) {
-                    LOGGER.trace("OBJECT after:\n{}", prismObject.debugDump());
-                }
-                // Continuing the photo treatment: should we remove the (now obsolete) focus photo?
-                // We have to test prismObject at this place, because updateFullObject (below) removes photo property from the prismObject.
-                boolean shouldPhotoBeRemoved = containsFocusPhotoModification && ((FocusType) prismObject.asObjectable()).getJpegPhoto() == null;
-
-                // merge and update object
-                LOGGER.trace("Translating JAXB to data type.");
-                RObject rObject = createDataObjectFromJAXB(prismObject, PrismIdentifierGenerator.Operation.MODIFY);
-                rObject.setVersion(rObject.getVersion() + 1);
-
-                updateFullObject(rObject, prismObject);
-                LOGGER.trace("Starting merge.");
-                session.merge(rObject);
-                if (closureManager.isEnabled()) {
-                    closureManager.updateOrgClosure(originalObject, modifications, session, oid, type, OrgClosureManager.Operation.MODIFY, closureContext);
-                }
-
-                // JpegPhoto cleanup: As said before, if a focus has to have no photo (after modifications are applied),
-                // we have to remove the photo manually.
-                if (shouldPhotoBeRemoved) {
-                    Query query = session.createQuery("delete RFocusPhoto where ownerOid = :oid");
-                    query.setParameter("oid", prismObject.getOid());
-                    query.executeUpdate();
-                    LOGGER.trace("Focus photo for {} was deleted", prismObject.getOid());
-                }
-            }
-
-            if (LookupTableType.class.isAssignableFrom(type)) {
-                lookupTableHelper.updateLookupTableData(session, oid, lookupTableModifications);
-            }
-            if (AccessCertificationCampaignType.class.isAssignableFrom(type)) {
-                caseHelper.updateCampaignCases(session, oid, campaignCaseModifications, modifyOptions);
-            }
+            modifyObjectInSession(type, oid, modifications, modifyOptions, session, closureContext, result);
 
             LOGGER.trace("Before commit...");
             session.getTransaction().commit();
@@ -462,6 +405,217 @@ public class ObjectUpdater {
         }
     }
 
+    private <T extends ObjectType> void modifyObjectInSession(Class<T> type, String oid,
+            Collection<? extends ItemDelta> modifications, RepoModifyOptions modifyOptions, Session session,
+            OrgClosureManager.Context closureContext, OperationResult result)
+            throws ObjectNotFoundException, SchemaException, DtoTranslationException {
+
+        Collection<? extends ItemDelta> lookupTableModifications = lookupTableHelper.filterLookupTableModifications(type, modifications);
+        Collection<? extends ItemDelta> campaignCaseModifications = caseHelper.filterCampaignCaseModifications(type, modifications);
+
+        if (!modifications.isEmpty() || RepoModifyOptions.isExecuteIfNoChanges(modifyOptions)) {
+
+            // JpegPhoto (RFocusPhoto) is a special kind of entity. First of all, it is lazily loaded, because photos are really big.
+            // Each RFocusPhoto naturally belongs to one RFocus, so it would be appropriate to set orphanRemoval=true for focus-photo
+            // association. However, this leads to a strange problem when merging in-memory RFocus object with the database state:
+            // If in-memory RFocus object has no photo associated (because of lazy loading), then the associated RFocusPhoto is deleted.
+            //
+            // To prevent this behavior, we've set orphanRemoval to false. Fortunately, the remove operation on RFocus
+            // seems to be still cascaded to RFocusPhoto. What we have to implement ourselves, however, is removal of RFocusPhoto
+            // _without_ removing of RFocus. In order to know whether the photo has to be removed, we have to retrieve
+            // its value, apply the delta (e.g. if the delta is a DELETE VALUE X, we have to know whether X matches current
+            // value of the photo), and if the resulting value is empty, we have to manually delete the RFocusPhoto instance.
+            //
+            // So the first step is to retrieve the current value of photo - we obviously do this only if the modifications
+            // deal with the jpegPhoto property.
+            Collection<SelectorOptions<GetOperationOptions>> options;
+            boolean containsFocusPhotoModification = FocusType.class.isAssignableFrom(type) && containsPhotoModification(modifications);
+            if (containsFocusPhotoModification) {
+                options = Collections.singletonList(SelectorOptions.create(FocusType.F_JPEG_PHOTO, GetOperationOptions.createRetrieve(RetrieveOption.INCLUDE)));
+            } else {
+                options = null;
+            }
+
+            // modifications of simple items are stored by targeted SQL statements; others need merge of the whole entity
+            ObjectDeltaUpdater.Plan directUpdatePlan = null;
+            if (!containsFocusPhotoModification) {
+                directUpdatePlan = objectDeltaUpdater.createPlan(type, modifications);
+            }
+
+            // get object
+            PrismObject<T> prismObject = objectRetriever.getObjectInternal(session, type, oid, options, true,
+                    directUpdatePlan == null, result);
+            // apply diff
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("OBJECT before:\n{}", new Object[]{prismObject.debugDump()});
+            }
+            PrismObject<T> originalObject = null;
+            if (closureManager.isEnabled()) {
+                originalObject = prismObject.clone();
+            }
+            if (directUpdatePlan != null) {
+                directUpdatePlan.recordOriginalValues(prismObject);
+            }
+            ItemDelta.applyTo(modifications, prismObject);
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("OBJECT after:\n{}", prismObject.debugDump());
+            }
+            // Continuing the photo treatment: should we remove the (now obsolete) focus photo?
+            // We have to test prismObject at this place, because updateFullObject (below) removes photo property from the prismObject.
+            boolean shouldPhotoBeRemoved = containsFocusPhotoModification && ((FocusType) prismObject.asObjectable()).getJpegPhoto() == null;
+
+            // merge and update object
+            LOGGER.trace("Translating JAXB to data type.");
+            RObject rObject = createDataObjectFromJAXB(prismObject, PrismIdentifierGenerator.Operation.MODIFY);
+            rObject.setVersion(rObject.getVersion() + 1);
+
+            updateFullObject(rObject, prismObject);
+            if (directUpdatePlan != null) {
+                LOGGER.trace("Starting direct update.");
+                objectDeltaUpdater.execute(directUpdatePlan, rObject, prismObject, session);
+            } else {
+                LOGGER.trace("Starting merge.");
+                session.merge(rObject);
+            }
+            if (closureManager.isEnabled()) {
+                closureManager.updateOrgClosure(originalObject, modifications, session, oid, type, OrgClosureManager.Operation.MODIFY, closureContext);
+            }
+
+            // JpegPhoto cleanup: As said before, if a focus has to have no photo (after modifications are applied),
+            // we have to remove the photo manually.
+            if (shouldPhotoBeRemoved) {
+                Query query = session.createQuery("delete RFocusPhoto where ownerOid = :oid");
+                query.setParameter("oid", prismObject.getOid());
+                query.executeUpdate();
+                LOGGER.trace("Focus photo for {} was deleted", prismObject.getOid());
+            }
+        }
+
+        if (LookupTableType.class.isAssignableFrom(type)) {
+            lookupTableHelper.updateLookupTableData(session, oid, lookupTableModifications);
+        }
+        if (AccessCertificationCampaignType.class.isAssignableFrom(type)) {
+            caseHelper.updateCampaignCases(session, oid, campaignCaseModifications, modifyOptions);
+        }
+    }
+
+    /**
+     * Can the operation be executed as part of a multi-object transaction? Org closure maintenance needs
+     * its own transaction (table locks, temporary tables), and the overwrite mode of add has its own
+     * existence checks, so these go through single-object methods.
+     */
+    public boolean isBatchable(RepoOperation<?> operation) {
+        if (operation.getType() == null) {
+            return false;
+        }
+        if (closureManager.isEnabled() && OrgType.class.isAssignableFrom(operation.getType())) {
+            return false;
+        }
+        return operation.getKind() != RepoOperation.Kind.ADD || !RepoAddOptions.isOverwrite(operation.getAddOptions());
+    }
+
+    /**
+     * Executes batchable operations in a single transaction. Statements are sent to the database using
+     * JDBC batching when the session is flushed.
+     *
+     * Adds of objects whose OIDs already exist are left out and recorded as failed (the other operations go on).
+     * Any other failure rolls back the whole transaction; in that case false is returned, nothing is
+     * recorded in the operations, and the caller is expected to execute them one by one.
+     */
+    public boolean executeBatchAttempt(List<? extends RepoOperation<?>> operations, OperationResult result) {
+        LOGGER_PERFORMANCE.debug("> execute batch of {} operations", operations.size());
+
+        Session session = null;
+        try {
+            session = baseHelper.beginTransaction();
+
+            Collection<String> existingOids = findExistingOids(operations, session);
+            List<RepoOperation<?>> toExecute = new ArrayList<>(operations.size());
+            for (RepoOperation<?> operation : operations) {
+                if (!isAddOfExistingOid(operation, existingOids)) {
+                    toExecute.add(operation);
+                }
+            }
+            List<String> oids = new ArrayList<>(toExecute.size());
+            for (RepoOperation<?> operation : toExecute) {
+                oids.add(executeInSession(operation, session, result));
+            }
+            session.getTransaction().commit();
+
+            for (RepoOperation<?> operation : operations) {
+                if (isAddOfExistingOid(operation, existingOids)) {
+                    operation.recordFailure(new ObjectAlreadyExistsException("Object '" + operation.getType().getSimpleName()
+                            + "' with oid '" + operation.getOid() + "' already exists."));
+                }
+            }
+            for (int i = 0; i < toExecute.size(); i++) {
+                RepoOperation<?> operation = toExecute.get(i);
+                if (operation.getKind() == RepoOperation.Kind.ADD) {
+                    operation.getObject().setOid(oids.get(i));
+                }
+                operation.recordSuccess(oids.get(i));
+            }
+            return true;
+        } catch (ObjectNotFoundException | SchemaException | DtoTranslationException | RuntimeException ex) {
+            LOGGER.debug("Batch of {} operations couldn't be executed, they will be executed one by one: {}",
+                    operations.size(), ex.getMessage(), ex);
+            baseHelper.rollbackTransaction(session, ex, result, false);
+            return false;
+        } finally {
+            baseHelper.cleanupSessionAndResult(session, null);
+        }
+    }
+
+    private Collection<String> findExistingOids(List<? extends RepoOperation<?>> operations, Session session) {
+        Set<String> oids = new HashSet<>();
+        for (RepoOperation<?> operation : operations) {
+            if (operation.getKind() == RepoOperation.Kind.ADD && StringUtils.isNotEmpty(operation.getOid())) {
+                oids.add(operation.getOid());
+            }
+        }
+        if (oids.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Query query = session.createQuery("select o.oid from RObject o where o.oid in (:oids)");
+        query.setParameterList("oids", oids);
+        return new HashSet<String>(query.list());
+    }
+
+    private boolean isAddOfExistingOid(RepoOperation<?> operation, Collection<String> existingOids) {
+        return operation.getKind() == RepoOperation.Kind.ADD && existingOids.contains(operation.getOid());
+    }
+
+    private <T extends ObjectType> String executeInSession(RepoOperation<T> operation, Session session,
+                                                           OperationResult result)
+            throws ObjectNotFoundException, SchemaException, DtoTranslationException {
+        Class<T> type = operation.getType();
+        String oid = operation.getOid();
+        switch (operation.getKind()) {
+            case ADD:
+                LOGGER_PERFORMANCE.debug("> add object {} (batched), oid={}", type.getSimpleName(), oid);
+                PrismObject<T> object = operation.getObject();
+                RObject rObject = createDataObjectFromJAXB(object, PrismIdentifierGenerator.Operation.ADD);
+                try {
+                    // OID uniqueness was already checked for the whole batch
+                    return nonOverwriteAddObjectAttempt(object, rObject, null, session, null);
+                } catch (ObjectAlreadyExistsException e) {
+                    throw new IllegalStateException("Unexpected exception: " + e.getMessage(), e);
+                }
+            case MODIFY:
+                LOGGER_PERFORMANCE.debug("> modify object {} (batched), oid={}", type.getSimpleName(), oid);
+                // clone - see modifyObjectAttempt
+                Collection<? extends ItemDelta> modifications = CloneUtil.cloneCollectionMembers(operation.getModifications());
+                modifyObjectInSession(type, oid, modifications, operation.getModifyOptions(), session, null, result);
+                return oid;
+            case DELETE:
+                LOGGER_PERFORMANCE.debug("> delete object {} (batched), oid={}", type.getSimpleName(), oid);
+                deleteObjectInSession(type, oid, session, null);
+                return oid;
+            default:
+                throw new IllegalArgumentException("Unsupported operation kind: " + operation.getKind());
+        }
+    }
+
     private <T extends ObjectType> boolean containsPhotoModification(Collection<? extends ItemDelta> modifications) {
         ItemPath photoPath = new ItemPath(FocusType.F_JPEG_PHOTO);
         for (ItemDelta delta : modifications) {
@@ -53,6 +53,8 @@ import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
@@ -91,6 +93,9 @@ public class OrgClosureManager {
 	@Autowired
 	private BaseHelper baseHelper;
 
+    @Autowired
+    private OrgHierarchyIndex orgHierarchyIndex;
+
     private static boolean DUMP_TABLES = false;
     private static final boolean COUNT_CLOSURE_RECORDS = false;
     static final String CLOSURE_TABLE_NAME = "m_org_closure";
@@ -133,6 +138,13 @@ public class OrgClosureManager {
 
         List<ReferenceDelta> deltas = filterParentRefDeltas(modifications);
 
+        if (isRowLocking()) {
+            lockAffectedOrgs(getAffectedOrgs(oid, deltas, originalObject, operation, session), closureContext, session);
+        }
+        if (orgHierarchyIndex.isEnabled()) {
+            startRecordingIndexDelta(closureContext, session);
+        }
+
         switch (operation) {
             case ADD:
                 handleAdd(oid, deltas, closureContext, session);
@@ -162,7 +174,7 @@ public class OrgClosureManager {
             return null;
         }
         // we have to be ready for closure-related operation even if there are no known parents (because there may be orphans pointing to this org!)
-        return onBeginTransaction(session);
+        return onBeginTransaction(session, false);
     }
 
     public <T extends ObjectType> Context onBeginTransactionModify(Session session, Class<T> type, String oid, Collection<? extends ItemDelta> modifications) {
@@ -175,19 +187,20 @@ public class OrgClosureManager {
         if (filterParentRefDeltas(modifications).isEmpty()) {
             return null;
         }
-        return onBeginTransaction(session);
+        return onBeginTransaction(session, false);
     }
 
     public <T extends ObjectType> Context onBeginTransactionDelete(Session session, Class<T> type, String oid) {
         if (!isEnabled() || !(OrgType.class.isAssignableFrom(type))) {
             return null;
         }
-        return onBeginTransaction(session);
+        return onBeginTransaction(session, false);
     }
 
-    private Context onBeginTransaction(Session session) {
+    // with row locking, the rows are locked later, when affected orgs are known (see lockAffectedOrgs)
+    private Context onBeginTransaction(Session session, boolean lockWholeTable) {
         // table locking
-        if (isH2() || isOracle() || isSQLServer()) {
+        if ((lockWholeTable || !isRowLocking()) && (isH2() || isOracle() || isSQLServer())) {
             lockClosureTable(session);
         }
         // other
@@ -380,7 +393,7 @@ public class OrgClosureManager {
             session.getTransaction().begin();
             if (rebuild || (check && !quickCheckOnly)) {
                 // thorough check requires the temporary table as well
-                context = onBeginTransaction(session);
+                context = onBeginTransaction(session, true);
             }
 
             if (quickCheckOnly) {
@@ -442,6 +455,8 @@ public class OrgClosureManager {
     // "check" here means "thorough check" (i.e. comparing with recomputed closure)
     private void rebuild(boolean check, boolean rebuild, boolean stopOnFailure, final Context context, final Session session, OperationResult result) throws SchemaException {
 
+        orgHierarchyIndex.invalidate();
+
         List existingEntries = null;
         if (check) {
             LOGGER.info("Reading from existing org closure table");
@@ -559,6 +574,12 @@ public class OrgClosureManager {
         Collection<String> livingParents = retainExistingOids(parents, session);
         LOGGER.trace("Living parents = {} (parents = {})", livingParents, parents);
 
+        if (context.indexDelta != null) {
+            context.indexDelta.addOrg(oid);
+            context.indexDelta.addEdges(childrenToEdges(oid, livingChildren));
+            context.indexDelta.addEdges(parentsToEdges(oid, livingParents));
+        }
+
         if (livingParents.size() <= 1 && (livingChildren == null || livingChildren.isEmpty())) {
             String parent;
             if (livingParents.isEmpty()) {
@@ -826,6 +847,10 @@ public class OrgClosureManager {
     //region Handling DELETE operation
     private void handleDelete(String oid, Context context, Session session) {
 
+        if (context.indexDelta != null) {
+            context.indexDelta.deleteOrg(oid);
+        }
+
         List<String> livingChildren = getChildren(oid, session);
         if (livingChildren.isEmpty()) {
             handleDeleteLeaf(oid, session);
@@ -980,12 +1005,115 @@ public class OrgClosureManager {
 
         removeParentEdges(oid, livingParentsToDelete, context, session);
         addParentEdges(oid, livingParentsToAdd, context, session);
+
+        if (context.indexDelta != null) {
+            context.indexDelta.deleteEdges(parentsToEdges(oid, livingParentsToDelete));
+            context.indexDelta.addEdges(parentsToEdges(oid, livingParentsToAdd));
+        }
     }
 
     //endregion
 
     //region Misc
 
+    // changes are applied to the index only if the transaction commits
+    private void startRecordingIndexDelta(final Context context, Session session) {
+        if (context.indexDelta != null) {
+            return;
+        }
+        final OrgHierarchyIndex.Delta delta = new OrgHierarchyIndex.Delta();
+        context.indexDelta = delta;
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED && !delta.isEmpty()) {
+                    orgHierarchyIndex.apply(delta);
+                }
+            }
+        });
+    }
+
+    private boolean isRowLocking() {
+        return baseHelper.getConfiguration().getOrgClosureLockingMode() == LockingMode.ROW;
+    }
+
+    /*
+     *  Orgs whose ancestors (including themselves) have to be locked for the operation to be carried out safely.
+     *
+     *  Adding or removing an edge D->A reads descendants of D and ancestors of A, and modifies closure records
+     *  between them. Two such operations (D1->A1, D2->A2) interfere iff D1 is an ancestor-or-self of A2
+     *  or D2 is an ancestor-or-self of A1 (or vice versa). So it is sufficient if each of them locks all
+     *  ancestors-or-self of both D and A: the interfering operations then share at least one locked org.
+     */
+    private Set<String> getAffectedOrgs(String oid, List<ReferenceDelta> deltas,
+                                        PrismObject<? extends ObjectType> originalObject, Operation operation,
+                                        Session session) {
+        Set<String> orgs = new HashSet<>();
+        orgs.add(oid);
+        switch (operation) {
+            case ADD:
+                orgs.addAll(getParentOidsToAdd(deltas, null));
+                orgs.addAll(getChildren(oid, session));
+                break;
+            case DELETE:
+                orgs.addAll(getParents(oid, session));
+                orgs.addAll(getChildren(oid, session));
+                break;
+            case MODIFY:
+                orgs.addAll(getParentOidsToDelete(deltas, originalObject));
+                orgs.addAll(getParentOidsToAdd(deltas, originalObject));
+                break;
+        }
+        return orgs;
+    }
+
+    // Locks self-records (X, X) of the closure table for all ancestors-or-self X of given orgs.
+    // As the set of ancestors may change before the lock is acquired, we repeat until no new ancestor appears.
+    private void lockAffectedOrgs(Set<String> orgs, Context context, Session session) {
+        long start = System.currentTimeMillis();
+        Set<String> toLock = new HashSet<>(orgs);
+        for (;;) {
+            toLock.addAll(getAncestors(toLock, session));
+            toLock.removeAll(context.lockedOids);
+            if (toLock.isEmpty()) {
+                break;
+            }
+            lockClosureRows(toLock, session);
+            context.lockedOids.addAll(toLock);
+            toLock = new HashSet<>(context.lockedOids);
+        }
+        LOGGER.trace("Locked {} org closure records in {} ms", context.lockedOids.size(), System.currentTimeMillis() - start);
+    }
+
+    private List<String> getAncestors(Collection<String> oids, Session session) {
+        Query query = session.createSQLQuery("select distinct ancestor_oid from " + CLOSURE_TABLE_NAME +
+                " where descendant_oid in (:oids)")
+                .addScalar("ancestor_oid", StringType.INSTANCE);
+        query.setParameterList("oids", oids);
+        return query.list();
+    }
+
+    private void lockClosureRows(Collection<String> oids, Session session) {
+        // sorting decreases the probability of deadlocks (these are resolved by repeating the operation anyway)
+        List<String> sorted = new ArrayList<>(oids);
+        Collections.sort(sorted);
+        String queryText;
+        if (isSQLServer()) {
+            queryText = "select descendant_oid from " + CLOSURE_TABLE_NAME + " with (updlock, rowlock) " +
+                    "where descendant_oid = ancestor_oid and descendant_oid in (:oids)";
+        } else {
+            queryText = "select descendant_oid from " + CLOSURE_TABLE_NAME + " " +
+                    "where descendant_oid = ancestor_oid and descendant_oid in (:oids) order by descendant_oid for update";
+        }
+        Query q = session.createSQLQuery(queryText).addScalar("descendant_oid", StringType.INSTANCE);
+        q.setParameterList("oids", sorted);
+        q.list();
+    }
+
     private void lockClosureTable(Session session) {
         long start = System.currentTimeMillis();
         LOGGER.trace("Locking closure table");
@@ -1414,8 +1542,47 @@ public class OrgClosureManager {
         }
     }
 
+    /**
+     * How concurrent modifications of the closure are serialized.
+     */
+    public static enum LockingMode {
+
+        /**
+         * Whole closure table is locked (on H2, Oracle and SQL Server).
+         */
+        TABLE("table"),
+
+        /**
+         * Only closure records of orgs affected by the operation (and their ancestors) are locked.
+         * Operations in unrelated parts of the org structure run in parallel.
+         */
+        ROW("row");
+
+        private String value;
+
+        LockingMode(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+
+        public static LockingMode fromValue(String v) {
+            for (LockingMode m : LockingMode.values()) {
+                if (m.value.equals(v)) {
+                    return m;
+                }
+            }
+            throw new IllegalArgumentException(v);
+        }
+    }
+
     public static class Context {
         String temporaryTableName;
+        Set<String> lockedOids = new HashSet<>();
+        OrgHierarchyIndex.Delta indexDelta;
     }
     //endregion
 
@@ -0,0 +1,450 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.helpers;
+
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheListener;
+import com.evolveum.midpoint.repo.sql.data.common.other.RObjectType;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory copy of the org structure graph (orgs and their parentOrgRef links), used to answer
+ * ancestor/descendant questions without going to m_org_closure.
+ *
+ * Orgs are numbered by int ids; for each of them, arrays of parent and children ids are kept.
+ * Ancestors (descendants) are found by traversing the graph upwards (downwards), using a bitset to mark visited orgs.
+ *
+ * The index is loaded on first use and then updated by OrgClosureManager after each committed change
+ * of the org structure. Changes made on other cluster nodes (as announced by CacheDispatcher) make the
+ * index invalid; it is reloaded on next use. If the index is not available, methods return null
+ * and callers should use the closure table.
+ *
+ * @author agent
+ */
+@Component
+public class OrgHierarchyIndex implements CacheListener {
+
+    private static final Trace LOGGER = TraceManager.getTrace(OrgHierarchyIndex.class);
+
+    private static final int[] NONE = new int[0];
+
+    @Autowired
+    private BaseHelper baseHelper;
+
+    // not present e.g. in repository-only tests
+    @Autowired(required = false)
+    private CacheDispatcher cacheDispatcher;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // guarded by lock
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> oids = new ArrayList<>();            // id -> oid (null if the org was deleted)
+    private int[][] parents = new int[0][];
+    private int[][] children = new int[0][];
+    private boolean valid;
+    private long modCount;                                          // incremented on each change or invalidation
+
+    @PostConstruct
+    public void initialize() {
+        if (cacheDispatcher != null) {
+            cacheDispatcher.registerCacheListener(this, Collections.<Class<? extends ObjectType>>singletonList(OrgType.class));
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (cacheDispatcher != null) {
+            cacheDispatcher.unregisterCacheListener(this);
+        }
+    }
+
+    public boolean isEnabled() {
+        return baseHelper.getConfiguration().isOrgHierarchyIndex();
+    }
+
+    //region Queries
+
+    /**
+     * Is any of lowerObjectOids a descendant-or-self of upperOrgOid? (Only orgs are considered, just like
+     * in the closure table.) Returns null if the index cannot be used.
+     */
+    public Boolean isAnySubordinate(String upperOrgOid, Collection<String> lowerObjectOids) {
+        if (!ensureLoaded()) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            if (!valid) {
+                return null;
+            }
+            Integer upper = ids.get(upperOrgOid);
+            if (upper == null) {
+                return false;
+            }
+            BitSet visited = new BitSet(oids.size());
+            for (String lowerOid : lowerObjectOids) {
+                Integer lower = ids.get(lowerOid);
+                if (lower != null && reaches(lower, upper, parents, visited)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns OIDs of all descendants of given org, including the org itself; or null if the index cannot be used,
+     * the org is not known or there are more than maxSize descendants.
+     */
+    public Set<String> getDescendants(String orgOid, int maxSize) {
+        return collect(orgOid, maxSize, false);
+    }
+
+    /**
+     * Returns OIDs of all ancestors of given org (not including the org itself); or null if the index cannot be used,
+     * the org is not known or there are more than maxSize ancestors.
+     */
+    public Set<String> getAncestors(String orgOid, int maxSize) {
+        Set<String> ancestors = collect(orgOid, maxSize + 1, true);
+        if (ancestors != null) {
+            ancestors.remove(orgOid);
+        }
+        return ancestors;
+    }
+
+    private Set<String> collect(String orgOid, int maxSize, boolean upwards) {
+        if (!ensureLoaded()) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            Integer start = valid ? ids.get(orgOid) : null;
+            if (start == null) {
+                return null;
+            }
+            int[][] edges = upwards ? parents : children;
+            BitSet visited = new BitSet(oids.size());
+            int[] stack = new int[16];
+            int top = 0;
+            stack[top++] = start;
+            visited.set(start);
+            Set<String> rv = new HashSet<>();
+            while (top > 0) {
+                int current = stack[--top];
+                rv.add(oids.get(current));
+                if (rv.size() > maxSize) {
+                    return null;
+                }
+                for (int next : edges[current]) {
+                    if (!visited.get(next)) {
+                        visited.set(next);
+                        if (top == stack.length) {
+                            stack = Arrays.copyOf(stack, top * 2);
+                        }
+                        stack[top++] = next;
+                    }
+                }
+            }
+            return rv;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // is target reachable from start (via edges)? visited orgs are known not to reach target
+    private boolean reaches(int start, int target, int[][] edges, BitSet visited) {
+        if (start == target) {
+            return true;
+        }
+        if (visited.get(start)) {
+            return false;
+        }
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = start;
+        visited.set(start);
+        while (top > 0) {
+            int current = stack[--top];
+            for (int next : edges[current]) {
+                if (next == target) {
+                    return true;
+                }
+                if (!visited.get(next)) {
+                    visited.set(next);
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                    }
+                    stack[top++] = next;
+                }
+            }
+        }
+        return false;
+    }
+    //endregion
+
+    //region Maintenance
+
+    /**
+     * Changes of the org structure made by a single transaction, in the order they were done.
+     */
+    public static class Delta {
+
+        private enum Kind { ADD_ORG, DELETE_ORG, ADD_EDGE, DELETE_EDGE }
+
+        private final List<Object[]> changes = new ArrayList<>();
+
+        void addOrg(String oid) {
+            changes.add(new Object[] { Kind.ADD_ORG, oid, null });
+        }
+
+        void deleteOrg(String oid) {
+            changes.add(new Object[] { Kind.DELETE_ORG, oid, null });
+        }
+
+        void addEdges(Collection<OrgClosureManager.Edge> edges) {
+            for (OrgClosureManager.Edge edge : edges) {
+                changes.add(new Object[] { Kind.ADD_EDGE, edge.getDescendant(), edge.getAncestor() });
+            }
+        }
+
+        void deleteEdges(Collection<OrgClosureManager.Edge> edges) {
+            for (OrgClosureManager.Edge edge : edges) {
+                changes.add(new Object[] { Kind.DELETE_EDGE, edge.getDescendant(), edge.getAncestor() });
+            }
+        }
+
+        boolean isEmpty() {
+            return changes.isEmpty();
+        }
+    }
+
+    /**
+     * Applies changes that were committed to the database.
+     */
+    void apply(Delta delta) {
+        lock.writeLock().lock();
+        try {
+            modCount++;
+            if (!valid) {
+                return;
+            }
+            for (Object[] change : delta.changes) {
+                String oid1 = (String) change[1];
+                String oid2 = (String) change[2];
+                switch ((Delta.Kind) change[0]) {
+                    case ADD_ORG:
+                        getOrCreateId(oid1);
+                        break;
+                    case DELETE_ORG:
+                        deleteOrg(oid1);
+                        break;
+                    case ADD_EDGE:
+                        addEdge(getOrCreateId(oid1), getOrCreateId(oid2));
+                        break;
+                    case DELETE_EDGE:
+                        Integer child = ids.get(oid1), parent = ids.get(oid2);
+                        if (child != null && parent != null) {
+                            parents[child] = without(parents[child], parent);
+                            children[parent] = without(children[parent], child);
+                        }
+                        break;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void invalidate() {
+        lock.writeLock().lock();
+        try {
+            modCount++;
+            valid = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public <O extends ObjectType> void invalidateCacheEntry(Class<O> type, String oid, boolean remote) {
+        // local changes are applied via apply(..) method
+        if (remote && (type == null || type.isAssignableFrom(OrgType.class))) {
+            invalidate();
+        }
+    }
+
+    private int getOrCreateId(String oid) {
+        Integer id = ids.get(oid);
+        if (id != null) {
+            return id;
+        }
+        int newId = oids.size();
+        oids.add(oid);
+        ids.put(oid, newId);
+        if (newId >= parents.length) {
+            int capacity = Math.max(16, parents.length * 2);
+            parents = Arrays.copyOf(parents, capacity);
+            children = Arrays.copyOf(children, capacity);
+        }
+        parents[newId] = NONE;
+        children[newId] = NONE;
+        return newId;
+    }
+
+    private void deleteOrg(String oid) {
+        Integer id = ids.remove(oid);
+        if (id == null) {
+            return;
+        }
+        for (int parent : parents[id]) {
+            children[parent] = without(children[parent], id);
+        }
+        for (int child : children[id]) {
+            parents[child] = without(parents[child], id);
+        }
+        parents[id] = NONE;
+        children[id] = NONE;
+        oids.set(id, null);
+    }
+
+    private void addEdge(int child, int parent) {
+        for (int p : parents[child]) {
+            if (p == parent) {
+                return;
+            }
+        }
+        parents[child] = with(parents[child], parent);
+        children[parent] = with(children[parent], child);
+    }
+
+    private static int[] with(int[] array, int value) {
+        int[] rv = Arrays.copyOf(array, array.length + 1);
+        rv[array.length] = value;
+        return rv;
+    }
+
+    private static int[] without(int[] array, int value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value) {
+                int[] rv = new int[array.length - 1];
+                System.arraycopy(array, 0, rv, 0, i);
+                System.arraycopy(array, i + 1, rv, i, array.length - i - 1);
+                return rv;
+            }
+        }
+        return array;
+    }
+
+    // returns true if the index can be used
+    private boolean ensureLoaded() {
+        if (!isEnabled()) {
+            return false;
+        }
+        long startModCount;
+        lock.readLock().lock();
+        try {
+            if (valid) {
+                return true;
+            }
+            startModCount = modCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+        return load(startModCount);
+    }
+
+    private boolean load(long startModCount) {
+        long start = System.currentTimeMillis();
+        List<String> orgOids;
+        List<Object[]> edges;
+        Session session = null;
+        try {
+            session = baseHelper.beginReadOnlyTransaction();
+            orgOids = session.createQuery("select o.oid from ROrg o").list();
+            Query edgesQuery = session.createQuery("select parentRef.ownerOid, parentRef.targetOid from RObjectReference as parentRef" +
+                    " join parentRef.owner as owner where parentRef.referenceType=0" +
+                    " and owner.objectTypeClass = :orgType");
+            edgesQuery.setParameter("orgType", RObjectType.ORG);
+            edges = edgesQuery.list();
+            session.getTransaction().commit();
+        } catch (RuntimeException ex) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't load org hierarchy index, using closure table instead", ex);
+            baseHelper.rollbackTransaction(session, ex, null, false);
+            return false;
+        } finally {
+            baseHelper.cleanupSessionAndResult(session, null);
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (valid) {
+                return true;            // loaded by someone else in the meanwhile
+            }
+            if (modCount != startModCount) {
+                LOGGER.debug("Org structure changed while loading the index, the index will be loaded next time");
+                return false;
+            }
+            ids.clear();
+            oids.clear();
+            parents = new int[orgOids.size()][];
+            children = new int[orgOids.size()][];
+            for (String oid : orgOids) {
+                getOrCreateId(oid);
+            }
+            for (Object[] edge : edges) {
+                Integer child = ids.get((String) edge[0]);
+                Integer parent = ids.get((String) edge[1]);
+                if (child != null && parent != null) {          // the same as in closure table: only living orgs
+                    addEdge(child, parent);
+                }
+            }
+            valid = true;
+            LOGGER.debug("Org hierarchy index loaded in {} ms: {} orgs, {} edges", System.currentTimeMillis() - start,
+                    orgOids.size(), edges.size());
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    //endregion
+}
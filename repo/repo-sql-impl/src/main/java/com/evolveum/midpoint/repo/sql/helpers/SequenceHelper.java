@@ -17,6 +17,8 @@
 package com.evolveum.midpoint.repo.sql.helpers;
 
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheListener;
 import com.evolveum.midpoint.repo.sql.SerializationRelatedException;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryServiceImpl;
 import com.evolveum.midpoint.repo.sql.data.common.RObject;
@@ -26,21 +28,32 @@ import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.SequenceType;
 import org.hibernate.Session;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author mederly
  */
 @Component
-public class SequenceHelper {
+public class SequenceHelper implements CacheListener {
 
     @Autowired
     private ObjectRetriever objectRetriever;
@@ -51,9 +64,134 @@ public class SequenceHelper {
     @Autowired
     private BaseHelper baseHelper;
 
+    // not present e.g. in repository-only tests
+    @Autowired(required = false)
+    private CacheDispatcher cacheDispatcher;
+
     private static final Trace LOGGER = TraceManager.getTrace(SqlRepositoryServiceImpl.class);
     private static final Trace LOGGER_PERFORMANCE = TraceManager.getTrace(SqlRepositoryServiceImpl.PERFORMANCE_LOG_NAME);
 
+    // values taken from sequences (in blocks) but not assigned yet; sequence OID -> values
+    private final ConcurrentMap<String, ReservedValues> reservedValues = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Object> allocationLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Values reserved from a sequence. They are assigned without locking; the block is never changed,
+     * it is replaced by a new one when exhausted.
+     */
+    private static class ReservedValues {
+        private final long[] values;
+        private final AtomicInteger next = new AtomicInteger();
+
+        private ReservedValues(List<Long> values) {
+            this.values = new long[values.size()];
+            for (int i = 0; i < this.values.length; i++) {
+                this.values[i] = values.get(i);
+            }
+        }
+
+        private Long take() {
+            int i = next.getAndIncrement();
+            return i < values.length ? values[i] : null;
+        }
+
+        private List<Long> takeAll() {
+            List<Long> rv = new ArrayList<>();
+            for (int i = next.getAndSet(values.length); i < values.length; i++) {
+                rv.add(values[i]);
+            }
+            return rv;
+        }
+    }
+
+    @PostConstruct
+    public void initialize() {
+        if (cacheDispatcher != null) {
+            cacheDispatcher.registerCacheListener(this, Collections.<Class<? extends ObjectType>>singletonList(SequenceType.class));
+        }
+    }
+
+    /**
+     * Returns a value reserved by this node, if there's any. Does not touch the repository.
+     */
+    public Long takeReservedValue(String oid) {
+        ReservedValues reserved = reservedValues.get(oid);
+        return reserved != null ? reserved.take() : null;
+    }
+
+    /**
+     * Threads of this node that need to go to the repository for values of the same sequence are serialized
+     * using this lock. (They would conflict on the sequence row anyway.)
+     */
+    public Object getAllocationLock(String oid) {
+        return allocationLocks.computeIfAbsent(oid, k -> new Object());
+    }
+
+    /**
+     * Forgets values reserved from the sequence, e.g. because the sequence was modified or deleted.
+     * They are not returned to the sequence, as they might not be valid any more.
+     */
+    public void discardReservedValues(String oid) {
+        // serialized with reserving new blocks, so a block taken before the change cannot be stored after this call
+        synchronized (getAllocationLock(oid)) {
+            ReservedValues discarded = reservedValues.remove(oid);
+            if (discarded != null) {
+                LOGGER.debug("Discarded values {} reserved from sequence {}", discarded.takeAll(), oid);
+            }
+        }
+    }
+
+    /**
+     * The sequence might have been changed on this node or on another one (e.g. its counter was reset),
+     * so values reserved from it are not valid any more.
+     */
+    @Override
+    public <O extends ObjectType> void invalidateCacheEntry(Class<O> type, String oid, boolean remote) {
+        if (type != null && !type.isAssignableFrom(SequenceType.class)) {
+            return;
+        }
+        if (oid != null) {
+            discardReservedValues(oid);
+        } else {
+            for (String reservedOid : reservedValues.keySet()) {
+                discardReservedValues(reservedOid);
+            }
+        }
+    }
+
+    /**
+     * Returns unassigned reserved values to their sequences.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (cacheDispatcher != null) {
+            cacheDispatcher.unregisterCacheListener(this);
+        }
+        returnReservedValues();
+    }
+
+    public void returnReservedValues() {
+        for (Map.Entry<String, ReservedValues> entry : reservedValues.entrySet()) {
+            List<Long> unused = entry.getValue().takeAll();
+            if (unused.isEmpty()) {
+                continue;
+            }
+            String oid = entry.getKey();
+            OperationResult result = new OperationResult(SequenceHelper.class.getName() + ".returnReservedValues");
+            try {
+                returnUnusedValuesToSequenceAttempt(oid, unused, result);
+            } catch (ObjectNotFoundException | SchemaException | RuntimeException e) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't return unused values {} to sequence {}", e, unused, oid);
+            }
+        }
+        reservedValues.clear();
+    }
+
+    /**
+     * Takes a block of values (allocationBlockSize of them) from the sequence. The first one is returned,
+     * the others are reserved for further calls on this node. The block ends early if the sequence is rewound,
+     * so it never contains one value twice.
+     */
     public long advanceSequenceAttempt(String oid, OperationResult result) throws ObjectNotFoundException,
             SchemaException, SerializationRelatedException {
 
@@ -72,34 +210,44 @@ public class SequenceHelper {
             }
             SequenceType sequence = prismObject.asObjectable();
 
-            if (!sequence.getUnusedValues().isEmpty()) {
-                returnValue = sequence.getUnusedValues().remove(0);
-            } else {
+            int blockSize = sequence.getAllocationBlockSize() != null ? Math.max(sequence.getAllocationBlockSize(), 1) : 1;
+            List<Long> values = new ArrayList<>(blockSize);
+            while (values.size() < blockSize && !sequence.getUnusedValues().isEmpty()) {
+                values.add(sequence.getUnusedValues().remove(0));
+            }
+            while (values.size() < blockSize) {
                 long counter = sequence.getCounter() != null ? sequence.getCounter() : 0L;
                 long maxCounter = sequence.getMaxCounter() != null ? sequence.getMaxCounter() : Long.MAX_VALUE;
                 boolean allowRewind = Boolean.TRUE.equals(sequence.isAllowRewind());
 
                 if (counter < maxCounter) {
-                    returnValue = counter;
-                    sequence.setCounter(counter + 1);
+                    long count = Math.min(blockSize - values.size(), maxCounter - counter);
+                    for (long value = counter; value < counter + count; value++) {
+                        values.add(value);
+                    }
+                    sequence.setCounter(counter + count);
                 } else if (counter == maxCounter) {
-                    returnValue = counter;
+                    values.add(counter);
                     if (allowRewind) {
                         sequence.setCounter(0L);
+                        break;                                  // values after rewind could repeat the ones in this block
                     } else {
                         sequence.setCounter(counter + 1);       // will produce exception during next run
+                        break;
                     }
                 } else {        // i.e. counter > maxCounter
                     if (allowRewind) {          // shouldn't occur but...
                         LOGGER.warn("Sequence {} overflown with allowRewind set to true. Rewinding.", oid);
-                        returnValue = 0;
-                        sequence.setCounter(1L);
-                    } else {
+                        sequence.setCounter(0L);
+                    } else if (values.isEmpty()) {
                         // TODO some better exception...
                         throw new SystemException("No (next) value available from sequence " + oid + ". Current counter = " + sequence.getCounter() + ", max value = " + sequence.getMaxCounter());
+                    } else {
+                        break;
                     }
                 }
             }
+            returnValue = values.get(0);
 
             if (LOGGER.isTraceEnabled()) {
                 LOGGER.trace("Return value = {}, OBJECT after:\n{}", returnValue, prismObject.debugDump());
@@ -117,6 +265,10 @@ public class SequenceHelper {
             session.getTransaction().commit();
             LOGGER.trace("Committed!");
 
+            if (values.size() > 1) {
+                LOGGER.debug("Reserved values {} from sequence {}", values.subList(1, values.size()), oid);
+                reservedValues.put(oid, new ReservedValues(values.subList(1, values.size())));
+            }
             return returnValue;
         } catch (ObjectNotFoundException ex) {
             baseHelper.rollbackTransaction(session, ex, result, true);
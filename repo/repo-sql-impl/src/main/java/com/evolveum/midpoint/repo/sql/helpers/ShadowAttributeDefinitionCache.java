@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.helpers;
+
+import com.evolveum.midpoint.repo.api.CacheListener;
+import com.evolveum.midpoint.repo.sql.data.common.any.RValueType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+
+import javax.xml.namespace.QName;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-resource dictionary of shadow attribute definitions (attribute name -> type and kind of value),
+ * as stored in extension value tables. It allows applying definitions to shadow attributes without
+ * querying these tables on each shadow read.
+ *
+ * Attributes that are not stored in extension value tables (e.g. of non-indexed types) are remembered as well,
+ * so that shadows containing them do not cause the lookup over and over again. Such entries expire after
+ * notStoredTimeToLive, so the attribute is looked up again later; if it is then found in the tables, the entry
+ * is updated.
+ *
+ * Entries for a resource are dropped when the resource object is changed in this repository (directly by
+ * the repository service) or on another cluster node (via cache dispatcher, for which this cache is registered
+ * by ObjectRetriever).
+ *
+ * @author agent
+ */
+public class ShadowAttributeDefinitionCache implements CacheListener {
+
+    // safety limit; resources normally have at most hundreds of attributes
+    private static final int MAX_ATTRIBUTES_PER_RESOURCE = 10000;
+
+    public static final long DEFAULT_NOT_STORED_TIME_TO_LIVE = 60000L;
+
+    public static class AttributeInfo {
+        private final QName type;
+        private final RValueType valueType;
+        private final long created;             // System.currentTimeMillis(); relevant only for not stored attributes
+
+        AttributeInfo(QName type, RValueType valueType) {
+            this.type = type;
+            this.valueType = valueType;
+            this.created = System.currentTimeMillis();
+        }
+
+        public QName getType() {
+            return type;
+        }
+
+        public RValueType getValueType() {
+            return valueType;
+        }
+
+        /**
+         * False if the attribute was not found in extension value tables.
+         */
+        public boolean isStored() {
+            return valueType != null;
+        }
+    }
+
+    private final long notStoredTimeToLive;
+
+    private final ConcurrentMap<String, ConcurrentMap<QName, AttributeInfo>> resources = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ShadowAttributeDefinitionCache() {
+        this(DEFAULT_NOT_STORED_TIME_TO_LIVE);
+    }
+
+    public ShadowAttributeDefinitionCache(long notStoredTimeToLive) {
+        this.notStoredTimeToLive = notStoredTimeToLive;
+    }
+
+    /**
+     * Returns information about all given attributes, or null if any of them is not known
+     * (or was not stored and the entry has expired).
+     */
+    public Map<QName, AttributeInfo> get(String resourceOid, Collection<QName> names) {
+        ConcurrentMap<QName, AttributeInfo> attributes = resources.get(resourceOid);
+        if (attributes == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Map<QName, AttributeInfo> rv = new HashMap<>();
+        for (QName name : names) {
+            AttributeInfo info = attributes.get(name);
+            if (info == null || !info.isStored() && now - info.created >= notStoredTimeToLive) {
+                misses.incrementAndGet();
+                return null;
+            }
+            rv.put(name, info);
+        }
+        hits.incrementAndGet();
+        return rv;
+    }
+
+    /**
+     * Records what was found in extension value tables. Attributes not present in the map are remembered as not stored.
+     */
+    public void put(String resourceOid, Collection<QName> names, Map<QName, AttributeInfo> found) {
+        ConcurrentMap<QName, AttributeInfo> attributes = resources.get(resourceOid);
+        if (attributes == null) {
+            attributes = new ConcurrentHashMap<>();
+            ConcurrentMap<QName, AttributeInfo> existing = resources.putIfAbsent(resourceOid, attributes);
+            if (existing != null) {
+                attributes = existing;
+            }
+        }
+        for (QName name : names) {
+            if (attributes.size() >= MAX_ATTRIBUTES_PER_RESOURCE && !attributes.containsKey(name)) {
+                return;
+            }
+            AttributeInfo info = found.get(name);
+            if (info != null) {
+                attributes.put(name, info);
+            } else {
+                // the attribute may be stored for other shadows of the resource; otherwise the entry is renewed
+                AttributeInfo existing = attributes.get(name);
+                if (existing == null || !existing.isStored()) {
+                    attributes.put(name, new AttributeInfo(null, null));
+                }
+            }
+        }
+    }
+
+    public static AttributeInfo createInfo(QName type, RValueType valueType) {
+        return new AttributeInfo(type, valueType);
+    }
+
+    public void invalidate(String resourceOid) {
+        resources.remove(resourceOid);
+    }
+
+    @Override
+    public <O extends ObjectType> void invalidateCacheEntry(Class<O> type, String oid, boolean remote) {
+        // local changes are applied directly by the repository service
+        if (remote && oid != null && (type == null || type.isAssignableFrom(ResourceType.class))) {
+            invalidate(oid);
+        }
+    }
+
+    public void clear() {
+        resources.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
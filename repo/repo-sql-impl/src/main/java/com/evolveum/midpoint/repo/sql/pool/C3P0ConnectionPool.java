@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.evolveum.midpoint.repo.sql.pool;
+
+import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
+import com.evolveum.midpoint.repo.sql.util.MidPointConnectionCustomizer;
+import com.evolveum.midpoint.repo.sql.util.MidPointConnectionTester;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+import javax.sql.DataSource;
+import java.beans.PropertyVetoException;
+import java.sql.SQLException;
+
+/**
+ * The original C3P0 pool, kept for deployments that depend on its behavior.
+ * Max connection lifetime and validation timeout are not applied, as C3P0 has no direct equivalents.
+ *
+ * @author agent
+ */
+public class C3P0ConnectionPool implements ConnectionPool {
+
+    private static final Trace LOGGER = TraceManager.getTrace(C3P0ConnectionPool.class);
+
+    private final ComboPooledDataSource dataSource;
+
+    public C3P0ConnectionPool(SqlRepositoryConfiguration configuration) throws PropertyVetoException {
+        ComboPooledDataSource ds = new ComboPooledDataSource();
+        ds.setDriverClass(configuration.getDriverClassName());
+        ds.setJdbcUrl(configuration.getJdbcUrl());
+        ds.setUser(configuration.getJdbcUsername());
+        ds.setPassword(configuration.getJdbcPassword());
+
+        ds.setAcquireIncrement(3);
+        ds.setMinPoolSize(configuration.getMinPoolSize());
+        ds.setMaxPoolSize(configuration.getMaxPoolSize());
+        ds.setIdleConnectionTestPeriod(1800);
+        ds.setCheckoutTimeout((int) Math.min(configuration.getConnectionTimeout(), Integer.MAX_VALUE));
+        if (configuration.getLeakDetectionThreshold() > 0) {
+            ds.setUnreturnedConnectionTimeout((int) Math.max(1, configuration.getLeakDetectionThreshold() / 1000));
+            ds.setDebugUnreturnedConnectionStackTraces(true);
+        }
+        ds.setConnectionTesterClassName(MidPointConnectionTester.class.getName());
+        ds.setConnectionCustomizerClassName(MidPointConnectionCustomizer.class.getName());
+
+        this.dataSource = ds;
+    }
+
+    @Override
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    @Override
+    public ConnectionPoolStatistics getStatistics() {
+        try {
+            return new ConnectionPoolStatistics(dataSource.getNumBusyConnectionsDefaultUser(),
+                    dataSource.getNumIdleConnectionsDefaultUser(), dataSource.getNumConnectionsDefaultUser(),
+                    dataSource.getNumThreadsAwaitingCheckoutDefaultUser());
+        } catch (SQLException e) {
+            LOGGER.debug("Couldn't get C3P0 pool statistics", e);
+            return new ConnectionPoolStatistics(-1, -1, -1, -1);
+        }
+    }
+
+    @Override
+    public void close() {
+        dataSource.close();
+    }
+}
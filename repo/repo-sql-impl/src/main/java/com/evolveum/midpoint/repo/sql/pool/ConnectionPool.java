@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.evolveum.midpoint.repo.sql.pool;
+
+import javax.sql.DataSource;
+
+/**
+ * Connection pool used by the repository, created by {@link com.evolveum.midpoint.repo.sql.DataSourceFactory}
+ * according to the "connectionPool" configuration property.
+ *
+ * @author agent
+ */
+public interface ConnectionPool {
+
+    DataSource getDataSource();
+
+    /**
+     * Current state of the pool. Values the implementation cannot provide are -1.
+     */
+    ConnectionPoolStatistics getStatistics();
+
+    void close();
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.evolveum.midpoint.repo.sql.pool;
+
+/**
+ * Snapshot of connection pool state. Connection acquire times are recorded separately,
+ * as "acquireConnection" operation in {@link com.evolveum.midpoint.repo.sql.SqlPerformanceMonitor}.
+ *
+ * @author agent
+ */
+public class ConnectionPoolStatistics {
+
+    private final int active;
+    private final int idle;
+    private final int total;
+    private final int waitingThreads;
+
+    public ConnectionPoolStatistics(int active, int idle, int total, int waitingThreads) {
+        this.active = active;
+        this.idle = idle;
+        this.total = total;
+        this.waitingThreads = waitingThreads;
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    public int getIdle() {
+        return idle;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getWaitingThreads() {
+        return waitingThreads;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolStatistics{" +
+                "active=" + active +
+                ", idle=" + idle +
+                ", total=" + total +
+                ", waitingThreads=" + waitingThreads +
+                '}';
+    }
+}
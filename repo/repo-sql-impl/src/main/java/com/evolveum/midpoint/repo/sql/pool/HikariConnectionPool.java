@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.pool;
+
+import com.evolveum.midpoint.repo.sql.SqlPerformanceMonitor;
+import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
+import com.evolveum.midpoint.repo.sql.TransactionIsolation;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * HikariCP pool. Its connection bag is lock-free in the common case, so it scales with the number of worker
+ * threads much better than C3P0. Connections are validated using JDBC4 isValid() (no test query) and only
+ * connections broken on the network level are evicted, so there is no need for the PostgreSQL-specific
+ * handling of {@link com.evolveum.midpoint.repo.sql.util.MidPointConnectionTester}.
+ *
+ * Time spent waiting for a connection is reported to the performance monitor as "acquireConnection" operation;
+ * pool state is available via {@link #getStatistics()} and Hikari's own MBeans.
+ *
+ * @author agent
+ */
+public class HikariConnectionPool implements ConnectionPool {
+
+    private static final Trace LOGGER = TraceManager.getTrace(HikariConnectionPool.class);
+
+    public static final String POOL_NAME = "midPoint";
+    public static final String OPERATION_ACQUIRE_CONNECTION = "acquireConnection";
+
+    private final HikariDataSource hikariDataSource;
+    private final DataSource dataSource;
+
+    public HikariConnectionPool(SqlRepositoryConfiguration configuration, final SqlPerformanceMonitor performanceMonitor) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(POOL_NAME);
+        config.setDriverClassName(configuration.getDriverClassName());
+        config.setJdbcUrl(configuration.getJdbcUrl());
+        config.setUsername(configuration.getJdbcUsername());
+        config.setPassword(configuration.getJdbcPassword());
+
+        config.setMinimumIdle(configuration.getMinPoolSize());
+        config.setMaximumPoolSize(configuration.getMaxPoolSize());
+        config.setMaxLifetime(configuration.getMaxConnectionLifetime());
+        config.setConnectionTimeout(configuration.getConnectionTimeout());
+        config.setValidationTimeout(configuration.getValidationTimeout());
+        config.setLeakDetectionThreshold(configuration.getLeakDetectionThreshold());
+        config.setRegisterMbeans(true);
+
+        final TransactionIsolation isolation = configuration.getTransactionIsolation();
+        if (isolation.jdbcValue() != null) {
+            config.setTransactionIsolation(getIsolationName(isolation.jdbcValue()));
+        }
+
+        if (performanceMonitor != null) {
+            config.setMetricsTrackerFactory(new MetricsTrackerFactory() {
+                @Override
+                public IMetricsTracker create(String poolName, PoolStats poolStats) {
+                    return new IMetricsTracker() {
+                        @Override
+                        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                            performanceMonitor.registerOperation(OPERATION_ACQUIRE_CONNECTION, elapsedAcquiredNanos);
+                        }
+                    };
+                }
+            });
+        }
+
+        hikariDataSource = new HikariDataSource(config);
+
+        if (isolation.jdbcValue() != null && configuration.isUsingH2()) {
+            // see MidPointConnectionCustomizer: with H2 the isolation has to be set on each checkout
+            dataSource = new DelegatingDataSource(hikariDataSource) {
+                @Override
+                public Connection getConnection() throws SQLException {
+                    return setIsolation(super.getConnection());
+                }
+
+                @Override
+                public Connection getConnection(String username, String password) throws SQLException {
+                    return setIsolation(super.getConnection(username, password));
+                }
+
+                private Connection setIsolation(Connection connection) throws SQLException {
+                    connection.setTransactionIsolation(isolation.jdbcValue());
+                    return connection;
+                }
+            };
+        } else {
+            dataSource = hikariDataSource;
+        }
+    }
+
+    private String getIsolationName(int jdbcValue) {
+        switch (jdbcValue) {
+            case Connection.TRANSACTION_READ_UNCOMMITTED: return "TRANSACTION_READ_UNCOMMITTED";
+            case Connection.TRANSACTION_READ_COMMITTED: return "TRANSACTION_READ_COMMITTED";
+            case Connection.TRANSACTION_REPEATABLE_READ: return "TRANSACTION_REPEATABLE_READ";
+            case Connection.TRANSACTION_SERIALIZABLE: return "TRANSACTION_SERIALIZABLE";
+            default: throw new IllegalArgumentException("Unsupported transaction isolation: " + jdbcValue);
+        }
+    }
+
+    @Override
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    @Override
+    public ConnectionPoolStatistics getStatistics() {
+        HikariPoolMXBean pool = hikariDataSource.getHikariPoolMXBean();
+        if (pool == null) {
+            LOGGER.debug("Hikari pool is not started (yet), no statistics available");
+            return new ConnectionPoolStatistics(-1, -1, -1, -1);
+        }
+        return new ConnectionPoolStatistics(pool.getActiveConnections(), pool.getIdleConnections(),
+                pool.getTotalConnections(), pool.getThreadsAwaitingConnection());
+    }
+
+    @Override
+    public void close() {
+        hikariDataSource.close();
+    }
+}
@@ -18,13 +18,19 @@ package com.evolveum.midpoint.repo.sql.query2;
 
 import com.evolveum.midpoint.prism.Containerable;
 import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.repo.sql.ObjectPagingAfterOid;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
+import com.evolveum.midpoint.repo.sql.helpers.OrgHierarchyIndex;
 import com.evolveum.midpoint.repo.sql.query.QueryException;
 import com.evolveum.midpoint.repo.sql.query.RQuery;
 import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SelectorOptions;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import org.hibernate.Query;
 import org.hibernate.Session;
 
 import java.util.Collection;
@@ -34,21 +40,71 @@ import java.util.Collection;
  */
 public class QueryEngine2 {
 
+    private static final Trace LOGGER = TraceManager.getTrace(QueryEngine2.class);
+
     private SqlRepositoryConfiguration repoConfiguration;
     private PrismContext prismContext;
+    private OrgHierarchyIndex orgHierarchyIndex;
+    private QueryPlanCache queryPlanCache;                  // may be null
 
     public QueryEngine2(SqlRepositoryConfiguration config, PrismContext prismContext) {
+        this(config, prismContext, null);
+    }
+
+    public QueryEngine2(SqlRepositoryConfiguration config, PrismContext prismContext, OrgHierarchyIndex orgHierarchyIndex) {
+        this(config, prismContext, orgHierarchyIndex, null);
+    }
+
+    public QueryEngine2(SqlRepositoryConfiguration config, PrismContext prismContext, OrgHierarchyIndex orgHierarchyIndex,
+                        QueryPlanCache queryPlanCache) {
         this.repoConfiguration = config;
         this.prismContext = prismContext;
+        this.orgHierarchyIndex = orgHierarchyIndex;
+        this.queryPlanCache = queryPlanCache;
     }
 
     public RQuery interpret(ObjectQuery query, Class<? extends Containerable> type,
                             Collection<SelectorOptions<GetOperationOptions>> options,
                             boolean countingObjects, Session session) throws QueryException {
 
-        QueryInterpreter2 interpreter = new QueryInterpreter2(repoConfiguration);
+        QueryShape shape = null;
+        if (queryPlanCache != null && repoConfiguration.getQueryPlanCacheSize() > 0) {
+            shape = QueryShape.create(query, type, countingObjects, orgHierarchyIndex);
+            QueryPlan plan = shape != null ? queryPlanCache.get(shape.getKey()) : null;
+            if (plan != null) {
+                Query hqlQuery = plan.createQuery(session, shape.getLiterals());
+                if (hqlQuery != null) {
+                    LOGGER.trace("Using cached query plan for {}: {}", shape, plan);
+                    applyPaging(hqlQuery, query, countingObjects);
+                    return new RQueryImpl(hqlQuery, null);
+                }
+            }
+        }
+
+        QueryInterpreter2 interpreter = new QueryInterpreter2(repoConfiguration, orgHierarchyIndex);
         RootHibernateQuery hibernateQuery = interpreter.interpret(query, type, options, prismContext, countingObjects, session);
+        Query hqlQuery = hibernateQuery.getAsHqlQuery(session);
+
+        if (shape != null) {
+            QueryPlan plan = QueryPlan.create(hqlQuery.getQueryString(), hibernateQuery, shape.getLiterals());
+            if (plan != null) {
+                queryPlanCache.put(shape.getKey(), plan, repoConfiguration.getQueryPlanCacheSize());
+            }
+        }
+        return new RQueryImpl(hqlQuery, hibernateQuery);
+    }
 
-        return new RQueryImpl(hibernateQuery.getAsHqlQuery(session), hibernateQuery);
+    // offset and max size are not a part of the plan; see QueryInterpreter2.interpretPagingAndSorting
+    private void applyPaging(Query hqlQuery, ObjectQuery query, boolean countingObjects) {
+        ObjectPaging paging = query != null ? query.getPaging() : null;
+        if (paging == null || countingObjects) {
+            return;
+        }
+        if (paging.getOffset() != null && !(paging instanceof ObjectPagingAfterOid)) {
+            hqlQuery.setFirstResult(paging.getOffset());
+        }
+        if (paging.getMaxSize() != null) {
+            hqlQuery.setMaxResults(paging.getMaxSize());
+        }
     }
 }
@@ -22,11 +22,16 @@ import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.prism.query.*;
+import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
+import com.evolveum.midpoint.prism.query.builder.S_ConditionEntry;
+import com.evolveum.midpoint.prism.query.builder.S_MatchingRuleEntry;
 import com.evolveum.midpoint.repo.sql.ObjectPagingAfterOid;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
 import com.evolveum.midpoint.repo.sql.data.common.embedded.RPolyString;
+import com.evolveum.midpoint.repo.sql.helpers.OrgHierarchyIndex;
 import com.evolveum.midpoint.repo.sql.query.QueryException;
 import com.evolveum.midpoint.repo.sql.query2.definition.*;
+import com.evolveum.midpoint.repo.sql.query2.hqm.ParameterSource;
 import com.evolveum.midpoint.repo.sql.query2.hqm.ProjectionElement;
 import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
 import com.evolveum.midpoint.repo.sql.query2.hqm.condition.Condition;
@@ -95,15 +100,25 @@ public class QueryInterpreter2 {
     }
 
     private SqlRepositoryConfiguration repoConfiguration;
+    private OrgHierarchyIndex orgHierarchyIndex;            // may be null
 
     public QueryInterpreter2(SqlRepositoryConfiguration repoConfiguration) {
+        this(repoConfiguration, null);
+    }
+
+    public QueryInterpreter2(SqlRepositoryConfiguration repoConfiguration, OrgHierarchyIndex orgHierarchyIndex) {
         this.repoConfiguration = repoConfiguration;
+        this.orgHierarchyIndex = orgHierarchyIndex;
     }
 
     public SqlRepositoryConfiguration getRepoConfiguration() {
         return repoConfiguration;
     }
 
+    public OrgHierarchyIndex getOrgHierarchyIndex() {
+        return orgHierarchyIndex;
+    }
+
     public RootHibernateQuery interpret(ObjectQuery query, Class<? extends Containerable> type,
                                         Collection<SelectorOptions<GetOperationOptions>> options, PrismContext prismContext,
                                         boolean countingObjects, Session session) throws QueryException {
@@ -245,29 +260,85 @@ public class QueryInterpreter2 {
 
     private void interpretPagingAndSorting(InterpretationContext context, ObjectQuery query, boolean countingObjects) throws QueryException {
         RootHibernateQuery hibernateQuery = context.getHibernateQuery();
-        String rootAlias = hibernateQuery.getPrimaryEntityAlias();
 
         if (query != null && query.getPaging() instanceof ObjectPagingAfterOid) {
             ObjectPagingAfterOid paging = (ObjectPagingAfterOid) query.getPaging();
-            if (paging.getOidGreaterThan() != null) {
-                Condition c = hibernateQuery.createSimpleComparisonCondition(rootAlias + ".oid", paging.getOidGreaterThan(), ">");
+            if (paging.getOffset() != null || paging.getOrderingInstructions().size() > 1) {
+                throw new IllegalArgumentException("Neither offset nor multiple orderings are allowed on ObjectPagingAfterOid");
+            }
+            String orderingPath = null;
+            if (paging.hasOrdering()) {
+                orderingPath = resolveOrderingPath(context, paging.getOrderBy());
+                if (orderingPath == null) {
+                    throw new QueryException("Unknown path '" + paging.getOrderBy() + "', couldn't use it for keyset paging");
+                }
+            }
+            Condition c = createAfterKeyCondition(context, paging, orderingPath);
+            if (c != null) {
                 hibernateQuery.addCondition(c);
             }
+            if (!countingObjects) {
+                updatePagingAndSortingByKey(hibernateQuery, paging, orderingPath);
+            }
+        } else if (!countingObjects && query != null && query.getPaging() != null) {
+            updatePagingAndSorting(context, query.getPaging());
         }
+    }
 
-        if (!countingObjects && query != null && query.getPaging() != null) {
-            if (query.getPaging() instanceof ObjectPagingAfterOid) {
-                updatePagingAndSortingByOid(hibernateQuery, (ObjectPagingAfterOid) query.getPaging());                // very special case - ascending ordering by OID (nothing more)
-            } else {
-                updatePagingAndSorting(context, query.getPaging());
-            }
+    /**
+     * For ordering item "x" (ascending) and last key (v, lastOid) the condition is
+     *   x is not null and (x > v or (x = v and oid > lastOid)),
+     * for descending ordering "<" is used instead of ">". When walking objects with no value of x, it is
+     *   x is null and oid > lastOid.
+     * Comparisons of x with v are created via standard filters, so the value gets converted to the repository
+     * representation (polystrings, enums, ...) just as if it was a part of the query filter.
+     */
+    private Condition createAfterKeyCondition(InterpretationContext context, ObjectPagingAfterOid paging,
+                                              String orderingPath) throws QueryException {
+        RootHibernateQuery hibernateQuery = context.getHibernateQuery();
+        String oidPath = hibernateQuery.getPrimaryEntityAlias() + ".oid";
+        String lastOid = paging.getOidGreaterThan();
+        Condition oidCondition = lastOid != null
+                ? hibernateQuery.createSimpleComparisonCondition(oidPath, lastOid, ">", false, ParameterSource.of(lastOid))
+                : null;
+
+        if (orderingPath == null) {
+            return oidCondition;
+        } else if (paging.isNullOrderingValues()) {
+            Condition isNull = hibernateQuery.createIsNull(orderingPath);
+            return oidCondition != null ? hibernateQuery.createAnd(isNull, oidCondition) : isNull;
+        }
+
+        Condition isNotNull = hibernateQuery.createIsNotNull(orderingPath);
+        Object value = paging.getOrderingValue();
+        if (value == null || lastOid == null) {
+            return isNotNull;
         }
+        boolean descending = paging.getDirection() == OrderDirection.DESCENDING;
+        ItemPath path = paging.getOrderBy();
+        S_ConditionEntry item = QueryBuilder.queryFor(context.getType(), context.getPrismContext()).item(path);
+        S_MatchingRuleEntry beyond = descending ? item.lt(value) : item.gt(value);
+        S_MatchingRuleEntry same = QueryBuilder.queryFor(context.getType(), context.getPrismContext()).item(path).eq(value);
+        ObjectFilter beyondFilter, sameFilter;
+        if (value instanceof PolyString) {
+            beyondFilter = beyond.matchingOrig().buildFilter();      // we order by orig
+            sameFilter = same.matchingOrig().buildFilter();
+        } else {
+            beyondFilter = beyond.buildFilter();
+            sameFilter = same.buildFilter();
+        }
+        return hibernateQuery.createAnd(isNotNull,
+                hibernateQuery.createOr(
+                        interpretFilter(context, beyondFilter, null),
+                        hibernateQuery.createAnd(interpretFilter(context, sameFilter, null), oidCondition)));
     }
 
-    protected void updatePagingAndSortingByOid(RootHibernateQuery hibernateQuery, ObjectPagingAfterOid paging) {
+    protected void updatePagingAndSortingByKey(RootHibernateQuery hibernateQuery, ObjectPagingAfterOid paging,
+                                               String orderingPath) {
         String rootAlias = hibernateQuery.getPrimaryEntityAlias();
-        if (paging.getOrderBy() != null || paging.getDirection() != null || paging.getOffset() != null) {
-            throw new IllegalArgumentException("orderBy, direction nor offset is allowed on ObjectPagingAfterOid");
+        if (orderingPath != null && !paging.isNullOrderingValues()) {
+            hibernateQuery.addOrdering(orderingPath,
+                    paging.getDirection() == OrderDirection.DESCENDING ? OrderDirection.DESCENDING : OrderDirection.ASCENDING);
         }
         hibernateQuery.addOrdering(rootAlias + ".oid", OrderDirection.ASCENDING);
         if (paging.getMaxSize() != null) {
@@ -302,14 +373,38 @@ public class QueryInterpreter2 {
     private void addOrdering(InterpretationContext context, ObjectOrdering ordering) throws QueryException {
 
         ItemPath orderByPath = ordering.getOrderBy();
+        String hqlPropertyPath = resolveOrderingPath(context, orderByPath);
+        if (hqlPropertyPath == null) {
+            LOGGER.error("Unknown path '" + orderByPath + "', couldn't find definition for it, "
+                    + "list will not be ordered by it.");
+            return;
+        }
+
+        RootHibernateQuery hibernateQuery = context.getHibernateQuery();
+        if (ordering.getDirection() != null) {
+            switch (ordering.getDirection()) {
+                case ASCENDING:
+                    hibernateQuery.addOrdering(hqlPropertyPath, OrderDirection.ASCENDING);
+                    break;
+                case DESCENDING:
+                    hibernateQuery.addOrdering(hqlPropertyPath, OrderDirection.DESCENDING);
+                    break;
+            }
+        } else {
+            hibernateQuery.addOrdering(hqlPropertyPath, OrderDirection.ASCENDING);
+        }
 
+    }
+
+    /**
+     * Returns HQL path of a property usable for ordering, or null if the item is not known.
+     */
+    private String resolveOrderingPath(InterpretationContext context, ItemPath orderByPath) throws QueryException {
         // TODO if we'd like to have order-by extension properties, we'd need to provide itemDefinition for them
         ProperDataSearchResult<JpaDataNodeDefinition> result = context.getItemPathResolver().findProperDataDefinition(
                 context.getRootEntityDefinition(), orderByPath, null, JpaDataNodeDefinition.class);
         if (result == null) {
-            LOGGER.error("Unknown path '" + orderByPath + "', couldn't find definition for it, "
-                    + "list will not be ordered by it.");
-            return;
+            return null;
         }
         JpaDataNodeDefinition targetDefinition = result.getLinkDefinition().getTargetDefinition();
         if (targetDefinition instanceof JpaAnyContainerDefinition) {
@@ -332,21 +427,7 @@ public class QueryInterpreter2 {
         if (RPolyString.class.equals(orderByDefinition.getJpaClass())) {
             hqlPropertyPath += ".orig";
         }
-
-        RootHibernateQuery hibernateQuery = context.getHibernateQuery();
-        if (ordering.getDirection() != null) {
-            switch (ordering.getDirection()) {
-                case ASCENDING:
-                    hibernateQuery.addOrdering(hqlPropertyPath, OrderDirection.ASCENDING);
-                    break;
-                case DESCENDING:
-                    hibernateQuery.addOrdering(hqlPropertyPath, OrderDirection.DESCENDING);
-                    break;
-            }
-        } else {
-            hibernateQuery.addOrdering(hqlPropertyPath, OrderDirection.ASCENDING);
-        }
-
+        return hqlPropertyPath;
     }
 
     public <T extends Object> Matcher<T> findMatcher(T value) {
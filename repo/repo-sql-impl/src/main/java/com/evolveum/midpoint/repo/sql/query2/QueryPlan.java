@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.query2;
+
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.repo.sql.data.common.any.RAnyConverter;
+import com.evolveum.midpoint.repo.sql.query2.hqm.ParameterSource;
+import com.evolveum.midpoint.repo.sql.query2.hqm.ParameterSource.Extraction;
+import com.evolveum.midpoint.repo.sql.query2.hqm.QueryParameterValue;
+import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.criterion.MatchMode;
+import org.hibernate.transform.ResultTransformer;
+import org.hibernate.type.Type;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HQL text generated for a given {@link QueryShape}, along with the description of its parameters. Each parameter
+ * is either a constant (e.g. object type or relation, determined by the shape itself) or it is derived from one
+ * of the shape literals by a simple conversion (polystring orig/norm, "like" pattern, lower case, repository
+ * representation of extension values). So a query of the same shape can be executed by binding its literals only,
+ * without interpreting it again.
+ *
+ * The derivations are recorded by the interpreter for each parameter (see {@link ParameterSource}); the literal
+ * is looked up among shape literals by identity. If it is found at more places (e.g. the same string object used
+ * in two filters), no plan is created for that query.
+ *
+ * @author agent
+ */
+public class QueryPlan {
+
+    private static final Trace LOGGER = TraceManager.getTrace(QueryPlan.class);
+
+    private static final int AMBIGUOUS = -2;
+
+    private final String hqlText;
+    private final List<Slot> slots;
+    private final ResultTransformer resultTransformer;
+
+    private QueryPlan(String hqlText, List<Slot> slots, ResultTransformer resultTransformer) {
+        this.hqlText = hqlText;
+        this.slots = slots;
+        this.resultTransformer = resultTransformer;
+    }
+
+    public String getHqlText() {
+        return hqlText;
+    }
+
+    /**
+     * Creates a plan for already interpreted query (with HQL text already generated). Returns null if
+     * parameters cannot be reliably derived from the literals.
+     */
+    public static QueryPlan create(String hqlText, RootHibernateQuery hibernateQuery, List<Object> literals) {
+        List<Slot> slots = new ArrayList<>();
+        boolean[] literalUsed = new boolean[literals.size()];
+        for (Map.Entry<String, QueryParameterValue> parameter : hibernateQuery.getParameters().entrySet()) {
+            String name = parameter.getKey();
+            QueryParameterValue parameterValue = parameter.getValue();
+            Object value = parameterValue.getValue();
+            Type type = parameterValue.getType();
+            ParameterSource source = parameterValue.getSource();
+            int index = source != null ? findLiteral(literals, source.getLiteral()) : -1;
+            if (index == AMBIGUOUS) {
+                LOGGER.trace("Literal of parameter {} = {} is present more times in the query, not creating a plan", name, value);
+                return null;
+            } else if (index < 0) {
+                // not derived from a literal, or from a value that is a part of the shape key (e.g. enum)
+                slots.add(new Slot(name, type, -1, null, null, false, value));
+                continue;
+            }
+            Slot slot = new Slot(name, type, index, source.getExtraction(), source.getLikeMode(), parameterValue.isLowerCase(), null);
+            Object derived = derive(literals.get(index), slot.extraction, slot.likeMode, slot.lowerCase);
+            if (derived == null || !derived.equals(value)) {
+                // the interpreter converted the literal in a way we do not know about
+                LOGGER.debug("Parameter {} = {} is not equal to the value derived as {}: {}, not creating a plan",
+                        name, value, slot, derived);
+                return null;
+            }
+            literalUsed[index] = true;
+            slots.add(slot);
+        }
+        // a literal that was not found among parameters was converted in some unknown way
+        for (int i = 0; i < literalUsed.length; i++) {
+            if (!literalUsed[i]) {
+                LOGGER.trace("Literal {} was not found among parameters, not creating a plan", literals.get(i));
+                return null;
+            }
+        }
+        return new QueryPlan(hqlText, slots, hibernateQuery.getResultTransformer());
+    }
+
+    // returns index of the literal, -1 if it is not there, or AMBIGUOUS if it is there more times
+    private static int findLiteral(List<Object> literals, Object literal) {
+        int found = -1;
+        for (int i = 0; i < literals.size(); i++) {
+            if (literals.get(i) == literal) {
+                if (found >= 0) {
+                    return AMBIGUOUS;
+                }
+                found = i;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Creates HQL query with literals bound. Returns null if the literals do not fit the plan (should not occur).
+     */
+    public Query createQuery(Session session, List<Object> literals) {
+        List<QueryParameterValue> values = new ArrayList<>(slots.size());
+        for (Slot slot : slots) {
+            Object value;
+            if (slot.literalIndex < 0) {
+                value = slot.constantValue;
+            } else {
+                value = derive(literals.get(slot.literalIndex), slot.extraction, slot.likeMode, slot.lowerCase);
+                if (value == null) {
+                    LOGGER.debug("Couldn't derive value of {} from {}, plan for {} cannot be used", slot.name, literals, hqlText);
+                    return null;
+                }
+            }
+            values.add(new QueryParameterValue(value, slot.type));
+        }
+        Query query = session.createQuery(hqlText);
+        for (int i = 0; i < slots.size(); i++) {
+            RootHibernateQuery.setParameter(query, slots.get(i).name, values.get(i));
+        }
+        if (resultTransformer != null) {
+            query.setResultTransformer(resultTransformer);
+        }
+        return query;
+    }
+
+    // see PropertyRestriction, AnyPropertyRestriction, PolyStringMatcher, RootHibernateQuery.createLike, SimpleComparisonCondition
+    private static Object derive(Object literal, Extraction extraction, MatchMode likeMode, boolean lowerCase) {
+        Object value;
+        switch (extraction) {
+            case VALUE:
+                value = literal;
+                break;
+            case ORIG:
+                value = literal instanceof PolyString ? ((PolyString) literal).getOrig()
+                        : literal instanceof PolyStringType ? ((PolyStringType) literal).getOrig()
+                        : literal instanceof String ? literal : null;
+                break;
+            case NORM:
+                value = literal instanceof PolyString ? ((PolyString) literal).getNorm()
+                        : literal instanceof PolyStringType ? ((PolyStringType) literal).getNorm()
+                        : literal instanceof String ? literal : null;
+                break;
+            case REPO_VALUE:
+                value = RAnyConverter.getAggregatedRepoObject(literal);
+                break;
+            case INT_LIST:
+                value = toIntList(literal);
+                break;
+            default:
+                throw new IllegalStateException("Unknown extraction: " + extraction);
+        }
+        if (likeMode == null && !lowerCase) {
+            return value;
+        }
+        if (!(value instanceof String)) {
+            return null;
+        }
+        String string = (String) value;
+        if (likeMode != null) {
+            switch (likeMode) {
+                case ANYWHERE: string = "%" + string + "%"; break;
+                case START: string = string + "%"; break;
+                case END: string = "%" + string; break;
+                default: throw new IllegalStateException("Unsupported match mode: " + likeMode);
+            }
+        }
+        return lowerCase ? string.toLowerCase() : string;
+    }
+
+    private static List<Integer> toIntList(Object literal) {
+        if (!(literal instanceof Collection)) {
+            return null;
+        }
+        List<Integer> rv = new ArrayList<>();
+        for (Object id : (Collection<?>) literal) {
+            if (!(id instanceof String)) {
+                return null;
+            }
+            try {
+                rv.add(Integer.parseInt((String) id));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return rv;
+    }
+
+    private static class Slot {
+        private final String name;
+        private final Type type;
+        private final int literalIndex;             // -1 for constants
+        private final Extraction extraction;
+        private final MatchMode likeMode;
+        private final boolean lowerCase;
+        private final Object constantValue;
+
+        private Slot(String name, Type type, int literalIndex, Extraction extraction, MatchMode likeMode,
+                     boolean lowerCase, Object constantValue) {
+            this.name = name;
+            this.type = type;
+            this.literalIndex = literalIndex;
+            this.extraction = extraction;
+            this.likeMode = likeMode;
+            this.lowerCase = lowerCase;
+            this.constantValue = constantValue;
+        }
+
+        @Override
+        public String toString() {
+            return name + (literalIndex < 0 ? " = " + constantValue
+                    : " <- #" + literalIndex + " " + extraction + (likeMode != null ? " " + likeMode : "") + (lowerCase ? " lower" : ""));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QueryPlan{hql='" + hqlText + "', slots=" + slots + '}';
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.query2;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Query plans keyed by query shape (see {@link QueryShape}), with least-recently-used plans evicted.
+ * Plans depend only on static (JPA and prism) definitions, so they never need to be invalidated.
+ *
+ * @author agent
+ */
+public class QueryPlanCache {
+
+    private final Map<String, QueryPlan> plans = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public synchronized QueryPlan get(String key) {
+        QueryPlan plan = plans.get(key);
+        if (plan != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return plan;
+    }
+
+    public synchronized void put(String key, QueryPlan plan, int maxSize) {
+        plans.put(key, plan);
+        Iterator<String> iterator = plans.keySet().iterator();
+        while (plans.size() > maxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    public synchronized int size() {
+        return plans.size();
+    }
+
+    public synchronized void clear() {
+        plans.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.query2;
+
+import com.evolveum.midpoint.prism.ItemDefinition;
+import com.evolveum.midpoint.prism.PrismPropertyDefinition;
+import com.evolveum.midpoint.prism.PrismPropertyValue;
+import com.evolveum.midpoint.prism.PrismReferenceValue;
+import com.evolveum.midpoint.prism.PrismValue;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.path.ItemPathSegment;
+import com.evolveum.midpoint.prism.path.NameItemPathSegment;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.query.ComparativeFilter;
+import com.evolveum.midpoint.prism.query.ExistsFilter;
+import com.evolveum.midpoint.prism.query.InOidFilter;
+import com.evolveum.midpoint.prism.query.NaryLogicalFilter;
+import com.evolveum.midpoint.prism.query.NotFilter;
+import com.evolveum.midpoint.prism.query.ObjectFilter;
+import com.evolveum.midpoint.prism.query.ObjectOrdering;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.OrgFilter;
+import com.evolveum.midpoint.prism.query.PropertyValueFilter;
+import com.evolveum.midpoint.prism.query.RefFilter;
+import com.evolveum.midpoint.prism.query.SubstringFilter;
+import com.evolveum.midpoint.prism.query.TypeFilter;
+import com.evolveum.midpoint.prism.query.ValueFilter;
+import com.evolveum.midpoint.repo.sql.ObjectPagingAfterOid;
+import com.evolveum.midpoint.repo.sql.helpers.OrgHierarchyIndex;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * "Shape" of a query, i.e. everything that determines the HQL text generated for it: type of objects, filter
+ * structure with item paths, definitions, matching rules and operations, ordering, and whether we count the objects.
+ *
+ * Opaque values (strings, polystrings, numbers, dates, OIDs) are not part of the shape; they are collected as
+ * literals instead, in the order in which they are encountered. So queries differing only in these values have the
+ * same key and can share a {@link QueryPlan}. Other values (enums, booleans, QNames) can influence the HQL text,
+ * so they are kept in the key.
+ *
+ * @author agent
+ */
+public class QueryShape {
+
+    private final String key;
+    private final List<Object> literals;
+
+    private QueryShape(String key, List<Object> literals) {
+        this.key = key;
+        this.literals = literals;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public List<Object> getLiterals() {
+        return literals;
+    }
+
+    /**
+     * Returns null if the query cannot be described by a shape, e.g. if it contains filters whose interpretation
+     * depends on something else than the query itself (org filters resolved via org hierarchy index).
+     */
+    public static QueryShape create(ObjectQuery query, Class<?> type, boolean countingObjects,
+                                    OrgHierarchyIndex orgHierarchyIndex) {
+        Builder builder = new Builder(orgHierarchyIndex != null && orgHierarchyIndex.isEnabled());
+        builder.sb.append(type.getName()).append(countingObjects ? "#count" : "#list");
+        if (query != null) {
+            if (query.getFilter() != null && !builder.appendFilter(query.getFilter())) {
+                return null;
+            }
+            if (query.getPaging() != null && !builder.appendPaging(query.getPaging(), countingObjects)) {
+                return null;
+            }
+        }
+        return new QueryShape(builder.sb.toString(), builder.literals);
+    }
+
+    private static class Builder {
+
+        private final boolean orgHierarchyIndexEnabled;
+        private final StringBuilder sb = new StringBuilder();
+        private final List<Object> literals = new ArrayList<>();
+
+        private Builder(boolean orgHierarchyIndexEnabled) {
+            this.orgHierarchyIndexEnabled = orgHierarchyIndexEnabled;
+        }
+
+        private boolean appendFilter(ObjectFilter filter) {
+            sb.append('(').append(filter.getClass().getSimpleName());
+            boolean ok;
+            if (filter instanceof NaryLogicalFilter) {
+                ok = true;
+                for (ObjectFilter condition : ((NaryLogicalFilter) filter).getConditions()) {
+                    ok = ok && appendFilter(condition);
+                }
+            } else if (filter instanceof NotFilter) {
+                ok = appendFilter(((NotFilter) filter).getFilter());
+            } else if (filter instanceof TypeFilter) {
+                TypeFilter typeFilter = (TypeFilter) filter;
+                sb.append(':').append(typeFilter.getType());
+                ok = typeFilter.getFilter() == null || appendFilter(typeFilter.getFilter());
+            } else if (filter instanceof ExistsFilter) {
+                ExistsFilter existsFilter = (ExistsFilter) filter;
+                appendPath(existsFilter.getFullPath());
+                appendDefinition(existsFilter.getDefinition());
+                ok = existsFilter.getFilter() == null || appendFilter(existsFilter.getFilter());
+            } else if (filter instanceof InOidFilter) {
+                ok = appendInOid((InOidFilter) filter);
+            } else if (filter instanceof OrgFilter) {
+                ok = appendOrg((OrgFilter) filter);
+            } else if (filter instanceof RefFilter) {
+                ok = appendRef((RefFilter) filter);
+            } else if (filter instanceof PropertyValueFilter) {
+                ok = appendPropertyValue((PropertyValueFilter<?>) filter);
+            } else {
+                ok = false;         // trivial or unknown filters are left to the interpreter
+            }
+            sb.append(')');
+            return ok;
+        }
+
+        private boolean appendInOid(InOidFilter filter) {
+            if (filter.getExpression() != null || filter.getOids() == null) {
+                return false;
+            }
+            sb.append(':').append(filter.isConsiderOwner());
+            literals.add(filter.getOids());
+            return true;
+        }
+
+        private boolean appendOrg(OrgFilter filter) {
+            if (filter.isRoot()) {
+                sb.append(":root");
+                return true;
+            }
+            // OIDs resolved via org hierarchy index depend on the current state of the hierarchy
+            if (orgHierarchyIndexEnabled || filter.getOrgRef() == null || filter.getOrgRef().getOid() == null) {
+                return false;
+            }
+            sb.append(':').append(filter.getScope());
+            literals.add(filter.getOrgRef().getOid());
+            return true;
+        }
+
+        private boolean appendRef(RefFilter filter) {
+            if (!appendValueFilterCommon(filter)) {
+                return false;
+            }
+            List<? extends PrismValue> values = filter.getValues();
+            if (values == null || values.isEmpty()) {
+                sb.append(":null");
+                return true;
+            } else if (values.size() > 1) {
+                return false;
+            }
+            PrismReferenceValue refValue = (PrismReferenceValue) values.get(0);
+            if (refValue.getOid() == null) {
+                sb.append(":null");
+            } else {
+                sb.append(":?:").append(refValue.getRelation()).append(':').append(refValue.getTargetType());
+                literals.add(refValue.getOid());
+            }
+            return true;
+        }
+
+        private boolean appendPropertyValue(PropertyValueFilter<?> filter) {
+            if (!appendValueFilterCommon(filter)) {
+                return false;
+            }
+            if (filter instanceof ComparativeFilter) {
+                sb.append(':').append(((ComparativeFilter) filter).isEquals());
+            } else if (filter instanceof SubstringFilter) {
+                SubstringFilter substringFilter = (SubstringFilter) filter;
+                sb.append(':').append(substringFilter.isAnchorStart()).append(':').append(substringFilter.isAnchorEnd());
+            }
+            if (filter.getRightHandSidePath() != null) {
+                sb.append(":rhs");
+                appendPath(filter.getRightHandSidePath());
+                appendDefinition(filter.getRightHandSideDefinition());
+                return true;
+            }
+            List<? extends PrismPropertyValue<?>> values = filter.getValues();
+            if (values == null || values.isEmpty()) {
+                sb.append(":null");
+                return true;
+            } else if (values.size() > 1) {
+                return false;
+            }
+            return appendValue(values.get(0).getValue());
+        }
+
+        private boolean appendValueFilterCommon(ValueFilter<?, ?> filter) {
+            if (filter.getExpression() != null) {
+                return false;
+            }
+            appendPath(filter.getFullPath());
+            appendDefinition(filter.getDefinition());
+            sb.append(':').append(filter.getMatchingRule());
+            return true;
+        }
+
+        private boolean appendPaging(ObjectPaging paging, boolean countingObjects) {
+            if (paging instanceof ObjectPagingAfterOid) {
+                // see QueryInterpreter2.createAfterKeyCondition
+                ObjectPagingAfterOid afterOid = (ObjectPagingAfterOid) paging;
+                sb.append("[afterOid");
+                if (paging.getOrderingInstructions().size() > 1) {
+                    return false;
+                }
+                String lastOid = afterOid.getOidGreaterThan();
+                Object value = afterOid.getOrderingValue();
+                if (paging.hasOrdering()) {
+                    appendOrdering(paging.getPrimaryOrdering());
+                    sb.append(':').append(afterOid.isNullOrderingValues());
+                    if (afterOid.isNullOrderingValues()) {
+                        appendOptionalLiteral(lastOid);
+                    } else if (value == null || lastOid == null) {
+                        sb.append(":none");
+                    } else if (!appendValue(value)) {
+                        return false;
+                    } else {
+                        appendOptionalLiteral(lastOid);
+                    }
+                } else {
+                    appendOptionalLiteral(lastOid);
+                }
+                sb.append(']');
+            } else if (!countingObjects && paging.hasOrdering()) {
+                // offset and max size are not a part of the HQL text
+                sb.append('[');
+                for (ObjectOrdering ordering : paging.getOrderingInstructions()) {
+                    appendOrdering(ordering);
+                }
+                sb.append(']');
+            }
+            return true;
+        }
+
+        private void appendOrdering(ObjectOrdering ordering) {
+            appendPath(ordering.getOrderBy());
+            sb.append(':').append(ordering.getDirection());
+        }
+
+        private void appendOptionalLiteral(String value) {
+            if (value == null) {
+                sb.append(":null");
+            } else {
+                sb.append(":?");
+                literals.add(value);
+            }
+        }
+
+        private boolean appendValue(Object value) {
+            if (value == null) {
+                sb.append(":null");
+            } else if (value instanceof PolyString) {
+                PolyString poly = (PolyString) value;
+                appendPolyString(poly.getOrig(), poly.getNorm());
+                literals.add(value);
+            } else if (value instanceof PolyStringType) {
+                PolyStringType poly = (PolyStringType) value;
+                appendPolyString(poly.getOrig(), poly.getNorm());
+                literals.add(value);
+            } else if (value instanceof String || value instanceof Number || value instanceof XMLGregorianCalendar
+                    || value instanceof Calendar || value instanceof Date) {
+                sb.append(":?").append(value.getClass().getName());
+                literals.add(value);
+            } else if (value instanceof Enum || value instanceof Boolean || value instanceof QName) {
+                sb.append(':').append(value.getClass().getName()).append('=').append(value);
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        // null orig or norm is translated to "is null" condition
+        private void appendPolyString(String orig, String norm) {
+            sb.append(":?poly:").append(orig != null).append(':').append(norm != null);
+        }
+
+        private void appendPath(ItemPath path) {
+            sb.append(':');
+            List<ItemPathSegment> segments = path != null ? path.getSegments() : Collections.<ItemPathSegment>emptyList();
+            for (ItemPathSegment segment : segments) {
+                sb.append('/');
+                if (segment instanceof NameItemPathSegment) {
+                    sb.append(((NameItemPathSegment) segment).getName());       // including namespace
+                } else {
+                    sb.append(segment);
+                }
+            }
+        }
+
+        private void appendDefinition(ItemDefinition definition) {
+            if (definition == null) {
+                sb.append(":-");
+                return;
+            }
+            sb.append(':').append(definition.getTypeName()).append(':').append(definition.isDynamic());
+            if (definition instanceof PrismPropertyDefinition) {
+                sb.append(':').append(((PrismPropertyDefinition) definition).isIndexed());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QueryShape{key='" + key + "', literals=" + literals + '}';
+    }
+}
@@ -31,7 +31,7 @@ import java.util.List;
  */
 public class RQueryImpl implements RQuery {
 
-	private RootHibernateQuery querySource;		// only for diagnostic purposes
+	private RootHibernateQuery querySource;		// only for diagnostic purposes; null if the query was created from a cached plan
     private org.hibernate.Query query;
 
     public RQueryImpl(Query query, RootHibernateQuery querySource) {
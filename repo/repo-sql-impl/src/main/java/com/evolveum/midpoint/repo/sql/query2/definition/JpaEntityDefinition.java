@@ -131,6 +131,19 @@ public class JpaEntityDefinition extends JpaDataNodeDefinition implements DebugD
         }
     }
 
+    /**
+     * Is there a link definition pointing strictly inside given path? E.g. for "metadata" there are links
+     * like "metadata/modifierRef" or "metadata/createTimestamp".
+     */
+    public boolean hasLinkDefinitionInside(ItemPath path) {
+        for (JpaLinkDefinition definition : definitions) {
+            if (definition.getItemPath().startsWith(path) && !definition.matchesExactly(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void setSuperclassDefinition(JpaEntityDefinition superclassDefinition) {
         this.superclassDefinition = superclassDefinition;
     }
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.query2.hqm;
+
+import org.hibernate.criterion.MatchMode;
+
+/**
+ * Tells how a query parameter was derived from a literal, i.e. from a value present in the query itself
+ * (filter value, OID, paging key). It is recorded by the interpreter when the parameter is created, so the query
+ * can be later executed with other literals without interpreting it again (see QueryPlan).
+ *
+ * The literal is the very object found in the query (it is compared by identity, not by value). Lower-casing
+ * is not a part of the source, as it is decided when the parameter is created; see {@link QueryParameterValue}.
+ *
+ * @author agent
+ */
+public class ParameterSource {
+
+    public enum Extraction {
+        VALUE,              // the literal itself
+        ORIG,               // polystring orig (a string literal is converted to polystring with orig = norm = string)
+        NORM,               // polystring norm
+        REPO_VALUE,         // repository representation of extension value (see RAnyConverter)
+        INT_LIST            // container IDs converted to integers
+    }
+
+    private final Object literal;
+    private final Extraction extraction;
+    private final MatchMode likeMode;          // null if not used in "like" comparison
+
+    private ParameterSource(Object literal, Extraction extraction, MatchMode likeMode) {
+        this.literal = literal;
+        this.extraction = extraction;
+        this.likeMode = likeMode;
+    }
+
+    /**
+     * Returns null for null literal, as such values are translated to "is null" conditions.
+     */
+    public static ParameterSource of(Object literal, Extraction extraction) {
+        return literal != null ? new ParameterSource(literal, extraction, null) : null;
+    }
+
+    public static ParameterSource of(Object literal) {
+        return of(literal, Extraction.VALUE);
+    }
+
+    public ParameterSource withExtraction(Extraction extraction) {
+        return new ParameterSource(literal, extraction, likeMode);
+    }
+
+    public ParameterSource withLikeMode(MatchMode likeMode) {
+        return new ParameterSource(literal, extraction, likeMode);
+    }
+
+    public Object getLiteral() {
+        return literal;
+    }
+
+    public Extraction getExtraction() {
+        return extraction;
+    }
+
+    public MatchMode getLikeMode() {
+        return likeMode;
+    }
+
+    @Override
+    public String toString() {
+        return extraction + (likeMode != null ? " " + likeMode : "") + " of '" + literal + "'";
+    }
+}
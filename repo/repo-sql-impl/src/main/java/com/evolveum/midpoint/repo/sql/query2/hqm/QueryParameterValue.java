@@ -25,12 +25,21 @@ public class QueryParameterValue {
 
     private Object value;
     private Type type;
+    private ParameterSource source;         // null if the value is not derived from a literal
+    private boolean lowerCase;              // whether the value was converted to lower case (ignore-case comparison)
 
     public QueryParameterValue(Object value, Type type) {
         this.value = value;
         this.type = type;
     }
 
+    public QueryParameterValue(Object value, Type type, ParameterSource source, boolean lowerCase) {
+        this.value = value;
+        this.type = type;
+        this.source = source;
+        this.lowerCase = lowerCase;
+    }
+
     public QueryParameterValue(Object value) {
         this.value = value;
     }
@@ -43,6 +52,14 @@ public class QueryParameterValue {
         return value;
     }
 
+    public ParameterSource getSource() {
+        return source;
+    }
+
+    public boolean isLowerCase() {
+        return lowerCase;
+    }
+
     public String debugDump() {
         StringBuilder sb = new StringBuilder();
         sb.append(value);
@@ -58,6 +75,11 @@ public class QueryParameterValue {
             sb.append(type);
             sb.append(")");
         }
+        if (source != null) {
+            sb.append(" (from ");
+            sb.append(source);
+            sb.append(lowerCase ? ", lower case)" : ")");
+        }
         return sb.toString();
     }
 
@@ -55,14 +55,26 @@ public class RootHibernateQuery extends HibernateQuery {
         super(primaryEntityDef);
     }
 
-    public String addParameter(String prefix, Object value, Type type) {
+    /**
+     * @param source How the value was derived from a literal of the query (null if it was not).
+     * @param lowerCase Whether the value was converted to lower case.
+     */
+    public String addParameter(String prefix, Object value, Type type, ParameterSource source, boolean lowerCase) {
         String name = findFreeName(prefix);
-        parameters.put(name, new QueryParameterValue(value, type));
+        parameters.put(name, new QueryParameterValue(value, type, source, lowerCase));
         return name;
     }
 
+    public String addParameter(String prefix, Object value, Type type) {
+        return addParameter(prefix, value, type, null, false);
+    }
+
+    public String addParameter(String prefix, Object value, ParameterSource source) {
+        return addParameter(prefix, value, null, source, false);
+    }
+
     public String addParameter(String prefix, Object value) {
-        return addParameter(prefix, value, null);
+        return addParameter(prefix, value, null, null, false);
     }
 
 	public Map<String, QueryParameterValue> getParameters() {
@@ -88,20 +100,7 @@ public class RootHibernateQuery extends HibernateQuery {
             String name = parameter.getKey();
             QueryParameterValue parameterValue = parameter.getValue();
             LOGGER.trace("Parameter {} = {}", name, parameterValue.debugDump());
-
-            if (parameterValue.getValue() instanceof Collection) {
-                if (parameterValue.getType() != null) {
-                    query.setParameterList(name, (Collection) parameterValue.getValue(), parameterValue.getType());
-                } else {
-                    query.setParameterList(name, (Collection) parameterValue.getValue());
-                }
-            } else {
-                if (parameterValue.getType() != null) {
-                    query.setParameter(name, parameterValue.getValue(), parameterValue.getType());
-                } else {
-                    query.setParameter(name, parameterValue.getValue());
-                }
-            }
+            setParameter(query, name, parameterValue);
         }
         if (maxResults != null) {
             query.setMaxResults(maxResults);
@@ -115,6 +114,22 @@ public class RootHibernateQuery extends HibernateQuery {
         return query;
     }
 
+    public static void setParameter(Query query, String name, QueryParameterValue parameterValue) {
+        if (parameterValue.getValue() instanceof Collection) {
+            if (parameterValue.getType() != null) {
+                query.setParameterList(name, (Collection) parameterValue.getValue(), parameterValue.getType());
+            } else {
+                query.setParameterList(name, (Collection) parameterValue.getValue());
+            }
+        } else {
+            if (parameterValue.getType() != null) {
+                query.setParameter(name, parameterValue.getValue(), parameterValue.getType());
+            } else {
+                query.setParameter(name, parameterValue.getValue());
+            }
+        }
+    }
+
     @Override
     public RootHibernateQuery getRootQuery() {
         return this;
@@ -132,6 +147,10 @@ public class RootHibernateQuery extends HibernateQuery {
         this.resultTransformer = resultTransformer;
     }
 
+    public ResultTransformer getResultTransformer() {
+        return resultTransformer;
+    }
+
     public Condition createIsNull(String propertyPath) {
         return new IsNullCondition(this, propertyPath);
     }
@@ -140,8 +159,12 @@ public class RootHibernateQuery extends HibernateQuery {
         return new IsNotNullCondition(this, propertyPath);
     }
 
+    public Condition createEq(String propertyPath, Object value, boolean ignoreCase, ParameterSource source) {
+        return createSimpleComparisonCondition(propertyPath, value, "=", ignoreCase, source);
+    }
+
     public Condition createEq(String propertyPath, Object value, boolean ignoreCase) {
-        return createSimpleComparisonCondition(propertyPath, value, "=", ignoreCase);
+        return createEq(propertyPath, value, ignoreCase, null);
     }
 
     public Condition createEq(String propertyPath, Object value) {
@@ -156,14 +179,24 @@ public class RootHibernateQuery extends HibernateQuery {
         return new SimpleComparisonCondition(this, propertyPath, value, comparatorSymbol, ignoreCase);
     }
 
+    public Condition createSimpleComparisonCondition(String propertyPath, Object value, String comparatorSymbol, boolean ignoreCase,
+                                                     ParameterSource source) {
+        return new SimpleComparisonCondition(this, propertyPath, value, comparatorSymbol, ignoreCase, source);
+    }
+
     public Condition createLike(String propertyPath, String value, MatchMode matchMode, boolean ignoreCase) {
+        return createLike(propertyPath, value, matchMode, ignoreCase, null);
+    }
+
+    public Condition createLike(String propertyPath, String value, MatchMode matchMode, boolean ignoreCase, ParameterSource source) {
         switch (matchMode) {
             case ANYWHERE: value = "%" + value + "%"; break;
             case START: value = value + "%"; break;
             case END: value = "%" + value; break;
             default: throw new IllegalStateException("Unsupported match mode: " + matchMode);
         }
-        return new SimpleComparisonCondition(this, propertyPath, value, "like", ignoreCase);
+        return new SimpleComparisonCondition(this, propertyPath, value, "like", ignoreCase,
+                source != null ? source.withLikeMode(matchMode) : null);
     }
 
     public AndCondition createAnd(Condition... conditions) {
@@ -183,7 +216,11 @@ public class RootHibernateQuery extends HibernateQuery {
     }
 
     public Condition createIn(String propertyPath, Collection<?> values) {
-        return new InCondition(this, propertyPath, values);
+        return new InCondition(this, propertyPath, values, null);
+    }
+
+    public Condition createIn(String propertyPath, Collection<?> values, ParameterSource source) {
+        return new InCondition(this, propertyPath, values, source);
     }
 
     public Condition createIn(String propertyPath, String subqueryText) {
@@ -17,6 +17,7 @@
 package com.evolveum.midpoint.repo.sql.query2.hqm.condition;
 
 import com.evolveum.midpoint.repo.sql.query2.hqm.HibernateQuery;
+import com.evolveum.midpoint.repo.sql.query2.hqm.ParameterSource;
 import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
 import org.apache.commons.lang.Validate;
 
@@ -29,6 +30,7 @@ public class InCondition extends PropertyCondition {
 
     private Collection<?> values;
     private String innerQueryText;
+    private ParameterSource source;
 
     public InCondition(RootHibernateQuery rootHibernateQuery, String propertyPath, String innerQueryText) {
         super(rootHibernateQuery, propertyPath);
@@ -37,9 +39,14 @@ public class InCondition extends PropertyCondition {
     }
 
     public InCondition(RootHibernateQuery rootHibernateQuery, String propertyPath, Collection<?> values) {
+        this(rootHibernateQuery, propertyPath, values, null);
+    }
+
+    public InCondition(RootHibernateQuery rootHibernateQuery, String propertyPath, Collection<?> values, ParameterSource source) {
         super(rootHibernateQuery, propertyPath);
         Validate.notNull(values);
         this.values = values;
+        this.source = source;
     }
 
     @Override
@@ -47,7 +54,7 @@ public class InCondition extends PropertyCondition {
         HibernateQuery.indent(sb, indent);
         if (values != null) {
             String parameterNamePrefix = createParameterName(propertyPath);
-            String parameterName = rootHibernateQuery.addParameter(parameterNamePrefix, values);        // TODO special treatment of collections?
+            String parameterName = rootHibernateQuery.addParameter(parameterNamePrefix, values, source);        // TODO special treatment of collections?
             sb.append(propertyPath).append(" in :").append(parameterName);
         } else {
             sb.append(propertyPath).append(" in (").append(innerQueryText).append(")");
@@ -17,6 +17,7 @@
 package com.evolveum.midpoint.repo.sql.query2.hqm.condition;
 
 import com.evolveum.midpoint.repo.sql.query2.hqm.HibernateQuery;
+import com.evolveum.midpoint.repo.sql.query2.hqm.ParameterSource;
 import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
 import org.apache.commons.lang.Validate;
 
@@ -28,14 +29,21 @@ public class SimpleComparisonCondition extends PropertyCondition {
     private Object value;
     private String operator;
     private boolean ignoreCase;
+    private ParameterSource source;
 
     public SimpleComparisonCondition(RootHibernateQuery rootHibernateQuery, String propertyPath, Object value, String operator, boolean ignoreCase) {
+        this(rootHibernateQuery, propertyPath, value, operator, ignoreCase, null);
+    }
+
+    public SimpleComparisonCondition(RootHibernateQuery rootHibernateQuery, String propertyPath, Object value, String operator, boolean ignoreCase,
+                                     ParameterSource source) {
         super(rootHibernateQuery, propertyPath);
         Validate.notNull(value, "value");
         Validate.notNull(operator, "operator");
         this.value = value;
         this.operator = operator;
         this.ignoreCase = ignoreCase;
+        this.source = source;
     }
 
     @Override
@@ -57,7 +65,7 @@ public class SimpleComparisonCondition extends PropertyCondition {
         }
 
         String parameterNamePrefix = createParameterName(propertyPath);
-        String parameterName = rootHibernateQuery.addParameter(parameterNamePrefix, finalPropertyValue);
+        String parameterName = rootHibernateQuery.addParameter(parameterNamePrefix, finalPropertyValue, null, source, ignoreCase);
         sb.append(finalPropertyPath).append(" ").append(operator).append(" :").append(parameterName);
     }
 
@@ -17,6 +17,7 @@
 package com.evolveum.midpoint.repo.sql.query2.matcher;
 
 import com.evolveum.midpoint.repo.sql.query.QueryException;
+import com.evolveum.midpoint.repo.sql.query2.hqm.ParameterSource;
 import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
 import com.evolveum.midpoint.repo.sql.query2.hqm.condition.Condition;
 import com.evolveum.midpoint.repo.sql.query2.restriction.ItemRestrictionOperation;
@@ -27,9 +28,9 @@ import com.evolveum.midpoint.repo.sql.query2.restriction.ItemRestrictionOperatio
 public class DefaultMatcher<T> extends Matcher<T> {
 
     @Override
-    public Condition match(RootHibernateQuery hibernateQuery, ItemRestrictionOperation operation, String propertyName, T value, String matcher)
-            throws QueryException {
+    public Condition match(RootHibernateQuery hibernateQuery, ItemRestrictionOperation operation, String propertyName, T value, String matcher,
+                           ParameterSource source) throws QueryException {
 
-        return basicMatch(hibernateQuery, operation, propertyName, value, false);
+        return basicMatch(hibernateQuery, operation, propertyName, value, false, source);
     }
 }
@@ -17,6 +17,7 @@
 package com.evolveum.midpoint.repo.sql.query2.matcher;
 
 import com.evolveum.midpoint.repo.sql.query.QueryException;
+import com.evolveum.midpoint.repo.sql.query2.hqm.ParameterSource;
 import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
 import com.evolveum.midpoint.repo.sql.query2.hqm.condition.Condition;
 import com.evolveum.midpoint.repo.sql.query2.restriction.ItemRestrictionOperation;
@@ -43,14 +44,15 @@ public abstract class Matcher<T> {
      * @param value
      * @param matcher      Now type of {@link String}, but will be updated to {@link javax.xml.namespace.QName}
      *                     type after query-api update
+     * @param source       How the value was derived from a literal of the query (null if it was not)
      * @return
      * @throws QueryException
      */
-    public abstract Condition match(RootHibernateQuery hibernateQuery, ItemRestrictionOperation operation, String propertyPath, T value, String matcher)
-            throws QueryException;
+    public abstract Condition match(RootHibernateQuery hibernateQuery, ItemRestrictionOperation operation, String propertyPath, T value, String matcher,
+                                    ParameterSource source) throws QueryException;
 
     protected Condition basicMatch(RootHibernateQuery hibernateQuery, ItemRestrictionOperation operation, String propertyPath, Object value,
-                                   boolean ignoreCase) throws QueryException {
+                                   boolean ignoreCase, ParameterSource source) throws QueryException {
         Validate.notNull(hibernateQuery, "hibernateQuery");
 
         if (ignoreCase && !(value instanceof String)) {
@@ -64,14 +66,14 @@ public abstract class Matcher<T> {
                 if (value == null) {
                     condition = hibernateQuery.createIsNull(propertyPath);
                 } else {
-                    condition = hibernateQuery.createEq(propertyPath, value, ignoreCase);
+                    condition = hibernateQuery.createEq(propertyPath, value, ignoreCase, source);
                 }
                 break;
             case GT:
             case GE:
             case LT:
             case LE:
-                condition = hibernateQuery.createSimpleComparisonCondition(propertyPath, value, operation.symbol(), ignoreCase);
+                condition = hibernateQuery.createSimpleComparisonCondition(propertyPath, value, operation.symbol(), ignoreCase, source);
                 break;
             case NOT_NULL:
                 condition = hibernateQuery.createIsNotNull(propertyPath);
@@ -80,13 +82,13 @@ public abstract class Matcher<T> {
                 condition = hibernateQuery.createIsNull(propertyPath);
                 break;
             case STARTS_WITH:
-                condition = hibernateQuery.createLike(propertyPath, (String) value, MatchMode.START, ignoreCase);
+                condition = hibernateQuery.createLike(propertyPath, (String) value, MatchMode.START, ignoreCase, source);
                 break;
             case ENDS_WITH:
-                condition = hibernateQuery.createLike(propertyPath, (String) value, MatchMode.END, ignoreCase);
+                condition = hibernateQuery.createLike(propertyPath, (String) value, MatchMode.END, ignoreCase, source);
                 break;
             case SUBSTRING:
-                condition = hibernateQuery.createLike(propertyPath, (String) value, MatchMode.ANYWHERE, ignoreCase);
+                condition = hibernateQuery.createLike(propertyPath, (String) value, MatchMode.ANYWHERE, ignoreCase, source);
                 break;
             default:
                 throw new QueryException("Unknown operation '" + operation + "'.");
@@ -22,6 +22,7 @@ import com.evolveum.midpoint.prism.match.PolyStringStrictMatchingRule;
 import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.repo.sql.data.common.embedded.RPolyString;
 import com.evolveum.midpoint.repo.sql.query.QueryException;
+import com.evolveum.midpoint.repo.sql.query2.hqm.ParameterSource;
 import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
 import com.evolveum.midpoint.repo.sql.query2.hqm.condition.AndCondition;
 import com.evolveum.midpoint.repo.sql.query2.hqm.condition.Condition;
@@ -43,8 +44,8 @@ public class PolyStringMatcher extends Matcher<PolyString> {
     public static final String NORM_IGNORE_CASE = "normIgnoreCase";
 
     @Override
-    public Condition match(RootHibernateQuery hibernateQuery, ItemRestrictionOperation operation, String propertyName, PolyString value, String matcher)
-            throws QueryException {
+    public Condition match(RootHibernateQuery hibernateQuery, ItemRestrictionOperation operation, String propertyName, PolyString value, String matcher,
+                           ParameterSource source) throws QueryException {
 
         boolean ignoreCase = STRICT_IGNORE_CASE.equals(matcher)
                 || ORIG_IGNORE_CASE.equals(matcher)
@@ -53,29 +54,31 @@ public class PolyStringMatcher extends Matcher<PolyString> {
         if (StringUtils.isEmpty(matcher)
                 || STRICT.equals(matcher) || STRICT_IGNORE_CASE.equals(matcher)) {
             AndCondition conjunction = hibernateQuery.createAnd();
-            conjunction.add(createOrigMatch(hibernateQuery, operation, propertyName, value, ignoreCase));
-            conjunction.add(createNormMatch(hibernateQuery, operation, propertyName, value, ignoreCase));
+            conjunction.add(createOrigMatch(hibernateQuery, operation, propertyName, value, ignoreCase, source));
+            conjunction.add(createNormMatch(hibernateQuery, operation, propertyName, value, ignoreCase, source));
             return conjunction;
         } else if (ORIG.equals(matcher) || ORIG_IGNORE_CASE.equals(matcher)) {
-            return createOrigMatch(hibernateQuery, operation, propertyName, value, ignoreCase);
+            return createOrigMatch(hibernateQuery, operation, propertyName, value, ignoreCase, source);
         } else if (NORM.equals(matcher) || NORM_IGNORE_CASE.equals(matcher)) {
-            return createNormMatch(hibernateQuery, operation, propertyName, value, ignoreCase);
+            return createNormMatch(hibernateQuery, operation, propertyName, value, ignoreCase, source);
         } else {
             throw new QueryException("Unknown matcher '" + matcher + "'.");
         }
     }
 
     private Condition createNormMatch(RootHibernateQuery hibernateQuery, ItemRestrictionOperation operation, String propertyName, PolyString value,
-                                      boolean ignoreCase) throws QueryException {
+                                      boolean ignoreCase, ParameterSource source) throws QueryException {
 
         String realValue = value != null ? value.getNorm() : null;
-        return basicMatch(hibernateQuery, operation, propertyName + '.' + RPolyString.F_NORM, realValue, ignoreCase);
+        return basicMatch(hibernateQuery, operation, propertyName + '.' + RPolyString.F_NORM, realValue, ignoreCase,
+                source != null ? source.withExtraction(ParameterSource.Extraction.NORM) : null);
     }
 
     private Condition createOrigMatch(RootHibernateQuery hibernateQuery, ItemRestrictionOperation operation, String propertyName, PolyString value,
-                                      boolean ignoreCase) throws QueryException {
+                                      boolean ignoreCase, ParameterSource source) throws QueryException {
 
         String realValue = value != null ? value.getOrig() : null;
-        return basicMatch(hibernateQuery, operation, propertyName + '.' + RPolyString.F_ORIG, realValue, ignoreCase);
+        return basicMatch(hibernateQuery, operation, propertyName + '.' + RPolyString.F_ORIG, realValue, ignoreCase,
+                source != null ? source.withExtraction(ParameterSource.Extraction.ORIG) : null);
     }
 }
@@ -18,6 +18,7 @@ package com.evolveum.midpoint.repo.sql.query2.matcher;
 
 import com.evolveum.midpoint.prism.match.StringIgnoreCaseMatchingRule;
 import com.evolveum.midpoint.repo.sql.query.QueryException;
+import com.evolveum.midpoint.repo.sql.query2.hqm.ParameterSource;
 import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
 import com.evolveum.midpoint.repo.sql.query2.hqm.condition.Condition;
 import com.evolveum.midpoint.repo.sql.query2.restriction.ItemRestrictionOperation;
@@ -31,11 +32,11 @@ public class StringMatcher extends Matcher<String> {
     public static final String IGNORE_CASE = StringIgnoreCaseMatchingRule.NAME.getLocalPart();
 
     @Override
-    public Condition match(RootHibernateQuery hibernateQuery, ItemRestrictionOperation operation, String propertyName, String value, String matcher)
-            throws QueryException {
+    public Condition match(RootHibernateQuery hibernateQuery, ItemRestrictionOperation operation, String propertyName, String value, String matcher,
+                           ParameterSource source) throws QueryException {
 
         boolean ignoreCase = IGNORE_CASE.equalsIgnoreCase(matcher);
 
-        return basicMatch(hibernateQuery, operation, propertyName, value, ignoreCase);
+        return basicMatch(hibernateQuery, operation, propertyName, value, ignoreCase, source);
     }
 }
@@ -22,10 +22,14 @@ import com.evolveum.midpoint.repo.sql.query.QueryException;
 import com.evolveum.midpoint.repo.sql.query2.InterpretationContext;
 import com.evolveum.midpoint.repo.sql.query2.definition.JpaEntityDefinition;
 import com.evolveum.midpoint.repo.sql.query2.definition.JpaLinkDefinition;
+import com.evolveum.midpoint.repo.sql.query2.hqm.ParameterSource;
 import com.evolveum.midpoint.repo.sql.query2.hqm.condition.Condition;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author lazyman
  */
@@ -46,9 +50,18 @@ public class AnyPropertyRestriction extends PropertyRestriction {
 
         if (filter.getRightHandSidePath() != null) {
             return createPropertyVsPropertyCondition(propertyValuePath);
+        } else if (isMultiValuedEquality(filter)) {
+            List<Object> values = new ArrayList<>();
+            for (Object value : getValues(filter)) {
+                values.add(RAnyConverter.getAggregatedRepoObject(value));
+            }
+            Condition c = getContext().getHibernateQuery().createIn(propertyValuePath, values);
+            return addIsNotNullIfNecessary(c, propertyValuePath);
         } else {
-            Object value = RAnyConverter.getAggregatedRepoObject(getValue(filter));
-            Condition c = createPropertyVsConstantCondition(propertyValuePath, value, filter);
+            Object filterValue = getValue(filter);
+            Object value = RAnyConverter.getAggregatedRepoObject(filterValue);
+            ParameterSource source = ParameterSource.of(filterValue, ParameterSource.Extraction.REPO_VALUE);
+            Condition c = createPropertyVsConstantCondition(propertyValuePath, value, filter, source);
             return addIsNotNullIfNecessary(c, propertyValuePath);
         }
     }
@@ -22,6 +22,7 @@ import com.evolveum.midpoint.repo.sql.data.common.container.Container;
 import com.evolveum.midpoint.repo.sql.query.QueryException;
 import com.evolveum.midpoint.repo.sql.query2.InterpretationContext;
 import com.evolveum.midpoint.repo.sql.query2.definition.JpaEntityDefinition;
+import com.evolveum.midpoint.repo.sql.query2.hqm.ParameterSource;
 import com.evolveum.midpoint.repo.sql.query2.hqm.condition.Condition;
 
 import java.util.ArrayList;
@@ -41,6 +42,7 @@ public class InOidRestriction extends Restriction<InOidFilter> {
     public Condition interpret() throws QueryException {
         String hqlPath = getBaseHqlEntity().getHqlPath() + ".";
         Collection<?> idValues;
+        ParameterSource.Extraction extraction = ParameterSource.Extraction.VALUE;
 
         // TODO check applicability
         if (filter.isConsiderOwner()) {
@@ -52,11 +54,12 @@ public class InOidRestriction extends Restriction<InOidFilter> {
         } else if (Container.class.isAssignableFrom(getBaseHqlEntity().getJpaDefinition().getJpaClass())) {
             hqlPath += "id";        // quite a hack
             idValues = toIntList(filter.getOids());
+            extraction = ParameterSource.Extraction.INT_LIST;
         } else {
             throw new QueryException("InOidRestriction cannot be applied to the entity: " + getBaseHqlEntity());
         }
 
-        return getContext().getHibernateQuery().createIn(hqlPath, idValues);
+        return getContext().getHibernateQuery().createIn(hqlPath, idValues, ParameterSource.of(filter.getOids(), extraction));
     }
 
     private Collection<?> toIntList(Collection<String> ids) {
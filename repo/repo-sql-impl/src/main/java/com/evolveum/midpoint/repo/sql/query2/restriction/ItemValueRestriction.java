@@ -30,6 +30,7 @@ import com.evolveum.midpoint.repo.sql.query2.resolution.HqlDataInstance;
 import com.evolveum.midpoint.repo.sql.query2.InterpretationContext;
 import com.evolveum.midpoint.repo.sql.query2.QueryInterpreter2;
 import com.evolveum.midpoint.repo.sql.query2.definition.JpaEntityDefinition;
+import com.evolveum.midpoint.repo.sql.query2.hqm.ParameterSource;
 import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
 import com.evolveum.midpoint.repo.sql.query2.hqm.condition.AndCondition;
 import com.evolveum.midpoint.repo.sql.query2.hqm.condition.Condition;
@@ -39,6 +40,9 @@ import com.evolveum.midpoint.repo.sql.query2.matcher.Matcher;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Abstract superclass for all value-related filters. There are two major problems solved:
  * 1) mapping from ItemPath to HQL property paths
@@ -74,7 +78,11 @@ public abstract class ItemValueRestriction<T extends ValueFilter> extends ItemRe
 
     public abstract Condition interpretInternal() throws QueryException;
 
-    protected Condition createPropertyVsConstantCondition(String hqlPropertyPath, Object value, ValueFilter filter) throws QueryException {
+    /**
+     * @param source How the value was derived from the value in the filter (used for query plans).
+     */
+    protected Condition createPropertyVsConstantCondition(String hqlPropertyPath, Object value, ValueFilter filter,
+                                                          ParameterSource source) throws QueryException {
         ItemRestrictionOperation operation = findOperationForFilter(filter);
 
         InterpretationContext context = getContext();
@@ -86,7 +94,7 @@ public abstract class ItemValueRestriction<T extends ValueFilter> extends ItemRe
         	matchingRule = filter.getMatchingRule().getLocalPart();
         }
 
-        return matcher.match(context.getHibernateQuery(), operation, hqlPropertyPath, value, matchingRule);
+        return matcher.match(context.getHibernateQuery(), operation, hqlPropertyPath, value, matchingRule, source);
     }
 
     protected ItemRestrictionOperation findOperationForFilter(ValueFilter filter) throws QueryException {
@@ -126,6 +134,27 @@ public abstract class ItemValueRestriction<T extends ValueFilter> extends ItemRe
         }
     }
 
+    /**
+     * Returns true if the filter is an equality test against more than one value, i.e. "property is any of the values".
+     * Such filters are translated to IN conditions (used e.g. to look up many shadows by their identifiers at once).
+     */
+    protected boolean isMultiValuedEquality(PropertyValueFilter filter) {
+        return filter instanceof EqualFilter && filter.getMatchingRule() == null
+                && filter.getValues() != null && filter.getValues().size() > 1;
+    }
+
+    protected List<Object> getValues(PropertyValueFilter filter) throws QueryException {
+        List<Object> values = new ArrayList<>();
+        for (Object val : filter.getValues()) {
+            if (val instanceof PrismPropertyValue) {
+                values.add(((PrismPropertyValue) val).getValue());
+            } else {
+                throw new QueryException("Non-property value in filter: " + filter + ": " + val.getClass());
+            }
+        }
+        return values;
+    }
+
     /**
      * Filter of type NOT(PROPERTY=VALUE) causes problems when there are entities with PROPERTY set to NULL.
      *
@@ -18,17 +18,24 @@ package com.evolveum.midpoint.repo.sql.query2.restriction;
 
 import com.evolveum.midpoint.prism.query.OrgFilter;
 import com.evolveum.midpoint.repo.sql.data.common.other.RReferenceOwner;
+import com.evolveum.midpoint.repo.sql.helpers.OrgHierarchyIndex;
 import com.evolveum.midpoint.repo.sql.query.QueryException;
 import com.evolveum.midpoint.repo.sql.query2.InterpretationContext;
 import com.evolveum.midpoint.repo.sql.query2.definition.JpaEntityDefinition;
+import com.evolveum.midpoint.repo.sql.query2.hqm.ParameterSource;
 import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
 import com.evolveum.midpoint.repo.sql.query2.hqm.condition.Condition;
 
+import java.util.Set;
+
 /**
  * @author lazyman
  */
 public class OrgRestriction extends Restriction<OrgFilter> {
 
+    // max number of OIDs resolved via org hierarchy index put into the query (Oracle allows at most 1000 items in IN clause)
+    private static final int MAX_RESOLVED_OIDS = 1000;
+
     public OrgRestriction(InterpretationContext context, OrgFilter filter, JpaEntityDefinition baseEntityDefinition, Restriction parent) {
         super(context, filter, baseEntityDefinition, parent);
     }
@@ -50,7 +57,12 @@ public class OrgRestriction extends Restriction<OrgFilter> {
             throw new QueryException("No oid specified in organization reference " + filter.getOrgRef().debugDump());
         }
 
-        String orgOidParamName = hibernateQuery.addParameter("orgOid", filter.getOrgRef().getOid());
+        String orgOid = filter.getOrgRef().getOid();
+        OrgHierarchyIndex index = getContext().getInterpreter().getOrgHierarchyIndex();
+        if (index != null && !index.isEnabled()) {
+            index = null;
+        }
+
         String oidQueryText;    // oid in ...
         switch (filter.getScope()) {
             case ONE_LEVEL:
@@ -59,9 +71,15 @@ public class OrgRestriction extends Restriction<OrgFilter> {
                               "from RObjectReference ref " +
                            "where " +
                               "ref.referenceType = " + nameOf(RReferenceOwner.OBJECT_PARENT_ORG) + " and " +
-                              "ref.targetOid = :" + orgOidParamName;
+                              "ref.targetOid = :" + hibernateQuery.addParameter("orgOid", orgOid, ParameterSource.of(orgOid));
                 break;
             case ANCESTORS:
+                // org hierarchy index is used if possible (empty set would need special treatment, so it's left to the database)
+                Set<String> ancestors = index != null ? index.getAncestors(orgOid, MAX_RESOLVED_OIDS) : null;
+                if (ancestors != null && !ancestors.isEmpty()) {
+                    return hibernateQuery.createIn(getBaseHqlEntity().getHqlPath() + ".oid", ancestors);
+                }
+                String orgOidParamName = hibernateQuery.addParameter("orgOid", orgOid, ParameterSource.of(orgOid));
                 oidQueryText =
                         "select c.ancestorOid " +
                             "from ROrgClosure c " +
@@ -71,13 +89,19 @@ public class OrgRestriction extends Restriction<OrgFilter> {
                 break;
             case SUBTREE:
             default:
+                Set<String> descendants = index != null ? index.getDescendants(orgOid, MAX_RESOLVED_OIDS) : null;
+                String targetOidsText;
+                if (descendants != null) {
+                    targetOidsText = ":" + hibernateQuery.addParameter("descendants", descendants);
+                } else {
+                    targetOidsText = "select descendantOid from ROrgClosure where ancestorOid = :" + hibernateQuery.addParameter("orgOid", orgOid, ParameterSource.of(orgOid));
+                }
                 oidQueryText =
                         "select ref.ownerOid " +
                             "from RObjectReference ref " +
                         "where " +
                             "ref.referenceType = " + nameOf(RReferenceOwner.OBJECT_PARENT_ORG) + " and " +
-                            "ref.targetOid in (" +
-                                "select descendantOid from ROrgClosure where ancestorOid = :" + orgOidParamName + ")";
+                            "ref.targetOid in (" + targetOidsText + ")";
         }
         return hibernateQuery.createIn(getBaseHqlEntity().getHqlPath() + ".oid", oidQueryText);
     }
@@ -28,6 +28,7 @@ import com.evolveum.midpoint.repo.sql.query2.InterpretationContext;
 import com.evolveum.midpoint.repo.sql.query2.definition.JpaEntityDefinition;
 import com.evolveum.midpoint.repo.sql.query2.definition.JpaPropertyDefinition;
 import com.evolveum.midpoint.repo.sql.query2.definition.JpaLinkDefinition;
+import com.evolveum.midpoint.repo.sql.query2.hqm.ParameterSource;
 import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
 import com.evolveum.midpoint.repo.sql.query2.hqm.condition.Condition;
 import com.evolveum.midpoint.repo.sql.query2.hqm.condition.OrCondition;
@@ -69,7 +70,9 @@ public class PropertyRestriction extends ItemValueRestriction<PropertyValueFilte
             return createPropertyVsPropertyCondition(propertyValuePath);
         } else {
             Object value = getValueFromFilter(filter);
-            Condition condition = createPropertyVsConstantCondition(propertyValuePath, value, filter);
+            // the source is the original value: conversions done here are repeated when deriving the parameter from it
+            ParameterSource source = ParameterSource.of(getValue(filter));
+            Condition condition = createPropertyVsConstantCondition(propertyValuePath, value, filter, source);
             return addIsNotNullIfNecessary(condition, propertyValuePath);
         }
     }
@@ -26,6 +26,7 @@ import com.evolveum.midpoint.repo.sql.query2.InterpretationContext;
 import com.evolveum.midpoint.repo.sql.query2.definition.JpaEntityDefinition;
 import com.evolveum.midpoint.repo.sql.query2.definition.JpaReferenceDefinition;
 import com.evolveum.midpoint.repo.sql.query2.definition.JpaLinkDefinition;
+import com.evolveum.midpoint.repo.sql.query2.hqm.ParameterSource;
 import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
 import com.evolveum.midpoint.repo.sql.query2.hqm.condition.AndCondition;
 import com.evolveum.midpoint.repo.sql.query2.hqm.condition.Condition;
@@ -82,7 +83,8 @@ public class ReferenceRestriction extends ItemValueRestriction<RefFilter> {
         	refValueTargetType = refValue.getTargetType();
         }
         AndCondition conjunction = hibernateQuery.createAnd();
-        conjunction.add(handleEqOrNull(hibernateQuery, hqlPath + "." + ObjectReference.F_TARGET_OID, refValueOid));
+        conjunction.add(handleEqOrNull(hibernateQuery, hqlPath + "." + ObjectReference.F_TARGET_OID, refValueOid,
+                ParameterSource.of(refValueOid)));
 
         if (refValueOid != null) {
 	        if (refValueRelation == null) {
@@ -92,12 +94,12 @@ public class ReferenceRestriction extends ItemValueRestriction<RefFilter> {
 	        	// Return all relations => no restriction
 	        } else {
 	        	// return references with specific relation
-	            conjunction.add(handleEqOrNull(hibernateQuery, hqlPath + "." + ObjectReference.F_RELATION, RUtil.qnameToString(refValueRelation)));
+	            conjunction.add(handleEqOrNull(hibernateQuery, hqlPath + "." + ObjectReference.F_RELATION, RUtil.qnameToString(refValueRelation), null));
 	        }
 	
 	        if (refValueTargetType != null) {
 	            conjunction.add(handleEqOrNull(hibernateQuery, hqlPath + "." + ObjectReference.F_TYPE,
-	                    ClassMapper.getHQLTypeForQName(refValueTargetType)));
+	                    ClassMapper.getHQLTypeForQName(refValueTargetType), null));
 	        }
         }
 
@@ -107,11 +109,11 @@ public class ReferenceRestriction extends ItemValueRestriction<RefFilter> {
     }
 
 
-    private Condition handleEqOrNull(RootHibernateQuery hibernateQuery, String propertyName, Object value) {
+    private Condition handleEqOrNull(RootHibernateQuery hibernateQuery, String propertyName, Object value, ParameterSource source) {
         if (value == null) {
             return hibernateQuery.createIsNull(propertyName);
         } else {
-            return hibernateQuery.createEq(propertyName, value);
+            return hibernateQuery.createEq(propertyName, value, false, source);
         }
     }
 }
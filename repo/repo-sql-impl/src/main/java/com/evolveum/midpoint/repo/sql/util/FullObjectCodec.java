@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.util;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.util.exception.SystemException;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes and decodes content of the full object column (m_object.fullObject).
+ *
+ * Data written by this codec are self-describing, so the reader doesn't need to know the configuration
+ * used when the row was written. Three layouts are recognized:
+ *
+ * <ol>
+ *     <li>gzip stream (starts with 0x1f 0x8b) - legacy layout written with useZip=true,</li>
+ *     <li>header "MP" + version + language + compression, followed by (possibly compressed) data,</li>
+ *     <li>anything else is plain UTF-8 text - legacy layout written with useZip=false.</li>
+ * </ol>
+ *
+ * Legacy layouts are still written for XML without compression or with gzip, so that the data
+ * stay readable by older midPoint versions. Rows are migrated lazily, i.e. they get the configured
+ * format when they are next written.
+ *
+ * @author agent
+ */
+public class FullObjectCodec {
+
+    private static final byte HEADER_0 = 'M';
+    private static final byte HEADER_1 = 'P';
+    private static final byte HEADER_VERSION = 1;
+    private static final int HEADER_LENGTH = 5;
+
+    private static final int GZIP_MAGIC_0 = 0x1f;
+    private static final int GZIP_MAGIC_1 = 0x8b;
+
+    public enum Format {
+
+        XML(PrismContext.LANG_XML, (byte) 'X'),
+        JSON(PrismContext.LANG_JSON, (byte) 'J');
+
+        private final String language;
+        private final byte code;
+
+        Format(String language, byte code) {
+            this.language = language;
+            this.code = code;
+        }
+
+        public String getLanguage() {
+            return language;
+        }
+
+        static Format fromCode(byte code) {
+            for (Format format : values()) {
+                if (format.code == code) {
+                    return format;
+                }
+            }
+            throw new SystemException("Unknown full object format code: " + code);
+        }
+    }
+
+    public enum Compression {
+
+        NONE((byte) 'N'),
+        GZIP((byte) 'G'),
+        /**
+         * Raw deflate with the fastest compression level. Considerably cheaper than gzip on write,
+         * with slightly worse compression ratio.
+         */
+        DEFLATE((byte) 'D');
+
+        private final byte code;
+
+        Compression(byte code) {
+            this.code = code;
+        }
+
+        static Compression fromCode(byte code) {
+            for (Compression compression : values()) {
+                if (compression.code == code) {
+                    return compression;
+                }
+            }
+            throw new SystemException("Unknown full object compression code: " + code);
+        }
+    }
+
+    private final Format format;
+    private final Compression compression;
+
+    public FullObjectCodec(Format format, Compression compression) {
+        this.format = format;
+        this.compression = compression;
+    }
+
+    /**
+     * @param format format name (xml, json), null or empty means xml
+     * @param compression compression name (none, gzip, deflate), null or empty means gzip/none depending on useZip
+     */
+    public static FullObjectCodec create(String format, String compression, boolean useZip) {
+        Format f = StringUtils.isEmpty(format) ? Format.XML : Format.valueOf(format.toUpperCase());
+        Compression c;
+        if (StringUtils.isEmpty(compression)) {
+            c = useZip ? Compression.GZIP : Compression.NONE;
+        } else {
+            c = Compression.valueOf(compression.toUpperCase());
+        }
+        return new FullObjectCodec(f, c);
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public String getLanguage() {
+        return format.getLanguage();
+    }
+
+    public byte[] encode(String data) {
+        try {
+            if (format == Format.XML && compression != Compression.DEFLATE) {
+                return compress(data, compression, null);
+            }
+            byte[] header = new byte[] { HEADER_0, HEADER_1, HEADER_VERSION, format.code, compression.code };
+            return compress(data, compression, header);
+        } catch (IOException ex) {
+            throw new SystemException("Couldn't save full object, reason: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Returns textual form of the object (XML or JSON). Prism parser recognizes the language automatically.
+     */
+    public static String decode(byte[] array) {
+        try {
+            if (array.length >= 2 && (array[0] & 0xff) == GZIP_MAGIC_0 && (array[1] & 0xff) == GZIP_MAGIC_1) {
+                return decompress(new GZIPInputStream(new ByteArrayInputStream(array)));
+            } else if (hasHeader(array)) {
+                if (array[2] != HEADER_VERSION) {
+                    throw new SystemException("Unsupported full object header version: " + array[2]);
+                }
+                Format.fromCode(array[3]);      // just to check the value
+                ByteArrayInputStream data = new ByteArrayInputStream(array, HEADER_LENGTH, array.length - HEADER_LENGTH);
+                switch (Compression.fromCode(array[4])) {
+                    case NONE:
+                        return decompress(data);
+                    case GZIP:
+                        return decompress(new GZIPInputStream(data));
+                    case DEFLATE:
+                        Inflater inflater = new Inflater(true);
+                        try {
+                            return decompress(new InflaterInputStream(data, inflater));
+                        } finally {
+                            inflater.end();
+                        }
+                    default:
+                        throw new IllegalStateException("Unsupported compression in full object header: " + array[4]);
+                }
+            } else {
+                return new String(array, StandardCharsets.UTF_8);
+            }
+        } catch (IOException ex) {
+            throw new SystemException("Couldn't read data from full object column, reason: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static boolean hasHeader(byte[] array) {
+        return array.length >= HEADER_LENGTH && array[0] == HEADER_0 && array[1] == HEADER_1;
+    }
+
+    private static byte[] compress(String data, Compression compression, byte[] header) throws IOException {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        if (compression == Compression.NONE && header == null) {
+            return bytes;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + HEADER_LENGTH);
+        if (header != null) {
+            out.write(header);
+        }
+        Deflater deflater = null;
+        OutputStream stream;
+        switch (compression) {
+            case NONE:
+                stream = out;
+                break;
+            case GZIP:
+                stream = new GZIPOutputStream(out);
+                break;
+            case DEFLATE:
+                deflater = new Deflater(Deflater.BEST_SPEED, true);
+                stream = new DeflaterOutputStream(out, deflater);
+                break;
+            default:
+                throw new IllegalStateException("Unsupported compression: " + compression);
+        }
+        try {
+            stream.write(bytes);
+            stream.close();
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static String decompress(InputStream in) throws IOException {
+        try {
+            return new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FullObjectCodec{format=" + format + ", compression=" + compression + '}';
+    }
+}
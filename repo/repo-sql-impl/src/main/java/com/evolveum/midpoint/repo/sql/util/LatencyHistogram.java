@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations (in microseconds) with fixed memory footprint.
+ *
+ * Values below 16 are counted exactly; larger values fall into logarithmic buckets, each power of two being
+ * divided into 8 sub-buckets. So the relative error of reported percentiles is at most 12.5%.
+ * Values over 2^45 microseconds (about a year) are counted in the last bucket.
+ *
+ * @author agent
+ */
+public class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MIN_MAGNITUDE = 4;                 // 2^4 = LINEAR_BUCKETS
+    private static final int MAX_MAGNITUDE = 45;
+    private static final int BUCKETS = LINEAR_BUCKETS + (MAX_MAGNITUDE - MIN_MAGNITUDE + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long micros) {
+        counts.incrementAndGet(bucketIndex(micros));
+    }
+
+    /**
+     * Returns approximate value (upper bound of the respective bucket) below which given fraction of recorded
+     * values lies. Returns 0 if nothing was recorded.
+     */
+    public long getPercentile(double fraction) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= threshold && snapshot[i] > 0) {
+                return bucketUpperBound(i);
+            }
+        }
+        return bucketUpperBound(BUCKETS - 1);
+    }
+
+    static int bucketIndex(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return micros < 0 ? 0 : (int) micros;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+        if (magnitude > MAX_MAGNITUDE) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (micros >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (magnitude - MIN_MAGNITUDE) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int magnitude = (index - LINEAR_BUCKETS) / SUB_BUCKETS + MIN_MAGNITUDE;
+        int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -26,6 +26,7 @@ import com.evolveum.midpoint.schema.result.OperationResult;
 import org.apache.commons.lang.StringUtils;
 
 import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.audit.api.AuditResultHandler;
 import com.evolveum.midpoint.audit.api.AuditEventStage;
 import com.evolveum.midpoint.audit.api.AuditService;
 import com.evolveum.midpoint.prism.PrismObject;
@@ -414,6 +415,11 @@ public class DummyAuditService implements AuditService, DebugDumpable {
 		throw new UnsupportedOperationException("Object retrieval not supported");
 	}
 
+	@Override
+	public void listRecordsIterative(String query, Map<String, Object> params, AuditResultHandler handler) {
+		throw new UnsupportedOperationException("Object retrieval not supported");
+	}
+
     @Override
     public long countObjects(String query, Map<String, Object> params){
     	throw new UnsupportedOperationException("Object retrieval not supported");
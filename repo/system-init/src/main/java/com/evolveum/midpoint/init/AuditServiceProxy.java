@@ -17,6 +17,7 @@
 package com.evolveum.midpoint.init;
 
 import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.audit.api.AuditResultHandler;
 import com.evolveum.midpoint.audit.api.AuditService;
 import com.evolveum.midpoint.audit.spi.AuditServiceRegistry;
 import com.evolveum.midpoint.prism.PrismContext;
@@ -236,6 +237,25 @@ public class AuditServiceProxy implements AuditService, AuditServiceRegistry {
 		return result;
 	}
 
+	@Override
+	public void listRecordsIterative(String query, Map<String, Object> params, AuditResultHandler handler) {
+		for (AuditService service : services) {
+			if (service.supportsRetrieval()) {
+				final boolean[] stopped = new boolean[1];
+				service.listRecordsIterative(query, params, record -> {
+					if (!handler.handle(record)) {
+						stopped[0] = true;
+						return false;
+					}
+					return true;
+				});
+				if (stopped[0]) {
+					return;
+				}
+			}
+		}
+	}
+
     @Override
     public long countObjects(String query, Map<String, Object> params) {
         long count = 0;
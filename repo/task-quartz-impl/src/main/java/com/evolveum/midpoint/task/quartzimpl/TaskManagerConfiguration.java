@@ -73,6 +73,7 @@ public class TaskManagerConfiguration {
     private static final String STALLED_TASKS_THRESHOLD_CONFIG_ENTRY = "stalledTasksThreshold";
     private static final String STALLED_TASKS_REPEATED_NOTIFICATION_INTERVAL_CONFIG_ENTRY = "stalledTasksRepeatedNotificationInterval";
     private static final String RUN_NOW_KEEPS_ORIGINAL_SCHEDULE_CONFIG_ENTRY = "runNowKeepsOriginalSchedule";
+    private static final String CACHE_INVALIDATION_INTERVAL_CONFIG_ENTRY = "cacheInvalidationInterval";
 
     private static final String MIDPOINT_NODE_ID_PROPERTY = "midpoint.nodeId";
     private static final String MIDPOINT_JMX_HOST_NAME_PROPERTY = "midpoint.jmxHostName";
@@ -97,6 +98,7 @@ public class TaskManagerConfiguration {
     private static final int STALLED_TASKS_THRESHOLD_DEFAULT = 600;             // if a task does not advance its progress for 10 minutes, it is considered stalled
     private static final int STALLED_TASKS_REPEATED_NOTIFICATION_INTERVAL_DEFAULT = 3600;
     private static final boolean RUN_NOW_KEEPS_ORIGINAL_SCHEDULE_DEFAULT = false;
+    private static final int CACHE_INVALIDATION_INTERVAL_DEFAULT = 1000;
 
     private boolean stopOnInitializationFailure;
     private int threads;
@@ -114,6 +116,7 @@ public class TaskManagerConfiguration {
     private int stalledTasksThreshold;
     private int stalledTasksRepeatedNotificationInterval;
     private boolean runNowKeepsOriginalSchedule;
+    private int cacheInvalidationInterval;                  // in milliseconds; 0 means "do not propagate cache invalidations"
 
     // JMX credentials for connecting to remote nodes
     private String jmxUsername;
@@ -175,7 +178,8 @@ public class TaskManagerConfiguration {
             STALLED_TASKS_CHECK_INTERVAL_CONFIG_ENTRY,
             STALLED_TASKS_THRESHOLD_CONFIG_ENTRY,
             STALLED_TASKS_REPEATED_NOTIFICATION_INTERVAL_CONFIG_ENTRY,
-            RUN_NOW_KEEPS_ORIGINAL_SCHEDULE_CONFIG_ENTRY
+            RUN_NOW_KEEPS_ORIGINAL_SCHEDULE_CONFIG_ENTRY,
+            CACHE_INVALIDATION_INTERVAL_CONFIG_ENTRY
     );
 
     void checkAllowedKeys(MidpointConfiguration masterConfig) throws TaskManagerConfigurationException {
@@ -265,6 +269,7 @@ public class TaskManagerConfiguration {
         stalledTasksThreshold = c.getInt(STALLED_TASKS_THRESHOLD_CONFIG_ENTRY, STALLED_TASKS_THRESHOLD_DEFAULT);
         stalledTasksRepeatedNotificationInterval = c.getInt(STALLED_TASKS_REPEATED_NOTIFICATION_INTERVAL_CONFIG_ENTRY, STALLED_TASKS_REPEATED_NOTIFICATION_INTERVAL_DEFAULT);
         runNowKeepsOriginalSchedule = c.getBoolean(RUN_NOW_KEEPS_ORIGINAL_SCHEDULE_CONFIG_ENTRY, RUN_NOW_KEEPS_ORIGINAL_SCHEDULE_DEFAULT);
+        cacheInvalidationInterval = c.getInt(CACHE_INVALIDATION_INTERVAL_CONFIG_ENTRY, CACHE_INVALIDATION_INTERVAL_DEFAULT);
     }
 
     private static final Map<String,String> schemas = new HashMap<String,String>();
@@ -498,6 +503,10 @@ public class TaskManagerConfiguration {
         return stalledTasksThreshold;
     }
 
+    public int getCacheInvalidationInterval() {
+        return cacheInvalidationInterval;
+    }
+
     public int getStalledTasksRepeatedNotificationInterval() {
         return stalledTasksRepeatedNotificationInterval;
     }
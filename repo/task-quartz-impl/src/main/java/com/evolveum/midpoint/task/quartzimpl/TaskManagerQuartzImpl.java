@@ -26,6 +26,7 @@ import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
 import com.evolveum.midpoint.prism.query.builder.S_AtomicFilterEntry;
 import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SearchResultList;
@@ -34,6 +35,7 @@ import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.result.OperationResultStatus;
 import com.evolveum.midpoint.security.api.SecurityEnforcer;
 import com.evolveum.midpoint.task.api.*;
+import com.evolveum.midpoint.task.quartzimpl.cluster.ClusterCacheListener;
 import com.evolveum.midpoint.task.quartzimpl.cluster.ClusterManager;
 import com.evolveum.midpoint.task.quartzimpl.cluster.ClusterStatusInformation;
 import com.evolveum.midpoint.task.quartzimpl.execution.ExecutionManager;
@@ -158,7 +160,12 @@ public class TaskManagerQuartzImpl implements TaskManager, BeanFactoryAware {
     
 	@Autowired(required=true)
 	private PrismContext prismContext;
-	
+
+    @Autowired(required=false)
+    private CacheDispatcher cacheDispatcher;
+
+    private ClusterCacheListener clusterCacheListener;
+
     private static final transient Trace LOGGER = TraceManager.getTrace(TaskManagerQuartzImpl.class);
 
     // how long to wait after TaskManager shutdown, if using JDBC Job Store (in order to give the jdbc thread pool a chance
@@ -220,6 +227,10 @@ public class TaskManagerQuartzImpl implements TaskManager, BeanFactoryAware {
 
         if (!configuration.isTestMode()) {
             clusterManager.startClusterManagerThread();
+            if (configuration.isClustered() && cacheDispatcher != null) {
+                clusterCacheListener = new ClusterCacheListener(this, cacheDispatcher);
+                clusterCacheListener.start();
+            }
         }
 
         executionManager.startScheduler(getNodeId(), result);
@@ -256,6 +267,11 @@ public class TaskManagerQuartzImpl implements TaskManager, BeanFactoryAware {
         clusterManager.stopClusterManagerThread(0L, result);
         clusterManager.recordNodeShutdown(result);
 
+        if (clusterCacheListener != null) {
+            clusterCacheListener.stop();
+            clusterCacheListener = null;
+        }
+
         if (configuration.isJdbcJobStore() && configuration.isDatabaseIsEmbedded()) {
             LOGGER.trace("Waiting {} msecs to give Quartz thread pool a chance to shutdown.", WAIT_ON_SHUTDOWN);
             try {
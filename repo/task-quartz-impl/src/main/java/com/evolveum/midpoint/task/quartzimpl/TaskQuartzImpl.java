@@ -2803,6 +2803,11 @@ public class TaskQuartzImpl implements Task {
 		environmentalPerformanceInformation.recordProvisioningOperation(resourceOid, resourceName, objectClassName, operation, success, count, duration);
 	}
 
+	@Override
+	public void recordProvisioningThrottling(String resourceOid, String resourceName, QName objectClassName, ProvisioningOperation operation, long waitTime) {
+		environmentalPerformanceInformation.recordProvisioningThrottling(resourceOid, resourceName, objectClassName, operation, waitTime);
+	}
+
 	@Override
 	public void recordNotificationOperation(String transportName, boolean success, long duration) {
 		environmentalPerformanceInformation.recordNotificationOperation(transportName, success, duration);
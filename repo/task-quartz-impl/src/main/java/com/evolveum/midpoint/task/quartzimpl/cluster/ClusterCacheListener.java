@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.task.quartzimpl.cluster;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheListener;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.quartzimpl.TaskManagerQuartzImpl;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.NodeType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Propagates cache invalidations among cluster nodes.
+ *
+ * Changes made on this node (as announced by the cache dispatcher) are collected and periodically sent
+ * in batches to all other running nodes, using the JMX link that is used for remote scheduler management
+ * (connections are kept open between the batches). Invalidations that could not be delivered to a node
+ * (or that were collected while the node was not running) are sent to it with the next batch, until the node
+ * disappears from the cluster.
+ * Changes announced by other nodes are received through {@link ClusterCacheListenerMBean} and passed to
+ * the local cache dispatcher as remote ones (so they are not propagated again).
+ *
+ * Only changes of object types that are kept by long-lived caches on this node are propagated, as announced
+ * by the caches when registering with the cache dispatcher (e.g. configured global cache regions, resources,
+ * sequences whose values are reserved in blocks). Other types (users, shadows, tasks, ...) are changed too often
+ * and caches either do not keep them or validate them by version. All nodes are expected to use the same
+ * cache configuration.
+ *
+ * @author agent
+ */
+public class ClusterCacheListener implements CacheListener, ClusterCacheListenerMBean {
+
+    private static final transient Trace LOGGER = TraceManager.getTrace(ClusterCacheListener.class);
+
+    private static final String CLASS_DOT = ClusterCacheListener.class.getName() + ".";
+    private static final String SEND_INVALIDATIONS = CLASS_DOT + "sendInvalidations";
+
+    private static final Map<String, Class<? extends ObjectType>> TYPES_BY_NAME = new HashMap<>();
+
+    static {
+        for (Class<? extends ObjectType> type : ObjectTypes.getAllObjectTypes()) {
+            TYPES_BY_NAME.put(type.getSimpleName(), type);
+        }
+    }
+
+    private final TaskManagerQuartzImpl taskManager;
+    private final CacheDispatcher cacheDispatcher;
+
+    // OID -> type name; guarded by itself
+    private final Map<String, String> pendingInvalidations = new LinkedHashMap<>();
+
+    // node identifier -> invalidations not delivered to that node (OID -> type name); guarded by "this"
+    private final Map<String, Map<String, String>> undeliveredInvalidations = new HashMap<>();
+
+    private ScheduledExecutorService sender;
+    private ObjectName registeredName;
+
+    public ClusterCacheListener(TaskManagerQuartzImpl taskManager, CacheDispatcher cacheDispatcher) {
+        this.taskManager = taskManager;
+        this.cacheDispatcher = cacheDispatcher;
+    }
+
+    public static ObjectName createObjectName(String nodeIdentifier) throws MalformedObjectNameException {
+        return new ObjectName("midPoint:type=ClusterCacheListener,instance=" + ObjectName.quote(nodeIdentifier));
+    }
+
+    public void start() {
+        int interval = taskManager.getConfiguration().getCacheInvalidationInterval();
+        if (interval <= 0) {
+            LOGGER.info("Propagation of cache invalidations among cluster nodes is switched off.");
+            return;
+        }
+        try {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            registeredName = createObjectName(taskManager.getNodeId());
+            mbeanServer.registerMBean(this, registeredName);
+        } catch (JMException e) {
+            throw new SystemException("Couldn't register cluster cache listener MBean: " + e.getMessage(), e);
+        }
+        cacheDispatcher.registerCacheListener(this);
+
+        sender = Executors.newSingleThreadScheduledExecutor();
+        sender.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sendInvalidations();
+                } catch (Throwable t) {
+                    LoggingUtils.logUnexpectedException(LOGGER, "Couldn't send cache invalidations to other nodes; continuing.", t);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        LOGGER.info("Cluster cache listener started, sending invalidations each {} ms.", interval);
+    }
+
+    public void stop() {
+        if (sender == null) {
+            return;
+        }
+        cacheDispatcher.unregisterCacheListener(this);
+        sender.shutdown();
+        try {
+            sender.awaitTermination(taskManager.getConfiguration().getJmxConnectTimeout(), TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            LOGGER.trace("Waiting for cache invalidation sender shutdown was interrupted.");
+        }
+        sendInvalidations();            // the last (best-effort) chance
+        taskManager.getExecutionManager().getRemoteNodesManager().closeCacheInvalidationConnections();
+        sender = null;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException e) {
+            LoggingUtils.logException(LOGGER, "Couldn't unregister cluster cache listener MBean", e);
+        }
+    }
+
+    @Override
+    public <O extends ObjectType> void invalidateCacheEntry(Class<O> type, String oid, boolean remote) {
+        if (remote) {
+            return;                 // already propagated by the originating node
+        }
+        for (Class<? extends ObjectType> propagatedType : cacheDispatcher.getCachedTypes()) {
+            // type can be a supertype of the real one (e.g. ObjectType in generic delete)
+            if (type.isAssignableFrom(propagatedType)) {
+                synchronized (pendingInvalidations) {
+                    pendingInvalidations.put(oid, type.getSimpleName());
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void invalidate(String[] typeNames, String[] oids) {
+        LOGGER.debug("Received {} cache invalidation(s) from another node", oids.length);
+        for (int i = 0; i < oids.length; i++) {
+            Class<? extends ObjectType> type = TYPES_BY_NAME.get(typeNames[i]);
+            if (type == null) {
+                type = ObjectType.class;        // e.g. generic delete
+            }
+            cacheDispatcher.dispatchRemote(type, oids[i]);
+        }
+    }
+
+    synchronized void sendInvalidations() {
+        Map<String, String> batch;
+        synchronized (pendingInvalidations) {
+            batch = new LinkedHashMap<>(pendingInvalidations);
+            pendingInvalidations.clear();
+        }
+        if (batch.isEmpty() && undeliveredInvalidations.isEmpty()) {
+            return;
+        }
+
+        OperationResult result = new OperationResult(SEND_INVALIDATIONS);
+        ClusterManager clusterManager = taskManager.getClusterManager();
+        List<PrismObject<NodeType>> nodes;
+        try {
+            nodes = clusterManager.getAllNodes(result);
+        } catch (RuntimeException e) {
+            // we will try again next time; newer invalidations of the same objects take precedence
+            synchronized (pendingInvalidations) {
+                for (Map.Entry<String, String> entry : batch.entrySet()) {
+                    if (!pendingInvalidations.containsKey(entry.getKey())) {
+                        pendingInvalidations.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            throw e;
+        }
+        Set<String> existingNodes = new HashSet<>();
+        for (PrismObject<NodeType> nodeObject : nodes) {
+            if (clusterManager.isCurrentNode(nodeObject)) {
+                continue;
+            }
+            NodeType node = nodeObject.asObjectable();
+            existingNodes.add(node.getNodeIdentifier());
+            Map<String, String> undelivered = undeliveredInvalidations.get(node.getNodeIdentifier());
+            if (!clusterManager.isUp(node)) {
+                // the node may be only temporarily unavailable (e.g. it missed a heartbeat)
+                if (undelivered == null && !batch.isEmpty()) {
+                    undelivered = new LinkedHashMap<>();
+                    undeliveredInvalidations.put(node.getNodeIdentifier(), undelivered);
+                }
+                if (undelivered != null) {
+                    undelivered.putAll(batch);
+                }
+                continue;
+            }
+            Map<String, String> invalidations = new LinkedHashMap<>();
+            if (undelivered != null) {
+                invalidations.putAll(undelivered);
+            }
+            invalidations.putAll(batch);
+            if (invalidations.isEmpty()) {
+                continue;
+            }
+            LOGGER.trace("Sending {} cache invalidation(s) to node {}", invalidations.size(), node.getNodeIdentifier());
+            boolean delivered = taskManager.getExecutionManager().getRemoteNodesManager().sendCacheInvalidations(node,
+                    invalidations.values().toArray(new String[0]), invalidations.keySet().toArray(new String[0]), result);
+            if (delivered) {
+                undeliveredInvalidations.remove(node.getNodeIdentifier());
+            } else {
+                undeliveredInvalidations.put(node.getNodeIdentifier(), invalidations);
+            }
+        }
+        // nodes that were removed from the cluster will start with empty caches
+        undeliveredInvalidations.keySet().retainAll(existingNodes);
+    }
+
+    synchronized Map<String, Map<String, String>> getUndeliveredInvalidations() {
+        return new HashMap<>(undeliveredInvalidations);
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.task.quartzimpl.cluster;
+
+/**
+ * JMX interface through which other cluster nodes tell us about objects they have changed.
+ *
+ * @author agent
+ */
+public interface ClusterCacheListenerMBean {
+
+    /**
+     * @param typeNames simple names of object type classes (e.g. RoleType), parallel to oids
+     * @param oids OIDs of changed objects
+     */
+    void invalidate(String[] typeNames, String[] oids);
+}
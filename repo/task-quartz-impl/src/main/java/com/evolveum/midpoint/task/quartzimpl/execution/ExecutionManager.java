@@ -437,6 +437,10 @@ public class ExecutionManager {
         return quartzScheduler;
     }
 
+    public RemoteNodesManager getRemoteNodesManager() {
+        return remoteNodesManager;
+    }
+
     private boolean isCurrentNode(String nodeIdentifier) {
         return taskManager.getClusterManager().isCurrentNode(nodeIdentifier);
     }
@@ -22,6 +22,8 @@ import com.evolveum.midpoint.schema.result.OperationResultStatus;
 import com.evolveum.midpoint.task.quartzimpl.cluster.ClusterStatusInformation;
 import com.evolveum.midpoint.task.quartzimpl.TaskManagerConfiguration;
 import com.evolveum.midpoint.task.quartzimpl.TaskManagerQuartzImpl;
+import com.evolveum.midpoint.task.quartzimpl.cluster.ClusterCacheListener;
+import com.evolveum.midpoint.task.quartzimpl.cluster.ClusterCacheListenerMBean;
 import com.evolveum.midpoint.task.quartzimpl.cluster.ClusterManager;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.logging.LoggingUtils;
@@ -48,12 +50,14 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Manages remote nodes. Concerned mainly with
  * - stopping threads and querying their state,
- * - starting/stopping scheduler and querying its state.
+ * - starting/stopping scheduler and querying its state,
+ * - propagating cache invalidations.
  *
  * @author Pavol Mederly
  */
@@ -64,6 +68,9 @@ public class RemoteNodesManager {
 
     private TaskManagerQuartzImpl taskManager;
 
+    // connections used to send cache invalidations; address -> connector
+    private final Map<String, JMXConnector> cacheInvalidationConnectors = new ConcurrentHashMap<>();
+
     public RemoteNodesManager(TaskManagerQuartzImpl taskManager) {
         this.taskManager = taskManager;
     }
@@ -291,6 +298,63 @@ public class RemoteNodesManager {
 
     }
 
+    /**
+     * Sends cache invalidations to a remote node. The JMX connection is kept open for the next invalidations,
+     * as they are sent to each node every few seconds; it is closed (and re-opened next time) on any failure.
+     *
+     * @return false if the invalidations could not be delivered, so they should be sent again later
+     */
+    public boolean sendCacheInvalidations(NodeType node, String[] typeNames, String[] oids, OperationResult parentResult) {
+
+        OperationResult result = parentResult.createMinorSubresult(RemoteNodesManager.class.getName() + ".sendCacheInvalidations");
+        result.addParam("node", node.getNodeIdentifier());
+        result.addParam("count", oids.length);
+
+        String nodeName = node.getNodeIdentifier();
+        String address = node.getHostname() + ":" + node.getJmxPort();
+
+        try {
+            JMXConnector connector = cacheInvalidationConnectors.get(address);
+            if (connector == null) {
+                connector = connectViaJmx(address);
+                cacheInvalidationConnectors.put(address, connector);
+            }
+            MBeanServerConnection mbsc = connector.getMBeanServerConnection();
+            ObjectName mbeanName = ClusterCacheListener.createObjectName(nodeName);
+            if (mbsc.isRegistered(mbeanName)) {
+                ClusterCacheListenerMBean mbeanProxy = JMX.newMBeanProxy(mbsc, mbeanName, ClusterCacheListenerMBean.class);
+                mbeanProxy.invalidate(typeNames, oids);
+                result.recordSuccess();
+            } else {
+                // the node does not propagate invalidations (it is switched off there), so there is no point in repeating
+                result.recordWarning("Cannot send cache invalidations to node " + nodeName + " at " + address + " because the JMX object for cache invalidation cannot be found on that node.");
+            }
+            return true;
+        } catch (Exception e) {
+            LoggingUtils.logException(LOGGER, "Cannot send cache invalidations to remote node {} at {}", e, nodeName, address);
+            result.recordWarning("Cannot send cache invalidations to remote node " + nodeName + " at " + address + ": " + e.getMessage(), e);
+            closeCacheInvalidationConnection(address);
+            return false;
+        }
+    }
+
+    public void closeCacheInvalidationConnections() {
+        for (String address : new ArrayList<>(cacheInvalidationConnectors.keySet())) {
+            closeCacheInvalidationConnection(address);
+        }
+    }
+
+    private void closeCacheInvalidationConnection(String address) {
+        JMXConnector connector = cacheInvalidationConnectors.remove(address);
+        if (connector != null) {
+            try {
+                connector.close();
+            } catch (IOException e) {
+                LoggingUtils.logException(LOGGER, "Cannot close JMX connection to {}", e, address);
+            }
+        }
+    }
+
     private QuartzSchedulerMBean getMBeanProxy(String nodeName, MBeanServerConnection mbsc) throws MalformedObjectNameException {
         String mbeanNameAsString = "quartz:type=QuartzScheduler,name=midPointScheduler,instance=" + nodeName;
         ObjectName mbeanName = new ObjectName(mbeanNameAsString);
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.task.quartzimpl.cluster;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.quartzimpl.TaskManagerQuartzImpl;
+import com.evolveum.midpoint.task.quartzimpl.execution.ExecutionManager;
+import com.evolveum.midpoint.task.quartzimpl.execution.RemoteNodesManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.NodeType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SequenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Tests batching and redelivery of cache invalidations among cluster nodes. Cluster and remote nodes
+ * managers are mocked, so no JMX communication takes place.
+ *
+ * @author agent
+ */
+public class TestClusterCacheListener {
+
+    private static final String NODE_CURRENT = "current";
+    private static final String NODE_1 = "node1";
+    private static final String NODE_2 = "node2";
+
+    private static final String OID_1 = "10000000-0000-0000-0000-000000000001";
+    private static final String OID_2 = "10000000-0000-0000-0000-000000000002";
+    private static final String OID_3 = "10000000-0000-0000-0000-000000000003";
+
+    private ClusterManager clusterManager;
+    private CacheDispatcher cacheDispatcher;
+    private ClusterCacheListener listener;
+
+    private final List<PrismObject<NodeType>> nodes = new ArrayList<>();
+    private final Set<String> nodesDown = new HashSet<>();
+    private final Set<String> nodesUnreachable = new HashSet<>();
+    private final Map<String, List<Set<String>>> sent = new HashMap<>();        // node -> OIDs sent in each call
+    private final Set<Class<? extends ObjectType>> cachedTypes = new HashSet<>();
+
+    @BeforeMethod
+    public void setUp() {
+        nodes.clear();
+        nodesDown.clear();
+        nodesUnreachable.clear();
+        sent.clear();
+        cachedTypes.clear();
+        cachedTypes.addAll(Arrays.asList(RoleType.class, SequenceType.class));
+
+        TaskManagerQuartzImpl taskManager = mock(TaskManagerQuartzImpl.class);
+        clusterManager = mock(ClusterManager.class);
+        ExecutionManager executionManager = mock(ExecutionManager.class);
+        RemoteNodesManager remoteNodesManager = mock(RemoteNodesManager.class);
+        cacheDispatcher = mock(CacheDispatcher.class);
+
+        when(cacheDispatcher.getCachedTypes()).thenReturn(cachedTypes);
+        when(taskManager.getClusterManager()).thenReturn(clusterManager);
+        when(taskManager.getExecutionManager()).thenReturn(executionManager);
+        when(executionManager.getRemoteNodesManager()).thenReturn(remoteNodesManager);
+        when(clusterManager.getAllNodes(any(OperationResult.class))).thenReturn(nodes);
+        when(clusterManager.isCurrentNode(any(PrismObject.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                PrismObject<NodeType> node = (PrismObject<NodeType>) invocation.getArguments()[0];
+                return NODE_CURRENT.equals(node.asObjectable().getNodeIdentifier());
+            }
+        });
+        when(clusterManager.isUp(any(NodeType.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                NodeType node = (NodeType) invocation.getArguments()[0];
+                return !nodesDown.contains(node.getNodeIdentifier());
+            }
+        });
+        when(remoteNodesManager.sendCacheInvalidations(any(NodeType.class), any(String[].class), any(String[].class),
+                any(OperationResult.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                String identifier = ((NodeType) invocation.getArguments()[0]).getNodeIdentifier();
+                String[] oids = (String[]) invocation.getArguments()[2];
+                List<Set<String>> calls = sent.get(identifier);
+                if (calls == null) {
+                    calls = new ArrayList<>();
+                    sent.put(identifier, calls);
+                }
+                calls.add(new HashSet<>(Arrays.asList(oids)));
+                return !nodesUnreachable.contains(identifier);
+            }
+        });
+
+        listener = new ClusterCacheListener(taskManager, cacheDispatcher);
+    }
+
+    @Test
+    public void test100OnlyLocalChangesOfPropagatedTypes() {
+        addNodes(NODE_CURRENT, NODE_1);
+
+        listener.invalidateCacheEntry(RoleType.class, OID_1, false);
+        listener.invalidateCacheEntry(UserType.class, OID_2, false);            // not propagated
+        listener.invalidateCacheEntry(RoleType.class, OID_3, true);             // came from another node
+        listener.sendInvalidations();
+
+        assertNull("Invalidations were sent to the current node", sent.get(NODE_CURRENT));
+        assertSent(NODE_1, 0, OID_1);
+        assertEquals("Wrong # of calls", 1, sent.get(NODE_1).size());
+
+        // nothing new, nothing sent
+        listener.sendInvalidations();
+        assertEquals("Empty batch was sent", 1, sent.get(NODE_1).size());
+    }
+
+    @Test
+    public void test110GenericType() {
+        addNodes(NODE_CURRENT, NODE_1);
+
+        listener.invalidateCacheEntry(ObjectType.class, OID_1, false);          // e.g. generic delete
+        listener.sendInvalidations();
+
+        assertSent(NODE_1, 0, OID_1);
+    }
+
+    @Test
+    public void test120Sequence() {
+        addNodes(NODE_CURRENT, NODE_1);
+
+        listener.invalidateCacheEntry(SequenceType.class, OID_1, false);       // values reserved by other nodes
+        listener.sendInvalidations();
+
+        assertSent(NODE_1, 0, OID_1);
+
+        listener.invalidate(new String[] { "SequenceType" }, new String[] { OID_1 });
+        verify(cacheDispatcher).dispatchRemote(SequenceType.class, OID_1);
+    }
+
+    @Test
+    public void test130TypesCachedOnThisNode() {
+        addNodes(NODE_CURRENT, NODE_1);
+
+        listener.invalidateCacheEntry(OrgType.class, OID_1, false);            // no cache keeps orgs
+        cachedTypes.add(OrgType.class);                                         // e.g. org hierarchy index registered
+        listener.invalidateCacheEntry(OrgType.class, OID_2, false);
+        listener.sendInvalidations();
+
+        assertSent(NODE_1, 0, OID_2);
+    }
+
+    @Test
+    public void test200RedeliveryAfterFailure() {
+        addNodes(NODE_CURRENT, NODE_1, NODE_2);
+        nodesUnreachable.add(NODE_1);
+
+        listener.invalidateCacheEntry(RoleType.class, OID_1, false);
+        listener.sendInvalidations();
+
+        assertSent(NODE_1, 0, OID_1);
+        assertSent(NODE_2, 0, OID_1);
+        assertEquals("Wrong undelivered invalidations", new HashSet<>(Arrays.asList(NODE_1)),
+                listener.getUndeliveredInvalidations().keySet());
+
+        // undelivered ones are resent even if there is nothing new
+        listener.sendInvalidations();
+        assertSent(NODE_1, 1, OID_1);
+        assertEquals("Delivered invalidations were sent again", 1, sent.get(NODE_2).size());
+
+        nodesUnreachable.clear();
+        listener.invalidateCacheEntry(RoleType.class, OID_2, false);
+        listener.sendInvalidations();
+
+        assertSent(NODE_1, 2, OID_1, OID_2);
+        assertSent(NODE_2, 1, OID_2);
+        assertTrue("Undelivered invalidations were not cleared", listener.getUndeliveredInvalidations().isEmpty());
+    }
+
+    @Test
+    public void test210NodeDown() {
+        addNodes(NODE_CURRENT, NODE_1);
+        nodesDown.add(NODE_1);
+
+        listener.invalidateCacheEntry(RoleType.class, OID_1, false);
+        listener.sendInvalidations();
+        listener.invalidateCacheEntry(RoleType.class, OID_2, false);
+        listener.sendInvalidations();
+
+        assertNull("Invalidations were sent to a node that is down", sent.get(NODE_1));
+        assertEquals("Wrong # of undelivered invalidations", 2,
+                listener.getUndeliveredInvalidations().get(NODE_1).size());
+
+        nodesDown.clear();
+        listener.sendInvalidations();
+
+        assertSent(NODE_1, 0, OID_1, OID_2);
+        assertTrue("Undelivered invalidations were not cleared", listener.getUndeliveredInvalidations().isEmpty());
+    }
+
+    @Test
+    public void test220NodeRemoved() {
+        addNodes(NODE_CURRENT, NODE_1);
+        nodesUnreachable.add(NODE_1);
+
+        listener.invalidateCacheEntry(RoleType.class, OID_1, false);
+        listener.sendInvalidations();
+        assertFalse("No undelivered invalidations", listener.getUndeliveredInvalidations().isEmpty());
+
+        nodes.clear();
+        addNodes(NODE_CURRENT);
+        listener.sendInvalidations();
+
+        assertTrue("Invalidations for removed node were kept", listener.getUndeliveredInvalidations().isEmpty());
+        assertEquals("Invalidations were sent to removed node", 1, sent.get(NODE_1).size());
+    }
+
+    @Test
+    public void test230NodeListingFails() {
+        addNodes(NODE_CURRENT, NODE_1);
+        when(clusterManager.getAllNodes(any(OperationResult.class))).thenThrow(new IllegalStateException("repository down"));
+
+        listener.invalidateCacheEntry(RoleType.class, OID_1, false);
+        try {
+            listener.sendInvalidations();
+            throw new AssertionError("Exception was not propagated");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        doReturn(nodes).when(clusterManager).getAllNodes(any(OperationResult.class));
+        listener.sendInvalidations();
+        assertSent(NODE_1, 0, OID_1);
+    }
+
+    @Test
+    public void test300ReceiveInvalidations() {
+        listener.invalidate(new String[] { "RoleType", "ObjectType", "UnknownType" }, new String[] { OID_1, OID_2, OID_3 });
+
+        verify(cacheDispatcher).dispatchRemote(RoleType.class, OID_1);
+        verify(cacheDispatcher).dispatchRemote(ObjectType.class, OID_2);
+        verify(cacheDispatcher).dispatchRemote(ObjectType.class, OID_3);
+    }
+
+    private void addNodes(String... identifiers) {
+        for (String identifier : identifiers) {
+            NodeType node = new NodeType();
+            node.setNodeIdentifier(identifier);
+            PrismObject<NodeType> nodeObject = mock(PrismObject.class);
+            when(nodeObject.asObjectable()).thenReturn(node);
+            nodes.add(nodeObject);
+        }
+    }
+
+    private void assertSent(String node, int call, String... oids) {
+        List<Set<String>> calls = sent.get(node);
+        assertTrue("Call #" + call + " to " + node + " was not made", calls != null && calls.size() > call);
+        assertEquals("Wrong invalidations sent to " + node + " in call #" + call,
+                new HashSet<>(Arrays.asList(oids)), calls.get(call));
+    }
+}